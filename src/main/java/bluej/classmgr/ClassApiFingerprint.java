@@ -0,0 +1,404 @@
+/*
+ This file is part of the BlueJ program.
+ Copyright (C) 2019  Michael Kolling and John Rosenberg
+
+ This program is free software; you can redistribute it and/or
+ modify it under the terms of the GNU General Public License
+ as published by the Free Software Foundation; either version 2
+ of the License, or (at your option) any later version.
+
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with this program; if not, write to the Free Software
+ Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+
+ This file is subject to the Classpath exception as provided in the
+ LICENSE.txt file that accompanied this code.
+ */
+package bluej.classmgr;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * A fingerprint of the API which a compiled class presents to other classes, read
+ * from its class file. Two compilations of a class have the same fingerprint unless
+ * something which could affect the compilation of another class has changed: the
+ * class modifiers, superclass, interfaces and generic signature, and the signatures,
+ * modifiers, thrown exceptions and constant values of its non-private fields, methods
+ * and member classes. Package-private members are included, since the classes which
+ * use them live in the same package. Method bodies, private and synthetic members do
+ * not contribute.
+ * 
+ * <p>The names of the classes which the class file refers to are collected as well.
+ */
+public class ClassApiFingerprint
+{
+    private static final int CONSTANT_Utf8 = 1;
+    private static final int CONSTANT_Integer = 3;
+    private static final int CONSTANT_Float = 4;
+    private static final int CONSTANT_Long = 5;
+    private static final int CONSTANT_Double = 6;
+    private static final int CONSTANT_Class = 7;
+    private static final int CONSTANT_String = 8;
+    private static final int CONSTANT_NameAndType = 12;
+    private static final int CONSTANT_MethodHandle = 15;
+    private static final int CONSTANT_MethodType = 16;
+    
+    private static final int ACC_PRIVATE = 0x0002;
+    private static final int ACC_SYNTHETIC = 0x1000;
+    
+    // Modifiers which only affect the implementation of a member, not its use:
+    // volatile/transient for fields, synchronized/native/strictfp for methods.
+    private static final int FIELD_IMPL_FLAGS = 0x0040 | 0x0080;
+    private static final int METHOD_IMPL_FLAGS = 0x0020 | 0x0100 | 0x0800;
+    
+    /** Matches the class types in a field or method descriptor */
+    private static final Pattern DESCRIPTOR_CLASS = Pattern.compile("L([^;]+);");
+
+    private final String fingerprint;
+    private final Set<String> referencedClasses;
+    
+    private ClassApiFingerprint(String fingerprint, Set<String> referencedClasses)
+    {
+        this.fingerprint = fingerprint;
+        this.referencedClasses = referencedClasses;
+    }
+    
+    /**
+     * Read the fingerprint of the class in the given class file. Member classes
+     * are read from the class files alongside it.
+     * 
+     * @throws IOException  if a class file cannot be read or is not a valid class file
+     */
+    public static ClassApiFingerprint read(File classFile) throws IOException
+    {
+        List<String> api = new ArrayList<>();
+        Set<String> referenced = new TreeSet<>();
+        readClass(classFile, api, referenced);
+        
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-1");
+            for (String line : api) {
+                digest.update(line.getBytes(StandardCharsets.UTF_8));
+                digest.update((byte) '\n');
+            }
+            StringBuilder hex = new StringBuilder();
+            for (byte b : digest.digest()) {
+                hex.append(String.format("%02x", b & 0xff));
+            }
+            return new ClassApiFingerprint(hex.toString(), Collections.unmodifiableSet(referenced));
+        }
+        catch (NoSuchAlgorithmException nsae) {
+            // Every Java platform is required to support SHA-1
+            throw new IllegalStateException(nsae);
+        }
+    }
+    
+    /**
+     * Get the fingerprint, as a string of hex digits.
+     */
+    public String getFingerprint()
+    {
+        return fingerprint;
+    }
+    
+    /**
+     * Get the internal names (such as "java/lang/String") of the classes referred
+     * to by the class file and the class files of its member classes. Member
+     * classes of other classes are reported as themselves, not as their top-level
+     * class.
+     */
+    public Set<String> getReferencedClasses()
+    {
+        return referencedClasses;
+    }
+    
+    /**
+     * Read a single class file, adding a line to the api list for each part of its API
+     * (the lines for each class are sorted, so that the order of declarations does not
+     * matter), and adding the names of the classes it refers to to the referenced set.
+     */
+    private static void readClass(File classFile, List<String> api, Set<String> referenced)
+        throws IOException
+    {
+        List<File> memberClassFiles = new ArrayList<>();
+        List<String> lines = new ArrayList<>();
+        
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(classFile)))) {
+            if (in.readInt() != 0xCAFEBABE) {
+                throw new IOException("Not a class file: " + classFile);
+            }
+            in.readUnsignedShort(); // minor version
+            in.readUnsignedShort(); // major version
+            
+            ConstantPool pool = new ConstantPool(in);
+            referenced.addAll(pool.getReferencedClasses());
+            
+            int classFlags = in.readUnsignedShort();
+            String thisClass = pool.getClassName(in.readUnsignedShort());
+            int superIndex = in.readUnsignedShort();
+            String superClass = superIndex == 0 ? "" : pool.getClassName(superIndex);
+            lines.add("class " + thisClass + " " + Integer.toHexString(classFlags) + " extends " + superClass);
+            
+            int interfaceCount = in.readUnsignedShort();
+            for (int i = 0; i < interfaceCount; i++) {
+                lines.add("implements " + pool.getClassName(in.readUnsignedShort()));
+            }
+            
+            int fieldCount = in.readUnsignedShort();
+            for (int i = 0; i < fieldCount; i++) {
+                String field = readMember(in, pool, "field ", FIELD_IMPL_FLAGS, referenced);
+                if (field != null) {
+                    lines.add(field);
+                }
+            }
+            
+            int methodCount = in.readUnsignedShort();
+            for (int i = 0; i < methodCount; i++) {
+                String method = readMember(in, pool, "method ", METHOD_IMPL_FLAGS, referenced);
+                if (method != null) {
+                    lines.add(method);
+                }
+            }
+            
+            int attributeCount = in.readUnsignedShort();
+            for (int i = 0; i < attributeCount; i++) {
+                String attributeName = pool.getUtf8(in.readUnsignedShort());
+                int length = in.readInt();
+                if (attributeName.equals("Signature")) {
+                    lines.add("signature " + pool.getUtf8(in.readUnsignedShort()));
+                }
+                else if (attributeName.equals("InnerClasses")) {
+                    int classCount = in.readUnsignedShort();
+                    for (int j = 0; j < classCount; j++) {
+                        int innerIndex = in.readUnsignedShort();
+                        int outerIndex = in.readUnsignedShort();
+                        in.readUnsignedShort(); // simple name
+                        int innerFlags = in.readUnsignedShort();
+                        // Only member classes which can be seen from outside the class
+                        // are part of its API; local and anonymous classes have no outer class.
+                        if (outerIndex != 0 && pool.getClassName(outerIndex).equals(thisClass)
+                                && (innerFlags & (ACC_PRIVATE | ACC_SYNTHETIC)) == 0) {
+                            String innerClass = pool.getClassName(innerIndex);
+                            lines.add("member " + innerClass + " " + Integer.toHexString(innerFlags));
+                            String fileName = innerClass.substring(innerClass.lastIndexOf('/') + 1) + ".class";
+                            memberClassFiles.add(new File(classFile.getParentFile(), fileName));
+                        }
+                    }
+                }
+                else {
+                    in.skipBytes(length);
+                }
+            }
+        }
+        
+        Collections.sort(lines);
+        api.addAll(lines);
+        for (File memberClassFile : memberClassFiles) {
+            readClass(memberClassFile, api, referenced);
+        }
+    }
+    
+    /**
+     * Read a field or method, and return the line describing it, or null if it is not
+     * part of the API. The implFlags are masked out of the modifiers.
+     */
+    private static String readMember(DataInputStream in, ConstantPool pool, String kind, int implFlags,
+            Set<String> referenced) throws IOException
+    {
+        int flags = in.readUnsignedShort();
+        String name = pool.getUtf8(in.readUnsignedShort());
+        String descriptor = pool.getUtf8(in.readUnsignedShort());
+        addDescriptorClasses(descriptor, referenced);
+        
+        StringBuilder line = new StringBuilder(kind);
+        line.append(name).append(' ').append(descriptor).append(' ');
+        line.append(Integer.toHexString(flags & ~implFlags));
+        
+        List<String> exceptions = new ArrayList<>();
+        int attributeCount = in.readUnsignedShort();
+        for (int i = 0; i < attributeCount; i++) {
+            String attributeName = pool.getUtf8(in.readUnsignedShort());
+            int length = in.readInt();
+            if (attributeName.equals("Signature")) {
+                line.append(" signature ").append(pool.getUtf8(in.readUnsignedShort()));
+            }
+            else if (attributeName.equals("ConstantValue")) {
+                line.append(" = ").append(pool.getConstant(in.readUnsignedShort()));
+            }
+            else if (attributeName.equals("Exceptions")) {
+                int exceptionCount = in.readUnsignedShort();
+                for (int j = 0; j < exceptionCount; j++) {
+                    exceptions.add(pool.getClassName(in.readUnsignedShort()));
+                }
+            }
+            else {
+                in.skipBytes(length);
+            }
+        }
+        
+        Collections.sort(exceptions);
+        for (String exception : exceptions) {
+            line.append(" throws ").append(exception);
+        }
+        
+        if ((flags & (ACC_PRIVATE | ACC_SYNTHETIC)) != 0) {
+            return null;
+        }
+        return line.toString();
+    }
+    
+    /**
+     * Add the classes named in a field or method descriptor to the given set.
+     */
+    private static void addDescriptorClasses(String descriptor, Set<String> referenced)
+    {
+        Matcher m = DESCRIPTOR_CLASS.matcher(descriptor);
+        while (m.find()) {
+            referenced.add(m.group(1));
+        }
+    }
+    
+    /**
+     * The constant pool of a class file. Only the entry types needed to describe
+     * the API of the class are kept; the others are skipped over.
+     */
+    private static class ConstantPool
+    {
+        private final int[] tags;
+        private final Object[] values;
+        private final Set<String> referencedClasses = new TreeSet<>();
+        
+        ConstantPool(DataInputStream in) throws IOException
+        {
+            int count = in.readUnsignedShort();
+            tags = new int[count];
+            values = new Object[count];
+            
+            List<Integer> descriptorIndexes = new ArrayList<>();
+            for (int i = 1; i < count; i++) {
+                int tag = in.readUnsignedByte();
+                tags[i] = tag;
+                switch (tag) {
+                case CONSTANT_Utf8:
+                    values[i] = in.readUTF();
+                    break;
+                case CONSTANT_Integer:
+                    values[i] = in.readInt();
+                    break;
+                case CONSTANT_Float:
+                    values[i] = in.readFloat();
+                    break;
+                case CONSTANT_Long:
+                    values[i] = in.readLong();
+                    i++; // takes two entries
+                    break;
+                case CONSTANT_Double:
+                    values[i] = in.readDouble();
+                    i++; // takes two entries
+                    break;
+                case CONSTANT_Class:
+                case CONSTANT_String:
+                    values[i] = in.readUnsignedShort();
+                    break;
+                case CONSTANT_MethodType:
+                    descriptorIndexes.add(in.readUnsignedShort());
+                    break;
+                case CONSTANT_NameAndType:
+                    in.readUnsignedShort(); // name
+                    descriptorIndexes.add(in.readUnsignedShort());
+                    break;
+                case CONSTANT_MethodHandle:
+                    in.skipBytes(3);
+                    break;
+                case 19: // Module
+                case 20: // Package
+                    in.skipBytes(2);
+                    break;
+                case 9: // Fieldref
+                case 10: // Methodref
+                case 11: // InterfaceMethodref
+                case 17: // Dynamic
+                case 18: // InvokeDynamic
+                    in.skipBytes(4);
+                    break;
+                default:
+                    throw new IOException("Unknown constant pool tag " + tag);
+                }
+            }
+            
+            for (int i = 1; i < count; i++) {
+                if (tags[i] == CONSTANT_Class) {
+                    String name = getClassName(i);
+                    if (name.startsWith("[")) {
+                        addDescriptorClasses(name, referencedClasses);
+                    }
+                    else {
+                        referencedClasses.add(name);
+                    }
+                }
+            }
+            for (int descriptorIndex : descriptorIndexes) {
+                addDescriptorClasses(getUtf8(descriptorIndex), referencedClasses);
+            }
+        }
+        
+        Set<String> getReferencedClasses()
+        {
+            return referencedClasses;
+        }
+        
+        String getUtf8(int index) throws IOException
+        {
+            return (String) getEntry(index, CONSTANT_Utf8);
+        }
+        
+        String getClassName(int index) throws IOException
+        {
+            return getUtf8((Integer) getEntry(index, CONSTANT_Class));
+        }
+        
+        /**
+         * Get the value of a constant (the target of a ConstantValue attribute) as a string.
+         */
+        String getConstant(int index) throws IOException
+        {
+            if (index <= 0 || index >= tags.length) {
+                throw new IOException("Bad constant pool index " + index);
+            }
+            if (tags[index] == CONSTANT_String) {
+                return "\"" + getUtf8((Integer) values[index]) + "\"";
+            }
+            if (values[index] == null || tags[index] == CONSTANT_Class) {
+                throw new IOException("Bad constant value at index " + index);
+            }
+            return values[index].toString();
+        }
+        
+        private Object getEntry(int index, int tag) throws IOException
+        {
+            if (index <= 0 || index >= tags.length || tags[index] != tag) {
+                throw new IOException("Bad constant pool index " + index);
+            }
+            return values[index];
+        }
+    }
+}
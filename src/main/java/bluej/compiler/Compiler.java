@@ -37,6 +37,8 @@ import java.util.List;
 abstract class Compiler
 {
     public static final String COMPILER_OPTIONS = "bluej.compiler.options";
+    /** The number of compiler threads (and so, of compilations which may run at once) */
+    public static final String COMPILER_THREADS = "bluej.compiler.threads";
     
     private File destDir;
     private File[] classPath;
@@ -1,6 +1,6 @@
 /*
  This file is part of the BlueJ program. 
- Copyright (C) 1999-2009,2010,2011,2012,2013,2014,2015,2016  Michael Kolling and John Rosenberg
+ Copyright (C) 1999-2009,2010,2011,2012,2013,2014,2015,2016,2019  Michael Kolling and John Rosenberg
 
  This program is free software; you can redistribute it and/or 
  modify it under the terms of the GNU General Public License 
@@ -30,10 +30,8 @@ import java.io.File;
 import java.io.IOException;
 import java.net.URI;
 import java.nio.charset.Charset;
-import java.nio.file.Files;
 import java.util.ArrayList;
 import java.util.Arrays;
-import java.util.Collections;
 import java.util.List;
 import java.util.concurrent.atomic.AtomicInteger;
 
@@ -178,30 +176,14 @@ public class CompilerAPICompiler extends Compiler
         
         try
         {  
-            //setup the filemanager
-            StandardJavaFileManager sjfm = jc.getStandardFileManager(diagListener, null, fileCharset);
-            List<File> pathList = new ArrayList<File>();
-            List<File> outputList = new ArrayList<File>();
-            outputList.add(getDestDir());
-            Collections.addAll(pathList, getClassPath());
+            //get a file manager (reusing one if possible, since it will have the
+            //class path jars open already)
+            FileManagerCache.CachedFileManager cachedFileManager = FileManagerCache.take(jc, diagListener,
+                    fileCharset, getDestDir(), getClassPath(), getBootClassPath(), userOptions);
+            StandardJavaFileManager sjfm = cachedFileManager.getFileManager();
             
-            // In BlueJ, the destination directory and the source path are
-            // always the same
-            sjfm.setLocation(StandardLocation.SOURCE_PATH, outputList);
-            sjfm.setLocation(StandardLocation.CLASS_PATH, pathList);
-            File tempDir = null;
-            if (type.keepClasses())
-            {
-                sjfm.setLocation(StandardLocation.CLASS_OUTPUT, outputList);
-            }
-            else
-            {
-                // We could make a new file manager that memory-mapped the output files
-                // and discarded them... but creating a temporary dir is much more
-                // straightforward:
-                tempDir = Files.createTempDirectory("bluej").toFile();
-                sjfm.setLocation(StandardLocation.CLASS_OUTPUT, Arrays.asList(tempDir));
-            }
+            // If the class files are not to be kept, they are never written to disk:
+            JavaFileManager fileManager = type.keepClasses() ? sjfm : new DiscardingFileManager(sjfm);
             
             //get the source files for compilation  
             Iterable<? extends JavaFileObject> compilationUnits1 =
@@ -214,18 +196,15 @@ public class CompilerAPICompiler extends Compiler
                 optionsList.add("-deprecation");
             }
             
-            File[] bootClassPath = getBootClassPath();
-            if (bootClassPath != null && bootClassPath.length != 0) {
-                sjfm.setLocation(StandardLocation.PLATFORM_CLASS_PATH, Arrays.asList(bootClassPath));
-            }
-            
             optionsList.addAll(userOptions);
             
             //compile
-            result = jc.getTask(null, sjfm, diagListener, optionsList, null, compilationUnits1).call();
-            sjfm.close();
-            if (tempDir != null)
-                tempDir.delete();
+            try {
+                result = jc.getTask(null, fileManager, diagListener, optionsList, null, compilationUnits1).call();
+            }
+            finally {
+                FileManagerCache.release(cachedFileManager);
+            }
         }
         catch(IOException e)
         {
@@ -236,6 +215,15 @@ public class CompilerAPICompiler extends Compiler
         return result;
     }
 
+    /**
+     * Close the file managers kept open for compiling into the given directory,
+     * releasing the library jars which they hold open. Called when a project is closed.
+     */
+    public static void closeFileManagers(File destDir)
+    {
+        FileManagerCache.closeFileManagers(destDir);
+    }
+
     /**
      * Processes messages returned from the compiler. This just slightly adjusts the format of some
      * messages.
@@ -1,6 +1,6 @@
 /*
  This file is part of the BlueJ program. 
- Copyright (C) 1999-2009,2014  Michael Kolling and John Rosenberg 
+ Copyright (C) 1999-2009,2014,2019  Michael Kolling and John Rosenberg 
  
  This program is free software; you can redistribute it and/or 
  modify it under the terms of the GNU General Public License 
@@ -22,73 +22,38 @@
 package bluej.compiler;
 
 import bluej.Config;
-import bluej.utility.Queue;
-import threadchecker.OnThread;
-import threadchecker.Tag;
 
 /**
- * The compiler thread. BlueJ uses exactly one thread for compilation. Jobs are
- * queued, and this thread processes tham one by one. If there is no job, this
- * thread just sleeps.
+ * A compiler thread. The JobQueue holds a pool of these threads, which take
+ * jobs (or parts of jobs) from the queue and compile them, one at a time. If
+ * there is nothing to compile, the thread just sleeps.
  * 
  * @author Michael Cahill
  * @author Michael Kolling
  */
 class CompilerThread extends Thread
 {
-    private Queue jobs;
-    private boolean busy = true;
+    private final JobQueue queue;
 
     /**
-     * Create a new compiler thread that holds its own job queue.
+     * Create a new compiler thread that takes its jobs from the given queue.
      */
-    public CompilerThread()
+    public CompilerThread(JobQueue queue)
     {
         super(Config.getString("compiler.thread.title"));
-        jobs = new Queue();
+        this.queue = queue;
     }
 
     /**
      * Start running this thread. The compiler thread will run infinitely in a
      * loop. It will compile jobs as long as there are any jobs pending, and
-     * then wait for new jobs to be scheduled. New jobs are scheduled using the
-     * addJob method.
+     * then wait for new jobs to be scheduled. New jobs are scheduled using
+     * JobQueue's addJob method.
      */
     public void run()
     {
-        Job job;
         while (true) {
-            synchronized (this) {
-                while ((job = (Job) jobs.dequeue()) == null) {
-                    busy = false;
-                    notifyAll();
-                    try {
-                        wait();
-                    }
-                    catch (InterruptedException e) {}
-                }
-            }
-
-            job.compile();
+            queue.takeJobPart().run();
         }
     }
-
-    /**
-     * Add a new job to this thread's job queue. The job will be processed by
-     * this thread some tim ein the near future. This method returns
-     * immediately.
-     */
-    @OnThread(Tag.Any)
-    public synchronized void addJob(Job job)
-    {
-        jobs.enqueue(job);
-        busy = true;
-        notifyAll();
-    }
-
-    @OnThread(Tag.Any)
-    public boolean isBusy()
-    {
-        return busy;
-    }
-}
\ No newline at end of file
+}
@@ -0,0 +1,104 @@
+/*
+ This file is part of the BlueJ program.
+ Copyright (C) 2019  Michael Kolling and John Rosenberg
+
+ This program is free software; you can redistribute it and/or
+ modify it under the terms of the GNU General Public License
+ as published by the Free Software Foundation; either version 2
+ of the License, or (at your option) any later version.
+
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with this program; if not, write to the Free Software
+ Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+
+ This file is subject to the Classpath exception as provided in the
+ LICENSE.txt file that accompanied this code.
+ */
+package bluej.compiler;
+
+import javax.tools.FileObject;
+import javax.tools.ForwardingJavaFileManager;
+import javax.tools.JavaFileManager;
+import javax.tools.JavaFileObject;
+import javax.tools.JavaFileObject.Kind;
+import javax.tools.SimpleJavaFileObject;
+import javax.tools.StandardLocation;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.URI;
+
+/**
+ * A file manager which discards everything written to the class output location,
+ * used for compilations which only check for errors. The files are never written to
+ * disk; all other requests are passed on to the underlying file manager.
+ */
+class DiscardingFileManager extends ForwardingJavaFileManager<JavaFileManager>
+{
+    DiscardingFileManager(JavaFileManager fileManager)
+    {
+        super(fileManager);
+    }
+
+    @Override
+    public JavaFileObject getJavaFileForOutput(Location location, String className, Kind kind, FileObject sibling)
+        throws IOException
+    {
+        if (location == StandardLocation.CLASS_OUTPUT) {
+            return new DiscardedFileObject(className.replace('.', '/') + kind.extension, kind);
+        }
+        return super.getJavaFileForOutput(location, className, kind, sibling);
+    }
+
+    @Override
+    public FileObject getFileForOutput(Location location, String packageName, String relativeName, FileObject sibling)
+        throws IOException
+    {
+        if (location == StandardLocation.CLASS_OUTPUT) {
+            String path = packageName.isEmpty() ? relativeName : packageName.replace('.', '/') + "/" + relativeName;
+            return new DiscardedFileObject(path, Kind.OTHER);
+        }
+        return super.getFileForOutput(location, packageName, relativeName, sibling);
+    }
+
+    @Override
+    public boolean isSameFile(FileObject a, FileObject b)
+    {
+        // The underlying file manager does not know about our file objects:
+        if (a instanceof DiscardedFileObject || b instanceof DiscardedFileObject) {
+            return a.toUri().equals(b.toUri());
+        }
+        return super.isSameFile(a, b);
+    }
+
+    /**
+     * A file object whose contents, when written, are thrown away.
+     */
+    private static class DiscardedFileObject extends SimpleJavaFileObject
+    {
+        DiscardedFileObject(String path, Kind kind)
+        {
+            super(URI.create("discarded:/" + path), kind);
+        }
+
+        @Override
+        public OutputStream openOutputStream()
+        {
+            return new OutputStream() {
+                @Override
+                public void write(int b)
+                {
+                }
+
+                @Override
+                public void write(byte[] b, int off, int len)
+                {
+                }
+            };
+        }
+    }
+}
@@ -0,0 +1,294 @@
+/*
+ This file is part of the BlueJ program.
+ Copyright (C) 2019  Michael Kolling and John Rosenberg
+
+ This program is free software; you can redistribute it and/or
+ modify it under the terms of the GNU General Public License
+ as published by the Free Software Foundation; either version 2
+ of the License, or (at your option) any later version.
+
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with this program; if not, write to the Free Software
+ Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+
+ This file is subject to the Classpath exception as provided in the
+ LICENSE.txt file that accompanied this code.
+ */
+package bluej.compiler;
+
+import bluej.utility.Debug;
+
+import javax.tools.Diagnostic;
+import javax.tools.DiagnosticListener;
+import javax.tools.JavaCompiler;
+import javax.tools.JavaFileObject;
+import javax.tools.StandardJavaFileManager;
+import javax.tools.StandardLocation;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+
+/**
+ * A cache of javac file managers, so that compiles with the same class path can reuse
+ * a file manager rather than creating a new one each time. A file manager keeps the jar
+ * files on its class path open, along with the index of their contents, so reusing it saves
+ * re-opening and re-indexing the jars - which, for projects with large libraries, can take
+ * longer than the compilation itself.
+ * 
+ * <p>A file manager is only used by one compilation at a time. It is discarded when any jar
+ * on its class path changes, and when another class path is used for the same destination
+ * directory (the project's libraries have changed). When the file managers for a
+ * destination directory are closed, those still in use are closed when they are released.
+ */
+class FileManagerCache
+{
+    /** The maximum number of idle file managers kept open */
+    private static final int MAX_IDLE = 8;
+    
+    /** Idle file managers, most recently used first */
+    private static final LinkedList<CachedFileManager> idle = new LinkedList<>();
+    
+    /** The number of times the file managers for each destination directory have been closed */
+    private static final Map<File, Integer> closeCounts = new HashMap<>();
+    
+    /**
+     * Get a file manager for the given settings, either one from the cache or a new one.
+     * It must be handed back with {@link #release} once the compilation has finished.
+     * 
+     * @param diagListener  the listener to receive diagnostics from the file manager, until
+     *                      it is released.
+     */
+    static CachedFileManager take(JavaCompiler compiler, DiagnosticListener<JavaFileObject> diagListener,
+            Charset charset, File destDir, File[] classPath, File[] bootClassPath, List<String> options)
+        throws IOException
+    {
+        Settings settings = new Settings(compiler, charset, destDir, classPath, bootClassPath, options);
+        List<CachedFileManager> toClose = new ArrayList<>();
+        CachedFileManager found = null;
+        int closeCount;
+        
+        synchronized (FileManagerCache.class) {
+            closeCount = closeCounts.getOrDefault(destDir, 0);
+            for (Iterator<CachedFileManager> i = idle.iterator(); i.hasNext(); ) {
+                CachedFileManager cached = i.next();
+                if (cached.settings.equals(settings) && found == null) {
+                    i.remove();
+                    if (cached.isCurrent()) {
+                        found = cached;
+                    }
+                    else {
+                        toClose.add(cached);
+                    }
+                }
+                else if (cached.settings.destDir.equals(destDir) && ! cached.settings.equals(settings)) {
+                    // The class path for this destination has changed; the old
+                    // file manager is unlikely to be used again.
+                    i.remove();
+                    toClose.add(cached);
+                }
+            }
+        }
+        
+        closeAll(toClose);
+        if (found == null) {
+            found = new CachedFileManager(settings);
+        }
+        found.diagListener = diagListener;
+        found.closeCount = closeCount;
+        return found;
+    }
+    
+    /**
+     * Return a file manager to the cache, once a compilation using it has finished.
+     * If the file managers for its destination directory were closed while it was
+     * in use, it is closed rather than cached.
+     */
+    static void release(CachedFileManager fileManager)
+    {
+        fileManager.diagListener = null;
+        List<CachedFileManager> toClose = new ArrayList<>();
+        synchronized (FileManagerCache.class) {
+            File destDir = fileManager.settings.destDir;
+            if (fileManager.closeCount != closeCounts.getOrDefault(destDir, 0)) {
+                toClose.add(fileManager);
+            }
+            else {
+                idle.addFirst(fileManager);
+            }
+            while (idle.size() > MAX_IDLE) {
+                toClose.add(idle.removeLast());
+            }
+        }
+        closeAll(toClose);
+    }
+    
+    /**
+     * Close the file managers which compile into the given directory, releasing the
+     * jar files they hold open (for instance, when a project is closed). File managers
+     * which are in use are closed when they are released.
+     */
+    static void closeFileManagers(File destDir)
+    {
+        List<CachedFileManager> toClose = new ArrayList<>();
+        synchronized (FileManagerCache.class) {
+            closeCounts.merge(destDir, 1, Integer::sum);
+            for (Iterator<CachedFileManager> i = idle.iterator(); i.hasNext(); ) {
+                CachedFileManager cached = i.next();
+                if (cached.settings.destDir.equals(destDir)) {
+                    i.remove();
+                    toClose.add(cached);
+                }
+            }
+        }
+        closeAll(toClose);
+    }
+    
+    private static void closeAll(List<CachedFileManager> fileManagers)
+    {
+        for (CachedFileManager fileManager : fileManagers) {
+            try {
+                fileManager.getFileManager().close();
+            }
+            catch (IOException ioe) {
+                Debug.reportError("Could not close file manager", ioe);
+            }
+        }
+    }
+    
+    /**
+     * The settings which a file manager is set up with. File managers are only
+     * shared between compilations with equal settings.
+     */
+    private static class Settings
+    {
+        final JavaCompiler compiler;
+        final Charset charset;
+        final File destDir;
+        final List<File> classPath;
+        final List<File> bootClassPath;
+        final List<String> options;
+        
+        Settings(JavaCompiler compiler, Charset charset, File destDir, File[] classPath,
+                File[] bootClassPath, List<String> options)
+        {
+            this.compiler = compiler;
+            this.charset = charset;
+            this.destDir = destDir;
+            this.classPath = Arrays.asList(classPath);
+            this.bootClassPath = (bootClassPath == null || bootClassPath.length == 0)
+                    ? null : Arrays.asList(bootClassPath);
+            this.options = new ArrayList<>(options);
+        }
+        
+        @Override
+        public boolean equals(Object o)
+        {
+            if (! (o instanceof Settings)) {
+                return false;
+            }
+            Settings other = (Settings) o;
+            return compiler == other.compiler && Objects.equals(charset, other.charset)
+                    && destDir.equals(other.destDir) && classPath.equals(other.classPath)
+                    && Objects.equals(bootClassPath, other.bootClassPath) && options.equals(other.options);
+        }
+        
+        @Override
+        public int hashCode()
+        {
+            return Objects.hash(charset, destDir, classPath, bootClassPath, options);
+        }
+    }
+    
+    /**
+     * A file manager, with the settings it was created for, and the modification stamps
+     * of the jar files on its class path when it was created.
+     */
+    static class CachedFileManager
+    {
+        private final Settings settings;
+        private final StandardJavaFileManager fileManager;
+        private final List<Long> stamps;
+        
+        /** Where diagnostics from the file manager are sent; changes with each use */
+        private volatile DiagnosticListener<JavaFileObject> diagListener;
+        /** The close count of the destination directory when the file manager was taken */
+        private int closeCount;
+        
+        private CachedFileManager(Settings settings) throws IOException
+        {
+            this.settings = settings;
+            this.stamps = getStamps(settings);
+            
+            DiagnosticListener<JavaFileObject> forwarder = this::report;
+            fileManager = settings.compiler.getStandardFileManager(forwarder, null, settings.charset);
+            
+            // In BlueJ, the destination directory and the source path are
+            // always the same
+            fileManager.setLocation(StandardLocation.SOURCE_PATH, Arrays.asList(settings.destDir));
+            fileManager.setLocation(StandardLocation.CLASS_OUTPUT, Arrays.asList(settings.destDir));
+            fileManager.setLocation(StandardLocation.CLASS_PATH, settings.classPath);
+            if (settings.bootClassPath != null) {
+                fileManager.setLocation(StandardLocation.PLATFORM_CLASS_PATH, settings.bootClassPath);
+            }
+        }
+        
+        StandardJavaFileManager getFileManager()
+        {
+            return fileManager;
+        }
+        
+        private void report(Diagnostic<? extends JavaFileObject> diagnostic)
+        {
+            DiagnosticListener<JavaFileObject> listener = diagListener;
+            if (listener != null) {
+                listener.report(diagnostic);
+            }
+        }
+        
+        /**
+         * Check whether the jar files on the class path are unchanged since the file
+         * manager was created.
+         */
+        private boolean isCurrent()
+        {
+            return stamps.equals(getStamps(settings));
+        }
+        
+        /**
+         * Get the modification time and length of each file (as opposed to directory)
+         * on the class path and boot class path.
+         */
+        private static List<Long> getStamps(Settings settings)
+        {
+            List<Long> stamps = new ArrayList<>();
+            List<File> files = new ArrayList<>(settings.classPath);
+            if (settings.bootClassPath != null) {
+                files.addAll(settings.bootClassPath);
+            }
+            for (File file : files) {
+                if (file.isFile()) {
+                    stamps.add(file.lastModified());
+                    stamps.add(file.length());
+                }
+                else {
+                    // Also notices a jar which has appeared or disappeared
+                    stamps.add(-1L);
+                }
+            }
+            return stamps;
+        }
+    }
+}
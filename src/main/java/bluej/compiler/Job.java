@@ -1,6 +1,6 @@
 /*
  This file is part of the BlueJ program. 
- Copyright (C) 1999-2009,2010,2011,2012,2016  Michael Kolling and John Rosenberg
+ Copyright (C) 1999-2009,2010,2011,2012,2016,2019  Michael Kolling and John Rosenberg
  
  This program is free software; you can redistribute it and/or 
  modify it under the terms of the GNU General Public License 
@@ -26,19 +26,23 @@ import bluej.classmgr.BPClassLoader;
 
 import java.io.File;
 import java.nio.charset.Charset;
+import java.util.ArrayList;
 import java.util.List;
 import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * A compiler "job". A list of filenames to compile + parameters.
- * Jobs are held in a queue by the CompilerThread, which compiles them
- * by running the job's "compile" method.
+ * Jobs are held by the JobQueue, and compiled by the compiler threads.
+ * 
+ * <p>The files of a job may be split into independent parts, which are
+ * compiled separately (and possibly concurrently, by different compiler
+ * threads). The observer sees the job as a whole: startCompile is called
+ * before any part is compiled, and endCompile once all parts are done.
  *
  * @author  Michael Cahill
  */
 class Job
 {
-    Compiler compiler;  // The compiler for this job
     CompileObserver observer;
     File destDir;
     BPClassLoader bpClassLoader;
@@ -50,6 +54,17 @@ class Job
     private Charset fileCharset;
     private CompileType type;
     private CompileReason reason;
+    
+    /** The independent parts of the job, each compiled separately */
+    private final List<CompileInputFile[]> parts;
+    /** The index of the next part to compile (accessed only while holding the job queue's lock) */
+    private int nextPart;
+    
+    // The following are accessed while holding this job's lock:
+    private boolean started;
+    private int compilationSequence;
+    private int partsFinished;
+    private boolean successful = true;
 
     /**
      * Generator for unique ascending compilation identifiers.  It doesn't matter if it's shared between
@@ -59,14 +74,20 @@ class Job
     private static final AtomicInteger nextCompilationSequence = new AtomicInteger(1);
     
     /**
-     * Create a job with a set of sources.
+     * Create a job with a set of sources, split into independent parts.
      */
-    public Job(CompileInputFile[] sourceFiles, Compiler compiler,
+    public Job(List<CompileInputFile[]> parts, CompileObserver observer,
                BPClassLoader bpClassLoader, File destDir, boolean internal,
                List<String> userCompileOptions, Charset fileCharset, CompileType type, CompileReason reason)
     {
-        this.sources = sourceFiles;
-        this.compiler = compiler;
+        this.parts = parts;
+        List<CompileInputFile> allSources = new ArrayList<>();
+        for (CompileInputFile[] part : parts) {
+            for (CompileInputFile source : part) {
+                allSources.add(source);
+            }
+        }
+        this.sources = allSources.toArray(new CompileInputFile[0]);
         this.observer = observer;
         this.bpClassLoader = bpClassLoader;
         this.destDir = destDir;
@@ -78,43 +99,138 @@ class Job
     }
     
     /**
-     * Compile this job
+     * Check whether any parts of this job remain to be compiled. Must be
+     * called while holding the job queue's lock.
      */
-    public void compile()
+    boolean hasUnstartedParts()
     {
-        int compilationSequence = nextCompilationSequence.getAndIncrement();
-
+        return nextPart < parts.size();
+    }
+    
+    /**
+     * Take the next part of this job to be compiled. Must be called while
+     * holding the job queue's lock.
+     */
+    CompileInputFile[] takePart()
+    {
+        return parts.get(nextPart++);
+    }
+    
+    /**
+     * Compile one part of this job.
+     * 
+     * @return  true if this was the last part of the job to finish
+     */
+    public boolean compile(CompileInputFile[] part)
+    {
+        boolean partSuccessful;
         try {
-            if(observer != null) {
-                observer.startCompile(sources, reason, type, compilationSequence);
+            partSuccessful = ensureStarted() && compilePart(part);
+        } catch(Exception e) {
+            System.err.println(Config.getString("compileException") + ": " + e);
+            e.printStackTrace();
+            partSuccessful = false;
+        }
+        return partFinished(partSuccessful);
+    }
+    
+    /**
+     * Notify the observer that the job has started, if this is the first part
+     * to be compiled. Other parts wait until the notification is done.
+     * 
+     * @return  false if the job could not be started
+     */
+    private synchronized boolean ensureStarted()
+    {
+        if (!started) {
+            started = true;
+            compilationSequence = nextCompilationSequence.getAndIncrement();
+            if (observer != null) {
+                try {
+                    observer.startCompile(sources, reason, type, compilationSequence);
+                } catch(Exception e) {
+                    System.err.println(Config.getString("compileException") + ": " + e);
+                    e.printStackTrace();
+                    successful = false;
+                }
             }
+        }
+        return successful;
+    }
+    
+    /**
+     * Compile the given sources, using a compiler of their own.
+     */
+    private boolean compilePart(CompileInputFile[] part)
+    {
+        Compiler compiler = new CompilerAPICompiler();
+        if(destDir != null) {
+            compiler.setDestDir(destDir);
+        }
 
-            if(destDir != null) {
-                compiler.setDestDir(destDir);
-            }
+        compiler.setClasspath(bpClassLoader.getClassPathAsFiles());
 
-            compiler.setClasspath(bpClassLoader.getClassPathAsFiles());
+        compiler.setBootClassPath(null);
+        List<String> options = new ArrayList<>(userCompileOptions);
+        String majorVersion = System.getProperty("java.specification.version");
+        options.add(0, "-source");
+        options.add(1, majorVersion);
+        if (parts.size() > 1) {
+            // Other parts are being compiled at the same time into the same
+            // directory; only they should write their class files:
+            options.add(2, "-implicit:none");
+        }
 
-            compiler.setBootClassPath(null);
-            String majorVersion = System.getProperty("java.specification.version");
-            userCompileOptions.add(0, "-source");
-            userCompileOptions.add(1, majorVersion);
+        File[] actualSourceFiles = new File[part.length];
+        for (int i = 0; i < part.length; i++)
+            actualSourceFiles[i] = part[i].getJavaCompileInputFile();
 
-            File[] actualSourceFiles = new File[sources.length];
-            for (int i = 0; i < sources.length; i++)
-                actualSourceFiles[i] = sources[i].getJavaCompileInputFile();
+        CompileObserver partObserver = new CompileObserver() {
+            @Override
+            public void startCompile(CompileInputFile[] sources, CompileReason reason, CompileType type, int compilationSequence)
+            {
+            }
 
-            boolean successful = compiler.compile(actualSourceFiles, observer, internal, userCompileOptions, fileCharset, type);
+            @Override
+            public void compilerMessage(Diagnostic diagnostic, CompileType type)
+            {
+                synchronized (Job.this) {
+                    if (observer != null) {
+                        observer.compilerMessage(diagnostic, type);
+                    }
+                }
+            }
 
-            if(observer != null) {
-                observer.endCompile(sources, successful, type, compilationSequence);
+            @Override
+            public void endCompile(CompileInputFile[] sources, boolean succesful, CompileType type, int compilationSequence)
+            {
             }
-        } catch(Exception e) {
-            System.err.println(Config.getString("compileException") + ": " + e);
-            e.printStackTrace();
-            if (observer != null) {
-                observer.endCompile(sources, false, type, compilationSequence);
+        };
+        return compiler.compile(actualSourceFiles, partObserver, internal, options, fileCharset, type);
+    }
+    
+    /**
+     * Record that a part has been compiled. When all parts are done, the
+     * observer is notified that the job has ended.
+     * 
+     * @return  true if this was the last part
+     */
+    private synchronized boolean partFinished(boolean partSuccessful)
+    {
+        successful &= partSuccessful;
+        partsFinished++;
+        if (partsFinished < parts.size()) {
+            return false;
+        }
+        
+        if (observer != null) {
+            try {
+                observer.endCompile(sources, successful, type, compilationSequence);
+            } catch(Exception e) {
+                System.err.println(Config.getString("compileException") + ": " + e);
+                e.printStackTrace();
             }
         }
+        return true;
     }
 }
@@ -1,6 +1,6 @@
 /*
  This file is part of the BlueJ program. 
- Copyright (C) 1999-2009,2011,2012,2013,2016  Michael Kolling and John Rosenberg
+ Copyright (C) 1999-2009,2011,2012,2013,2016,2019  Michael Kolling and John Rosenberg
  
  This program is free software; you can redistribute it and/or 
  modify it under the terms of the GNU General Public License 
@@ -28,15 +28,31 @@ import bluej.utility.Utility;
 import java.io.File;
 import java.nio.charset.Charset;
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.LinkedList;
 import java.util.List;
+import java.util.Set;
+import java.util.function.Function;
 
 /**
  * Reasonably generic interface between the BlueJ IDE and the Java compiler.
  * 
+ * <p>Jobs are compiled by a pool of compiler threads. Jobs which compile into
+ * the same destination directory (i.e. the same project) are compiled one at a
+ * time, in the order they were added, but jobs for different projects, and the
+ * independent parts of a single job, are compiled concurrently.
+ * 
  * @author Michael Cahill
  */
 public class JobQueue
 {
+    /** The most compiler threads used by default; each compilation uses a lot of memory */
+    private static final int MAX_DEFAULT_THREADS = 4;
+    
     private static JobQueue queue = null;
 
     public static synchronized JobQueue getJobQueue()
@@ -49,41 +65,119 @@ public class JobQueue
 
     // ---- instance ----
 
-    private CompilerThread thread = null;
-    private Compiler compiler = null;
+    /** The jobs which have not finished, in the order in which they were added */
+    private final List<Job> jobs = new LinkedList<>();
+    private final int threadCount;
 
     /**
      * Construct the JobQueue. This is private; use getJobQueue() to get the job queue instance.
      */
     private JobQueue()
     {
-        compiler = new CompilerAPICompiler();
-        thread = new CompilerThread();
+        int defaultThreads = Math.min(MAX_DEFAULT_THREADS, Runtime.getRuntime().availableProcessors());
+        threadCount = Math.max(1, Config.getPropInteger(Compiler.COMPILER_THREADS, defaultThreads));
 
         // Lower priority to improve GUI response time during compilation
         int priority = Thread.currentThread().getPriority() - 1;
         priority = Math.max(priority, Thread.MIN_PRIORITY);
-        thread.setPriority(priority);
 
-        thread.start();
+        for (int i = 0; i < threadCount; i++) {
+            CompilerThread thread = new CompilerThread(this);
+            thread.setPriority(priority);
+            thread.start();
+        }
+    }
+
+    /**
+     * Get the number of compiler threads, i.e. the number of parts of a job
+     * which can be compiled at once.
+     */
+    public int getThreadCount()
+    {
+        return threadCount;
     }
 
     /**
      * Adds a job to the compile queue.
-     *  @param classPath The classpath to use to locate objects/source code
-     * @param sources   The files to compile
+     *  @param sources   The files to compile
+     * @param observer  Observer to be notified when compilation begins,
+     *                  errors/warnings, completes
+     * @param bpClassLoader The class loader whose classpath is used to locate objects/source code
      * @param destDir   Destination for class files?
      * @param suppressUnchecked    Suppress "unchecked" warning in java 1.5
      */
-    public void addJob(CompileInputFile[] sources, BPClassLoader bpClassLoader, File destDir,
+    public void addJob(CompileInputFile[] sources, CompileObserver observer, BPClassLoader bpClassLoader, File destDir,
                        boolean suppressUnchecked, Charset fileCharset, CompileReason reason, CompileType type)
+    {
+        addJob(Collections.singletonList(sources), observer, bpClassLoader, destDir, suppressUnchecked,
+                fileCharset, reason, type);
+    }
+
+    /**
+     * Adds a job to the compile queue, made up of parts which are independent of
+     * each other, and so can be compiled concurrently (see {@link #partition}).
+     * The observer is notified as if the parts were compiled as a single job.
+     * 
+     * @param parts     The files to compile, in independent parts
+     * @param observer  Observer to be notified when compilation begins,
+     *                  errors/warnings, completes
+     * @param bpClassLoader The class loader whose classpath is used to locate objects/source code
+     * @param destDir   Destination for class files
+     * @param suppressUnchecked    Suppress "unchecked" warning in java 1.5
+     */
+    public void addJob(List<CompileInputFile[]> parts, CompileObserver observer, BPClassLoader bpClassLoader,
+                       File destDir, boolean suppressUnchecked, Charset fileCharset, CompileReason reason,
+                       CompileType type)
     {
         List<String> options = new ArrayList<String>();
         String optionString = Config.getPropString(Compiler.COMPILER_OPTIONS, "");
         options.addAll(Utility.dequoteCommandLine(optionString));
         
-        thread.addJob(new Job(sources, compiler, bpClassLoader,
-                destDir, suppressUnchecked, options, fileCharset, type, reason));
+        Job job = new Job(parts, observer, bpClassLoader,
+                destDir, suppressUnchecked, options, fileCharset, type, reason);
+        synchronized (this) {
+            jobs.add(job);
+            notifyAll();
+        }
+    }
+
+    /**
+     * Wait until there is a part of a job which can be compiled, and take it.
+     * A part can be compiled if no earlier job for the same destination
+     * directory is still unfinished.
+     * 
+     * @return  The compilation of the part, which notifies this queue when it is done
+     */
+    synchronized Runnable takeJobPart()
+    {
+        while (true) {
+            Set<File> busyDirs = new HashSet<>();
+            for (Job job : jobs) {
+                if (job.hasUnstartedParts() && !busyDirs.contains(job.destDir)) {
+                    CompileInputFile[] part = job.takePart();
+                    return () -> {
+                        if (job.compile(part)) {
+                            jobFinished(job);
+                        }
+                    };
+                }
+                busyDirs.add(job.destDir);
+            }
+            try {
+                wait();
+            }
+            catch (InterruptedException e) {}
+        }
+    }
+
+    /**
+     * All parts of a job have been compiled; jobs which were waiting for it
+     * can now be compiled.
+     */
+    private synchronized void jobFinished(Job job)
+    {
+        jobs.remove(job);
+        notifyAll();
     }
 
     /**
@@ -91,13 +185,63 @@ public class JobQueue
      */
     public void waitForEmptyQueue()
     {
-        synchronized (thread) {
-            while (thread.isBusy()) {
+        synchronized (this) {
+            while (!jobs.isEmpty()) {
                 try {
-                    thread.wait();
+                    wait();
                 }
                 catch (InterruptedException ex) {}
             }
         }
     }
+
+    /**
+     * Split items (such as the classes to be compiled) into parts which are
+     * independent of each other. Items which are related, directly or through
+     * other items in the collection, are placed in the same part. If there
+     * would be more than the given number of parts, they are combined, so as
+     * to balance the number of items in each part.
+     * 
+     * @param items     The items to split
+     * @param related   Gives the items related to an item (in either direction);
+     *                  items not in the collection are ignored
+     * @param maxParts  The maximum number of parts
+     * @return  The parts, none of which are empty
+     */
+    public static <T> List<List<T>> partition(Collection<T> items, Function<T, Collection<T>> related, int maxParts)
+    {
+        // Find the connected components:
+        Set<T> remaining = new LinkedHashSet<>(items);
+        List<List<T>> components = new ArrayList<>();
+        while (!remaining.isEmpty()) {
+            T first = remaining.iterator().next();
+            remaining.remove(first);
+            List<T> component = new ArrayList<>();
+            component.add(first);
+            for (int i = 0; i < component.size(); i++) {
+                for (T other : related.apply(component.get(i))) {
+                    if (remaining.remove(other)) {
+                        component.add(other);
+                    }
+                }
+            }
+            components.add(component);
+        }
+        
+        if (components.size() <= maxParts) {
+            return components;
+        }
+        
+        // Too many: place each component, largest first, into the smallest part so far:
+        components.sort(Comparator.comparingInt((List<T> c) -> c.size()).reversed());
+        List<List<T>> parts = new ArrayList<>();
+        for (int i = 0; i < maxParts; i++) {
+            parts.add(new ArrayList<>());
+        }
+        for (List<T> component : components) {
+            List<T> smallest = Collections.min(parts, Comparator.comparingInt((List<T> p) -> p.size()));
+            smallest.addAll(component);
+        }
+        return parts;
+    }
 }
@@ -1,6 +1,6 @@
 /*
  This file is part of the BlueJ program. 
- Copyright (C) 1999-2009,2010,2011,2016,2017,2018  Michael Kolling and John Rosenberg
+ Copyright (C) 1999-2009,2010,2011,2016,2017,2018,2019  Michael Kolling and John Rosenberg
  
  This program is free software; you can redistribute it and/or 
  modify it under the terms of the GNU General Public License 
@@ -248,6 +248,36 @@ public abstract class Debugger
     @OnThread(Tag.Any)
     public abstract DebuggerResult instantiateClass(String className, String [] paramTypes,
                                                     DebuggerObject[] args);
+
+    /**
+     * Invoke a method directly, without compiling a shell class. Arguments for
+     * parameters of primitive type are passed as String mirrors holding the
+     * value (eg "42"); a null element in the argument array stands for a null
+     * reference.
+     * 
+     * @param target      The object to invoke the method on, or null for a static method
+     * @param className   The name of the class declaring the method
+     * @param methodName  The name of the method
+     * @param paramTypes  The formal parameter types (class names, or keywords for
+     *                    primitive types)
+     * @param args        The arguments
+     * @return   The result of the method call, wrapped as for a shell class (null
+     *           object for a void method)
+     */
+    @OnThread(Tag.Any)
+    public abstract DebuggerResult invokeMethod(DebuggerObject target, String className, String methodName,
+                                                String [] paramTypes, DebuggerObject[] args);
+
+    /**
+     * Read the value of a field directly, without compiling a shell class.
+     * 
+     * @param target     The object whose field to read, or null for a static field
+     * @param className  The name of the class declaring the field
+     * @param fieldName  The name of the field
+     * @return   The value of the field, wrapped as for a shell class
+     */
+    @OnThread(Tag.Any)
+    public abstract DebuggerResult readField(DebuggerObject target, String className, String fieldName);
     
     /**
      * Get a class from the virtual machine, using the current classloader.
@@ -1,6 +1,6 @@
 /*
  This file is part of the BlueJ program. 
- Copyright (C) 1999-2009,2010,2011,2012,2014,2016,2017,2018  Michael Kolling and John Rosenberg
+ Copyright (C) 1999-2009,2010,2011,2012,2014,2016,2017,2018,2019  Michael Kolling and John Rosenberg
  
  This program is free software; you can redistribute it and/or 
  modify it under the terms of the GNU General Public License 
@@ -735,13 +735,7 @@ public class JdiDebugger extends Debugger
         
         VMReference vmr = getVM();
         if (vmr != null) {
-            // Convert the args array from DebuggerObject[] to ObjectReference[]
-            ObjectReference [] orArgs = new ObjectReference[args.length];
-            for (int i = 0; i < args.length; i++) {
-                JdiObject jdiObject = (JdiObject) args[i];
-                orArgs[i] = jdiObject.getObjectReference(); 
-            }
-            
+            ObjectReference [] orArgs = getObjectReferences(args);
             synchronized (serverThreadLock) {
                 return vmr.instantiateClass(className, paramTypes, orArgs);
             }
@@ -750,6 +744,60 @@ public class JdiDebugger extends Debugger
             return new DebuggerResult(Debugger.TERMINATED);
         }
     }
+
+    /*
+     * @see bluej.debugger.Debugger#invokeMethod(bluej.debugger.DebuggerObject, java.lang.String, java.lang.String, java.lang.String[], bluej.debugger.DebuggerObject[])
+     */
+    @Override
+    @OnThread(Tag.Any)
+    public DebuggerResult invokeMethod(DebuggerObject target, String className, String methodName,
+            String[] paramTypes, DebuggerObject[] args)
+    {
+        VMReference vmr = getVM();
+        if (vmr != null) {
+            ObjectReference orTarget = target == null ? null : ((JdiObject) target).getObjectReference();
+            ObjectReference [] orArgs = getObjectReferences(args);
+            synchronized (serverThreadLock) {
+                return vmr.invokeMethod(orTarget, className, methodName, paramTypes, orArgs);
+            }
+        }
+        else {
+            return new DebuggerResult(Debugger.TERMINATED);
+        }
+    }
+
+    /*
+     * @see bluej.debugger.Debugger#readField(bluej.debugger.DebuggerObject, java.lang.String, java.lang.String)
+     */
+    @Override
+    @OnThread(Tag.Any)
+    public DebuggerResult readField(DebuggerObject target, String className, String fieldName)
+    {
+        VMReference vmr = getVM();
+        if (vmr != null) {
+            ObjectReference orTarget = target == null ? null : ((JdiObject) target).getObjectReference();
+            synchronized (serverThreadLock) {
+                return vmr.readField(orTarget, className, fieldName);
+            }
+        }
+        else {
+            return new DebuggerResult(Debugger.TERMINATED);
+        }
+    }
+
+    /**
+     * Convert an array of arguments from DebuggerObject[] to ObjectReference[].
+     * A null element is converted to a null reference.
+     */
+    private static ObjectReference [] getObjectReferences(DebuggerObject [] args)
+    {
+        ObjectReference [] orArgs = new ObjectReference[args.length];
+        for (int i = 0; i < args.length; i++) {
+            JdiObject jdiObject = (JdiObject) args[i];
+            orArgs[i] = jdiObject == null ? null : jdiObject.getObjectReference(); 
+        }
+        return orArgs;
+    }
     
     /*
      * @see bluej.debugger.Debugger#getClass(java.lang.String, boolean)
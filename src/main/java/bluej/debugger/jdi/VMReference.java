@@ -1,6 +1,6 @@
 /*
  This file is part of the BlueJ program. 
- Copyright (C) 1999-2009,2010,2011,2012,2013,2014,2015,2016,2017,2018  Michael Kolling and John Rosenberg
+ Copyright (C) 1999-2009,2010,2011,2012,2013,2014,2015,2016,2017,2018,2019  Michael Kolling and John Rosenberg
  
  This program is free software; you can redistribute it and/or 
  modify it under the terms of the GNU General Public License 
@@ -983,6 +983,82 @@ public class VMReference
         }
     }
     
+    /**
+     * Invoke a method with arguments, without using a shell class. The parameter
+     * types of the method must be supplied (String[]) as well as the argument
+     * values (ObjectReference []). A null argument for a parameter of primitive
+     * type is not allowed; primitive values are passed as strings.
+     * 
+     * @param target     The object to invoke the method on (null for a static method)
+     * @param className  The name of the class declaring the method
+     * @param methodName The name of the method
+     * @param paramTypes The parameter types of the method (class names)
+     * @param args       The argument values to use in the call
+     * 
+     * @return  The result of the call, wrapped as for a shell class (see
+     *          bluej.runtime.Shell#makeObj)
+     */
+    public DebuggerResult invokeMethod(ObjectReference target, String className, String methodName,
+            String [] paramTypes, ObjectReference [] args)
+    {
+        return accessMember(ExecServer.INVOKE_METHOD, target, className, methodName, paramTypes, args);
+    }
+    
+    /**
+     * Read the value of a field, without using a shell class.
+     * 
+     * @param target     The object whose field to read (null for a static field)
+     * @param className  The name of the class declaring the field
+     * @param fieldName  The name of the field
+     * 
+     * @return  The value of the field, wrapped as for a shell class (see
+     *          bluej.runtime.Shell#makeObj)
+     */
+    public DebuggerResult readField(ObjectReference target, String className, String fieldName)
+    {
+        return accessMember(ExecServer.READ_FIELD, target, className, fieldName, new String[0], new ObjectReference[0]);
+    }
+    
+    /**
+     * Invoke a method or read a field through the server thread, without using a shell class.
+     * 
+     * @param action     ExecServer.INVOKE_METHOD or ExecServer.READ_FIELD
+     * @param target     The object whose member to access (null for a static member)
+     * @param className  The name of the class declaring the member
+     * @param memberName The name of the method or field
+     * @param paramTypes The parameter types of the method (class names)
+     * @param args       The argument values to use in the call
+     */
+    private DebuggerResult accessMember(int action, ObjectReference target, String className, String memberName,
+            String [] paramTypes, ObjectReference [] args)
+    {
+        // Calls to this method are protected by serverThreadLock in JdiDebugger
+        
+        exitStatus = Debugger.NORMAL_EXIT;
+        try {
+            serverThreadStartWait();
+            setStaticFieldObject(serverClass, ExecServer.METHOD_TO_RUN_NAME, memberName);
+            setStaticFieldValue(serverClass, ExecServer.TARGET_OBJECT_NAME, target);
+            ObjectReference rval = invokeWithArguments(action, className, paramTypes, args);
+            if (rval == null && exitStatus == Debugger.EXCEPTION) {
+                return new DebuggerResult(lastException);
+            }
+            return new DebuggerResult(JdiObject.getDebuggerObject(rval));
+        }
+        catch (VMDisconnectedException e) {
+            exitStatus = Debugger.TERMINATED;
+            return new DebuggerResult(exitStatus); // debugger state change handled elsewhere
+        }
+        catch (Exception e) {
+            // remote invocation failed
+            Debug.reportError("invoking method failed: " + e);
+            e.printStackTrace();
+            exitStatus = Debugger.EXCEPTION;
+            lastException = new ExceptionDescription("Internal BlueJ error: unexpected exception in remote VM\n" + e);
+        }
+        return new DebuggerResult(lastException);
+    }
+
     /**
      * Emit a thread halted/resumed event for the given thread.
      */
@@ -1815,6 +1891,23 @@ public class VMReference
         // Calls to this method are serialized via serverThreadLock in JdiDebugger
         
         serverThreadStartWait();
+        return invokeWithArguments(ExecServer.INSTANTIATE_CLASS_ARGS, className, paramTypes, args);
+    }
+    
+    /**
+     * Perform a server thread action which takes parameter types and arguments
+     * (constructing an object or invoking a method). The server thread must have
+     * been started, and any other fields needed by the action must already be set.
+     * 
+     * @param action     The action (ExecServer.INSTANTIATE_CLASS_ARGS, INVOKE_METHOD or READ_FIELD)
+     * @param className  The name of the class to construct or to invoke the method on
+     * @param paramTypes The parameter types (class names)
+     * @param args       The argument values
+     * 
+     * @return  The value returned by the action (null if an exception occurred)
+     */
+    private ObjectReference invokeWithArguments(int action, String className, String [] paramTypes, ObjectReference [] args)
+    {
         boolean needsMachineResume = false;
         
         try {
@@ -1871,7 +1964,7 @@ public class VMReference
             argsArray.enableCollection();
 
             setStaticFieldObject(serverClass, ExecServer.CLASS_TO_RUN_NAME, className);
-            setStaticFieldValue(serverClass, ExecServer.EXEC_ACTION_NAME, machine.mirrorOf(ExecServer.INSTANTIATE_CLASS_ARGS));
+            setStaticFieldValue(serverClass, ExecServer.EXEC_ACTION_NAME, machine.mirrorOf(action));
             machine.resume();
             needsMachineResume = false;
             
@@ -1,6 +1,6 @@
 /*
  This file is part of the BlueJ program. 
- Copyright (C) 1999-2009,2010,2011,2012,2013,2014,2015,2016,2017,2018  Michael Kolling and John Rosenberg
+ Copyright (C) 1999-2009,2010,2011,2012,2013,2014,2015,2016,2017,2018,2019  Michael Kolling and John Rosenberg
  
  This program is free software; you can redistribute it and/or 
  modify it under the terms of the GNU General Public License 
@@ -296,6 +296,10 @@ public class ExecControls {
 
             // ensure that the bluej.runtime.ExecServer frames are not shown
             if (className.startsWith("bluej.runtime.") && !className.equals(bluej.runtime.BJInputStream.class.getCanonicalName())) {
+                // calls made without a shell class go through reflection; hide those frames too
+                while (i > 0 && isReflectionFrame(stack.get(i - 1).getClassName())) {
+                    i--;
+                }
                 break;
             }
 
@@ -316,7 +320,7 @@ public class ExecControls {
             }
         }
 
-        if (first == -1 || i == 0) {
+        if (first == -1 || i <= first) {
             return new SourceLocation[0];
         }
 
@@ -328,6 +332,14 @@ public class ExecControls {
         return filtered;
     }
 
+    /**
+     * Check whether a stack frame belongs to the reflection machinery used to make a call.
+     */
+    private static boolean isReflectionFrame(String className) {
+        return className.startsWith("java.lang.reflect.") || className.startsWith("sun.reflect.")
+                || className.startsWith("jdk.internal.reflect.");
+    }
+
     /**
      * Clear the display of thread details (stack and variables).
      */
@@ -1,6 +1,6 @@
 /*
  This file is part of the BlueJ program. 
- Copyright (C) 1999-2009,2010,2011,2012,2014,2015,2016,2018  Michael Kolling and John Rosenberg
+ Copyright (C) 1999-2009,2010,2011,2012,2014,2015,2016,2018,2019  Michael Kolling and John Rosenberg
  
  This program is free software; you can redistribute it and/or 
  modify it under the terms of the GNU General Public License 
@@ -27,10 +27,12 @@ import bluej.debugger.Debugger;
 import bluej.debugger.DebuggerObject;
 import bluej.debugger.DebuggerResult;
 import bluej.debugger.ExceptionDescription;
+import bluej.debugger.gentype.GenTypeClass;
 import bluej.debugger.gentype.GenTypeParameter;
 import bluej.debugger.gentype.JavaType;
 import bluej.debugger.gentype.NameTransform;
 import bluej.debugmgr.objectbench.ObjectBenchInterface;
+import bluej.debugmgr.objectbench.ObjectWrapper;
 import bluej.pkgmgr.Package;
 import bluej.pkgmgr.PackageListener;
 import bluej.pkgmgr.PkgMgrFrame;
@@ -49,14 +51,24 @@ import threadchecker.OnThread;
 import threadchecker.Tag;
 
 import java.io.*;
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
 import java.nio.charset.Charset;
 import java.util.*;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
 
 /**
  * Debugger class that arranges invocation of constructors or methods. This
  * class constructs a "shell" java source file, compiles it, then loads the
  * resulting class file and executes a method in a new thread.
  *
+ * <p>Simple calls (whose arguments are all literals, null or object bench
+ * objects) and codepad expressions which read a field of an object bench
+ * object are made directly through the debugger instead, and compiled shells
+ * are kept in the package's ShellCache so that an identical invocation need not
+ * be compiled again.
+ *
  * @author Michael Kolling
  */
 @OnThread(Tag.FXPlatform)
@@ -64,6 +76,10 @@ public class Invoker
         implements FXCompileObserver, PackageListener {
     public static final int OBJ_NAME_LENGTH = 8;
     public static final String SHELLNAME = "__SHELL";
+    /** A free form expression reading a field of a named object, eg "point1.x" */
+    private static final Pattern FIELD_READ = Pattern.compile(
+            "\\s*(\\p{javaJavaIdentifierStart}\\p{javaJavaIdentifierPart}*)\\s*\\.\\s*"
+            + "(\\p{javaJavaIdentifierStart}\\p{javaJavaIdentifierPart}*)\\s*");
     private static int shellNumber = 0;
 
     private static final synchronized String getShellName() {
@@ -107,6 +123,26 @@ public class Invoker
      */
     private final String instanceName;
 
+    /**
+     * The target object to which the call is applied, if known (used for direct invocation)
+     */
+    private DebuggerObject targetObject;
+
+    /**
+     * The source of the shell class for this invocation, without the shell class name
+     * (the key for the shell cache), and the project class loader it is compiled against
+     */
+    private String shellSource;
+    private ClassLoader shellClassLoader;
+
+    /**
+     * Whether the shell class is one compiled for an earlier invocation (taken from the
+     * shell cache), and whether the shell compiled for this invocation has been added
+     * to the cache. In either case the shell's class files must not be deleted.
+     */
+    private boolean reusingShell;
+    private boolean shellCached;
+
     @OnThread(Tag.FXPlatform)
     private CallDialog dialog;
     private boolean constructing;
@@ -154,7 +190,7 @@ public class Invoker
             public void compile(File[] files, CompileObserver observer) {
                 Project project = pkg.getProject();
                 List<CompileInputFile> wrapped = Utility.mapList(Arrays.asList(files), f -> new CompileInputFile(f, f));
-                JobQueue.getJobQueue().addJob(wrapped.toArray(new CompileInputFile[0]), project.getClassLoader(),
+                JobQueue.getJobQueue().addJob(wrapped.toArray(new CompileInputFile[0]), observer, project.getClassLoader(),
                         project.getProjectDir(), true, project.getProjectCharset(), CompileReason.INVOKE, CompileType.INTERNAL_COMPILE);
             }
         };
@@ -226,6 +262,7 @@ public class Invoker
         // from the object's class to that class.
         this(pmf, member, objName, debuggerObject.getGenType().mapToSuper(member.getClassName()).getMap());
 
+        this.targetObject = debuggerObject;
         this.watcher = watcher;
         this.shellName = getShellName();
         codepad = false;
@@ -255,7 +292,7 @@ public class Invoker
             public void compile(File[] files, CompileObserver observer) {
                 Project project = pkg.getProject();
                 List<CompileInputFile> wrapped = Utility.mapList(Arrays.asList(files), f -> new CompileInputFile(f, f));
-                JobQueue.getJobQueue().addJob(wrapped.toArray(new CompileInputFile[0]), project.getClassLoader(),
+                JobQueue.getJobQueue().addJob(wrapped.toArray(new CompileInputFile[0]), observer, project.getClassLoader(),
                         project.getProjectDir(), true, project.getProjectCharset(), CompileReason.INVOKE, CompileType.INTERNAL_COMPILE);
             }
         };
@@ -348,7 +385,8 @@ public class Invoker
      * After all the interactive stuff is finished, finally do the invocation of
      * the method. (This can be a constructor call or a normal method call.)
      * <p>
-     * Invocation here means: construct shell class and start compiling it.
+     * Invocation here means: construct shell class and start compiling it,
+     * unless the call is simple enough to be made directly.
      * <p>
      * The "endCompile" method is called when the compilation has completed. If
      * successful, the shell class will then be executed.
@@ -484,20 +522,147 @@ public class Invoker
                 }
             }.start();
         } else {
+            DebuggerObject[] directArgs = getDirectArguments(args, typeParams);
+            if (directArgs != null) {
+                // The call can be made without writing and compiling a shell file.
+                commandString = command + actualArgString;
+                invokeWithoutShell(directArgs);
+                return;
+            }
+
             if (isVoid)
                 argString += ';';
 
             watcher.beginCompile();
-            File shell = writeInvocationFile(paramInit, command + argString, isVoid, constype);
-            if (shell != null) {
+            if (writeInvocationFile(paramInit, command + argString, isVoid, constype)) {
                 commandString = command + actualArgString;
-                compileInvocationFile(shell);
+                compileInvocationFile();
             } else {
                 endCompile(new CompileInputFile[0], false, CompileType.INTERNAL_COMPILE, -1);
             }
         }
     }
 
+    /**
+     * Get the arguments for a direct invocation of the member, that is, one made through
+     * the debugger without a shell class. This is possible if the member is not generic,
+     * can be accessed from a shell class and by reflection alike, and each argument is a
+     * literal (see LiteralArgument), null, or the name of an object bench object, of a type
+     * the parameter accepts. Instance methods also need the target object.
+     *
+     * @param args       The arguments as supplied by the user
+     * @param typeParams The type parameters as supplied by the user
+     * @return The argument values (with null elements for null arguments), or null if
+     * the invocation needs a shell class
+     */
+    private DebuggerObject[] getDirectArguments(String[] args, String[] typeParams) {
+        if (member.isGeneric() || member.isVarArgs() || member.getDeclaringView().isGeneric()
+                || (typeParams != null && typeParams.length > 0) || !isReflectivelyAccessible()) {
+            return null;
+        }
+        if (!constructing && !member.isStatic() && targetObject == null) {
+            return null;
+        }
+
+        Class<?>[] paramClasses = member.getParameters();
+        JavaType[] paramTypes = member.getParamTypes(false);
+        int numArgs = (args == null ? 0 : args.length);
+        if (numArgs != paramClasses.length) {
+            return null;
+        }
+
+        // Check all arguments before creating any values in the debug VM
+        String[] literalValues = new String[numArgs];
+        DebuggerObject[] directArgs = new DebuggerObject[numArgs];
+        for (int i = 0; i < numArgs; i++) {
+            String arg = args[i].trim();
+            if (arg.equals("null")) {
+                if (paramClasses[i].isPrimitive()) {
+                    return null;
+                }
+                continue;
+            }
+            literalValues[i] = LiteralArgument.valueFor(arg, paramClasses[i]);
+            if (literalValues[i] == null) {
+                NamedValue benchValue = objectBenchVars.getNamedValue(arg);
+                if (!(benchValue instanceof ObjectWrapper) || !benchValue.isInitialized()
+                        || paramClasses[i].isPrimitive() || !paramTypes[i].isAssignableFrom(benchValue.getGenType())) {
+                    return null;
+                }
+                directArgs[i] = ((ObjectWrapper) benchValue).getObject();
+            }
+        }
+
+        for (int i = 0; i < numArgs; i++) {
+            if (literalValues[i] != null) {
+                directArgs[i] = debugger.getMirror(literalValues[i]);
+                if (directArgs[i] == null) {
+                    return null;
+                }
+            }
+        }
+        return directArgs;
+    }
+
+    /**
+     * Check whether the member can be called by reflection in the same circumstances
+     * in which a shell class can call it: it must be public in a public class, or else
+     * belong to this package and not be private. Constructors of inner classes (which
+     * need an enclosing instance) are excluded.
+     */
+    private boolean isReflectivelyAccessible() {
+        Class<?> declaringClass = member.getDeclaringView().getViewClass();
+        int classModifiers = declaringClass.getModifiers();
+        if (constructing && declaringClass.getEnclosingClass() != null && !Modifier.isStatic(classModifiers)) {
+            return false;
+        }
+        int modifiers = member.getModifiers();
+        if (Modifier.isPublic(modifiers) && Modifier.isPublic(classModifiers)) {
+            return true;
+        }
+        return !Modifier.isPrivate(modifiers) && !Modifier.isPrivate(classModifiers)
+                && member.getDeclaringView().getPackageName().equals(pkgName);
+    }
+
+    /**
+     * Make the invocation directly through the debugger, with the given arguments
+     * (see getDirectArguments).
+     */
+    private void invokeWithoutShell(DebuggerObject[] args) {
+        final String className = member.getClassName();
+        Class<?>[] paramClasses = member.getParameters();
+        String[] paramTypes = new String[paramClasses.length];
+        for (int i = 0; i < paramClasses.length; i++) {
+            paramTypes[i] = paramClasses[i].getName();
+        }
+        DebuggerObject target = member.isStatic() ? null : targetObject;
+
+        watcher.beginCompile(); // there is no compile step, really
+        watcher.beginExecution(ir);
+
+        // As for a shell class, run in a separate thread so that a call
+        // which goes into an infinite loop doesn't hang BlueJ.
+        new Thread() {
+            @OnThread(Tag.Worker)
+            public void run() {
+                Platform.runLater(Invoker.this::closeCallDialog);
+
+                DebuggerResult result;
+                if (constructing) {
+                    result = debugger.instantiateClass(className, paramTypes, args);
+                } else {
+                    result = debugger.invokeMethod(target, className, ((MethodView) member).getName(), paramTypes, args);
+                }
+
+                Platform.runLater(() -> {
+                    // A method result is wrapped as by a shell class, while a
+                    // constructed object is returned as is.
+                    handleResult(result, false); // handles error situations
+                });
+            }
+        }.start();
+    }
+
     /**
      * Build up two strings representing the arguments to a method/constructor
      * call as a comma-seperated list enclosed in braces ie. (x, y, z)<p>
@@ -553,25 +718,116 @@ public class Invoker
                 resultType = null;
             objName = "result";
             ir = new ExpressionInvokerRecord(commandString);
+            if (readFieldWithoutShell()) {
+                return true;
+            }
         } else {
             objName = null;
             // this is a statement, treat as a void method result
             ir = new StatementInvokerRecord(commandString);
         }
 
-        File shell = writeInvocationFile("", commandString, !hasResult, resultType);
-        if (shell != null) {
-            compileInvocationFile(shell);
+        if (writeInvocationFile("", commandString, !hasResult, resultType)) {
+            compileInvocationFile();
             return true;
         } else {
             return false;
         }
     }
 
+    /**
+     * If the free form expression reads a field of an object bench object (and
+     * the field could be read in the same way by a shell class), read it directly
+     * through the debugger, without writing and compiling a shell file.
+     *
+     * @return true if the field is being read; false if the expression needs a shell class
+     */
+    private boolean readFieldWithoutShell() {
+        Matcher matcher = FIELD_READ.matcher(commandString);
+        if (!matcher.matches()) {
+            return false;
+        }
+        String name = matcher.group(1);
+        String fieldName = matcher.group(2);
+
+        // A codepad variable hides an object bench object of the same name
+        if (localVars != null && localVars.getNamedValue(name) != null) {
+            return false;
+        }
+        NamedValue benchValue = objectBenchVars.getNamedValue(name);
+        if (!(benchValue instanceof ObjectWrapper) || !benchValue.isInitialized()) {
+            return false;
+        }
+        GenTypeClass type = benchValue.getGenType().asClass();
+        Class<?> cl = (type == null) ? null : pkg.loadClass(type.classloaderName());
+        Field field = (cl == null) ? null : findField(cl, fieldName);
+        if (field == null || !isAccessible(field)) {
+            return false;
+        }
+
+        DebuggerObject target = Modifier.isStatic(field.getModifiers()) ? null : ((ObjectWrapper) benchValue).getObject();
+        String className = field.getDeclaringClass().getName();
+        watcher.beginCompile(); // there is no compile step, really
+        watcher.beginExecution(ir);
+
+        new Thread() {
+            @OnThread(Tag.Worker)
+            public void run() {
+                DebuggerResult result = debugger.readField(target, className, fieldName);
+                Platform.runLater(() -> handleResult(result, false));
+            }
+        }.start();
+        return true;
+    }
+
+    /**
+     * Find the field which an expression of the given class type refers to by the
+     * given name: a field declared in the class or its superclasses. If the name
+     * could refer to a constant of an interface, or the field can't be found, returns
+     * null (so that the compiler is left to resolve the expression).
+     */
+    private static Field findField(Class<?> cl, String name) {
+        try {
+            for (Class<?> c = cl; c != null; c = c.getSuperclass()) {
+                for (Field field : c.getDeclaredFields()) {
+                    if (field.getName().equals(name)) {
+                        return field;
+                    }
+                }
+                for (Class<?> iface : c.getInterfaces()) {
+                    try {
+                        iface.getField(name);
+                        return null;
+                    } catch (NoSuchFieldException nsfe) {
+                        // Not declared in this interface
+                    }
+                }
+            }
+        } catch (LinkageError le) {
+            // A field's type could not be loaded
+        }
+        return null;
+    }
+
+    /**
+     * Check whether a field can be read by a shell class: it must be public in a
+     * public class, or else belong to this package and not be private.
+     */
+    private boolean isAccessible(Field field) {
+        int modifiers = field.getModifiers();
+        Class<?> declaringClass = field.getDeclaringClass();
+        if (Modifier.isPublic(modifiers) && Modifier.isPublic(declaringClass.getModifiers())) {
+            return true;
+        }
+        return !Modifier.isPrivate(modifiers) && !Modifier.isPrivate(declaringClass.getModifiers())
+                && JavaNames.getPrefix(declaringClass.getName()).equals(pkgName);
+    }
+
     /**
      * Write a source file for a class (the 'shell file') to do the interactive
-     * invocation. Returns the written file, or null if the file cannot be written
-     * (an error dialog will be shown in this case).
+     * invocation. If a shell with the same source is in the package's shell cache,
+     * nothing is written and that shell is used instead. Returns false if the file
+     * cannot be written (an error dialog will be shown in this case).
      *
      * <p>A shell file has, very roughly, the following form:
      *
@@ -606,8 +862,8 @@ public class Invoker
      *                   cases to yield a more accurate result type (when generic types
      *                   are involved).
      */
-    private File writeInvocationFile(String paramInit, String callString,
-                                     boolean isVoid, String constype) {
+    private boolean writeInvocationFile(String paramInit, String callString,
+                                        boolean isVoid, String constype) {
         // Create package specification line ("package xyz")
         String packageLine;
         if (pkgName.length() == 0) {
@@ -739,43 +995,64 @@ public class Invoker
         }
         String scopeSave = buffer.toString();
 
+        // The shell source is built in two parts, either side of the shell class
+        // name; without the name, it is the key for the shell cache.
+        StringBuilder header = new StringBuilder();
+        header.append(packageLine)
+                .append(Config.nl);
+        if (imports != null) {
+            header.append(imports)
+                    .append(Config.nl);
+        }
+        header.append("public class ");
+
+        StringBuilder body = new StringBuilder();
+        body.append(" extends bluej.runtime.Shell {")
+                .append(Config.nl);
+        body.append("public static ");
+        if (isVoid) {
+            body.append("void");
+        } else {
+            body.append("java.lang.Object");
+        }
+        body.append(" run() throws Throwable {")
+                .append(Config.nl);
+        body.append(vardecl)
+                .append(Config.nl);
+        body.append(invocation);
+        body.append(scopeSave);
+        if (!isVoid) {
+            body.append("}"); // end finally block
+            if (constype != null) {
+                body.append("} };"); // end block, anonymous inner object
+            }
+        }
+        body.append(Config.nl);
+        body.append("}}"); // end method, class
+        body.append(Config.nl);
+
+        reusingShell = false;
+        shellCached = false;
+        shellSource = null;
+        if (pkg != null) {
+            shellSource = header.toString() + body.toString();
+            shellClassLoader = pkg.getProject().getClassLoader();
+            String cachedShell = pkg.getShellCache().get(shellSource, shellClassLoader);
+            if (cachedShell != null) {
+                shellName = cachedShell;
+                reusingShell = true;
+                return true;
+            }
+        }
+
         File shellFile = new File(pkgPath, shellName + ".java");
         BufferedWriter shell = null;
         try {
             FileOutputStream fos = new FileOutputStream(shellFile);
             shell = new BufferedWriter(new OutputStreamWriter(fos, sourceCharset));
-
-            shell.write(packageLine);
-            shell.newLine();
-            if (imports != null) {
-                shell.write(imports);
-                shell.newLine();
-            }
-            shell.write("public class ");
+            shell.write(header.toString());
             shell.write(shellName);
-            shell.write(" extends bluej.runtime.Shell {");
-            shell.newLine();
-            shell.write("public static ");
-            if (isVoid) {
-                shell.write("void");
-            } else {
-                shell.write("java.lang.Object");
-            }
-            shell.write(" run() throws Throwable {");
-            shell.newLine();
-            shell.write(vardecl);
-            shell.newLine();
-            shell.write(invocation);
-            shell.write(scopeSave);
-            if (!isVoid) {
-                shell.write("}"); // end finally block
-                if (constype != null) {
-                    shell.write("} };"); // end block, anonymous inner object
-                }
-            }
-            shell.newLine();
-            shell.write("}}"); // end method, class
-            shell.newLine();
+            shell.write(body.toString());
             shell.close();
         } catch (IOException e) {
             DialogManager.showErrorFX(parent, "could-not-write-shell-file");
@@ -786,9 +1063,9 @@ public class Invoker
                 }
             }
             shellFile.delete();
-            return null;
+            return false;
         }
-        return shellFile;
+        return true;
     }
 
     /**
@@ -956,10 +1233,16 @@ public class Invoker
 
     /**
      * Start the compilation of a shell fine and register us as a watcher. After
-     * this, we just wait for the callback from the compiler.
+     * this, we just wait for the callback from the compiler. If the shell was
+     * taken from the shell cache, there is nothing to compile and it is run
+     * straight away.
      */
-    private void compileInvocationFile(File shellFile) {
-        File[] files = {shellFile};
+    private void compileInvocationFile() {
+        if (reusingShell) {
+            endCompile(new CompileInputFile[0], true, CompileType.INTERNAL_COMPILE, -1);
+            return;
+        }
+        File[] files = {new File(pkgPath, shellName + ".java")};
         compiler.compile(files, new EventqueueCompileObserverAdapter(this));
     }
 
@@ -1011,6 +1294,9 @@ public class Invoker
         }
 
         if (successful) {
+            if (!reusingShell && shellSource != null) {
+                shellCached = pkg.getShellCache().put(shellSource, shellName, shellClassLoader);
+            }
             watcher.beginExecution(ir);
             startClass();
         } else {
@@ -1047,22 +1333,19 @@ public class Invoker
     }
 
     /**
-     * Remove the shell files that we created for this invocation.
+     * Remove the shell files that we created for this invocation. The class
+     * files of a shell in the shell cache are kept.
      */
     private void deleteShellFiles() {
+        if (reusingShell) {
+            return;
+        }
+
         File srcFile = new File(pkgPath, shellName + ".java");
         srcFile.delete();
 
-        File classFile = new File(pkgPath, shellName + ".class");
-        classFile.delete();
-
-        // Remove any inner class files
-        String[] innerClassFiles = pkgPath.list((dir, name) -> (name.startsWith(shellName + "$")));
-
-        if (innerClassFiles != null) {
-            for (String innerClassFile : innerClassFiles) {
-                new File(pkgPath, innerClassFile).delete();
-            }
+        if (!shellCached) {
+            ShellCache.deleteClassFiles(pkgPath, shellName);
         }
     }
 
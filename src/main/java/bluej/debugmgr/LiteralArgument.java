@@ -0,0 +1,233 @@
+/*
+ This file is part of the BlueJ program.
+ Copyright (C) 2019  Michael Kolling and John Rosenberg
+
+ This program is free software; you can redistribute it and/or
+ modify it under the terms of the GNU General Public License
+ as published by the Free Software Foundation; either version 2
+ of the License, or (at your option) any later version.
+
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with this program; if not, write to the Free Software
+ Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+
+ This file is subject to the Classpath exception as provided in the
+ LICENSE.txt file that accompanied this code.
+ */
+package bluej.debugmgr;
+
+import java.math.BigInteger;
+
+/**
+ * Interprets the arguments of an interactive call as Java literals, so that
+ * simple calls can be made without compiling a shell class. Only a common
+ * subset of the literal syntax is recognised (decimal and hexadecimal integers,
+ * decimal floating point, char, String and boolean literals, optionally a minus
+ * sign before a number); anything else is left to the compiler.
+ */
+final class LiteralArgument
+{
+    private static final BigInteger INT_MIN = BigInteger.valueOf(Integer.MIN_VALUE);
+    private static final BigInteger INT_MAX = BigInteger.valueOf(Integer.MAX_VALUE);
+    private static final BigInteger LONG_MIN = BigInteger.valueOf(Long.MIN_VALUE);
+    private static final BigInteger LONG_MAX = BigInteger.valueOf(Long.MAX_VALUE);
+
+    private enum Kind { BOOLEAN, CHAR, INT, LONG, FLOAT, DOUBLE, STRING }
+
+    private final Kind kind;
+    private final long integralValue;  // for BOOLEAN (0 or 1), CHAR, INT and LONG
+    private final double floatValue;   // for FLOAT and DOUBLE
+    private final String stringValue;  // for STRING
+
+    private LiteralArgument(Kind kind, long integralValue, double floatValue, String stringValue)
+    {
+        this.kind = kind;
+        this.integralValue = integralValue;
+        this.floatValue = floatValue;
+        this.stringValue = stringValue;
+    }
+
+    /**
+     * Interpret an argument as a literal value for a parameter of the given type,
+     * following the rules for assignment (so that an int literal may be passed
+     * for a double parameter, or for a byte parameter if it is in range).
+     *
+     * @param arg        The argument, as typed by the user
+     * @param paramType  The (erased) type of the parameter
+     * @return  The value as it should be passed to the debug VM: the contents of
+     *          a String literal, or the string form of a primitive value. Null
+     *          if the argument is not a recognised literal of a type which can be
+     *          assigned to the parameter.
+     */
+    static String valueFor(String arg, Class<?> paramType)
+    {
+        LiteralArgument literal = parse(arg.trim());
+        if (literal == null) {
+            return null;
+        }
+
+        if (! paramType.isPrimitive()) {
+            if (literal.kind == Kind.STRING && paramType.isAssignableFrom(String.class)) {
+                return literal.stringValue;
+            }
+            return null;
+        }
+
+        Kind kind = literal.kind;
+        long lv = literal.integralValue;
+        // Integer constants (of type int or char) may be narrowed if the value fits:
+        boolean intConstant = kind == Kind.INT || kind == Kind.CHAR;
+        boolean integral = intConstant || kind == Kind.LONG;
+
+        if (paramType == boolean.class) {
+            return kind == Kind.BOOLEAN ? String.valueOf(lv != 0) : null;
+        }
+        else if (paramType == char.class) {
+            return intConstant && lv >= Character.MIN_VALUE && lv <= Character.MAX_VALUE
+                    ? String.valueOf((char) lv) : null;
+        }
+        else if (paramType == byte.class) {
+            return intConstant && lv >= Byte.MIN_VALUE && lv <= Byte.MAX_VALUE ? String.valueOf(lv) : null;
+        }
+        else if (paramType == short.class) {
+            return intConstant && lv >= Short.MIN_VALUE && lv <= Short.MAX_VALUE ? String.valueOf(lv) : null;
+        }
+        else if (paramType == int.class) {
+            return intConstant ? String.valueOf(lv) : null;
+        }
+        else if (paramType == long.class) {
+            return integral ? String.valueOf(lv) : null;
+        }
+        else if (paramType == float.class) {
+            if (integral) {
+                return String.valueOf((float) lv);
+            }
+            return kind == Kind.FLOAT ? String.valueOf((float) literal.floatValue) : null;
+        }
+        else if (paramType == double.class) {
+            if (integral) {
+                return String.valueOf((double) lv);
+            }
+            return kind == Kind.FLOAT || kind == Kind.DOUBLE ? String.valueOf(literal.floatValue) : null;
+        }
+        return null;
+    }
+
+    /**
+     * Parse a literal. Returns null if the text is not a literal of the supported
+     * forms (or is not a valid literal at all).
+     */
+    private static LiteralArgument parse(String text)
+    {
+        if (text.equals("true") || text.equals("false")) {
+            return new LiteralArgument(Kind.BOOLEAN, text.equals("true") ? 1 : 0, 0, null);
+        }
+        if (text.length() >= 2 && text.charAt(0) == '"' && text.charAt(text.length() - 1) == '"') {
+            String value = unescape(text.substring(1, text.length() - 1), '"');
+            return value == null ? null : new LiteralArgument(Kind.STRING, 0, 0, value);
+        }
+        if (text.length() >= 3 && text.charAt(0) == '\'' && text.charAt(text.length() - 1) == '\'') {
+            String value = unescape(text.substring(1, text.length() - 1), '\'');
+            if (value == null || value.length() != 1) {
+                return null;
+            }
+            return new LiteralArgument(Kind.CHAR, value.charAt(0), 0, null);
+        }
+
+        boolean negative = text.startsWith("-");
+        String number = negative ? text.substring(1) : text;
+        if (number.matches("(0|[1-9][0-9]*)[lL]?")) {
+            // decimal integer
+            boolean isLong = Character.toLowerCase(number.charAt(number.length() - 1)) == 'l';
+            BigInteger value = new BigInteger(isLong ? number.substring(0, number.length() - 1) : number);
+            if (negative) {
+                value = value.negate();
+            }
+            if (value.compareTo(isLong ? LONG_MIN : INT_MIN) < 0 || value.compareTo(isLong ? LONG_MAX : INT_MAX) > 0) {
+                return null;
+            }
+            return new LiteralArgument(isLong ? Kind.LONG : Kind.INT, value.longValue(), 0, null);
+        }
+        if (number.matches("0[xX][0-9a-fA-F]+[lL]?")) {
+            // hexadecimal integer: the value may use all bits (0xFFFFFFFF is -1)
+            boolean isLong = Character.toLowerCase(number.charAt(number.length() - 1)) == 'l';
+            BigInteger value = new BigInteger(number.substring(2, number.length() - (isLong ? 1 : 0)), 16);
+            if (value.bitLength() > (isLong ? 64 : 32)) {
+                return null;
+            }
+            long lv = isLong ? value.longValue() : value.intValue();
+            if (negative) {
+                lv = isLong ? -lv : -(int) lv;
+            }
+            return new LiteralArgument(isLong ? Kind.LONG : Kind.INT, lv, 0, null);
+        }
+        if (number.matches("([0-9]+\\.[0-9]*|\\.[0-9]+|[0-9]+)([eE][+-]?[0-9]+)?[fFdD]?")
+                && ! number.matches("[0-9]+")) {
+            // decimal floating point (a plain digit string is an integer, handled above)
+            char suffix = Character.toLowerCase(number.charAt(number.length() - 1));
+            boolean isFloat = suffix == 'f';
+            double value = isFloat ? Float.parseFloat(number) : Double.parseDouble(number);
+            if (Double.isInfinite(value)) {
+                return null; // too large: a compile error
+            }
+            if (value == 0 && number.replaceFirst("[eE].*", "").matches(".*[1-9].*")) {
+                return null; // too small (rounds to zero): a compile error
+            }
+            return new LiteralArgument(isFloat ? Kind.FLOAT : Kind.DOUBLE, 0, negative ? -value : value, null);
+        }
+        return null;
+    }
+
+    /**
+     * Process the escape sequences in the body of a String or char literal. Returns
+     * null if the body is not valid (an unescaped delimiter or line break, or an
+     * unrecognised escape sequence).
+     */
+    private static String unescape(String body, char delimiter)
+    {
+        StringBuilder result = new StringBuilder(body.length());
+        int i = 0;
+        while (i < body.length()) {
+            char c = body.charAt(i++);
+            if (c == delimiter || c == '\n' || c == '\r') {
+                return null;
+            }
+            if (c != '\\') {
+                result.append(c);
+                continue;
+            }
+            if (i == body.length()) {
+                return null;
+            }
+            c = body.charAt(i++);
+            switch (c) {
+                case 'b': result.append('\b'); break;
+                case 't': result.append('\t'); break;
+                case 'n': result.append('\n'); break;
+                case 'f': result.append('\f'); break;
+                case 'r': result.append('\r'); break;
+                case '"': case '\'': case '\\': result.append(c); break;
+                default:
+                    if (c >= '0' && c <= '7') {
+                        // octal escape: up to three digits, with a maximum value of \377
+                        int value = c - '0';
+                        int maxDigits = c <= '3' ? 3 : 2;
+                        for (int n = 1; n < maxDigits && i < body.length()
+                                && body.charAt(i) >= '0' && body.charAt(i) <= '7'; n++) {
+                            value = value * 8 + body.charAt(i++) - '0';
+                        }
+                        result.append((char) value);
+                    }
+                    else {
+                        return null;
+                    }
+            }
+        }
+        return result.toString();
+    }
+}
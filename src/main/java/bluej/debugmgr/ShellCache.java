@@ -0,0 +1,140 @@
+/*
+ This file is part of the BlueJ program.
+ Copyright (C) 2019  Michael Kolling and John Rosenberg
+
+ This program is free software; you can redistribute it and/or
+ modify it under the terms of the GNU General Public License
+ as published by the Free Software Foundation; either version 2
+ of the License, or (at your option) any later version.
+
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with this program; if not, write to the Free Software
+ Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+
+ This file is subject to the Classpath exception as provided in the
+ LICENSE.txt file that accompanied this code.
+ */
+package bluej.debugmgr;
+
+import threadchecker.OnThread;
+import threadchecker.Tag;
+
+import java.io.File;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Keeps the compiled shell classes of a package (see Invoker), so that an
+ * invocation which produces exactly the same shell source as an earlier one can
+ * be run again without compiling.
+ * 
+ * <p>Shells are keyed by their source with the shell class name left out. The
+ * source declares all object bench and codepad variables, so a shell is only
+ * reused while these are unchanged. The cache is emptied, and the class files
+ * deleted, when the project class loader changes, since the shells were compiled
+ * against the classes it loaded.
+ */
+@OnThread(Tag.Any)
+public class ShellCache
+{
+    /** The maximum number of shells kept; the least recently used is discarded first. */
+    private static final int MAX_SHELLS = 20;
+
+    private final File dir;
+    private ClassLoader classLoader;
+    private final LinkedHashMap<String, String> shells = new LinkedHashMap<String, String>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, String> eldest)
+        {
+            if (size() > MAX_SHELLS) {
+                deleteClassFiles(dir, eldest.getValue());
+                return true;
+            }
+            return false;
+        }
+    };
+
+    /**
+     * Create a shell cache for the package in the given directory.
+     */
+    public ShellCache(File dir)
+    {
+        this.dir = dir;
+    }
+
+    /**
+     * Find the compiled shell for the given source.
+     * 
+     * @param source  The shell source, without the shell class name
+     * @param loader  The current project class loader
+     * @return  The name (without package) of the cached shell class, or null
+     */
+    public synchronized String get(String source, ClassLoader loader)
+    {
+        checkClassLoader(loader);
+        return shells.get(source);
+    }
+
+    /**
+     * Record a shell which has been compiled successfully. The caller must not
+     * delete the class files of the shell if it is added.
+     * 
+     * @param source     The shell source, without the shell class name
+     * @param shellName  The name (without package) of the shell class
+     * @param loader     The project class loader the shell was compiled against
+     * @return  true if the shell was added; false if the cache already holds a
+     *          shell for this source
+     */
+    public synchronized boolean put(String source, String shellName, ClassLoader loader)
+    {
+        checkClassLoader(loader);
+        if (shells.containsKey(source)) {
+            return false;
+        }
+        shells.put(source, shellName);
+        return true;
+    }
+
+    /**
+     * Discard all cached shells and delete their class files.
+     */
+    public synchronized void clear()
+    {
+        for (String shellName : shells.values()) {
+            deleteClassFiles(dir, shellName);
+        }
+        shells.clear();
+    }
+
+    /**
+     * Empty the cache if the project class loader has changed since shells were
+     * last added.
+     */
+    private void checkClassLoader(ClassLoader loader)
+    {
+        if (loader != classLoader) {
+            clear();
+            classLoader = loader;
+        }
+    }
+
+    /**
+     * Delete the class files of a shell, including those of any inner classes.
+     */
+    static void deleteClassFiles(File dir, String shellName)
+    {
+        new File(dir, shellName + ".class").delete();
+
+        String[] innerClassFiles = dir.list((d, name) -> (name.startsWith(shellName + "$")));
+        if (innerClassFiles != null) {
+            for (String innerClassFile : innerClassFiles) {
+                new File(dir, innerClassFile).delete();
+            }
+        }
+    }
+}
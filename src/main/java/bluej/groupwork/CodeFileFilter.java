@@ -1,6 +1,6 @@
 /*
  This file is part of the BlueJ program. 
- Copyright (C) 1999-2009,2010,2017,2018  Michael Kolling and John Rosenberg 
+ Copyright (C) 1999-2009,2010,2017,2018,2019  Michael Kolling and John Rosenberg 
  
  This program is free software; you can redistribute it and/or 
  modify it under the terms of the GNU General Public License 
@@ -22,6 +22,7 @@
 package bluej.groupwork;
 
 import bluej.pkgmgr.BlueJPackageFile;
+import bluej.pkgmgr.PackageApiIndex;
 import bluej.utility.Debug;
 
 import java.io.File;
@@ -149,6 +150,10 @@ public class CodeFileFilter implements FileFilter, FilenameFilter
         if (name.equals("bluej.pkh")) {
             return false;
         }
+        // the class API index, which is regenerated by compiling
+        if (name.equals(PackageApiIndex.INDEX_FILE_NAME)) {
+            return false;
+        }
         if (name.equals("team.defs")) {
             return false;
         }
@@ -1,6 +1,6 @@
 /*
  This file is part of the BlueJ program. 
- Copyright (C) 1999-2009,2014,2015,2016,2018  Michael Kolling and John Rosenberg
+ Copyright (C) 1999-2009,2014,2015,2016,2018,2019  Michael Kolling and John Rosenberg
  
  This program is free software; you can redistribute it and/or 
  modify it under the terms of the GNU General Public License 
@@ -22,6 +22,7 @@
 package bluej.pkgmgr;
 
 import bluej.Config;
+import bluej.debugmgr.Invoker;
 import bluej.extensions.SourceType;
 import bluej.pkgmgr.t4rget.ClassTarget;
 import bluej.utility.Debug;
@@ -257,13 +258,15 @@ final class ExportManager
 
     /**
      * Checks whether a file should be skipped during a copy operation.
-     * BlueJ specific files (bluej.pkg and *.ctxt) and - optionally - Java
-     * source files are skipped.
+     * BlueJ specific files (bluej.pkg, bluej.api, *.ctxt and shell classes kept for
+     * interactive calls) and - optionally - Java source files are skipped.
      */
     @OnThread(Tag.Any)
     private boolean skipFile(String fileName, boolean skipSource, boolean skipPkg)
     {
-        if(fileName.equals(packageFileBackup))
+        if(fileName.equals(packageFileBackup) || fileName.equals(PackageApiIndex.INDEX_FILE_NAME))
+            return true;
+        if(fileName.startsWith(Invoker.SHELLNAME))
             return true;
         
         if(fileName.endsWith(sourceSuffix) || fileName.endsWith(sourceSuffix + "~"))
@@ -1,6 +1,6 @@
 /*
  This file is part of the BlueJ program. 
- Copyright (C) 1999-2010,2011,2012,2013,2014,2015,2016,2017,2018  Michael Kolling and John Rosenberg
+ Copyright (C) 1999-2010,2011,2012,2013,2014,2015,2016,2017,2018,2019  Michael Kolling and John Rosenberg
  
  This program is free software; you can redistribute it and/or 
  modify it under the terms of the GNU General Public License 
@@ -26,6 +26,7 @@ import bluej.compiler.*;
 import bluej.debugger.*;
 import bluej.debugmgr.CallHistory;
 import bluej.debugmgr.Invoker;
+import bluej.debugmgr.ShellCache;
 import bluej.editor.Editor;
 import bluej.editor.TextEditor;
 import bluej.editor.stride.FrameEditor;
@@ -167,6 +168,9 @@ public final class Package
     /** the CallHistory of a package */
     private CallHistory callHistory;
 
+    /** compiled shell classes kept for reuse by interactive calls */
+    private ShellCache shellCache;
+
     /**
      * needed when debugging with breakpoints to see if the editor window needs
      * to be brought to the front
@@ -218,6 +222,15 @@ public final class Package
     /** File pointing at the directory for this package */
     @OnThread(Tag.Any)
     private File dir;
+    
+    /** The recorded API of the compiled classes, used to avoid needlessly recompiling dependents */
+    @OnThread(Tag.Any)
+    private PackageApiIndex apiIndex;
+    
+    /** The part of its compile job which each class target being compiled is in (see doCompile) */
+    private final Map<ClassTarget, Integer> compileParts = new HashMap<>();
+    /** The number to identify the next compile job part by */
+    private int nextCompilePart;
 
     /* ------------------- end of field declarations ------------------- */
 
@@ -266,6 +279,8 @@ public final class Package
     {
         callHistory = new CallHistory(HISTORY_LENGTH);
         dir = new File(project.getProjectDir(), getRelativePath().getPath());
+        apiIndex = new PackageApiIndex(dir, getQualifiedName());
+        shellCache = new ShellCache(dir);
         load();
     }
 
@@ -877,7 +892,9 @@ public final class Package
 
             if (target instanceof ClassTarget) {
                 ClassTarget ct = (ClassTarget) target;
-                if (ct.isCompiled() && !ct.upToDate()) {
+                // A stale class was invalidated by an API change which it has not yet
+                // been successfully recompiled against, so its class file is out of date:
+                if (ct.isCompiled() && (!ct.upToDate() || apiIndex.isStale(ct.getBaseName()))) {
                     ct.setState(State.NEEDS_COMPILE);
                     invalidated.add(ct);
                 }
@@ -886,14 +903,15 @@ public final class Package
         
         while (! invalidated.isEmpty()) {
             ClassTarget ct = invalidated.removeFirst();
-            for (Dependency dependent : ct.dependentsAsList()) {
-                DependentTarget dt = dependent.getFrom();
-                if (dt instanceof ClassTarget) {
-                    ClassTarget dep = (ClassTarget) dt;
-                    if (dep.isCompiled() && dep.hasSourceCode()) {
-                        dep.setState(State.NEEDS_COMPILE);
-                        invalidated.add(dep);
-                    }
+            if (apiIndex.hasEntry(ct.getBaseName())) {
+                // We know the API which the dependents were compiled against; they will be
+                // invalidated only if it changes when the class is recompiled.
+                continue;
+            }
+            for (ClassTarget dep : getApiDependents(ct)) {
+                if (dep.isCompiled() && dep.hasSourceCode()) {
+                    dep.setState(State.NEEDS_COMPILE);
+                    invalidated.add(dep);
                 }
             }
         }
@@ -1621,16 +1639,153 @@ public final class Package
     /**
      * Compile every Target in 'targetList'. Every compilation goes through this method.
      * All targets in the list should have been saved beforehand.
+     * 
+     * <p>Targets which do not depend on each other (directly or indirectly, via other
+     * targets in the list) may be compiled concurrently, in separate parts of the job.
+     * The parts are compiled into the same directory, so a class must never be compiled
+     * in one part while another reads it; if the dependencies of any target are not known
+     * (because its source has changed since it was last analysed), all targets are
+     * compiled in one part.
      */
     private void doCompile(Collection<ClassTarget> targetList, FXCompileObserver edtObserver, CompileReason reason, CompileType type)
     {
-        List<CompileInputFile> srcFiles = Utility.mapList(targetList, ClassTarget::getCompileInputFile);
-               
-        if (srcFiles.size() > 0)
+        if (targetList.isEmpty())
+        {
+            return;
+        }
+        
+        JobQueue jobQueue = JobQueue.getJobQueue();
+        boolean dependenciesKnown = targetList.stream()
+                .allMatch(ct -> ct.getSourceInfo().getInfoIfAvailable() != null);
+        List<List<ClassTarget>> independentTargets = JobQueue.partition(targetList,
+                this::getRelatedClassTargets, dependenciesKnown ? jobQueue.getThreadCount() : 1);
+        for (List<ClassTarget> part : independentTargets)
+        {
+            int partNumber = nextCompilePart++;
+            for (ClassTarget ct : part)
+            {
+                compileParts.put(ct, partNumber);
+            }
+        }
+        List<CompileInputFile[]> parts = Utility.mapList(independentTargets,
+                part -> Utility.mapList(part, ClassTarget::getCompileInputFile).toArray(new CompileInputFile[0]));
+        jobQueue.addJob(parts, new EventqueueCompileObserverAdapter(edtObserver), project.getClassLoader(),
+                project.getProjectDir(), ! PrefMgr.getFlag(PrefMgr.SHOW_UNCHECKED), project.getProjectCharset(),
+                reason, type);
+    }
+
+    /**
+     * Get the class targets which a class target depends on, or which depend on it
+     * (through uses, extends or implements dependencies, or because the class file
+     * of one referred to the other when last compiled; the latter also covers
+     * references which source analysis misses, such as fully qualified names).
+     */
+    private Collection<ClassTarget> getRelatedClassTargets(ClassTarget ct)
+    {
+        List<ClassTarget> related = new ArrayList<>();
+        Set<String> recorded = new HashSet<>(apiIndex.getRecordedUses(ct.getBaseName()));
+        recorded.addAll(apiIndex.getRecordedDependents(ct.getBaseName()));
+        for (String name : recorded)
+        {
+            Target t = targets.get(name);
+            if (t instanceof ClassTarget)
+            {
+                related.add((ClassTarget) t);
+            }
+        }
+        for (Dependency d : ct.dependencies())
+        {
+            if (d.getTo() instanceof ClassTarget)
+            {
+                related.add((ClassTarget) d.getTo());
+            }
+        }
+        for (Dependency d : ct.dependents())
+        {
+            if (d.getFrom() instanceof ClassTarget)
+            {
+                related.add((ClassTarget) d.getFrom());
+            }
+        }
+        return related;
+    }
+
+    /**
+     * Get the class targets which may need recompiling if the API of the given class
+     * target changes: those with a dependency on it, and those whose class files referred
+     * to it when they were last compiled.
+     */
+    private Set<ClassTarget> getApiDependents(ClassTarget ct)
+    {
+        Set<ClassTarget> dependents = new HashSet<>();
+        for (Dependency d : ct.dependentsAsList())
+        {
+            if (d.getFrom() instanceof ClassTarget)
+            {
+                dependents.add((ClassTarget) d.getFrom());
+            }
+        }
+        for (String name : apiIndex.getRecordedDependents(ct.getBaseName()))
         {
-            JobQueue.getJobQueue().addJob(srcFiles.toArray(new CompileInputFile[0]), project.getClassLoader(), project.getProjectDir(),
-                ! PrefMgr.getFlag(PrefMgr.SHOW_UNCHECKED), project.getProjectCharset(), reason, type);
+            Target t = targets.get(name);
+            if (t instanceof ClassTarget)
+            {
+                dependents.add((ClassTarget) t);
+            }
         }
+        return dependents;
+    }
+
+    /**
+     * Record the API of classes which have just been compiled, and invalidate the compiled
+     * dependents of those whose API has changed (or was not previously known). Dependents
+     * which were compiled in the same part of the same job as the changed classes are left
+     * alone; those compiled in another part may have been compiled against the old class.
+     * The invalidated dependents are marked stale in the API index, which is saved along
+     * with the new APIs, so that they are still recompiled if the project is closed before
+     * they compile successfully.
+     * 
+     * @return  true if any dependents were invalidated, and so need compiling
+     */
+    private boolean checkApiChanges(Collection<ClassTarget> compiled)
+    {
+        List<ClassTarget> changed = new ArrayList<>();
+        for (ClassTarget ct : compiled)
+        {
+            if (apiIndex.update(ct.getBaseName()))
+            {
+                changed.add(ct);
+            }
+        }
+        
+        Set<ClassTarget> invalidated = new LinkedHashSet<>();
+        for (ClassTarget ct : changed)
+        {
+            for (ClassTarget dependent : getApiDependents(ct))
+            {
+                if (dependent.isCompiled() && dependent.hasSourceCode() && ! compiledTogether(ct, dependent))
+                {
+                    apiIndex.markStale(dependent.getBaseName());
+                    invalidated.add(dependent);
+                }
+            }
+        }
+        apiIndex.save();
+        
+        for (ClassTarget dependent : invalidated)
+        {
+            dependent.invalidate();
+        }
+        return ! invalidated.isEmpty();
+    }
+
+    /**
+     * Check whether two class targets were compiled in the same part of a compile job.
+     */
+    private boolean compiledTogether(ClassTarget ct, ClassTarget other)
+    {
+        Integer part = compileParts.get(ct);
+        return part != null && part.equals(compileParts.get(other));
     }
 
     /**
@@ -1784,6 +1939,10 @@ public final class Package
     public synchronized void removeTarget(Target t)
     {
         targets.remove(t.getIdentifierName());
+        if (t instanceof ClassTarget)
+        {
+            forgetApi(t.getIdentifierName());
+        }
         t.setRemoved();
         fireChangedEvent();
     }
@@ -1801,6 +1960,23 @@ public final class Package
         }
         targets.remove(oldIdentifier);
         targets.add(newIdentifier, t);
+        if (t instanceof ClassTarget)
+        {
+            forgetApi(oldIdentifier);
+        }
+    }
+
+    /**
+     * Remove the recorded API of a class which no longer exists under the given name,
+     * so that it isn't reported as a dependent of the classes it used.
+     */
+    private void forgetApi(String className)
+    {
+        if (apiIndex.hasEntry(className))
+        {
+            apiIndex.remove(className);
+            apiIndex.save();
+        }
     }
 
     /**
@@ -2660,6 +2836,7 @@ public final class Package
         @Override
         public void endCompile(CompileInputFile[] sources, boolean successful, CompileType type, int compilationSequence)
         {
+            Set<ClassTarget> compiled = new HashSet<>();
             for (int i = 0; i < sources.length; i++) {
                 String filename = sources[i].getJavaCompileInputFile().getPath();
 
@@ -2679,6 +2856,8 @@ public final class Package
                 
                 if (t.isCompiled())
                 {
+                    compiled.add(t);
+
                     //check if there already exists a class in a library with that name 
                     Class<?> c = loadClass(getQualifiedName(t.getIdentifierName()));
                     if (c!=null){
@@ -2708,6 +2887,17 @@ public final class Package
                 }
             }
             
+            // Classes which depend on a class whose API has changed must be compiled in turn:
+            boolean dependentsInvalidated = type.keepClasses() && ! compiled.isEmpty() && checkApiChanges(compiled);
+            for (CompileInputFile source : sources)
+            {
+                String fullName = getProject().convertPathToPackageName(source.getJavaCompileInputFile().getPath());
+                if (fullName != null)
+                {
+                    compileParts.remove(targets.get(JavaNames.getBase(fullName)));
+                }
+            }
+            
             if (type.keepClasses())
             {
                 setStatus(compileDone);
@@ -2723,6 +2913,11 @@ public final class Package
             {
                 chainedObserver.endCompile(sources, successful, type, compilationSequence);
             }
+            
+            if (dependentsInvalidated)
+            {
+                compileOnceIdle(null, CompileReason.MODIFIED, type);
+            }
         }
     }
     
@@ -2963,6 +3158,15 @@ public final class Package
         return callHistory;
     }
 
+    /**
+     * Get the cache of compiled shell classes for interactive calls in this package.
+     */
+    @OnThread(Tag.Any)
+    public ShellCache getShellCache()
+    {
+        return shellCache;
+    }
+
     /**
      * String representation for debugging.
      */
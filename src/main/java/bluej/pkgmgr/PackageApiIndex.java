@@ -0,0 +1,266 @@
+/*
+ This file is part of the BlueJ program.
+ Copyright (C) 2019  Michael Kolling and John Rosenberg
+
+ This program is free software; you can redistribute it and/or
+ modify it under the terms of the GNU General Public License
+ as published by the Free Software Foundation; either version 2
+ of the License, or (at your option) any later version.
+
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with this program; if not, write to the Free Software
+ Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+
+ This file is subject to the Classpath exception as provided in the
+ LICENSE.txt file that accompanied this code.
+ */
+package bluej.pkgmgr;
+
+import bluej.classmgr.ClassApiFingerprint;
+import bluej.utility.Debug;
+import bluej.utility.SortedProperties;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
+import java.util.TreeSet;
+
+/**
+ * An index recording, for each compiled class in a package, the fingerprint of the API
+ * it had when last compiled (see {@link ClassApiFingerprint}) and the other classes in
+ * the package which its class file refers to. The index lets a package skip recompiling
+ * the dependents of a class whose API has not changed; it is kept in the package directory
+ * so that it survives restarts.
+ * 
+ * <p>The index also records which classes are stale: those invalidated because the API of
+ * a class they depend on changed, which have not been successfully compiled since. Their
+ * class files cannot be trusted even if they are newer than their source.
+ */
+public class PackageApiIndex
+{
+    /** The name of the index file within the package directory */
+    public static final String INDEX_FILE_NAME = "bluej.api";
+    
+    private static final String FINGERPRINT_SUFFIX = ".fingerprint";
+    private static final String MODIFIED_SUFFIX = ".modified";
+    private static final String USES_SUFFIX = ".uses";
+    private static final String STALE_SUFFIX = ".stale";
+    
+    private final File dir;
+    /** The prefix of the internal names of classes in the package, e.g. "java/lang/" */
+    private final String packagePrefix;
+    private final Map<String, Entry> entries = new HashMap<>();
+    /** The base names of classes which need recompiling against the changed API of another */
+    private final Set<String> stale = new HashSet<>();
+    
+    /**
+     * Load the index for the package in the given directory. Entries for classes whose
+     * class file has been removed, or replaced by something other than the compile which
+     * recorded the entry, are dropped.
+     * 
+     * @param dir          the package directory
+     * @param packageName  the fully qualified name of the package ("" for the unnamed package)
+     */
+    public PackageApiIndex(File dir, String packageName)
+    {
+        this.dir = dir;
+        this.packagePrefix = packageName.isEmpty() ? "" : packageName.replace('.', '/') + "/";
+        
+        File indexFile = new File(dir, INDEX_FILE_NAME);
+        if (! indexFile.exists()) {
+            return;
+        }
+        
+        Properties props = new Properties();
+        try (InputStream in = new FileInputStream(indexFile)) {
+            props.load(in);
+        }
+        catch (IOException ioe) {
+            Debug.reportError("Could not read class API index " + indexFile, ioe);
+            return;
+        }
+        
+        for (String key : props.stringPropertyNames()) {
+            if (key.endsWith(STALE_SUFFIX)) {
+                stale.add(key.substring(0, key.length() - STALE_SUFFIX.length()));
+                continue;
+            }
+            if (! key.endsWith(FINGERPRINT_SUFFIX)) {
+                continue;
+            }
+            String className = key.substring(0, key.length() - FINGERPRINT_SUFFIX.length());
+            try {
+                long modified = Long.parseLong(props.getProperty(className + MODIFIED_SUFFIX, ""));
+                if (getClassFile(className).lastModified() != modified) {
+                    continue;
+                }
+                Set<String> uses = new HashSet<>();
+                String usesList = props.getProperty(className + USES_SUFFIX, "");
+                if (! usesList.isEmpty()) {
+                    uses.addAll(Arrays.asList(usesList.split(",")));
+                }
+                entries.put(className, new Entry(props.getProperty(key), modified, uses));
+            }
+            catch (NumberFormatException nfe) {
+                // Ignore the entry; the class will be treated as having an unknown API
+            }
+        }
+    }
+    
+    /**
+     * Check whether the API of the given class (by base name) is known, that is, whether
+     * the class has been compiled with this index in use and has not changed since.
+     */
+    public synchronized boolean hasEntry(String className)
+    {
+        return entries.containsKey(className);
+    }
+    
+    /**
+     * Record the API of a class which has just been compiled, reading it from its class
+     * file, and return whether it differs from the API previously recorded. If there is
+     * no previous record, or the class file cannot be read, the API is considered changed.
+     */
+    public synchronized boolean update(String className)
+    {
+        File classFile = getClassFile(className);
+        Entry oldEntry = entries.remove(className);
+        stale.remove(className);
+        try {
+            ClassApiFingerprint fingerprint = ClassApiFingerprint.read(classFile);
+            
+            Set<String> uses = new HashSet<>();
+            for (String referenced : fingerprint.getReferencedClasses()) {
+                if (referenced.startsWith(packagePrefix) && referenced.indexOf('/', packagePrefix.length()) == -1) {
+                    // A member class is compiled with its top-level class:
+                    String baseName = referenced.substring(packagePrefix.length());
+                    int dollar = baseName.indexOf('$');
+                    if (dollar > 0) {
+                        baseName = baseName.substring(0, dollar);
+                    }
+                    if (! baseName.equals(className)) {
+                        uses.add(baseName);
+                    }
+                }
+            }
+            
+            entries.put(className, new Entry(fingerprint.getFingerprint(), classFile.lastModified(), uses));
+            return oldEntry == null || ! oldEntry.fingerprint.equals(fingerprint.getFingerprint());
+        }
+        catch (IOException ioe) {
+            Debug.reportError("Could not read API of class file " + classFile, ioe);
+            return true;
+        }
+    }
+    
+    /**
+     * Remove the record for a class (for instance, because it has been removed).
+     */
+    public synchronized void remove(String className)
+    {
+        entries.remove(className);
+        stale.remove(className);
+    }
+    
+    /**
+     * Record that a class must be recompiled, because a class it depends on has changed
+     * its API. The record is kept (across restarts, once saved) until the class is next
+     * compiled successfully, and its API recorded with {@link #update}.
+     */
+    public synchronized void markStale(String className)
+    {
+        stale.add(className);
+    }
+    
+    /**
+     * Check whether a class has been marked stale, and not compiled since.
+     */
+    public synchronized boolean isStale(String className)
+    {
+        return stale.contains(className);
+    }
+    
+    /**
+     * Get the base names of the classes in the package which the class file of
+     * the given class referred to when it was last compiled.
+     */
+    public synchronized Set<String> getRecordedUses(String className)
+    {
+        Entry entry = entries.get(className);
+        return entry == null ? Collections.emptySet() : entry.uses;
+    }
+    
+    /**
+     * Get the base names of the classes whose class files, when last compiled,
+     * referred to the given class.
+     */
+    public synchronized Set<String> getRecordedDependents(String className)
+    {
+        Set<String> dependents = new TreeSet<>();
+        for (Map.Entry<String, Entry> entry : entries.entrySet()) {
+            if (entry.getValue().uses.contains(className)) {
+                dependents.add(entry.getKey());
+            }
+        }
+        return dependents;
+    }
+    
+    /**
+     * Save the index to the package directory.
+     */
+    public synchronized void save()
+    {
+        SortedProperties props = new SortedProperties();
+        for (Map.Entry<String, Entry> entry : entries.entrySet()) {
+            String className = entry.getKey();
+            props.setProperty(className + FINGERPRINT_SUFFIX, entry.getValue().fingerprint);
+            props.setProperty(className + MODIFIED_SUFFIX, Long.toString(entry.getValue().modified));
+            props.setProperty(className + USES_SUFFIX, String.join(",", new TreeSet<>(entry.getValue().uses)));
+        }
+        for (String className : stale) {
+            props.setProperty(className + STALE_SUFFIX, "true");
+        }
+        
+        File indexFile = new File(dir, INDEX_FILE_NAME);
+        try (OutputStream out = new FileOutputStream(indexFile)) {
+            props.store(out, "BlueJ class API index");
+        }
+        catch (IOException ioe) {
+            Debug.reportError("Could not save class API index " + indexFile, ioe);
+        }
+    }
+    
+    private File getClassFile(String className)
+    {
+        return new File(dir, className + ".class");
+    }
+    
+    private static class Entry
+    {
+        final String fingerprint;
+        final long modified;
+        final Set<String> uses;
+        
+        Entry(String fingerprint, long modified, Set<String> uses)
+        {
+            this.fingerprint = fingerprint;
+            this.modified = modified;
+            this.uses = Collections.unmodifiableSet(uses);
+        }
+    }
+}
@@ -1,6 +1,6 @@
 /*
  This file is part of the BlueJ program. 
- Copyright (C) 1999-2009,2010,2011,2012,2013,2014,2015,2016,2017,2018  Michael Kolling and John Rosenberg 
+ Copyright (C) 1999-2009,2010,2011,2012,2013,2014,2015,2016,2017,2018,2019  Michael Kolling and John Rosenberg 
  
  This program is free software; you can redistribute it and/or 
  modify it under the terms of the GNU General Public License 
@@ -28,6 +28,7 @@ import bluej.classmgr.BPClassLoader;
 import bluej.classmgr.ClassMgrPrefPanel;
 import bluej.compiler.CompileReason;
 import bluej.compiler.CompileType;
+import bluej.compiler.CompilerAPICompiler;
 import bluej.debugger.*;
 import bluej.debugmgr.ExecControls;
 import bluej.debugmgr.ExpressionInformation;
@@ -584,6 +585,8 @@ public class Project implements DebuggerListener, DebuggerThreadListener, Inspec
         project.removeAllInspectors();
         project.getDebugger().removeDebuggerListener(project);
         project.getDebugger().close(false);
+        CompilerAPICompiler.closeFileManagers(project.getProjectDir());
+        project.packages.values().forEach(p -> p.getShellCache().clear());
 
         projects.remove(project.getProjectDir());
     }
@@ -1526,6 +1529,9 @@ public class Project implements DebuggerListener, DebuggerThreadListener, Inspec
         // remove views for classes loaded by this classloader
         View.removeAll(currentClassLoader);
 
+        // cached shell classes were compiled against classes from this classloader
+        packages.values().forEach(p -> p.getShellCache().clear());
+
         if (!Config.isGreenfoot()) {
             // dispose windows for local classes. Should not run user code
             // on the event queue, so run it in a separate thread.
@@ -804,7 +804,8 @@ public class ClassTarget extends DependentTarget
     }
 
     /**
-     * Mark this class as modified, and mark all dependent classes too
+     * Mark this class as modified. Dependent classes are not marked; the package
+     * invalidates them once this class has been recompiled, if its API has changed.
      */
     public void invalidate() {
         // Mark any current compilation as stale:
@@ -813,15 +814,6 @@ public class ClassTarget extends DependentTarget
         if (hasSourceCode()) {
             markModified();
         }
-        for (Dependency d : dependents()) {
-            ClassTarget dependent = (ClassTarget) d.getFrom();
-
-            if (dependent.isCompiled() && dependent.hasSourceCode()) {
-                // Invalidate the dependent only if it is not already invalidated. 
-                // Will avoid going into an infinite circular loop.
-                dependent.invalidate();
-            }
-        }
     }
 
     /**
@@ -2236,6 +2228,12 @@ public class ClassTarget extends DependentTarget
 
         // flag dependent Targets as invalid
         invalidate();
+        for (Dependency d : dependents()) {
+            ClassTarget dependent = (ClassTarget) d.getFrom();
+            if (dependent.isCompiled() && dependent.hasSourceCode()) {
+                dependent.invalidate();
+            }
+        }
         removeAllInDependencies();
         removeAllOutDependencies();
         // remove associated files (.frame, .class, .java and .ctxt)
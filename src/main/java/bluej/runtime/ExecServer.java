@@ -1,6 +1,6 @@
 /*
  This file is part of the BlueJ program. 
- Copyright (C) 1999-2009,2010,2011,2012,2013,2014,2016,2017  Michael Kolling and John Rosenberg
+ Copyright (C) 1999-2009,2010,2011,2012,2013,2014,2016,2017,2019  Michael Kolling and John Rosenberg
  
  This program is free software; you can redistribute it and/or 
  modify it under the terms of the GNU General Public License 
@@ -48,6 +48,7 @@ import java.lang.reflect.Constructor;
 import java.lang.reflect.Field;
 import java.lang.reflect.InvocationTargetException;
 import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
 import java.net.MalformedURLException;
 import java.net.URL;
 import java.net.URLClassLoader;
@@ -98,6 +99,7 @@ public class ExecServer
     public static String methodToRun;
     public static String [] parameterTypes;
     public static Object [] arguments;
+    public static Object targetObject;   // the receiver for INVOKE_METHOD or READ_FIELD (null if static)
     public static int execAction = -1;   // EXEC_SHELL, TEST_SETUP or TEST_RUN
     
     public static Object methodReturn;
@@ -110,6 +112,7 @@ public class ExecServer
     public static final String METHOD_TO_RUN_NAME = "methodToRun";
     public static final String PARAMETER_TYPES_NAME = "parameterTypes";
     public static final String ARGUMENTS_NAME = "arguments";
+    public static final String TARGET_OBJECT_NAME = "targetObject";
     public static final String EXEC_ACTION_NAME = "execAction";
     public static final String METHOD_RETURN_NAME = "methodReturn";
     public static final String EXCEPTION_NAME = "exception";
@@ -126,6 +129,10 @@ public class ExecServer
     public static final int INSTANTIATE_CLASS_ARGS = 7; // use constructor
         // with specified parameter types and arguments
     public static final int LAUNCH_FX_APP = 8;
+    public static final int INVOKE_METHOD = 9; // call a method with specified
+        // parameter types and arguments, without a shell class
+    public static final int READ_FIELD = 10; // read the field named by methodToRun,
+        // without a shell class
 
     // Parameter for worker thread actions
     public static int workerAction = EXIT_VM;
@@ -804,13 +811,14 @@ public class ExecServer
                                 if (classLoader == null)
                                     classLoader = currentLoader;
                                 
-                                paramClasses[i] = Class.forName(parameterTypes[i], false, currentLoader);
+                                paramClasses[i] = getParameterClass(parameterTypes[i]);
                             }
                             Constructor<?> cons = c.getDeclaredConstructor(paramClasses);
                             cons.setAccessible(true);
+                            Object [] args = getArguments(paramClasses);
                             runOnTargetThread(() -> {
                                 try {
-                                    methodReturn = cons.newInstance(arguments);
+                                    methodReturn = cons.newInstance(args);
                                 }
                                 catch (InvocationTargetException ite) {
                                     throw ite.getCause();
@@ -818,6 +826,48 @@ public class ExecServer
                             });
                             break;
                         }
+                        case INVOKE_METHOD:
+                        {
+                            // Call a method using specified parameter types and
+                            // arguments. The result is wrapped as a shell class
+                            // would wrap it.
+                            Object target = targetObject;
+                            targetObject = null;
+                            clearInputBuffer();
+                            Class<?> c = currentLoader.loadClass(classToRun);
+                            Class<?> [] paramClasses = new Class[parameterTypes.length];
+                            for (int i = 0; i < parameterTypes.length; i++) {
+                                paramClasses[i] = getParameterClass(parameterTypes[i]);
+                            }
+                            Method m = c.getDeclaredMethod(methodToRun, paramClasses);
+                            if (!Modifier.isPublic(m.getModifiers()) || !Modifier.isPublic(c.getModifiers())) {
+                                m.setAccessible(true);
+                            }
+                            Object [] args = getArguments(paramClasses);
+                            runOnTargetThread(() -> {
+                                try {
+                                    methodReturn = wrapResult(m.getReturnType(), m.invoke(target, args));
+                                }
+                                catch (InvocationTargetException ite) {
+                                    throw ite.getCause();
+                                }
+                            });
+                            break;
+                        }
+                        case READ_FIELD:
+                        {
+                            // Read a field of the target object. The value is
+                            // wrapped as a shell class would wrap it.
+                            Object target = targetObject;
+                            targetObject = null;
+                            Class<?> c = currentLoader.loadClass(classToRun);
+                            Field f = c.getDeclaredField(methodToRun);
+                            if (!Modifier.isPublic(f.getModifiers()) || !Modifier.isPublic(c.getModifiers())) {
+                                f.setAccessible(true);
+                            }
+                            methodReturn = wrapResult(f.getType(), f.get(target));
+                            break;
+                        }
                         case LAUNCH_FX_APP:
                             // The preloader will tell us the Application reference:
                             CompletableFuture<Application> theApp = new CompletableFuture<>();
@@ -877,6 +927,114 @@ public class ExecServer
         mainThread.start();
     }
 
+    /**
+     * Get the class for a parameter type passed in from the debugger. Primitive
+     * types are named by their keyword (eg "int"), which Class.forName doesn't accept.
+     */
+    private static Class<?> getParameterClass(String typeName) throws ClassNotFoundException
+    {
+        switch (typeName) {
+            case "boolean": return boolean.class;
+            case "byte": return byte.class;
+            case "char": return char.class;
+            case "short": return short.class;
+            case "int": return int.class;
+            case "long": return long.class;
+            case "float": return float.class;
+            case "double": return double.class;
+            default: return Class.forName(typeName, false, currentLoader);
+        }
+    }
+
+    /**
+     * Get the arguments for a constructor or method call. The debugger passes the
+     * value for a primitive parameter as a string (eg "42"), which is converted here
+     * to the corresponding wrapper object.
+     */
+    private static Object [] getArguments(Class<?> [] paramClasses)
+    {
+        Object [] args = new Object[paramClasses.length];
+        for (int i = 0; i < args.length; i++) {
+            Object arg = arguments[i];
+            if (paramClasses[i].isPrimitive() && arg instanceof String) {
+                arg = parsePrimitive(paramClasses[i], (String) arg);
+            }
+            args[i] = arg;
+        }
+        return args;
+    }
+
+    /**
+     * Convert the string form of a primitive value to its wrapper object.
+     */
+    private static Object parsePrimitive(Class<?> type, String value)
+    {
+        if (type == boolean.class) {
+            return Boolean.valueOf(value);
+        }
+        else if (type == char.class) {
+            return Character.valueOf(value.charAt(0));
+        }
+        else if (type == byte.class) {
+            return Byte.valueOf(value);
+        }
+        else if (type == short.class) {
+            return Short.valueOf(value);
+        }
+        else if (type == int.class) {
+            return Integer.valueOf(value);
+        }
+        else if (type == long.class) {
+            return Long.valueOf(value);
+        }
+        else if (type == float.class) {
+            return Float.valueOf(value);
+        }
+        else {
+            return Double.valueOf(value);
+        }
+    }
+
+    /**
+     * Wrap the result of a method call in the same way that a shell class does
+     * (see Shell.makeObj), so that the result object has a "result" field of the
+     * method's return type (or field's type). Returns null for a void method.
+     */
+    private static Object wrapResult(Class<?> type, Object value)
+    {
+        if (type == void.class) {
+            return null;
+        }
+        else if (type == boolean.class) {
+            return Shell.makeObj(((Boolean) value).booleanValue());
+        }
+        else if (type == byte.class) {
+            return Shell.makeObj(((Byte) value).byteValue());
+        }
+        else if (type == char.class) {
+            return Shell.makeObj(((Character) value).charValue());
+        }
+        else if (type == short.class) {
+            return Shell.makeObj(((Short) value).shortValue());
+        }
+        else if (type == int.class) {
+            return Shell.makeObj(((Integer) value).intValue());
+        }
+        else if (type == long.class) {
+            return Shell.makeObj(((Long) value).longValue());
+        }
+        else if (type == float.class) {
+            return Shell.makeObj(((Float) value).floatValue());
+        }
+        else if (type == double.class) {
+            return Shell.makeObj(((Double) value).doubleValue());
+        }
+        else if (type == String.class) {
+            return Shell.makeObj((String) value);
+        }
+        return Shell.makeObj(value);
+    }
+
     private static void runOnTargetThread(RunnableThrows runnable) throws Throwable
     {
         if (threadToRunOn == RUN_ON_DEFAULT_THREAD)
@@ -936,6 +1094,13 @@ public class ExecServer
         for(i = 0; i < stackTrace.length; i++) {
             if(stackTrace[i].getClassName().startsWith("__SHELL"))
                 break;
+            if(stackTrace[i].getClassName().startsWith("bluej.runtime.")) {
+                // A call made without a shell class: also drop the reflection
+                // frames through which the call was made
+                while(i > 0 && isReflectionFrame(stackTrace[i - 1].getClassName()))
+                    i--;
+                break;
+            }
         }
         StackTraceElement [] newStackTrace = new StackTraceElement[i];
         System.arraycopy(stackTrace, 0, newStackTrace, 0, i);
@@ -944,6 +1109,15 @@ public class ExecServer
     }
     
 
+    /**
+     * Check whether a stack frame belongs to the reflection machinery used to make a call.
+     */
+    private static boolean isReflectionFrame(String className)
+    {
+        return className.startsWith("java.lang.reflect.") || className.startsWith("sun.reflect.")
+                || className.startsWith("jdk.internal.reflect.");
+    }
+
     /**
      * Gets an object in the scope. Used by greenfoot.
      * 
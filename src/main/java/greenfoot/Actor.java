@@ -22,11 +22,13 @@
 package greenfoot;
 
 import greenfoot.collision.ibsp.Rect;
+import greenfoot.core.ParallelActPhase;
 import greenfoot.platforms.ActorDelegate;
 import greenfoot.util.GreenfootUtil;
 import threadchecker.OnThread;
 import threadchecker.Tag;
 
+import java.util.ArrayList;
 import java.util.List;
 
 /**
@@ -203,6 +205,20 @@ public abstract class Actor
      * @see #turn(int)
      */
     public void setRotation(int rotation)
+    {
+        if (ParallelActPhase.isDeferring()) {
+            int newRotation = rotation;
+            ParallelActPhase.defer(() -> setRotationNow(newRotation));
+            return;
+        }
+        setRotationNow(rotation);
+    }
+    
+    /**
+     * The implementation of setRotation, which always applies the rotation
+     * immediately (and never calls an overridden setRotation).
+     */
+    private void setRotationNow(int rotation)
     {
         // First normalize
         if (rotation >= 360) {
@@ -332,6 +348,11 @@ public abstract class Actor
         // Note this should not call user code - because it is called off the
         // simulation thread. We must access world fields (width, height, cellSize) directly.
         
+        if (ParallelActPhase.isDeferring()) {
+            ParallelActPhase.defer(() -> setLocationDrag(x, y));
+            return;
+        }
+        
         if (world != null) {
             int oldX = this.x;
             int oldY = this.y;
@@ -446,6 +467,19 @@ public abstract class Actor
      * @param image The image.
      */
     public void setImage(GreenfootImage image)
+    {
+        if (ParallelActPhase.isDeferring()) {
+            ParallelActPhase.defer(() -> setImageNow(image));
+            return;
+        }
+        setImageNow(image);
+    }
+    
+    /**
+     * The implementation of setImage, which always sets the image immediately
+     * (and never calls an overridden setImage).
+     */
+    private void setImageNow(GreenfootImage image)
     {
         if (image == null && this.image == null) {
             return;
@@ -948,8 +982,8 @@ public abstract class Actor
     protected <A> List<A> getIntersectingObjects(Class<A> cls)
     {
         failIfNotInWorld();
-        List<A> l = world.getIntersectingObjects(this, cls);
-        l.remove(this);
+        List<A> l = new ArrayList<A>();
+        world.forEachIntersecting(this, cls, l::add);
         return l;
     }
     
@@ -25,24 +25,80 @@ import threadchecker.OnThread;
 import threadchecker.Tag;
 
 import java.util.AbstractSet;
+import java.util.Arrays;
+import java.util.ConcurrentModificationException;
 import java.util.Iterator;
+import java.util.NoSuchElementException;
 
 /**
  * This is an ordered set. 
  * 
+ * <p>Actors are kept in an array in the order they were added. Removing an
+ * actor leaves an empty slot (a "tombstone") in the array, so that the
+ * positions of the other actors don't change; the array is compacted later,
+ * when the set is next added to, and only if no stable iteration (see
+ * {@link TreeActorSet#stableIterator()}) is in progress.
+ * 
+ * <p>Actors are located via an open-addressing hash table (with linear
+ * probing) of slot numbers, keyed on the actor's sequence number. All of the
+ * per-actor data is held in parallel arrays, so there are no per-actor node
+ * objects.
+ * 
  * @author Davin McCall
  */
 public class ActorSet extends AbstractSet<Actor>
 {
-    private ListNode listHeadTail = new ListNode();
+    /** Minimum number of tombstones before the order array is compacted */
+    private static final int MIN_COMPACT = 16;
+    
+    /** The owning tree set, which controls epochs and compaction (may be null) */
+    private final TreeActorSet owner;
+    
+    /** The actors in the set, in order. Removed actors leave a null entry. */
+    private Actor [] order = new Actor[4];
+    
+    /** The sequence number of the actor in each slot */
+    private int [] seqs = new int[4];
+    
+    /** The epoch in which the actor in each slot was added */
+    private int [] addedEpochs = new int[4];
+    
+    /** The epoch in which the actor in each slot was last visited by a stable iterator */
+    private int [] visitedEpochs = new int[4];
+    
+    /** Number of used entries in the order array, including tombstones */
+    private int orderSize = 0;
+    
+    /** Number of times the order array has been compacted */
+    private int compactions = 0;
     
-    private ListNode [] hashMap = new ListNode[0];
+    /**
+     * The hash table. Each entry is a slot number plus one, or 0 for an empty
+     * entry. The length is always a power of two, and the table is at most
+     * half full.
+     */
+    private int [] hashTable = new int[8];
     
     private int numActors = 0;
     
     /** Sum of sequence numbers of contained actors */
     private int myHashCode = 0;
 
+    /**
+     * Construct an empty, stand-alone actor set.
+     */
+    public ActorSet()
+    {
+        this(null);
+    }
+    
+    /**
+     * Construct an empty actor set belonging to the given tree set.
+     */
+    ActorSet(TreeActorSet owner)
+    {
+        this.owner = owner;
+    }
 
     @OnThread(value = Tag.Simulation, ignoreParent = true)
     @Override
@@ -55,99 +111,181 @@ public class ActorSet extends AbstractSet<Actor>
     @Override
     public boolean add(Actor actor)
     {
-        if (containsActor(actor)) {
+        int epoch = (owner == null) ? 0 : owner.getEpoch();
+        return add(actor, epoch, 0);
+    }
+    
+    /**
+     * Add an actor, with the given epoch stamps.
+     * 
+     * @param addedEpoch    The epoch in which the actor was added
+     * @param visitedEpoch  The epoch in which the actor was last returned by a
+     *                      stable iterator (or 0)
+     */
+    private boolean add(Actor actor, int addedEpoch, int visitedEpoch)
+    {
+        int seq = ActorVisitor.getSequenceNumber(actor);
+        if (findEntry(actor, seq) != -1) {
             return false;
         }
         
+        if (orderSize == order.length) {
+            compactIfNeeded();
+            if (orderSize == order.length) {
+                int newLength = order.length * 2;
+                order = Arrays.copyOf(order, newLength);
+                seqs = Arrays.copyOf(seqs, newLength);
+                addedEpochs = Arrays.copyOf(addedEpochs, newLength);
+                visitedEpochs = Arrays.copyOf(visitedEpochs, newLength);
+            }
+        }
+        
+        int slot = orderSize++;
+        order[slot] = actor;
+        seqs[slot] = seq;
+        addedEpochs[slot] = addedEpoch;
+        visitedEpochs[slot] = visitedEpoch;
         numActors++;
-        ListNode newNode = new ListNode(actor, listHeadTail.prev);
         
-        int seq = ActorVisitor.getSequenceNumber(actor);
-        if (numActors >= 2 * hashMap.length) {
-            // grow the hashmap
-            resizeHashmap();
+        if (numActors * 2 > hashTable.length) {
+            // grow the hash table; this also inserts the new actor
+            rehash(hashTable.length * 2);
         }
         else {
-            int hash = seq % hashMap.length;
-            ListNode hashHead = hashMap[hash];
-            hashMap[hash] = newNode;
-            newNode.setHashListHead(hashHead);
+            insertEntry(slot);
         }
         
         myHashCode += seq;
         return true;
     }
-
-    private void resizeHashmap()
+    
+    /**
+     * Move an actor from this set to another set, keeping its epoch stamps.
+     * Returns false if the actor is not in this set.
+     */
+    boolean transfer(Actor actor, ActorSet dest)
     {
-        hashMap = new ListNode[numActors];
-        ListNode currentActor = listHeadTail.next;
-        while (currentActor != listHeadTail) {
-            int seq = ActorVisitor.getSequenceNumber(currentActor.actor);
-            int hash = seq % numActors;
-            ListNode hashHead = hashMap[hash];
-            hashMap[hash] = currentActor;
-            currentActor.setHashListHead(hashHead);
-            
-            currentActor = currentActor.next;
+        int entry = findEntry(actor, ActorVisitor.getSequenceNumber(actor));
+        if (entry == -1) {
+            return false;
         }
+        int slot = hashTable[entry] - 1;
+        int addedEpoch = addedEpochs[slot];
+        int visitedEpoch = visitedEpochs[slot];
+        removeEntry(entry);
+        dest.add(actor, addedEpoch, visitedEpoch);
+        return true;
     }
-
-    @OnThread(value = Tag.Simulation, ignoreParent = true)
-    public boolean containsActor(Actor actor)
+    
+    /**
+     * Get the preferred hash table position for a sequence number.
+     */
+    private int hashPosition(int seq)
     {
-        return getActorNode(actor) != null; 
+        // Sequence numbers are consecutive; spread them (Fibonacci hashing)
+        return (seq * 0x9E3779B9) & (hashTable.length - 1);
     }
-
-    @OnThread(value = Tag.Simulation, ignoreParent = true)
-    @Override
-    public boolean contains(Object o)
+    
+    /**
+     * Insert the hash table entry for the actor in the given slot.
+     */
+    private void insertEntry(int slot)
     {
-        if (o instanceof Actor) {
-            Actor a = (Actor) o;
-            return containsActor(a);
+        int mask = hashTable.length - 1;
+        int pos = hashPosition(seqs[slot]);
+        while (hashTable[pos] != 0) {
+            pos = (pos + 1) & mask;
         }
-        return false;
+        hashTable[pos] = slot + 1;
     }
     
     /**
-     * Get the list node for an actor (null if the actor is not in the set).
+     * Find the hash table entry for an actor. Returns -1 if the actor is not
+     * in the set.
      */
-    private ListNode getActorNode(Actor actor)
+    private int findEntry(Actor actor, int seq)
     {
-        if (hashMap.length == 0) {
-            return null;
+        int mask = hashTable.length - 1;
+        int pos = hashPosition(seq);
+        int entry;
+        while ((entry = hashTable[pos]) != 0) {
+            if (order[entry - 1] == actor) {
+                return pos;
+            }
+            pos = (pos + 1) & mask;
         }
-        
-        int seq = ActorVisitor.getSequenceNumber(actor);
-        int hash = seq % hashMap.length;
-        ListNode hashHead = hashMap[hash];
-        
-        if (hashHead == null) {
-            return null;
+        return -1;
+    }
+    
+    /**
+     * Rebuild the hash table with the given length.
+     */
+    private void rehash(int length)
+    {
+        hashTable = new int[length];
+        for (int i = 0; i < orderSize; i++) {
+            if (order[i] != null) {
+                insertEntry(i);
+            }
         }
-        else if (hashHead.actor == actor) {
-            return hashHead;
+    }
+    
+    /**
+     * Compact the order array, removing tombstones, if there are enough of them
+     * and no stable iteration is in progress.
+     */
+    void compactIfNeeded()
+    {
+        int tombstones = orderSize - numActors;
+        if (tombstones < MIN_COMPACT || tombstones < numActors
+                || (owner != null && owner.isStableIterating())) {
+            return;
         }
         
-        ListNode curNode = hashHead.nextHash;
-        while (curNode != hashHead) {
-            if (curNode.actor == actor) {
-                return curNode;
+        int j = 0;
+        for (int i = 0; i < orderSize; i++) {
+            if (order[i] != null) {
+                order[j] = order[i];
+                seqs[j] = seqs[i];
+                addedEpochs[j] = addedEpochs[i];
+                visitedEpochs[j] = visitedEpochs[i];
+                j++;
             }
-            curNode = curNode.nextHash;
         }
+        Arrays.fill(order, j, orderSize, null);
+        orderSize = j;
+        compactions++;
         
-        return null;
+        // Slot numbers have changed; also shrink the table if it's now sparse
+        int length = hashTable.length;
+        while (length > 8 && numActors * 4 < length) {
+            length /= 2;
+        }
+        rehash(length);
+    }
+
+    @OnThread(value = Tag.Simulation, ignoreParent = true)
+    public boolean containsActor(Actor actor)
+    {
+        return findEntry(actor, ActorVisitor.getSequenceNumber(actor)) != -1;
+    }
+
+    @OnThread(value = Tag.Simulation, ignoreParent = true)
+    @Override
+    public boolean contains(Object o)
+    {
+        if (o instanceof Actor) {
+            Actor a = (Actor) o;
+            return containsActor(a);
+        }
+        return false;
     }
 
     public boolean remove(Actor actor)
     {
-        ListNode actorNode = getActorNode(actor);
-        
-        if (actorNode != null) {
-            remove(actorNode);
-            myHashCode -= ActorVisitor.getSequenceNumber(actor);
+        int entry = findEntry(actor, ActorVisitor.getSequenceNumber(actor));
+        if (entry != -1) {
+            removeEntry(entry);
             return true;
         }
         else {
@@ -155,24 +293,42 @@ public class ActorSet extends AbstractSet<Actor>
         }
     }
     
-    private void remove(ListNode actorNode)
+    /**
+     * Remove the actor with the given hash table entry.
+     */
+    private void removeEntry(int entry)
     {
-        int seq = ActorVisitor.getSequenceNumber(actorNode.actor);
-        int hash = seq % hashMap.length;
-        if (hashMap[hash] == actorNode) {
-            hashMap[hash] = actorNode.nextHash;
-            if (hashMap[hash] == actorNode) {
-                // The circular list had only one element
-                hashMap[hash] = null;
-            }
-        }
-        
-        actorNode.remove();
+        int slot = hashTable[entry] - 1;
+        myHashCode -= seqs[slot];
+        order[slot] = null;
         numActors--;
-        if (numActors <= hashMap.length / 2) {
-            // shrink the hashMap
-            resizeHashmap();
+        
+        // Close the gap in the probe sequence, by moving back any following
+        // entries which would otherwise no longer be found
+        int mask = hashTable.length - 1;
+        int gap = entry;
+        int pos = (entry + 1) & mask;
+        int next;
+        while ((next = hashTable[pos]) != 0) {
+            int home = hashPosition(seqs[next - 1]);
+            // The entry can fill the gap unless its home lies cyclically
+            // within (gap, pos]
+            if (((pos - home) & mask) >= ((pos - gap) & mask)) {
+                hashTable[gap] = next;
+                gap = pos;
+            }
+            pos = (pos + 1) & mask;
         }
+        hashTable[gap] = 0;
+    }
+    
+    /**
+     * Get the slot which an actor occupies, or -1 if the actor is not in the set.
+     */
+    private int slotOf(Actor actor)
+    {
+        int entry = findEntry(actor, ActorVisitor.getSequenceNumber(actor));
+        return (entry == -1) ? -1 : hashTable[entry] - 1;
     }
 
     @OnThread(value = Tag.Simulation, ignoreParent = true)
@@ -181,103 +337,95 @@ public class ActorSet extends AbstractSet<Actor>
     {
         return numActors;
     }
-
-    @OnThread(value = Tag.Simulation, ignoreParent = true)
-    @Override
-    public Iterator<Actor> iterator()
+    
+    /**
+     * Get the number of slots in the order array, including empty slots.
+     */
+    int slotCount()
     {
-        return new ActorSetIterator();
+        return orderSize;
     }
     
-    @OnThread(Tag.Simulation)
-    private class ListNode
+    /**
+     * Get the actor in the given slot if it should be returned by a stable
+     * iteration in the given epoch, i.e. it was added before the epoch began and
+     * has not yet been visited in the epoch. If visit is true, the actor is also
+     * marked as visited. Returns null otherwise.
+     */
+    Actor getUnvisited(int slot, int epoch, boolean visit)
     {
-        Actor actor;
-        ListNode next;
-        ListNode prev;
-        
-        // The node also appears in a linked list representing the hash bucket 
-        ListNode nextHash;
-        ListNode prevHash;
-        
-        public ListNode()
-        {
-            // actor, next, prev = null: this is the head/tail node
-            next = this;
-            prev = this;
-        }
-        
-        /**
-         * Create a new list node and insert it at the tail of the list.
-         * @param actor
-         * @param listTail
-         */
-        public ListNode(Actor actor, ListNode listTail)
-        {
-            this.actor = actor;
-            next = listTail.next;
-            prev = listTail;
-            listTail.next = this;
-            next.prev = this;
+        Actor actor = order[slot];
+        if (actor == null || addedEpochs[slot] >= epoch || visitedEpochs[slot] == epoch) {
+            return null;
         }
-        
-        /**
-         * Set this node as the new head node in a hash bucket list.
-         * @param oldHead  The original head node in the bucket
-         */
-        public void setHashListHead(ListNode oldHead)
-        {
-            if (oldHead == null) {
-                nextHash = this;
-                prevHash = this;
-            }
-            else {
-                nextHash = oldHead;
-                prevHash = oldHead.prevHash;
-                oldHead.prevHash = this;
-                prevHash.nextHash = this;
-            }
-        }
-        
-        public void remove()
-        {
-            next.prev = prev;
-            prev.next = next;
-            nextHash.prevHash = prevHash;
-            prevHash.nextHash = nextHash;
+        if (visit) {
+            visitedEpochs[slot] = epoch;
         }
+        return actor;
+    }
+
+    @OnThread(value = Tag.Simulation, ignoreParent = true)
+    @Override
+    public Iterator<Actor> iterator()
+    {
+        return new ActorSetIterator();
     }
     
+    /**
+     * An iterator over the set. Actors may be removed from the set (by any means)
+     * during iteration; adding actors during iteration may cause a
+     * ConcurrentModificationException, if it causes the set to be compacted.
+     */
     @OnThread(Tag.Simulation)
     private class ActorSetIterator implements Iterator<Actor>
     {
-        ListNode currentNode;
+        /** The actor last returned by next() */
+        Actor current;
+        /** The slot after the last returned actor */
+        int nextSlot;
+        int expectedCompactions = compactions;
         
-        public ActorSetIterator()
-        {
-            currentNode = listHeadTail;
-        }
-
         @OnThread(value = Tag.Simulation, ignoreParent = true)
         @Override
         public boolean hasNext()
         {
-            return currentNode.next != listHeadTail;
+            if (expectedCompactions != compactions) {
+                if (current == null) {
+                    nextSlot = 0;
+                }
+                else {
+                    int slot = slotOf(current);
+                    if (slot == -1) {
+                        throw new ConcurrentModificationException();
+                    }
+                    nextSlot = slot + 1;
+                }
+                expectedCompactions = compactions;
+            }
+            while (nextSlot < orderSize && order[nextSlot] == null) {
+                nextSlot++;
+            }
+            return nextSlot < orderSize;
         }
 
         @OnThread(value = Tag.Simulation, ignoreParent = true)
         @Override
         public Actor next()
         {
-            currentNode = currentNode.next;
-            return currentNode.actor;
+            if (! hasNext()) {
+                throw new NoSuchElementException();
+            }
+            current = order[nextSlot++];
+            return current;
         }
 
         @OnThread(value = Tag.Simulation, ignoreParent = true)
         @Override
         public void remove()
         {
-            ActorSet.this.remove(currentNode);
+            if (current == null || ! ActorSet.this.remove(current)) {
+                throw new IllegalStateException();
+            }
         }
     }
 }
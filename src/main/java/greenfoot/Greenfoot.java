@@ -21,6 +21,7 @@
  */
 package greenfoot;
 
+import greenfoot.core.ParallelActPhase;
 import greenfoot.core.Simulation;
 import greenfoot.core.WorldHandler;
 import greenfoot.sound.MicLevelGrabber;
@@ -143,7 +144,28 @@ public class Greenfoot
      */
     public static int getRandomNumber(int limit)
     {
-        return randomGenerator.nextInt(limit);
+        // A parallel actor has its own generator, so that the numbers it gets
+        // don't depend on the order in which the actors happen to run:
+        Random random = ParallelActPhase.getRandom();
+        return (random != null ? random : randomGenerator).nextInt(limit);
+    }
+
+    /**
+     * Seed the random number generator, so that the same sequence of random
+     * numbers is returned each time (used when recording and replaying runs).
+     */
+    static void setRandomSeed(long seed)
+    {
+        randomGenerator.setSeed(seed);
+    }
+
+    /**
+     * Get a seed for another random number generator, taken from the sequence
+     * of the generator used by getRandomNumber().
+     */
+    static long nextRandomSeed()
+    {
+        return randomGenerator.nextLong();
     }
 
     /**
@@ -30,7 +30,9 @@ import java.awt.*;
 import java.awt.geom.AffineTransform;
 import java.awt.image.AffineTransformOp;
 import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
 import java.awt.image.ImageObserver;
+import java.awt.image.SinglePixelPackedSampleModel;
 import java.awt.image.VolatileImage;
 import java.io.FileNotFoundException;
 import java.io.IOException;
@@ -74,6 +76,31 @@ public class GreenfootImage
      * Value from 0 to 255, with 0 being completely transparent and 255 being opaque.
      */
     private int transparency = 255;
+    
+    /**
+     * Incremented whenever the image may have been modified, so that renderers
+     * can tell when it needs repainting.
+     */
+    private int modCount;
+    
+    /**
+     * The modification count when the image was last checked for stability
+     * (see {@link #getStableImage()}).
+     */
+    private int stableModCount = -1;
+    
+    /**
+     * Whether the backing image has been handed out by {@link #getAwtImage()},
+     * in which case it may be modified without our knowledge.
+     */
+    private boolean awtImageExposed = false;
+    
+    /**
+     * The number of pixel buffers open on the backing image (see
+     * {@link #openPixelBuffer()}), through which it may be modified without
+     * our knowledge until they are closed.
+     */
+    private int openPixelBuffers = 0;
 
     /**
      * Create an image from an image file. Supported file formats are JPEG, GIF
@@ -134,7 +161,7 @@ public class GreenfootImage
             setImage(GraphicsUtilities.createCompatibleTranslucentImage(image.getWidth(), image.getHeight()));
             Graphics2D g = getGraphics();
             g.setComposite(AlphaComposite.Src);
-            g.drawImage(image.getAwtImage(), 0, 0, null);
+            g.drawImage(image.image, 0, 0, null);
             g.dispose();
         }
         else {
@@ -307,6 +334,66 @@ public class GreenfootImage
         }
         this.image = getBufferedImage(image);
         copyOnWrite = false;
+        awtImageExposed = false;
+        modCount++;
+    }
+    
+    /**
+     * Sets the image to a (shared) image from the sprite cache. The image
+     * must not be modified, so it is copy-on-write.
+     */
+    private void setSharedImage(BufferedImage image)
+    {
+        this.image = image;
+        copyOnWrite = true;
+        awtImageExposed = false;
+        modCount++;
+    }
+    
+    /**
+     * Get the backing image for use as a sprite cache key, if this image
+     * seems not to be changing. This image is made copy-on-write, so that the
+     * returned backing image will never be modified (a modification of this
+     * image will instead replace it with a modified copy).
+     * 
+     * <p>An image which is modified often would be copied on every
+     * modification if it were made copy-on-write, so an image which is not
+     * already copy-on-write is only used if it has not been modified since
+     * the last time this method was called.
+     * 
+     * @return  The backing image, or null if it shouldn't be used as a key.
+     */
+    private BufferedImage getStableImage()
+    {
+        if (! copyOnWrite) {
+            if (isImageExposed() || modCount != stableModCount) {
+                stableModCount = modCount;
+                return null;
+            }
+            copyOnWrite = true;
+        }
+        return image;
+    }
+    
+    /**
+     * Get an image with the current contents of this image which will never
+     * be modified, so that it can be drawn later, on another thread. Usually
+     * this is the backing image itself, made copy-on-write (so that modifying
+     * this image replaces the backing image with a modified copy); but if the
+     * backing image may be modified directly, a copy is returned.
+     */
+    BufferedImage getFrozenImage()
+    {
+        if (isImageExposed()) {
+            BufferedImage copy = GraphicsUtilities.createCompatibleTranslucentImage(getWidth(), getHeight());
+            Graphics2D g = copy.createGraphics();
+            g.setComposite(AlphaComposite.Src);
+            g.drawImage(image, 0, 0, null);
+            g.dispose();
+            return copy;
+        }
+        copyOnWrite = true;
+        return image;
     }
 
 
@@ -320,6 +407,9 @@ public class GreenfootImage
     public BufferedImage getAwtImage()
     {
         ensureWritableImage();
+        // The caller may modify the image
+        modCount++;
+        awtImageExposed = true;
         return image;
     }
     
@@ -333,6 +423,7 @@ public class GreenfootImage
         }
         Graphics2D graphics = image.createGraphics();
         initGraphics(graphics);
+        modCount++;
         return graphics;
     }
 
@@ -379,10 +470,26 @@ public class GreenfootImage
      */
     public void rotate(int degrees)
     {
+        BufferedImage source = getStableImage();
+        if (source != null) {
+            SpriteCache.Sprite sprite = SpriteCache.getInstance().get(source, SpriteCache.ROTATE, degrees, 0);
+            if (sprite != null) {
+                setSharedImage(sprite.image);
+                return;
+            }
+        }
+        
         AffineTransform tx = AffineTransform.getRotateInstance(Math.toRadians(degrees), getWidth()/2., getHeight()/2.);
         AffineTransformOp op = new AffineTransformOp(tx, AffineTransformOp.TYPE_NEAREST_NEIGHBOR);
         BufferedImage newImage = GraphicsUtilities.createCompatibleTranslucentImage(getWidth(), getHeight());
-        setImage(op.filter(image, newImage));
+        newImage = op.filter(image, newImage);
+        if (source != null) {
+            SpriteCache.getInstance().put(source, SpriteCache.ROTATE, degrees, 0, new SpriteCache.Sprite(newImage, 0, 0));
+            setSharedImage(newImage);
+        }
+        else {
+            setImage(newImage);
+        }
     }
 
     /**
@@ -396,6 +503,15 @@ public class GreenfootImage
         if (width == image.getWidth() && height == image.getHeight())
             return;
         
+        BufferedImage source = getStableImage();
+        if (source != null) {
+            SpriteCache.Sprite sprite = SpriteCache.getInstance().get(source, SpriteCache.SCALE, width, height);
+            if (sprite != null) {
+                setSharedImage(sprite.image);
+                return;
+            }
+        }
+        
         // getScaledInstance is too slow, see: http://bugs.sun.com/bugdatabase/view_bug.do?bug_id=6196792
         // This is adapted from: http://java.sun.com/products/java-media/2D/reference/faqs/index.html#Q_How_do_I_create_a_resized_copy
         BufferedImage scaled = GraphicsUtilities.createCompatibleTranslucentImage(width, height);
@@ -404,7 +520,13 @@ public class GreenfootImage
         g.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_NEAREST_NEIGHBOR);
         g.drawImage(image, 0, 0, width, height, null);
         g.dispose();
-        setImage(scaled);
+        if (source != null) {
+            SpriteCache.getInstance().put(source, SpriteCache.SCALE, width, height, new SpriteCache.Sprite(scaled, 0, 0));
+            setSharedImage(scaled);
+        }
+        else {
+            setImage(scaled);
+        }
     }
 
     /**
@@ -479,6 +601,147 @@ public class GreenfootImage
         }
     }
     
+    /**
+     * Draws this image onto the given Graphics object, rotated about the
+     * given point. The result is the same as drawing the image at
+     * (floor(xCenter - width/2), floor(yCenter - height/2)) with the graphics
+     * rotated about (xCenter, yCenter), but a pre-rotated copy of the image is
+     * cached (see {@link SpriteCache}) where possible, so that it can just be
+     * copied onto the graphics.
+     * 
+     * @param rotation  The rotation in degrees clockwise
+     * @param useTransparency Whether the transparency value should be used when
+     *            drawing the image.
+     */
+    void drawRotated(Graphics2D g, double xCenter, double yCenter, int rotation, boolean useTransparency)
+    {
+        BufferedImage source = null;
+        if (isSpriteCentre(xCenter, yCenter)) {
+            source = getStableImage();
+        }
+        if (source == null) {
+            AffineTransform oldTx = g.getTransform();
+            g.rotate(Math.toRadians(rotation), xCenter, yCenter);
+            drawImage(g, (int) Math.floor(xCenter - getWidth() / 2.),
+                    (int) Math.floor(yCenter - getHeight() / 2.), null, useTransparency);
+            g.setTransform(oldTx);
+            return;
+        }
+        
+        drawRotatedSprite(g, source, useTransparency ? getTransparency() : 255, xCenter, yCenter, rotation);
+    }
+    
+    /**
+     * Draw an image obtained from {@link #getFrozenImage()} centred on the
+     * given point, in the same way as the world renderer draws an actor's
+     * image. This may be called from any thread.
+     * 
+     * @param transparency  The transparency of the image when it was frozen
+     * @param rotation  The rotation in degrees clockwise
+     */
+    static void drawFrozenImage(Graphics2D g, BufferedImage frozen, int transparency,
+            double xCenter, double yCenter, int rotation)
+    {
+        if (rotation != 0 && isSpriteCentre(xCenter, yCenter)) {
+            drawRotatedSprite(g, frozen, transparency, xCenter, yCenter, rotation);
+            return;
+        }
+        
+        Composite oldComposite = setTransparency(g, transparency);
+        AffineTransform oldTx = g.getTransform();
+        if (rotation != 0) {
+            g.rotate(Math.toRadians(rotation), xCenter, yCenter);
+        }
+        g.drawImage(frozen, (int) Math.floor(xCenter - frozen.getWidth() / 2.),
+                (int) Math.floor(yCenter - frozen.getHeight() / 2.), null);
+        g.setTransform(oldTx);
+        if (oldComposite != null) {
+            g.setComposite(oldComposite);
+        }
+    }
+    
+    /**
+     * Sprites are only cached for centres on pixel corners or pixel centres,
+     * which are the only ones the world renderer uses.
+     */
+    private static boolean isSpriteCentre(double xCenter, double yCenter)
+    {
+        double fracX = xCenter - Math.floor(xCenter);
+        double fracY = yCenter - Math.floor(yCenter);
+        return (fracX == 0 || fracX == 0.5) && (fracY == 0 || fracY == 0.5);
+    }
+    
+    /**
+     * Draw an unchanging image rotated about the given point (which must be a
+     * pixel corner or centre), using a pre-rotated copy from the sprite cache.
+     */
+    private static void drawRotatedSprite(Graphics2D g, BufferedImage source, int transparency,
+            double xCenter, double yCenter, int rotation)
+    {
+        int baseX = (int) Math.floor(xCenter);
+        int baseY = (int) Math.floor(yCenter);
+        double fracX = xCenter - baseX;
+        double fracY = yCenter - baseY;
+        
+        int halfPixels = (fracX == 0 ? 0 : 1) | (fracY == 0 ? 0 : 2);
+        SpriteCache cache = SpriteCache.getInstance();
+        SpriteCache.Sprite sprite = cache.get(source, SpriteCache.ROTATED_SPRITE, rotation, halfPixels);
+        if (sprite == null) {
+            sprite = createRotatedSprite(source, fracX, fracY, rotation);
+            cache.put(source, SpriteCache.ROTATED_SPRITE, rotation, halfPixels, sprite);
+        }
+        
+        Composite oldComposite = setTransparency(g, transparency);
+        g.drawImage(sprite.image, baseX + sprite.offsetX, baseY + sprite.offsetY, null);
+        if (oldComposite != null) {
+            g.setComposite(oldComposite);
+        }
+    }
+    
+    /**
+     * Set the composite of the graphics to draw with the given transparency,
+     * unless it is opaque.
+     * 
+     * @return  The previous composite, or null if it was not changed.
+     */
+    private static Composite setTransparency(Graphics2D g, int transparency)
+    {
+        if (transparency >= 255) {
+            return null;
+        }
+        Composite oldComposite = g.getComposite();
+        g.setComposite(AlphaComposite.getInstance(AlphaComposite.SRC_OVER, Math.max(transparency, 0) / 255f));
+        return oldComposite;
+    }
+    
+    /**
+     * Create a rotated copy of an image, as it would be drawn by
+     * {@link #drawRotated} about a point with the given fractional part
+     * (relative to the returned sprite's offset).
+     */
+    private static SpriteCache.Sprite createRotatedSprite(BufferedImage source, double fracX, double fracY, int rotation)
+    {
+        int width = source.getWidth();
+        int height = source.getHeight();
+        int drawX = (int) Math.floor(fracX - width / 2.);
+        int drawY = (int) Math.floor(fracY - height / 2.);
+        double radians = Math.toRadians(rotation);
+        AffineTransform tx = AffineTransform.getRotateInstance(radians, fracX, fracY);
+        Rectangle bounds = tx.createTransformedShape(
+                new Rectangle(drawX, drawY, width, height)).getBounds();
+        // Allow for rounding at the edges:
+        bounds.grow(1, 1);
+        
+        BufferedImage spriteImage = GraphicsUtilities.createCompatibleTranslucentImage(bounds.width, bounds.height);
+        Graphics2D g = spriteImage.createGraphics();
+        g.setComposite(AlphaComposite.Src);
+        g.translate(-bounds.x, -bounds.y);
+        g.rotate(radians, fracX, fracY);
+        g.drawImage(source, drawX, drawY, null);
+        g.dispose();
+        return new SpriteCache.Sprite(spriteImage, bounds.x, bounds.y);
+    }
+    
     /**
      * Set the current font. This font will be used for subsequent text operations.
      * 
@@ -548,6 +811,183 @@ public class GreenfootImage
     {
         setRGBAt(x, y, color.getColorObject().getRGB());
     }
+    
+    /**
+     * Get the colors of a rectangle of pixels. Each color is given as an int
+     * holding its alpha, red, green and blue components (8 bits each, in that
+     * order from the most significant byte), in the same form as
+     * {@link java.awt.Color#getRGB()}. This is much faster than calling
+     * {@link #getColorAt(int, int)} for each pixel.
+     * 
+     * @param x The horizontal coordinate of the top-left pixel of the rectangle.
+     * @param y The vertical coordinate of the top-left pixel of the rectangle.
+     * @param width The width of the rectangle.
+     * @param height The height of the rectangle.
+     * @param pixels An array of at least width*height elements, into which the
+     *            colors are stored row by row; or null, to create a new array.
+     * @return The array of colors.
+     * @throws IndexOutOfBoundsException If the rectangle is not within the
+     *             image bounds.
+     */
+    public int[] getPixels(int x, int y, int width, int height, int[] pixels)
+    {
+        checkRectangle(x, y, width, height);
+        if (pixels == null) {
+            pixels = new int[width * height];
+        }
+        
+        int type = image.getType();
+        if (type == BufferedImage.TYPE_INT_ARGB || type == BufferedImage.TYPE_INT_ARGB_PRE) {
+            // Copies the raw pixels without conversion (or per-pixel objects):
+            image.getRaster().getDataElements(x, y, width, height, pixels);
+            if (type == BufferedImage.TYPE_INT_ARGB_PRE) {
+                int count = width * height;
+                for (int i = 0; i < count; i++) {
+                    pixels[i] = unpremultiply(pixels[i]);
+                }
+            }
+        }
+        else {
+            image.getRGB(x, y, width, height, pixels, 0, width);
+        }
+        return pixels;
+    }
+    
+    /**
+     * Set the colors of a rectangle of pixels. The colors are given in the
+     * same form as for {@link #getPixels(int, int, int, int, int[])}. This is
+     * much faster than calling {@link #setColorAt(int, int, Color)} for each
+     * pixel.
+     * 
+     * @param x The horizontal coordinate of the top-left pixel of the rectangle.
+     * @param y The vertical coordinate of the top-left pixel of the rectangle.
+     * @param width The width of the rectangle.
+     * @param height The height of the rectangle.
+     * @param pixels An array of at least width*height colors, row by row.
+     * @throws IndexOutOfBoundsException If the rectangle is not within the
+     *             image bounds.
+     */
+    public void setPixels(int x, int y, int width, int height, int[] pixels)
+    {
+        checkRectangle(x, y, width, height);
+        if (pixels.length < width * height) {
+            throw new IllegalArgumentException("The array is too small. Its length was: " + pixels.length
+                    + " and it should have been at least: " + (width * height));
+        }
+        
+        ensureWritableImage();
+        int type = image.getType();
+        if (type == BufferedImage.TYPE_INT_ARGB) {
+            image.getRaster().setDataElements(x, y, width, height, pixels);
+        }
+        else if (type == BufferedImage.TYPE_INT_ARGB_PRE) {
+            int count = width * height;
+            int[] premultiplied = new int[count];
+            for (int i = 0; i < count; i++) {
+                premultiplied[i] = premultiply(pixels[i]);
+            }
+            image.getRaster().setDataElements(x, y, width, height, premultiplied);
+        }
+        else {
+            image.setRGB(x, y, width, height, pixels, 0, width);
+        }
+        modCount++;
+    }
+    
+    /**
+     * Open a buffer giving direct access to the pixels of this image. This is
+     * the fastest way to change many pixels, for instance every pixel in
+     * every frame. The buffer must be closed when the pixels have been
+     * changed; see {@link PixelBuffer}.
+     * 
+     * <p>Opening a buffer may change the way the image is stored, which can
+     * make drawing it a little slower; use {@link #getPixels} and
+     * {@link #setPixels} for occasional changes.
+     * 
+     * @return A buffer holding the pixels of this image.
+     */
+    public PixelBuffer openPixelBuffer()
+    {
+        ensureWritableImage();
+        if (image.getType() != BufferedImage.TYPE_INT_ARGB) {
+            // Convert to the format the buffer presents:
+            BufferedImage argbImage = new BufferedImage(getWidth(), getHeight(), BufferedImage.TYPE_INT_ARGB);
+            Graphics2D g = argbImage.createGraphics();
+            g.setComposite(AlphaComposite.Src);
+            g.drawImage(image, 0, 0, null);
+            g.dispose();
+            image = argbImage;
+        }
+        // The pixels may be changed without our knowledge until the buffer is closed:
+        openPixelBuffers++;
+        
+        SinglePixelPackedSampleModel sampleModel = (SinglePixelPackedSampleModel) image.getSampleModel();
+        DataBufferInt dataBuffer = (DataBufferInt) image.getRaster().getDataBuffer();
+        int offset = dataBuffer.getOffset()
+                - image.getRaster().getSampleModelTranslateY() * sampleModel.getScanlineStride()
+                - image.getRaster().getSampleModelTranslateX();
+        return new PixelBuffer(this, dataBuffer.getData(), offset, sampleModel.getScanlineStride());
+    }
+    
+    /**
+     * Called when a pixel buffer for this image is closed.
+     */
+    void closePixelBuffer()
+    {
+        openPixelBuffers--;
+        modCount++;
+    }
+    
+    /**
+     * Check whether the backing image may be modified without our knowledge,
+     * through the AWT image or an open pixel buffer.
+     */
+    private boolean isImageExposed()
+    {
+        return awtImageExposed || openPixelBuffers > 0;
+    }
+    
+    private void checkRectangle(int x, int y, int width, int height)
+    {
+        if (x < 0 || y < 0 || width < 0 || height < 0
+                || x + width > getWidth() || y + height > getHeight()) {
+            throw new IndexOutOfBoundsException("The rectangle (" + x + "," + y + ") of size " + width + "x" + height
+                    + " is not within the image, of size " + getWidth() + "x" + getHeight());
+        }
+    }
+    
+    /**
+     * Convert a premultiplied ARGB pixel to an ordinary one (as
+     * {@link BufferedImage#getRGB(int, int)} does).
+     */
+    private static int unpremultiply(int pixel)
+    {
+        int a = pixel >>> 24;
+        if (a == 255 || a == 0) {
+            return a == 0 ? 0 : pixel;
+        }
+        int r = (int) (((pixel >> 16) & 0xFF) * 255f / a + 0.5f);
+        int g = (int) (((pixel >> 8) & 0xFF) * 255f / a + 0.5f);
+        int b = (int) ((pixel & 0xFF) * 255f / a + 0.5f);
+        return (a << 24) | (r << 16) | (g << 8) | b;
+    }
+    
+    /**
+     * Convert an ordinary ARGB pixel to a premultiplied one (as
+     * {@link BufferedImage#setRGB(int, int, int)} does).
+     */
+    private static int premultiply(int pixel)
+    {
+        int a = pixel >>> 24;
+        if (a == 255) {
+            return pixel;
+        }
+        float factor = a * (1f / 255f);
+        int r = (int) (((pixel >> 16) & 0xFF) * factor + 0.5f);
+        int g = (int) (((pixel >> 8) & 0xFF) * factor + 0.5f);
+        int b = (int) ((pixel & 0xFF) * factor + 0.5f);
+        return (a << 24) | (r << 16) | (g << 8) | b;
+    }
 
     /**
      * Set the transparency of the image.
@@ -562,6 +1002,7 @@ public class GreenfootImage
         }
 
         this.transparency = t;
+        modCount++;
     }
 
     /**
@@ -618,6 +1059,7 @@ public class GreenfootImage
 
         ensureWritableImage();
         image.setRGB(x,y,rgb);
+        modCount++;
     }
  
     /**
@@ -825,6 +1267,15 @@ public class GreenfootImage
         }
     }
     
+    /**
+     * Get the modification count, which changes whenever the image may have
+     * been modified.
+     */
+    int getModCount()
+    {
+        return modCount;
+    }
+    
     static boolean equal(GreenfootImage image1, GreenfootImage image2)
     {
         if (image1 == null || image2 == null) {
@@ -849,6 +1300,7 @@ public class GreenfootImage
             graphics.drawImage(image, 0, 0, null);
             image = bImage;
             copyOnWrite = false;
+            awtImageExposed = false;
             graphics.dispose();
         }
     }
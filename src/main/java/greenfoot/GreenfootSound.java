@@ -54,6 +54,19 @@ public class GreenfootSound
         sound = SoundFactory.getInstance().createSound(filename, false);
     }
 
+    /**
+     * Check whether the scenario's sounds have finished loading. Sounds are
+     * loaded in the background when the scenario starts, so that they can be
+     * played without a delay; a scenario with many sounds can use this method
+     * to show a loading screen until loading has finished.
+     * 
+     * @return True if all the scenario's sounds have been loaded.
+     */
+    public static boolean isPreloadComplete()
+    {
+        return SoundFactory.getInstance().getPreloadFuture().isDone();
+    }
+
     /**
      * Start playing this sound. If it is playing already, it will do
      * nothing. If the sound is currently looping, it will finish the current
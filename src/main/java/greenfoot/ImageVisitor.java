@@ -22,6 +22,7 @@
 package greenfoot;
 
 import java.awt.*;
+import java.awt.image.BufferedImage;
 import java.awt.image.ImageObserver;
 
 /**
@@ -41,8 +42,44 @@ public class ImageVisitor
         image.drawImage(g, x, y, observer, useTranparency);
     }
     
+    /**
+     * Draw an image rotated about the given point, using a cached pre-rotated
+     * copy of the image where possible.
+     */
+    public static void drawRotated(GreenfootImage image, Graphics2D g, double xCenter, double yCenter, int rotation, boolean useTransparency)
+    {
+        image.drawRotated(g, xCenter, yCenter, rotation, useTransparency);
+    }
+    
+    /**
+     * Get an unchanging copy of an image's current contents, which may be drawn
+     * on another thread (see {@link #drawFrozenImage}).
+     */
+    public static BufferedImage getFrozenImage(GreenfootImage image)
+    {
+        return image.getFrozenImage();
+    }
+    
+    /**
+     * Draw an image obtained from {@link #getFrozenImage} centred on the given
+     * point, in the same way as an actor's image is drawn in the world.
+     */
+    public static void drawFrozenImage(Graphics2D g, BufferedImage frozen, int transparency, double xCenter, double yCenter, int rotation)
+    {
+        GreenfootImage.drawFrozenImage(g, frozen, transparency, xCenter, yCenter, rotation);
+    }
+    
     public static boolean equal(GreenfootImage image1, GreenfootImage image2)
     {
         return GreenfootImage.equal(image1, image2);
     }
+    
+    /**
+     * Get the modification count of an image, which changes whenever the
+     * image may have been modified.
+     */
+    public static int getModCount(GreenfootImage image)
+    {
+        return image.getModCount();
+    }
 }
@@ -0,0 +1,67 @@
+/*
+ This file is part of the Greenfoot program.
+ Copyright (C) 2019  Poul Henriksen and Michael Kolling
+
+ This program is free software; you can redistribute it and/or
+ modify it under the terms of the GNU General Public License
+ as published by the Free Software Foundation; either version 2
+ of the License, or (at your option) any later version.
+
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with this program; if not, write to the Free Software
+ Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+
+ This file is subject to the Classpath exception as provided in the
+ LICENSE.txt file that accompanied this code.
+ */
+package greenfoot;
+
+/**
+ * A marker interface for actors whose act() method may be run in parallel
+ * with other actors. Greenfoot runs act() for consecutive parallel actors (in
+ * act order) at the same time, using all available processors, which can
+ * greatly speed up scenarios with many actors.
+ * 
+ * <p>To be safe to run in parallel, an actor's act() method may look at the
+ * world (for example, using getX(), getObjectsInRange() or isTouching()) and
+ * change its own fields, but must not change other shared state. Changes made
+ * through the following methods are allowed, but do not take effect
+ * immediately. Instead they are applied once all the parallel actors have
+ * acted, in act order:
+ * 
+ * <ul>
+ * <li>{@link Actor#setLocation(int, int)}, {@link Actor#move(int)}
+ * <li>{@link Actor#setRotation(int)}, {@link Actor#turn(int)}, {@link Actor#turnTowards(int, int)}
+ * <li>{@link Actor#setImage(GreenfootImage)}, {@link Actor#setImage(String)}
+ * <li>{@link World#addObject(Actor, int, int)}, {@link World#removeObject(Actor)},
+ *     {@link World#removeObjects(java.util.Collection)}
+ * </ul>
+ * 
+ * <p>This means that during act(), an actor sees the world (including its own
+ * location and rotation) as it was before any of the parallel actors acted.
+ * For example, calling move() twice in one act() only moves the actor once.
+ * Any other changes to the world, such as calling Greenfoot.setWorld(), are
+ * not safe in a parallel actor.
+ * 
+ * <p>{@link Greenfoot#getRandomNumber(int)} can be used in a parallel actor.
+ * Each parallel actor gets its numbers from its own sequence, which is started
+ * (in act order) before the actors act, so a run can still be repeated exactly
+ * no matter how the actors are scheduled. The numbers are not the same as the
+ * actor would get if it did not act in parallel.
+ * 
+ * <p>Parallel actors do not act on the simulation thread, so the debugger
+ * does not stop in their act() method when stepping to the next act() call.
+ * To step through the act() method of a parallel actor, remove
+ * "implements ParallelActor" from the class while debugging it.
+ * 
+ * <p>Actors which do not implement this interface act one at a time, exactly
+ * as usual.
+ */
+public interface ParallelActor
+{
+}
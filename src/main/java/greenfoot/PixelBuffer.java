@@ -0,0 +1,131 @@
+/*
+ This file is part of the Greenfoot program.
+ Copyright (C) 2019  Poul Henriksen and Michael Kolling
+
+ This program is free software; you can redistribute it and/or
+ modify it under the terms of the GNU General Public License
+ as published by the Free Software Foundation; either version 2
+ of the License, or (at your option) any later version.
+
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with this program; if not, write to the Free Software
+ Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+
+ This file is subject to the Classpath exception as provided in the
+ LICENSE.txt file that accompanied this code.
+ */
+package greenfoot;
+
+/**
+ * Direct access to the pixels of an image. You can get a PixelBuffer via
+ * {@link GreenfootImage#openPixelBuffer()}, and must close it when you have
+ * finished changing the pixels, so that the change is displayed:
+ * 
+ * <pre>
+ *     try (PixelBuffer buffer = image.openPixelBuffer()) {
+ *         int[] data = buffer.getData();
+ *         data[buffer.getIndex(x, y)] = 0xFFFF0000; // red
+ *     }
+ * </pre>
+ * 
+ * <p>Each pixel is an int holding its alpha, red, green and blue components
+ * (8 bits each, in that order from the most significant byte), in the same
+ * form as {@link java.awt.Color#getRGB()}. The array is the image's own
+ * storage, so reading and writing it is as fast as accessing any array.
+ * 
+ * <p>The image must not be rotated, scaled or mirrored while a buffer is
+ * open, since those operations replace the image's storage.
+ * 
+ * @see GreenfootImage#openPixelBuffer()
+ */
+public class PixelBuffer implements AutoCloseable
+{
+    private GreenfootImage image;
+    private int[] data;
+    private final int offset;
+    private final int stride;
+    private final int width;
+    private final int height;
+    
+    /**
+     * Do not create your own PixelBuffer objects. Use
+     * {@link GreenfootImage#openPixelBuffer() openPixelBuffer()}.
+     */
+    PixelBuffer(GreenfootImage image, int[] data, int offset, int stride)
+    {
+        this.image = image;
+        this.data = data;
+        this.offset = offset;
+        this.stride = stride;
+        this.width = image.getWidth();
+        this.height = image.getHeight();
+    }
+    
+    /**
+     * Get the array holding the pixels.
+     * 
+     * @throws IllegalStateException If the buffer has been closed.
+     */
+    public int[] getData()
+    {
+        if (data == null) {
+            throw new IllegalStateException("The pixel buffer has been closed.");
+        }
+        return data;
+    }
+    
+    /**
+     * Get the index in the array of the pixel at the given position. The
+     * pixels of each row are next to each other in the array, but rows may
+     * not be: use {@link #getStride()} to move from one row to the next.
+     * 
+     * @param x The horizontal coordinate of the pixel.
+     * @param y The vertical coordinate of the pixel.
+     */
+    public int getIndex(int x, int y)
+    {
+        return offset + y * stride + x;
+    }
+    
+    /**
+     * Get the distance in the array between a pixel and the one below it.
+     */
+    public int getStride()
+    {
+        return stride;
+    }
+    
+    /**
+     * Get the width of the image, in pixels.
+     */
+    public int getWidth()
+    {
+        return width;
+    }
+    
+    /**
+     * Get the height of the image, in pixels.
+     */
+    public int getHeight()
+    {
+        return height;
+    }
+    
+    /**
+     * Finish changing the pixels. The buffer may not be used afterwards.
+     */
+    @Override
+    public void close()
+    {
+        if (image != null) {
+            image.closePixelBuffer();
+            image = null;
+            data = null;
+        }
+    }
+}
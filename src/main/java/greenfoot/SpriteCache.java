@@ -0,0 +1,185 @@
+/*
+ This file is part of the Greenfoot program.
+ Copyright (C) 2019  Poul Henriksen and Michael Kolling
+
+ This program is free software; you can redistribute it and/or
+ modify it under the terms of the GNU General Public License
+ as published by the Free Software Foundation; either version 2
+ of the License, or (at your option) any later version.
+
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with this program; if not, write to the Free Software
+ Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+
+ This file is subject to the Classpath exception as provided in the
+ LICENSE.txt file that accompanied this code.
+ */
+package greenfoot;
+
+import java.awt.image.BufferedImage;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+
+/**
+ * A cache of transformed (rotated or scaled) copies of images, so that the
+ * same transformation of the same image need not be repeated every frame.
+ * 
+ * <p>Entries are keyed by the identity of the source BufferedImage. Only
+ * images which will not change are used as keys: a GreenfootImage is made
+ * copy-on-write before its backing image is used, so that modifying it
+ * replaces the backing image rather than changing it, and entries for the
+ * old backing image are simply never used again (until they are evicted).
+ * 
+ * <p>The cache is limited by the total size of the transformed images; the
+ * least recently used entries are evicted when it is exceeded.
+ */
+class SpriteCache
+{
+    /** Kind of transformation: rotation for drawing (see {@link GreenfootImage#drawRotated}) */
+    static final int ROTATED_SPRITE = 0;
+    /** Kind of transformation: {@link GreenfootImage#rotate(int)} */
+    static final int ROTATE = 1;
+    /** Kind of transformation: {@link GreenfootImage#scale(int, int)} */
+    static final int SCALE = 2;
+    
+    /** The default limit on the size of cached images, in bytes */
+    static final long DEFAULT_BUDGET = 16 * 1024 * 1024;
+    
+    private static final SpriteCache instance = new SpriteCache();
+    
+    /** The cached sprites, least recently used first */
+    private final LinkedHashMap<Key,Sprite> sprites = new LinkedHashMap<Key,Sprite>(16, 0.75f, true);
+    private long budget = DEFAULT_BUDGET;
+    /** The total size of cached images, in bytes */
+    private long size;
+    
+    static SpriteCache getInstance()
+    {
+        return instance;
+    }
+    
+    /**
+     * Get a cached sprite.
+     * 
+     * @param source  The source image
+     * @param kind    The kind of transformation
+     * @param a       The first parameter of the transformation
+     * @param b       The second parameter of the transformation
+     * @return  The sprite, or null if it is not cached
+     */
+    synchronized Sprite get(BufferedImage source, int kind, int a, int b)
+    {
+        return sprites.get(new Key(source, kind, a, b));
+    }
+    
+    /**
+     * Add a sprite to the cache. Sprites larger than the whole budget are not cached.
+     */
+    synchronized void put(BufferedImage source, int kind, int a, int b, Sprite sprite)
+    {
+        long spriteSize = sprite.getSize();
+        if (spriteSize > budget) {
+            return;
+        }
+        Sprite old = sprites.put(new Key(source, kind, a, b), sprite);
+        if (old != null) {
+            size -= old.getSize();
+        }
+        size += spriteSize;
+        evict();
+    }
+    
+    /**
+     * Set the limit on the total size of cached images.
+     * 
+     * @param budget  The limit, in bytes
+     */
+    synchronized void setBudget(long budget)
+    {
+        this.budget = budget;
+        evict();
+    }
+    
+    /**
+     * Remove all cached sprites.
+     */
+    synchronized void clear()
+    {
+        sprites.clear();
+        size = 0;
+    }
+    
+    private void evict()
+    {
+        Iterator<Sprite> it = sprites.values().iterator();
+        while (size > budget && it.hasNext()) {
+            size -= it.next().getSize();
+            it.remove();
+        }
+    }
+    
+    /**
+     * A transformed image, with the offset at which it should be drawn.
+     */
+    static class Sprite
+    {
+        final BufferedImage image;
+        final int offsetX;
+        final int offsetY;
+        
+        Sprite(BufferedImage image, int offsetX, int offsetY)
+        {
+            this.image = image;
+            this.offsetX = offsetX;
+            this.offsetY = offsetY;
+        }
+        
+        /**
+         * Get the (approximate) size of the image data, in bytes.
+         */
+        long getSize()
+        {
+            return 4L * image.getWidth() * image.getHeight();
+        }
+    }
+    
+    /**
+     * Cache key: the identity of the source image and the transformation.
+     */
+    private static class Key
+    {
+        private final BufferedImage source;
+        private final int kind;
+        private final int a;
+        private final int b;
+        
+        Key(BufferedImage source, int kind, int a, int b)
+        {
+            this.source = source;
+            this.kind = kind;
+            this.a = a;
+            this.b = b;
+        }
+        
+        @Override
+        public boolean equals(Object obj)
+        {
+            if (! (obj instanceof Key)) {
+                return false;
+            }
+            Key other = (Key) obj;
+            return source == other.source && kind == other.kind && a == other.a && b == other.b;
+        }
+        
+        @Override
+        public int hashCode()
+        {
+            return ((System.identityHashCode(source) * 31 + kind) * 31 + a) * 31 + b;
+        }
+    }
+}
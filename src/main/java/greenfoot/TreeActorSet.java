@@ -38,21 +38,41 @@ import java.util.*;
  */
 public class TreeActorSet extends AbstractSet<Actor>
 {
-    private List<ActorSet> subSets;
+    /** The subsets, in iteration order. Replaced (not modified) when the order changes. */
+    private ActorSet [] subSets;
     
     /** ActorSet for objects of a class without a specific z-order */
     private ActorSet generalSet;
     
     private HashMap<Class<?>, ActorSet> classSets;
     
+    /**
+     * Cache of the set to use for each actor class, so that the class
+     * hierarchy only needs to be walked once per class. Cleared when the
+     * class order changes.
+     */
+    private HashMap<Class<?>, ActorSet> resolvedSets = new HashMap<Class<?>, ActorSet>();
+    
+    /** The most recently resolved class, and its set */
+    private Class<?> lastClass;
+    private ActorSet lastSet;
+    
+    /** The current epoch; incremented whenever a stable iteration begins */
+    private int epoch = 0;
+    
+    /** Number of stable iterations in progress */
+    private int stableIterations = 0;
+    
+    /** Incremented whenever the class order (and so the set of subsets) changes */
+    private int structureVersion = 0;
+    
     /**
      * Construct an empty TreeActorSet.
      */
     public TreeActorSet()
     {
-        subSets = new LinkedList<ActorSet>();
-        generalSet = new ActorSet();
-        subSets.add(generalSet);
+        generalSet = new ActorSet(this);
+        subSets = new ActorSet[] {generalSet};
         
         classSets = new HashMap<Class<?>, ActorSet>();
     }
@@ -87,10 +107,13 @@ public class TreeActorSet extends AbstractSet<Actor>
                 // the superclass set for actors which actually belong in
                 // the new set.
                 sweepClasses.add(classes[i]);
-                oldSet = new ActorSet();
+                oldSet = new ActorSet(this);
             }
             classSets.put(classes[i], oldSet);
         }
+        resolvedSets.clear();
+        lastClass = null;
+        lastSet = null;
         
         // There may be objects in a set for some class A which
         // belong in the set for class B which is derived from A.
@@ -119,8 +142,8 @@ public class TreeActorSet extends AbstractSet<Actor>
                     Actor actor = i.next();
                     ActorSet set = setForActor(actor);
                     if (set != sweepSet) {
-                        set.add(actor); // add to the specific set
-                        i.remove(); // remove from the general set
+                        // move to the specific set
+                        sweepSet.transfer(actor, set);
                     }
                 }
             }
@@ -132,24 +155,63 @@ public class TreeActorSet extends AbstractSet<Actor>
         Iterator<Map.Entry<Class<?>,ActorSet>> ei = oldClassSets.entrySet().iterator();
         for ( ; ei.hasNext(); ) {
             Map.Entry<Class<?>,ActorSet> entry = ei.next();
-            ActorSet destinationSet = setForClass(entry.getKey());
-            destinationSet.addAll(entry.getValue());
+            ActorSet oldSet = entry.getValue();
+            for (Iterator<Actor> i = oldSet.iterator(); i.hasNext(); ) {
+                // The old set may hold subclass instances which now have a
+                // set of their own, so look up the set for each actor.
+                Actor actor = i.next();
+                oldSet.transfer(actor, setForActor(actor));
+            }
         }
         
         // Finally, re-create the subsets list
-        subSets.clear();
+        ActorSet [] newSubSets = new ActorSet[classes.length + 1];
         if(reverse) {
-            subSets.add(generalSet);
-            for (int i = classes.length; i > 0; ) {
-                subSets.add(classSets.get(classes[--i]));
+            newSubSets[0] = generalSet;
+            for (int i = 0; i < classes.length; i++) {
+                newSubSets[classes.length - i] = classSets.get(classes[i]);
             }
         }
         else {
             for (int i = 0; i < classes.length; i++) {
-                subSets.add(classSets.get(classes[i]));
+                newSubSets[i] = classSets.get(classes[i]);
             }
-            subSets.add(generalSet);
+            newSubSets[classes.length] = generalSet;
         }
+        subSets = newSubSets;
+        structureVersion++;
+    }
+    
+    /**
+     * Get the current epoch. Actors added to a subset are stamped with this.
+     */
+    int getEpoch()
+    {
+        return epoch;
+    }
+    
+    /**
+     * Check whether any stable iteration is in progress. If so, subsets must
+     * not be compacted.
+     */
+    boolean isStableIterating()
+    {
+        return stableIterations != 0;
+    }
+    
+    /**
+     * Get an iterator which remains valid while the set is modified, without
+     * copying the set. The iterator returns, in order, the actors which were in
+     * the set when it was created, skipping any which are removed before the
+     * iterator reaches them. Actors added afterwards are not returned.
+     * 
+     * <p>The iterator must be closed once it is no longer needed, since the
+     * set is not compacted while a stable iteration is in progress.
+     */
+    @OnThread(value = Tag.Simulation, ignoreParent = true)
+    public StableIterator stableIterator()
+    {
+        return new StableIterator();
     }
     
     @OnThread(value = Tag.Simulation, ignoreParent = true)
@@ -163,8 +225,8 @@ public class TreeActorSet extends AbstractSet<Actor>
     public int size()
     {
         int size = 0;
-        for (Iterator<ActorSet> i = subSets.iterator(); i.hasNext(); ) {
-            size += i.next().size();
+        for (ActorSet set : subSets) {
+            size += set.size();
         }
         return size;
     }
@@ -197,9 +259,24 @@ public class TreeActorSet extends AbstractSet<Actor>
     private ActorSet setForActor(Actor o)
     {
         Class<?> oClass = o.getClass();
-        return setForClass(oClass);
+        if (oClass == lastClass) {
+            return lastSet;
+        }
+        
+        ActorSet set = resolvedSets.get(oClass);
+        if (set == null) {
+            set = setForClass(oClass);
+            resolvedSets.put(oClass, set);
+        }
+        lastClass = oClass;
+        lastSet = set;
+        return set;
     }
     
+    /**
+     * Find the actor set for a particular class, by walking up the class
+     * hierarchy.
+     */
     private ActorSet setForClass(Class<?> oClass)
     {
         ActorSet set = classSets.get(oClass);
@@ -224,16 +301,16 @@ public class TreeActorSet extends AbstractSet<Actor>
     @OnThread(Tag.Simulation)
     class TasIterator implements Iterator<Actor>
     {
-        private Iterator<ActorSet> setIterator;
+        private final ActorSet [] sets = subSets;
+        private int setIndex;
         private ActorSet currentSet;
         private Iterator<Actor> actorIterator;
         
         public TasIterator()
         {
-            setIterator = subSets.iterator();
-            currentSet = setIterator.next();
-            while (currentSet.isEmpty() && setIterator.hasNext()) {
-                currentSet = setIterator.next();
+            currentSet = sets[0];
+            while (currentSet.isEmpty() && setIndex + 1 < sets.length) {
+                currentSet = sets[++setIndex];
             }
             actorIterator = currentSet.iterator();
         }
@@ -258,12 +335,12 @@ public class TreeActorSet extends AbstractSet<Actor>
                 return true;
             }
             
-            if (! setIterator.hasNext()) {
+            if (setIndex + 1 >= sets.length) {
                 return false;
             }
             
-            while (setIterator.hasNext()) {
-                currentSet = setIterator.next();
+            while (setIndex + 1 < sets.length) {
+                currentSet = sets[++setIndex];
                 if (! currentSet.isEmpty()) {
                     break;
                 }
@@ -273,4 +350,124 @@ public class TreeActorSet extends AbstractSet<Actor>
             return actorIterator.hasNext();
         }
     }
+    
+    /**
+     * An iterator which tolerates modification of the set; see
+     * {@link TreeActorSet#stableIterator()}.
+     * 
+     * <p>Each actor set records, per actor, the epoch in which it was added and the epoch
+     * in which it was last returned by a stable iterator, so that actors moved
+     * between subsets (when the class order changes) are neither skipped nor
+     * returned twice.
+     */
+    @OnThread(Tag.Simulation)
+    public class StableIterator implements Iterator<Actor>, AutoCloseable
+    {
+        private final int iterEpoch;
+        private int expectedVersion;
+        private final ActorSet [] sets = subSets;
+        private int setIndex;
+        private ActorSet currentSet;
+        private int slot;
+        
+        /** Remaining actors, if the class order has changed during iteration */
+        private List<Actor> remaining;
+        private int remainingIndex;
+        
+        private Actor nextActor;
+        private boolean closed;
+        
+        private StableIterator()
+        {
+            iterEpoch = ++epoch;
+            stableIterations++;
+            expectedVersion = structureVersion;
+            currentSet = sets[0];
+        }
+        
+        @OnThread(value = Tag.Simulation, ignoreParent = true)
+        public boolean hasNext()
+        {
+            if (nextActor == null) {
+                nextActor = findNext();
+            }
+            return nextActor != null;
+        }
+        
+        @OnThread(value = Tag.Simulation, ignoreParent = true)
+        public Actor next()
+        {
+            if (! hasNext()) {
+                throw new NoSuchElementException();
+            }
+            Actor actor = nextActor;
+            nextActor = null;
+            return actor;
+        }
+        
+        private Actor findNext()
+        {
+            if (closed) {
+                return null;
+            }
+            
+            if (remaining == null && expectedVersion != structureVersion) {
+                // The subsets have been rebuilt; gather the actors not yet
+                // returned, in the new order.
+                remaining = new ArrayList<Actor>();
+                for (ActorSet set : subSets) {
+                    int slots = set.slotCount();
+                    for (int i = 0; i < slots; i++) {
+                        Actor actor = set.getUnvisited(i, iterEpoch, false);
+                        if (actor != null) {
+                            remaining.add(actor);
+                        }
+                    }
+                }
+            }
+            
+            if (remaining != null) {
+                // Skip any which have been removed since
+                while (remainingIndex < remaining.size()) {
+                    Actor actor = remaining.get(remainingIndex++);
+                    if (contains(actor)) {
+                        return actor;
+                    }
+                }
+                return null;
+            }
+            
+            while (true) {
+                int slots = currentSet.slotCount();
+                while (slot < slots) {
+                    Actor actor = currentSet.getUnvisited(slot++, iterEpoch, true);
+                    if (actor != null) {
+                        return actor;
+                    }
+                }
+                if (setIndex + 1 >= sets.length) {
+                    return null;
+                }
+                currentSet = sets[++setIndex];
+                slot = 0;
+            }
+        }
+        
+        /**
+         * Finish the iteration, allowing the set to be compacted again.
+         */
+        @OnThread(value = Tag.Simulation, ignoreParent = true)
+        public void close()
+        {
+            if (! closed) {
+                closed = true;
+                nextActor = null;
+                if (--stableIterations == 0) {
+                    for (ActorSet set : subSets) {
+                        set.compactIfNeeded();
+                    }
+                }
+            }
+        }
+    }
 }
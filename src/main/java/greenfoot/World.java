@@ -24,15 +24,20 @@ package greenfoot;
 
 import greenfoot.collision.ColManager;
 import greenfoot.collision.CollisionChecker;
+import greenfoot.collision.CollisionProfiler;
+import greenfoot.collision.SpatialHashChecker;
 import greenfoot.collision.ibsp.Rect;
+import greenfoot.core.ParallelActPhase;
 import greenfoot.core.TextLabel;
 import greenfoot.core.WorldHandler;
+import greenfoot.util.GreenfootUtil;
 import threadchecker.OnThread;
 import threadchecker.Tag;
 
 import java.awt.*;
 import java.util.List;
 import java.util.*;
+import java.util.function.Consumer;
 
 
 /**
@@ -59,11 +64,8 @@ public abstract class World
 
     // private CollisionChecker collisionChecker = new GridCollisionChecker();
     // private CollisionChecker collisionChecker = new BVHInsChecker();
-    private CollisionChecker collisionChecker = new ColManager();
-
-    //{
-    //    collisionChecker = new CollisionProfiler(collisionChecker);
-    //}
+    // (Wrapped in a CollisionProfiler while the simulation is being profiled.)
+    private CollisionChecker collisionChecker;
 
     // One or two sets can be used to store objects in different orders.
     // Initially only the disordered set will be used, if later we need
@@ -93,6 +95,15 @@ public abstract class World
     /** Whether actors are bound to stay inside the world */
     private boolean isBounded;
 
+    /** Whether only the changed parts of the world are repainted each frame */
+    private boolean incrementalRendering;
+
+    /** Whether the world is rendered on a separate thread */
+    private boolean asyncRendering;
+
+    /** Incremented whenever the paint (or act) order is set */
+    private int paintOrderVersion;
+
     /**
      * Construct a new world. The size of the world (in number of cells) and the
      * size of each cell (in pixels) must be specified.
@@ -118,13 +129,42 @@ public abstract class World
      * @param bounded     Should actors be restricted to the world boundary?
      */
     public World(int worldWidth, int worldHeight, int cellSize, boolean bounded)
+    {
+        this(worldWidth, worldHeight, cellSize, bounded, false);
+    }
+
+    /**
+     * Construct a new world. The size of the world (in number of cells) and the
+     * size of each cell (in pixels) must be specified. This constructor also
+     * allows choosing how collisions between actors are detected. A spatial
+     * hash is usually faster for worlds with a large number of small actors
+     * which move often; the default is better suited to actors of widely
+     * differing sizes.
+     *
+     * @param worldWidth  The width of the world (in cells).
+     * @param worldHeight The height of the world (in cells).
+     * @param cellSize    Size of a cell in pixels.
+     * @param bounded     Should actors be restricted to the world boundary?
+     * @param spatialHash Should a spatial hash be used for collision detection?
+     */
+    public World(int worldWidth, int worldHeight, int cellSize, boolean bounded, boolean spatialHash)
     {
         this.width = worldWidth;
         this.height = worldHeight;
         this.cellSize = cellSize;
+        if (spatialHash) {
+            collisionChecker = new ColManager(new SpatialHashChecker());
+        }
+        else {
+            collisionChecker = new ColManager();
+        }
         collisionChecker.initialize(worldWidth, worldHeight, cellSize, false);
         this.isBounded = bounded;
 
+        // Load the scenario's images in the background, so that actors
+        // don't have to wait for them when they are first used:
+        GreenfootUtil.prefetchImages();
+
         backgroundIsClassImage = true;
         setBackground(getClassImage());
 
@@ -319,6 +359,7 @@ public abstract class World
     @SuppressWarnings("unchecked")
     public void setPaintOrder(Class ... classes)
     {
+        paintOrderVersion++;
         if (classes == null) {
             // Allow null as an argument, to specify no paint order
             if(objectsInPaintOrder == objectsDisordered) {
@@ -374,6 +415,8 @@ public abstract class World
     @SuppressWarnings("unchecked")
     public void setActOrder(Class ... classes)
     {
+        // The act order set may be shared with the paint order
+        paintOrderVersion++;
         if (classes == null) {
             // Allow null as an argument, to specify no paint order
             if (objectsInActOrder == objectsDisordered) {
@@ -416,6 +459,19 @@ public abstract class World
      * @param y The y coordinate of the location where the object is added.
      */
     public void addObject(Actor object, int x, int y)
+    {
+        if (ParallelActPhase.isDeferring()) {
+            ParallelActPhase.defer(() -> addObjectNow(object, x, y));
+            return;
+        }
+        addObjectNow(object, x, y);
+    }
+    
+    /**
+     * The implementation of addObject, which always adds the object immediately
+     * (and never calls an overridden addObject).
+     */
+    private void addObjectNow(Actor object, int x, int y)
     {
         if (object.world != null) {
             if (object.world == this) {
@@ -447,6 +503,19 @@ public abstract class World
      * @param object the object to remove
      */
     public void removeObject(Actor object)
+    {
+        if (ParallelActPhase.isDeferring()) {
+            ParallelActPhase.defer(() -> removeObjectNow(object));
+            return;
+        }
+        removeObjectNow(object);
+    }
+    
+    /**
+     * The implementation of removeObject, which always removes the object
+     * immediately (and never calls an overridden removeObject).
+     */
+    private void removeObjectNow(Actor object)
     {
         if (object == null || object.world != this) {
             return;
@@ -613,6 +682,43 @@ public abstract class World
         }
     }
 
+    /**
+     * Set whether the world should be repainted incrementally. When enabled,
+     * only the parts of the world which have changed since the previous frame
+     * are repainted, which can be much faster for worlds where most actors
+     * stay still (such as board games).
+     *
+     * <p>Changes to images are detected automatically, except where an image
+     * is modified via a java.awt.Graphics object or BufferedImage which was
+     * obtained earlier (using getAwtImage()) and kept. Incremental rendering
+     * should not be used in that case.
+     *
+     * @param incremental  Whether to repaint only the changed parts of the world
+     */
+    public void setIncrementalRendering(boolean incremental)
+    {
+        this.incrementalRendering = incremental;
+    }
+
+    /**
+     * Set whether the world should be rendered on a separate thread. When
+     * enabled, the end of each act round only records what is to be drawn
+     * (the background, and the image, location, rotation and transparency of
+     * each actor), and the next act round can start while the world image is
+     * drawn from that record in the background. On a computer with more than
+     * one processor this lets a scenario which spends much of its time painting
+     * run faster.
+     *
+     * <p>Each frame shows the world exactly as it was at the end of an act
+     * round. If rendering cannot keep up, some frames are not shown.
+     *
+     * @param async  Whether to render the world on a separate thread
+     */
+    public void setAsyncRendering(boolean async)
+    {
+        this.asyncRendering = async;
+    }
+
     // =================================================
     // PACKAGE-PROTECTED METHODS
     //
@@ -629,6 +735,31 @@ public abstract class World
         return backgroundImage;
     }
 
+    /**
+     * Test whether this world should be repainted incrementally.
+     */
+    boolean isIncrementalRendering()
+    {
+        return incrementalRendering;
+    }
+
+    /**
+     * Test whether this world should be rendered on a separate thread.
+     */
+    boolean isAsyncRendering()
+    {
+        return asyncRendering;
+    }
+
+    /**
+     * Get the paint order version, which changes whenever the paint order
+     * may have changed.
+     */
+    int getPaintOrderVersion()
+    {
+        return paintOrderVersion;
+    }
+
     /**
      * Test whether this world is bounded.
      */
@@ -650,6 +781,20 @@ public abstract class World
         return collisionChecker.getIntersectingObjects(actor, (Class)cls);
     }
 
+    /**
+     * Pass each object that intersects the given object, other than the object
+     * itself, to the given consumer. This avoids allocating a result list.
+     *
+     * @param actor An Actor in the world
+     * @param cls Class of objects to look for (null or Object.class will find
+     *            all classes)
+     * @param consumer The consumer to pass each object to
+     */
+    <A> void forEachIntersecting(Actor actor, Class<A> cls, Consumer<? super A> consumer)
+    {
+        collisionChecker.forEachIntersecting(actor, (Class)cls, (Consumer)consumer);
+    }
+
     /**
      * Returns all objects with the logical location within the specified
      * circle. In other words an object A is within the range of an object B if
@@ -781,6 +926,28 @@ public abstract class World
         collisionChecker.updateObjectSize(object);
     }
 
+    /**
+     * Start or stop reporting the time taken by collision queries.
+     * Should only be called from the simulation thread, between act rounds.
+     *
+     * @param recorder  The recorder to report to, or null to stop reporting
+     */
+    void setCollisionRecorder(CollisionProfiler.QueryRecorder recorder)
+    {
+        if (collisionChecker instanceof CollisionProfiler) {
+            CollisionProfiler profiler = (CollisionProfiler) collisionChecker;
+            if (recorder == null) {
+                collisionChecker = profiler.getChecker();
+            }
+            else {
+                profiler.setRecorder(recorder);
+            }
+        }
+        else if (recorder != null) {
+            collisionChecker = new CollisionProfiler(collisionChecker, recorder);
+        }
+    }
+
     /**
      * Used to indicate the start of an animation sequence. For use in the
      * collision checker.
@@ -21,6 +21,7 @@
  */
 package greenfoot;
 
+import greenfoot.collision.CollisionProfiler;
 import greenfoot.core.TextLabel;
 import threadchecker.OnThread;
 import threadchecker.Tag;
@@ -81,6 +82,15 @@ public class WorldVisitor
         w.startSequence();
     }
 
+    /**
+     * Start or stop reporting the time taken by the world's collision queries.
+     * @see World#setCollisionRecorder(CollisionProfiler.QueryRecorder)
+     */
+    public static void setCollisionRecorder(World world, CollisionProfiler.QueryRecorder recorder)
+    {
+        world.setCollisionRecorder(recorder);
+    }
+
     public static void paintDebug(World world, Graphics g)
     {
         world.paintDebug(g);
@@ -135,6 +145,31 @@ public class WorldVisitor
         return world.getBackgroundNoInit();
     }
     
+    /**
+     * Check whether the world should be repainted incrementally.
+     */
+    public static boolean isIncrementalRendering(World world)
+    {
+        return world.isIncrementalRendering();
+    }
+    
+    /**
+     * Check whether the world should be rendered on a separate thread.
+     */
+    public static boolean isAsyncRendering(World world)
+    {
+        return world.isAsyncRendering();
+    }
+    
+    /**
+     * Get the world's paint order version, which changes whenever the paint
+     * order may have changed.
+     */
+    public static int getPaintOrderVersion(World world)
+    {
+        return world.getPaintOrderVersion();
+    }
+    
     /**
      * Get the list of text labels to be displayed on the world.
      */
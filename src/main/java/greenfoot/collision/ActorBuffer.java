@@ -0,0 +1,135 @@
+/*
+ This file is part of the Greenfoot program.
+ Copyright (C) 2019  Poul Henriksen and Michael Kolling
+
+ This program is free software; you can redistribute it and/or
+ modify it under the terms of the GNU General Public License
+ as published by the Free Software Foundation; either version 2
+ of the License, or (at your option) any later version.
+
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with this program; if not, write to the Free Software
+ Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+
+ This file is subject to the Classpath exception as provided in the
+ LICENSE.txt file that accompanied this code.
+ */
+package greenfoot.collision;
+
+import greenfoot.Actor;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Consumer;
+
+/**
+ * A growable array of actors, used by collision checkers to gather query
+ * results without allocating. Buffers are pooled: a checker acquires a buffer
+ * for the duration of a query, and releases it again once the results have
+ * been passed on.
+ * 
+ * <p>Results are collected in full before they are passed to a consumer, so
+ * a consumer may safely perform further queries, or modify the world.
+ */
+public final class ActorBuffer
+{
+    private static final int POOL_SIZE = 8;
+    
+    private static final ActorBuffer [] pool = new ActorBuffer[POOL_SIZE];
+    private static int poolSize = 0;
+    
+    private Actor [] actors = new Actor[16];
+    private int size;
+    
+    /**
+     * Get an empty buffer, from the pool if possible.
+     */
+    public static ActorBuffer acquire()
+    {
+        synchronized (pool) {
+            if (poolSize > 0) {
+                ActorBuffer buffer = pool[--poolSize];
+                pool[poolSize] = null;
+                return buffer;
+            }
+        }
+        return new ActorBuffer();
+    }
+    
+    /**
+     * Clear the given buffer and return it to the pool. The buffer must not be
+     * used afterwards.
+     */
+    public static void release(ActorBuffer buffer)
+    {
+        buffer.clear();
+        synchronized (pool) {
+            if (poolSize < POOL_SIZE) {
+                pool[poolSize++] = buffer;
+            }
+        }
+    }
+    
+    public void add(Actor actor)
+    {
+        if (size == actors.length) {
+            Actor [] newActors = new Actor[size * 2];
+            System.arraycopy(actors, 0, newActors, 0, size);
+            actors = newActors;
+        }
+        actors[size++] = actor;
+    }
+    
+    public int size()
+    {
+        return size;
+    }
+    
+    public Actor get(int index)
+    {
+        return actors[index];
+    }
+    
+    /**
+     * Remove all actors from the buffer. The array is cleared so that removed
+     * actors can be garbage collected.
+     */
+    public void clear()
+    {
+        for (int i = 0; i < size; i++) {
+            actors[i] = null;
+        }
+        size = 0;
+    }
+    
+    /**
+     * Pass each actor in the buffer to the given consumer. The caller is
+     * responsible for the buffer holding only actors of the consumer's type.
+     */
+    @SuppressWarnings("unchecked")
+    public <T extends Actor> void forEach(Consumer<? super T> consumer)
+    {
+        for (int i = 0; i < size; i++) {
+            consumer.accept((T) actors[i]);
+        }
+    }
+    
+    /**
+     * Copy the contents of the buffer into a new list. The caller is responsible
+     * for the buffer holding only actors of the list's type.
+     */
+    @SuppressWarnings("unchecked")
+    public <T extends Actor> List<T> toList()
+    {
+        List<T> list = new ArrayList<T>(size);
+        for (int i = 0; i < size; i++) {
+            list.add((T) actors[i]);
+        }
+        return list;
+    }
+}
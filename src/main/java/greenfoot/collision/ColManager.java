@@ -28,6 +28,7 @@ import java.awt.*;
 import java.util.List;
 import java.util.*;
 import java.util.Map.Entry;
+import java.util.function.Consumer;
 
 
 /**
@@ -35,6 +36,11 @@ import java.util.Map.Entry;
  * itself but optimises the collision checking by deciding how to delegate
  * collision checking to other collision checkers.
  * 
+ * <p>All methods are synchronized, since queries may be made concurrently by
+ * actors acting in parallel (see {@link greenfoot.ParallelActor}). Queries
+ * lazily move objects into the underlying checker, so even they are not
+ * read-only.
+ * 
  * @author Poul Henriksen
  */
 public class ColManager implements CollisionChecker
@@ -46,8 +52,34 @@ public class ColManager implements CollisionChecker
     /** Classes that are part of the collision checking. */
     private Set<Class<? extends Actor>> collisionClasses = new HashSet<Class<? extends Actor>>();
     
+    /**
+     * Objects of collision classes that have been added but not yet passed on to the
+     * collision checker. They are added in bulk before the next query, so that many
+     * objects added in succession can be inserted as a batch.
+     */
+    private Set<Actor> pendingObjects = new LinkedHashSet<Actor>();
+    
     /** The actual collision checker. */
-    private CollisionChecker collisionChecker = new IBSPColChecker();
+    private final CollisionChecker collisionChecker;
+
+    /**
+     * Create a collision manager which delegates to a BSP tree collision checker.
+     */
+    public ColManager()
+    {
+        this(new IBSPColChecker());
+    }
+
+    /**
+     * Create a collision manager which delegates to the given collision checker.
+     * 
+     * @param collisionChecker  The checker in which objects are placed once they
+     *                          take part in collision checking.
+     */
+    public ColManager(CollisionChecker collisionChecker)
+    {
+        this.collisionChecker = collisionChecker;
+    }
 
     /**
      * Ensures that objects of this class are in the collision checker
@@ -55,20 +87,20 @@ public class ColManager implements CollisionChecker
      */
     private void makeCollisionObjects(Class<? extends Actor> cls, boolean includeSubclasses)
     {
+        flushPendingObjects();
+        
         if (cls == null) {
-            //long start = System.nanoTime();
+            // Add all the free objects to the collision checker in one go
+            List<Actor> allFree = new ArrayList<Actor>();
             Set<Entry<Class<? extends Actor>, LinkedList<Actor>>> entries = freeObjects.entrySet();
             for (Entry<Class<? extends Actor>, LinkedList<Actor>> entry : entries) {
-                // TODO: bulk add could be faster if implemented in collision checker?
-                for (Actor actor : entry.getValue()) {
-                    collisionChecker.addObject(actor);
-                }
+                allFree.addAll(entry.getValue());
                 collisionClasses.add(entry.getKey());
             }
-            //long end = System.nanoTime();
-
-            //System.out.println("move all took seconds: " + (end - start) / 1000000000d);
             freeObjects.clear();
+            if (! allFree.isEmpty()) {
+                collisionChecker.addObjects(allFree);
+            }
         }
         else if (collisionClasses.contains(cls)) {
         }
@@ -79,10 +111,7 @@ public class ColManager implements CollisionChecker
                 collisionClasses.add(cls);
     
                 // Add all the objects to the collision checker
-                // TODO: bulk add could be faster if implemented in collision checker?
-                for (Actor actor : classSet) {
-                    collisionChecker.addObject(actor);
-                }
+                collisionChecker.addObjects(classSet);
             }
         }
 
@@ -99,6 +128,19 @@ public class ColManager implements CollisionChecker
         }
     }
 
+    /**
+     * Add any pending objects (of classes which are already part of the collision
+     * checking) to the collision checker, as a single batch.
+     */
+    private void flushPendingObjects()
+    {
+        if (! pendingObjects.isEmpty()) {
+            List<Actor> batch = new ArrayList<Actor>(pendingObjects);
+            pendingObjects.clear();
+            collisionChecker.addObjects(batch);
+        }
+    }
+
     /**
      * Ensure that objects of the actors class and all objects of 'cls' or a
      * subclass is part of the collision detection.
@@ -110,12 +152,12 @@ public class ColManager implements CollisionChecker
         makeCollisionObjects(cls, true);
     }
 
-    public void addObject(Actor actor)
+    public synchronized void addObject(Actor actor)
     {
         Class<? extends Actor> cls = actor.getClass();
 
         if (collisionClasses.contains(cls)) {
-            collisionChecker.addObject(actor);
+            pendingObjects.add(actor);
         }
         else {
             LinkedList<Actor> classSet = freeObjects.get(cls);
@@ -127,21 +169,22 @@ public class ColManager implements CollisionChecker
         }
     }
 
-    public <T extends Actor> List<T> getIntersectingObjects(Actor actor, Class<T> cls)
+    public synchronized <T extends Actor> List<T> getIntersectingObjects(Actor actor, Class<T> cls)
     {
         prepareForCollision(actor, cls);
         return collisionChecker.getIntersectingObjects(actor, cls);
     }
 
-    public <T extends Actor> List<T> getNeighbours(Actor actor, int distance, boolean diag, Class<T> cls)
+    public synchronized <T extends Actor> List<T> getNeighbours(Actor actor, int distance, boolean diag, Class<T> cls)
     {
         prepareForCollision(actor, cls);
         return collisionChecker.getNeighbours(actor, distance, diag, cls);
     }
 
     @SuppressWarnings("unchecked")
-    public <T extends Actor> List<T> getObjects(Class<T> cls)
+    public synchronized <T extends Actor> List<T> getObjects(Class<T> cls)
     {
+        flushPendingObjects();
         List<T> result = collisionChecker.getObjects(cls);
 
         Set<Entry<Class<? extends Actor>, LinkedList<Actor>>> entries = freeObjects.entrySet();
@@ -153,78 +196,119 @@ public class ColManager implements CollisionChecker
         return result;
     }
 
-    public <T extends Actor> List<T> getObjectsAt(int x, int y, Class<T> cls)
+    public synchronized <T extends Actor> List<T> getObjectsAt(int x, int y, Class<T> cls)
     {
         makeCollisionObjects(cls, true);
         return collisionChecker.getObjectsAt(x, y, cls);
     }
 
-    public <T extends Actor> List<T> getObjectsInDirection(int x, int y, int angle, int length, Class<T> cls)
+    public synchronized <T extends Actor> List<T> getObjectsInDirection(int x, int y, int angle, int length, Class<T> cls)
     {
         makeCollisionObjects(cls, true);
         return collisionChecker.getObjectsInDirection(x, y, angle, length, cls);
     }
 
-    public <T extends Actor> List<T> getObjectsInRange(int x, int y, int r, Class<T> cls)
+    public synchronized <T extends Actor> List<T> getObjectsInRange(int x, int y, int r, Class<T> cls)
     {
         makeCollisionObjects(cls, true);
         return collisionChecker.getObjectsInRange(x, y, r, cls);
     }
 
-    public List<Actor> getObjectsList()
+    public synchronized List<Actor> getObjectsList()
     {
         return getObjects(null);
     }
 
-    public <T extends Actor> T getOneIntersectingObject(Actor object, Class<T> cls)
+    public synchronized <T extends Actor> void forEachObjectAt(int x, int y, Class<T> cls, Consumer<? super T> consumer)
+    {
+        makeCollisionObjects(cls, true);
+        collisionChecker.forEachObjectAt(x, y, cls, consumer);
+    }
+
+    public synchronized <T extends Actor> void forEachIntersecting(Actor actor, Class<T> cls, Consumer<? super T> consumer)
+    {
+        prepareForCollision(actor, cls);
+        collisionChecker.forEachIntersecting(actor, cls, consumer);
+    }
+
+    public synchronized <T extends Actor> void forEachInRange(int x, int y, int r, Class<T> cls, Consumer<? super T> consumer)
+    {
+        makeCollisionObjects(cls, true);
+        collisionChecker.forEachInRange(x, y, r, cls, consumer);
+    }
+
+    public synchronized <T extends Actor> void forEachNeighbour(Actor actor, int distance, boolean diag, Class<T> cls,
+            Consumer<? super T> consumer)
+    {
+        prepareForCollision(actor, cls);
+        collisionChecker.forEachNeighbour(actor, distance, diag, cls, consumer);
+    }
+
+    public synchronized <T extends Actor> void forEachInDirection(int x, int y, int angle, int length, Class<T> cls,
+            Consumer<? super T> consumer)
+    {
+        makeCollisionObjects(cls, true);
+        collisionChecker.forEachInDirection(x, y, angle, length, cls, consumer);
+    }
+
+    public synchronized <T extends Actor> T getOneIntersectingObject(Actor object, Class<T> cls)
     {
         prepareForCollision(object, cls);
         return collisionChecker.getOneIntersectingObject(object, cls);
     }
 
-    public <T extends Actor> T getOneObjectAt(Actor object, int dx, int dy, Class<T> cls)
+    public synchronized <T extends Actor> T getOneObjectAt(Actor object, int dx, int dy, Class<T> cls)
     {
         prepareForCollision(object, cls);
         return collisionChecker.getOneObjectAt(object, dx, dy, cls);
     }
 
-    public void initialize(int width, int height, int cellSize, boolean wrap)
+    public synchronized void initialize(int width, int height, int cellSize, boolean wrap)
     {
         collisionChecker.initialize(width, height, cellSize, wrap);
     }
 
-    public void paintDebug(Graphics g)
+    public synchronized void paintDebug(Graphics g)
     {
         collisionChecker.paintDebug(g);
     }
 
-    public void removeObject(Actor object)
+    public synchronized void removeObject(Actor object)
     {
         LinkedList<Actor> classSet = freeObjects.get(object.getClass());
         if (classSet != null) {
             classSet.remove(object);
         }
-        else {
+        else if (! pendingObjects.remove(object)) {
             collisionChecker.removeObject(object);
         }
     }
 
-    public void startSequence()
+    public synchronized void startSequence()
     {
+        flushPendingObjects();
         collisionChecker.startSequence();
     }
 
-    public void updateObjectLocation(Actor object, int oldX, int oldY)
+    public synchronized void updateObjectLocation(Actor object, int oldX, int oldY)
     {
-        if (!freeObjects.containsKey(object.getClass())) {
+        if (!freeObjects.containsKey(object.getClass()) && !isPending(object)) {
             collisionChecker.updateObjectLocation(object, oldX, oldY);
         }
     }
 
-    public void updateObjectSize(Actor object)
+    public synchronized void updateObjectSize(Actor object)
     {
-        if (!freeObjects.containsKey(object.getClass())) {
+        if (!freeObjects.containsKey(object.getClass()) && !isPending(object)) {
             collisionChecker.updateObjectSize(object);
         }
     }
+
+    /**
+     * Check whether an object is waiting to be added to the collision checker.
+     */
+    private boolean isPending(Actor object)
+    {
+        return !pendingObjects.isEmpty() && pendingObjects.contains(object);
+    }
 }
\ No newline at end of file
@@ -24,7 +24,9 @@ package greenfoot.collision;
 import greenfoot.Actor;
 
 import java.awt.*;
+import java.util.Collection;
 import java.util.List;
+import java.util.function.Consumer;
 
 /**
  * Interface for an implementation of a particular collision checker algorithm.
@@ -48,6 +50,18 @@ public interface CollisionChecker
      */
     public void addObject(Actor actor);
 
+    /**
+     * Called when a number of objects are added into the world at once. This
+     * is equivalent to calling {@link #addObject(Actor)} for each object, but
+     * checkers may be able to build their structures faster in bulk.
+     */
+    public default void addObjects(Collection<? extends Actor> actors)
+    {
+        for (Actor actor : actors) {
+            addObject(actor);
+        }
+    }
+
     /**
      * Called when an object is removed from the world
      */
@@ -142,6 +156,61 @@ public interface CollisionChecker
      * @param cls Class of objects to look for (passing 'null' will find all objects).
      */
     public <T extends Actor> List<T> getObjectsInDirection(int x, int y, int angle, int length, Class<T> cls);
+
+    /**
+     * Pass each object that intersects the given location to the consumer. This
+     * finds the same objects as {@link #getObjectsAt(int, int, Class)}, but
+     * checkers may implement it without allocating a result list.
+     * 
+     * <p>All objects are found before the first is passed to the consumer, so
+     * the consumer may modify the world.
+     */
+    public default <T extends Actor> void forEachObjectAt(int x, int y, Class<T> cls, Consumer<? super T> consumer)
+    {
+        getObjectsAt(x, y, cls).forEach(consumer);
+    }
+
+    /**
+     * Pass each object that intersects the given actor, other than the actor
+     * itself, to the consumer. See {@link #getIntersectingObjects(Actor, Class)}.
+     */
+    public default <T extends Actor> void forEachIntersecting(Actor actor, Class<T> cls, Consumer<? super T> consumer)
+    {
+        for (T other : getIntersectingObjects(actor, cls)) {
+            if (other != actor) {
+                consumer.accept(other);
+            }
+        }
+    }
+
+    /**
+     * Pass each object within the given range to the consumer. See
+     * {@link #getObjectsInRange(int, int, int, Class)}.
+     */
+    public default <T extends Actor> void forEachInRange(int x, int y, int r, Class<T> cls, Consumer<? super T> consumer)
+    {
+        getObjectsInRange(x, y, r, cls).forEach(consumer);
+    }
+
+    /**
+     * Pass each neighbour of the given actor to the consumer. See
+     * {@link #getNeighbours(Actor, int, boolean, Class)}.
+     */
+    public default <T extends Actor> void forEachNeighbour(Actor actor, int distance, boolean diag, Class<T> cls,
+            Consumer<? super T> consumer)
+    {
+        getNeighbours(actor, distance, diag, cls).forEach(consumer);
+    }
+
+    /**
+     * Pass each object crossed by the given line to the consumer. See
+     * {@link #getObjectsInDirection(int, int, int, int, Class)}.
+     */
+    public default <T extends Actor> void forEachInDirection(int x, int y, int angle, int length, Class<T> cls,
+            Consumer<? super T> consumer)
+    {
+        getObjectsInDirection(x, y, angle, length, cls).forEach(consumer);
+    }
     
     /**
      * Get all the objects in the world, or all the objects of a particular class.
@@ -24,128 +24,114 @@ package greenfoot.collision;
 import greenfoot.Actor;
 
 import java.awt.*;
-import java.io.File;
-import java.io.FileNotFoundException;
-import java.io.IOException;
-import java.io.PrintStream;
+import java.util.Collection;
 import java.util.List;
-
+import java.util.function.Consumer;
+
+/**
+ * A collision checker which wraps another, and reports the time taken by each
+ * collision query to a {@link QueryRecorder}. Updates (adding, removing and
+ * moving objects) are not timed. For the queries which pass their results to a
+ * consumer, the time taken includes the time spent in the consumer.
+ * 
+ * <p>The recorder may be changed while the checker is in use. Queries may be
+ * made from several threads at once (by parallel actors), so the recorder must
+ * be thread-safe.
+ */
 public class CollisionProfiler implements CollisionChecker
 {
-    // Set this to true for output to console
-    private static boolean to_console = true;
+    /**
+     * Receives the time taken by each collision query.
+     */
+    public static interface QueryRecorder
+    {
+        /**
+         * A collision query has been performed.
+         * 
+         * @param nanos  The time taken by the query, in nanoseconds
+         */
+        public void collisionQueryPerformed(long nanos);
+    }
     
-    // Set this to true for more complete output
-    private static boolean verbose = true;
+    private final CollisionChecker checker;
+    private volatile QueryRecorder recorder;
     
-    // Set this to the number of sequences to collect times for,
-    // before outputting the results and resetting the times
-    private static final int MAX_SEQ_COUNT = 100;
+    /**
+     * Create a profiler wrapping the given (already initialised) checker.
+     */
+    public CollisionProfiler(CollisionChecker checker, QueryRecorder recorder)
+    {
+        this.checker = checker;
+        this.recorder = recorder;
+    }
 
-    private CollisionChecker checker;
-    
-    private long addObjectTime;
-    private long removeObjectTime;
-    private long updateObjectLocationTime;
-    private long updateObjectSizeTime;
-    private long getObjectsAtTime;
-    private long getIntersectingObjectsTime;
-    private long getObjectsInRangeTime;
-    private long getNeighboursTime;
-    private long getObjectsInDirectionTime;
-    private long getObjectsTime;
-    private long getOneObjectAtTime;
-    private long getOneIntersectingObjectTime;
+    /**
+     * Get the checker which this profiler wraps.
+     */
+    public CollisionChecker getChecker()
+    {
+        return checker;
+    }
 
-    private int sequenceCount;
-    private int sequences;
-    
-    private PrintStream fileStream;
+    /**
+     * Set the recorder to report query times to.
+     */
+    public void setRecorder(QueryRecorder recorder)
+    {
+        this.recorder = recorder;
+    }
 
-    private int objectCount;
-    
-    public CollisionProfiler(CollisionChecker checker)
+    /**
+     * Report the time taken by a query which began at the given time.
+     */
+    private void queryFinished(long startTime)
     {
-        this.checker = checker;
+        recorder.collisionQueryPerformed(System.nanoTime() - startTime);
     }
     
     public void initialize(int width, int height, int cellSize, boolean wrap)
     {
         checker.initialize(width, height, cellSize, wrap);
-        if (to_console) {
-            fileStream = System.out;
-        }
-        else {
-            File f = new File(System.getProperty("user.home"));
-            f = new File(f, "profile.txt");
-            try {
-                f.createNewFile();
-            }
-            catch (IOException e1) {
-                // TODO Auto-generated catch block
-                e1.printStackTrace();
-            }
-            try {
-                fileStream = new PrintStream(f);
-            }
-            catch (FileNotFoundException e) {
-                // TODO Auto-generated catch block
-                e.printStackTrace();
-            }
-        }
     }
 
-    public synchronized void addObject(Actor actor)
+    public void addObject(Actor actor)
     {
-        long t1 = System.nanoTime();
         checker.addObject(actor);
-        long t2 = System.nanoTime();
-        addObjectTime += t2 - t1;
     }
 
-    public synchronized void removeObject(Actor object)
+    public void addObjects(Collection<? extends Actor> actors)
     {
-        long t1 = System.nanoTime();
-        checker.removeObject(object);
-        long t2 = System.nanoTime();
-        removeObjectTime += t2 - t1;
+        checker.addObjects(actors);
     }
 
-    public  synchronized void updateObjectLocation(Actor object, int oldX, int oldY)
+    public void removeObject(Actor object)
     {
+        checker.removeObject(object);
+    }
 
-        long t1 = System.nanoTime();
+    public void updateObjectLocation(Actor object, int oldX, int oldY)
+    {
         checker.updateObjectLocation(object, oldX, oldY);
-        long t2 = System.nanoTime();
-        updateObjectLocationTime += t2 - t1;
-        
     }
 
-    public  synchronized void updateObjectSize(Actor object)
+    public void updateObjectSize(Actor object)
     {
-        long t1 = System.nanoTime();
         checker.updateObjectSize(object);
-        long t2 = System.nanoTime();
-        updateObjectSizeTime += t2 - t1;
-        
     }
 
     public <T extends Actor> List<T> getObjectsAt(int x, int y, Class<T> cls)
     {
         long t1 = System.nanoTime();
-        List<T> l  = checker.getObjectsAt(x, y, cls);
-        long t2 = System.nanoTime();
-        getObjectsAtTime += t2 - t1;
+        List<T> l = checker.getObjectsAt(x, y, cls);
+        queryFinished(t1);
         return l;
     }
 
     public <T extends Actor> List<T> getIntersectingObjects(Actor actor, Class<T> cls)
     {
-
         long t1 = System.nanoTime();
         List<T> l = checker.getIntersectingObjects(actor, cls);
-        long t2 = System.nanoTime();
-        getIntersectingObjectsTime += t2 - t1;
+        queryFinished(t1);
         return l;
     }
 
@@ -153,8 +139,7 @@ public class CollisionProfiler implements CollisionChecker
     {
         long t1 = System.nanoTime();
         List<T> l = checker.getObjectsInRange(x, y, r, cls);
-        long t2 = System.nanoTime();
-        getObjectsInRangeTime += t2 - t1;
+        queryFinished(t1);
         return l;
     }
 
@@ -162,8 +147,7 @@ public class CollisionProfiler implements CollisionChecker
     {
         long t1 = System.nanoTime();
         List<T> l = checker.getNeighbours(actor, distance, diag, cls);
-        long t2 = System.nanoTime();
-        getNeighboursTime += t2 - t1;
+        queryFinished(t1);
         return l;
     }
 
@@ -171,18 +155,50 @@ public class CollisionProfiler implements CollisionChecker
     {
         long t1 = System.nanoTime();
         List<T> l = checker.getObjectsInDirection(x, y, angle, length, cls);
-        long t2 = System.nanoTime();
-        getObjectsInDirectionTime += t2 - t1;
+        queryFinished(t1);
         return l;
     }
 
-    public synchronized <T extends Actor> List<T> getObjects(Class<T> cls)
+    public <T extends Actor> void forEachObjectAt(int x, int y, Class<T> cls, Consumer<? super T> consumer)
     {
         long t1 = System.nanoTime();
-        List<T> l = checker.getObjects(cls);
-        long t2 = System.nanoTime();
-        getObjectsTime += t2 - t1;
-        return l;
+        checker.forEachObjectAt(x, y, cls, consumer);
+        queryFinished(t1);
+    }
+
+    public <T extends Actor> void forEachIntersecting(Actor actor, Class<T> cls, Consumer<? super T> consumer)
+    {
+        long t1 = System.nanoTime();
+        checker.forEachIntersecting(actor, cls, consumer);
+        queryFinished(t1);
+    }
+
+    public <T extends Actor> void forEachInRange(int x, int y, int r, Class<T> cls, Consumer<? super T> consumer)
+    {
+        long t1 = System.nanoTime();
+        checker.forEachInRange(x, y, r, cls, consumer);
+        queryFinished(t1);
+    }
+
+    public <T extends Actor> void forEachNeighbour(Actor actor, int distance, boolean diag, Class<T> cls,
+            Consumer<? super T> consumer)
+    {
+        long t1 = System.nanoTime();
+        checker.forEachNeighbour(actor, distance, diag, cls, consumer);
+        queryFinished(t1);
+    }
+
+    public <T extends Actor> void forEachInDirection(int x, int y, int angle, int length, Class<T> cls,
+            Consumer<? super T> consumer)
+    {
+        long t1 = System.nanoTime();
+        checker.forEachInDirection(x, y, angle, length, cls, consumer);
+        queryFinished(t1);
+    }
+
+    public <T extends Actor> List<T> getObjects(Class<T> cls)
+    {
+        return checker.getObjects(cls);
     }
     
     public List<Actor> getObjectsList()
@@ -193,82 +209,13 @@ public class CollisionProfiler implements CollisionChecker
     public void startSequence()
     {
         checker.startSequence();
-        sequenceCount++;
-        objectCount += checker.getObjects(null).size();
-        if(sequenceCount > MAX_SEQ_COUNT) {
-            
-            printTimes();
-            
-            addObjectTime = 0;
-            removeObjectTime = 0;
-            updateObjectLocationTime = 0;
-            updateObjectSizeTime = 0;
-            getObjectsAtTime = 0;
-            getIntersectingObjectsTime = 0;
-            getObjectsInRangeTime = 0;
-            getNeighboursTime = 0;
-            getObjectsInDirectionTime = 0;
-            getObjectsTime = 0;
-            getOneObjectAtTime = 0;
-            getOneIntersectingObjectTime = 0;
-            
-            objectCount = 0;
-            
-            sequenceCount = 0;
-        }
-        
-        //Should write the file?
-        fileStream.flush();
-    }
-
-    private void printTimes()
-    {
-        sequences++;
-        if (verbose) {
-            fileStream.println("Sequence # " + sequences);
-        }
-        
-        long totalTime = 0;
-        totalTime += addObjectTime;
-        totalTime += removeObjectTime;
-        totalTime += updateObjectLocationTime;
-        totalTime += updateObjectSizeTime;
-        totalTime += getObjectsAtTime;
-        totalTime += getIntersectingObjectsTime ;
-        totalTime += getObjectsInRangeTime;
-        totalTime += getNeighboursTime;
-        totalTime += getObjectsInDirectionTime;
-        totalTime += getObjectsTime;
-        totalTime += getOneObjectAtTime;
-        totalTime += getOneIntersectingObjectTime;
-        // totalTime += getObjectsListTime;
-        
-        if (verbose) {
-            fileStream.println("addObjectTime                : " + addObjectTime);
-            fileStream.println("removeObjectTime             : " + removeObjectTime);
-            fileStream.println("updateObjectLocationTime     : " + updateObjectLocationTime);
-            fileStream.println("updateObjectSizeTime         : " + updateObjectSizeTime);
-            fileStream.println("getObjectsAtTime             : " + getObjectsAtTime);
-            fileStream.println("getIntersectingObjectsTime   : " + getIntersectingObjectsTime);
-            fileStream.println("getObjectsInRanageTime       : " + getObjectsInRangeTime);
-            fileStream.println("getNeighboursTime            : " + getNeighboursTime);
-            fileStream.println("getObjectsInDirectionTime    : " + getObjectsInDirectionTime);
-            fileStream.println("getObjectsTime               : " + getObjectsTime);
-            fileStream.println("getOneObjectAtTime           : " + getOneObjectAtTime);
-            fileStream.println("getOneIntersectingObjectTime : " + getOneIntersectingObjectTime);
-        }
-        
-        // System.out.println("Delay pr. object (nanosec/obj , objects): " + delay  + "," + objects);
-        fileStream.println(  totalTime +","+ objectCount / sequenceCount);
-        fileStream.println("========================");
     }
 
     public <T extends Actor> T getOneObjectAt(Actor actor, int dx, int dy, Class<T> cls)
     {
         long t1 = System.nanoTime();
         T o = checker.getOneObjectAt(actor, dx, dy, cls);
-        long t2 = System.nanoTime();
-        getOneObjectAtTime += t2 - t1;
+        queryFinished(t1);
         return o;
     }
 
@@ -276,13 +223,12 @@ public class CollisionProfiler implements CollisionChecker
     {
         long t1 = System.nanoTime();
         T o = checker.getOneIntersectingObject(object, cls);
-        long t2 = System.nanoTime();
-        getOneIntersectingObjectTime += t2 - t1;
+        queryFinished(t1);
         return o;
     }
 
     public void paintDebug(Graphics g)
     {
-     //    checker.paintDebug(g);
+        checker.paintDebug(g);
     }
 }
@@ -0,0 +1,167 @@
+/*
+ This file is part of the Greenfoot program.
+ Copyright (C) 2019  Poul Henriksen and Michael Kolling
+
+ This program is free software; you can redistribute it and/or
+ modify it under the terms of the GNU General Public License
+ as published by the Free Software Foundation; either version 2
+ of the License, or (at your option) any later version.
+
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with this program; if not, write to the Free Software
+ Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+
+ This file is subject to the Classpath exception as provided in the
+ LICENSE.txt file that accompanied this code.
+ */
+package greenfoot.collision;
+
+import greenfoot.Actor;
+import greenfoot.ActorVisitor;
+import greenfoot.collision.ibsp.Rect;
+
+/**
+ * A query for actors which are crossed by a straight line segment. An actor
+ * is crossed if any pixel on the line is within the (rotated) graphical
+ * extent of the actor.
+ */
+public class InDirectionQuery implements CollisionQuery
+{
+    /** Start of the line, in pixels (at the centre of the start pixel). */
+    private double x0;
+    private double y0;
+    /** Extent of the line along each axis, in pixels. */
+    private double dx;
+    private double dy;
+    private Class<?> cls;
+
+    /** Line parameters of the last successful clip. */
+    private double clipStart;
+    private double clipEnd;
+
+    /**
+     * Set the query parameters.
+     *
+     * @param x      The X co-ordinate of the start of the line (in pixels)
+     * @param y      The Y co-ordinate of the start of the line (in pixels)
+     * @param angle  The direction of the line, in degrees clockwise from east
+     * @param length The length of the line (in pixels)
+     * @param cls    The class of actors to locate. If null, locate any actor.
+     */
+    public void init(int x, int y, int angle, int length, Class<?> cls)
+    {
+        double radians = Math.toRadians(angle);
+        this.x0 = x + 0.5;
+        this.y0 = y + 0.5;
+        this.dx = length * Math.cos(radians);
+        this.dy = length * Math.sin(radians);
+        this.cls = cls;
+    }
+
+    /**
+     * Get the X co-ordinate of the end of the line (in pixels).
+     */
+    public double getEndX()
+    {
+        return x0 + dx;
+    }
+
+    /**
+     * Get the Y co-ordinate of the end of the line (in pixels).
+     */
+    public double getEndY()
+    {
+        return y0 + dy;
+    }
+
+    /**
+     * Get the X co-ordinate of the start of the line (in pixels).
+     */
+    public double getStartX()
+    {
+        return x0;
+    }
+
+    /**
+     * Get the Y co-ordinate of the start of the line (in pixels).
+     */
+    public double getStartY()
+    {
+        return y0;
+    }
+
+    /**
+     * Check whether the line passes through the given rectangle.
+     */
+    public boolean intersects(Rect r)
+    {
+        return clip(r.getX(), r.getY(), r.getRight(), r.getTop());
+    }
+
+    /*
+     * @see greenfoot.collision.CollisionQuery#checkCollision(greenfoot.Actor)
+     */
+    public boolean checkCollision(Actor actor)
+    {
+        if (cls != null && !cls.isInstance(actor)) {
+            return false;
+        }
+
+        Rect bounds = ActorVisitor.getBoundingRect(actor);
+        if (! intersects(bounds)) {
+            return false;
+        }
+
+        // Walk the part of the line within the bounding rectangle, one pixel
+        // at a time, checking against the actual (possibly rotated) extent.
+        double start = clipStart;
+        double end = clipEnd;
+        int steps = (int) Math.ceil(Math.max(Math.abs(dx), Math.abs(dy)) * (end - start));
+        for (int i = 0; i <= steps; i++) {
+            double t = (steps == 0) ? start : start + (end - start) * i / steps;
+            int px = (int) Math.floor(x0 + dx * t);
+            int py = (int) Math.floor(y0 + dy * t);
+            if (ActorVisitor.containsPoint(actor, px, py)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Clip the line against a rectangle (Liang-Barsky). If the line passes
+     * through the rectangle, returns true and records the range of the line
+     * parameter which lies within it.
+     */
+    private boolean clip(double left, double top, double right, double bottom)
+    {
+        clipStart = 0.0;
+        clipEnd = 1.0;
+        return clipEdge(-dx, x0 - left) && clipEdge(dx, right - x0)
+                && clipEdge(-dy, y0 - top) && clipEdge(dy, bottom - y0);
+    }
+
+    /**
+     * Clip the current line parameter range against one edge. Returns false if
+     * nothing of the line remains.
+     */
+    private boolean clipEdge(double p, double q)
+    {
+        if (p == 0) {
+            return q >= 0;
+        }
+        double t = q / p;
+        if (p < 0) {
+            clipStart = Math.max(clipStart, t);
+        }
+        else {
+            clipEnd = Math.min(clipEnd, t);
+        }
+        return clipStart <= clipEnd;
+    }
+}
@@ -0,0 +1,740 @@
+/*
+ This file is part of the Greenfoot program.
+ Copyright (C) 2019  Poul Henriksen and Michael Kolling
+
+ This program is free software; you can redistribute it and/or
+ modify it under the terms of the GNU General Public License
+ as published by the Free Software Foundation; either version 2
+ of the License, or (at your option) any later version.
+
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with this program; if not, write to the Free Software
+ Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+
+ This file is subject to the Classpath exception as provided in the
+ LICENSE.txt file that accompanied this code.
+ */
+package greenfoot.collision;
+
+import greenfoot.Actor;
+import greenfoot.ActorVisitor;
+import greenfoot.collision.ibsp.Rect;
+
+import java.awt.*;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Consumer;
+
+/**
+ * A collision checker using a uniform spatial hash. The (pixel) plane is
+ * divided into square buckets of a fixed size, and each actor is listed in
+ * every bucket that its bounding rectangle overlaps. Buckets are stored in a
+ * hash table keyed by bucket co-ordinates, so the world does not need to be
+ * bounded.
+ *
+ * <p>Unlike the BSP tree, there is no rebalancing: moving an actor only
+ * touches the buckets it leaves or enters, and nothing at all if it stays
+ * within the same buckets. This makes it a good choice for worlds with a
+ * large number of small, frequently moving actors. It performs poorly if
+ * actors are very much larger than a bucket.
+ *
+ * <p>Queries gather candidates from the buckets overlapping the query area and
+ * then filter them with the same {@link CollisionQuery} implementations used
+ * by the other checkers. An actor that spans several buckets is only
+ * reported from the first bucket (in x, then y order) which overlaps both the
+ * actor and the query area, so no duplicate-removal set is needed.
+ */
+public class SpatialHashChecker implements CollisionChecker
+{
+    /** Smallest bucket size, in pixels. Buckets are never smaller than a cell. */
+    public static final int MIN_BUCKET_SIZE = 32;
+
+    private GOCollisionQuery actorQuery = new GOCollisionQuery();
+    private NeighbourCollisionQuery neighbourQuery = new NeighbourCollisionQuery();
+    private PointCollisionQuery pointQuery = new PointCollisionQuery();
+    private InRangeQuery inRangeQuery = new InRangeQuery();
+    private InDirectionQuery directionQuery = new InDirectionQuery();
+
+    private int cellSize;
+
+    /** Size of a bucket, in pixels. */
+    private int bucketSize = MIN_BUCKET_SIZE;
+
+    private final BucketTable buckets = new BucketTable();
+
+    /** All actors in the checker, in no particular order. */
+    private ActorEntry[] entries = new ActorEntry[16];
+    private int numEntries;
+
+    /** Used to mark actors already visited by a query which may see them more than once. */
+    private int queryMark;
+
+    /*
+     * @see greenfoot.collision.CollisionChecker#initialize(int, int, int, boolean)
+     */
+    public void initialize(int width, int height, int cellSize, boolean wrap)
+    {
+        this.cellSize = cellSize;
+        this.bucketSize = Math.max(cellSize, MIN_BUCKET_SIZE);
+    }
+
+    public void addObject(Actor actor)
+    {
+        if (getEntryForActor(actor) != null) {
+            return;
+        }
+
+        ActorEntry entry = new ActorEntry(actor);
+        if (numEntries == entries.length) {
+            ActorEntry[] newEntries = new ActorEntry[entries.length * 2];
+            System.arraycopy(entries, 0, newEntries, 0, numEntries);
+            entries = newEntries;
+        }
+        entry.index = numEntries;
+        entries[numEntries++] = entry;
+        ActorVisitor.setData(actor, entry);
+
+        setRange(entry, getActorBounds(actor));
+        for (int bx = entry.minBx; bx <= entry.maxBx; bx++) {
+            for (int by = entry.minBy; by <= entry.maxBy; by++) {
+                buckets.getOrCreate(bx, by).add(entry);
+            }
+        }
+    }
+
+    public void removeObject(Actor object)
+    {
+        ActorEntry entry = getEntryForActor(object);
+        if (entry == null) {
+            return;
+        }
+
+        for (int bx = entry.minBx; bx <= entry.maxBx; bx++) {
+            for (int by = entry.minBy; by <= entry.maxBy; by++) {
+                removeFromBucket(entry, bx, by);
+            }
+        }
+
+        // Fill the hole with the last entry:
+        ActorEntry last = entries[--numEntries];
+        entries[entry.index] = last;
+        last.index = entry.index;
+        entries[numEntries] = null;
+
+        ActorVisitor.setData(object, null);
+    }
+
+    public void updateObjectLocation(Actor object, int oldX, int oldY)
+    {
+        updateObject(object);
+    }
+
+    public void updateObjectSize(Actor object)
+    {
+        updateObject(object);
+    }
+
+    /**
+     * An actor's position or size has changed. Move it between buckets as
+     * necessary; this is a no-op if the actor still overlaps the same buckets.
+     */
+    private void updateObject(Actor object)
+    {
+        ActorEntry entry = getEntryForActor(object);
+        if (entry == null) {
+            // Can be called before the actor has been added to the checker
+            return;
+        }
+
+        int oldMinBx = entry.minBx;
+        int oldMinBy = entry.minBy;
+        int oldMaxBx = entry.maxBx;
+        int oldMaxBy = entry.maxBy;
+
+        setRange(entry, getActorBounds(object));
+        if (entry.minBx == oldMinBx && entry.minBy == oldMinBy
+                && entry.maxBx == oldMaxBx && entry.maxBy == oldMaxBy) {
+            return;
+        }
+
+        // Leave the buckets which are no longer overlapped:
+        for (int bx = oldMinBx; bx <= oldMaxBx; bx++) {
+            for (int by = oldMinBy; by <= oldMaxBy; by++) {
+                if (! entry.inRange(bx, by)) {
+                    removeFromBucket(entry, bx, by);
+                }
+            }
+        }
+
+        // Enter the newly overlapped buckets:
+        for (int bx = entry.minBx; bx <= entry.maxBx; bx++) {
+            for (int by = entry.minBy; by <= entry.maxBy; by++) {
+                if (bx < oldMinBx || bx > oldMaxBx || by < oldMinBy || by > oldMaxBy) {
+                    buckets.getOrCreate(bx, by).add(entry);
+                }
+            }
+        }
+    }
+
+    private void removeFromBucket(ActorEntry entry, int bx, int by)
+    {
+        Bucket bucket = buckets.get(bx, by);
+        if (bucket != null) {
+            bucket.remove(entry);
+            if (bucket.size == 0) {
+                buckets.remove(bx, by);
+            }
+        }
+    }
+
+    /**
+     * Set the bucket range of an entry from the given (pixel) bounds. An empty
+     * rectangle still occupies the bucket containing its origin.
+     */
+    private void setRange(ActorEntry entry, Rect bounds)
+    {
+        int x = bounds.getX();
+        int y = bounds.getY();
+        entry.minBx = Math.floorDiv(x, bucketSize);
+        entry.minBy = Math.floorDiv(y, bucketSize);
+        entry.maxBx = Math.floorDiv(Math.max(x, bounds.getRight() - 1), bucketSize);
+        entry.maxBy = Math.floorDiv(Math.max(y, bounds.getTop() - 1), bucketSize);
+    }
+
+    public final Rect getActorBounds(Actor actor)
+    {
+        return ActorVisitor.getBoundingRect(actor);
+    }
+
+    private static ActorEntry getEntryForActor(Actor actor)
+    {
+        Object data = ActorVisitor.getData(actor);
+        return (data instanceof ActorEntry) ? (ActorEntry) data : null;
+    }
+
+    /**
+     * Collect all actors from buckets overlapping the given pixel area which
+     * match the given query.
+     *
+     * @param x  The left edge of the area, in pixels
+     * @param y  The top edge of the area, in pixels
+     * @param width  The width of the area, in pixels
+     * @param height  The height of the area, in pixels
+     * @param query  The query that candidate actors must satisfy
+     * @param query2  A second query that candidate actors must satisfy (may be null)
+     * @param ignore  An actor which should not be collected (may be null)
+     * @param result  The buffer to add matching actors to
+     */
+    private void collectIntersecting(int x, int y, int width, int height,
+            CollisionQuery query, CollisionQuery query2, Actor ignore, ActorBuffer result)
+    {
+        int qMinBx = Math.floorDiv(x, bucketSize);
+        int qMinBy = Math.floorDiv(y, bucketSize);
+        int qMaxBx = Math.floorDiv(Math.max(x, x + width - 1), bucketSize);
+        int qMaxBy = Math.floorDiv(Math.max(y, y + height - 1), bucketSize);
+
+        for (int bx = qMinBx; bx <= qMaxBx; bx++) {
+            for (int by = qMinBy; by <= qMaxBy; by++) {
+                Bucket bucket = buckets.get(bx, by);
+                if (bucket == null) {
+                    continue;
+                }
+                ActorEntry [] items = bucket.items;
+                for (int i = 0; i < bucket.size; i++) {
+                    ActorEntry entry = items[i];
+                    // Only report the actor from the first bucket that it shares with the query area:
+                    if (bx != Math.max(entry.minBx, qMinBx) || by != Math.max(entry.minBy, qMinBy)) {
+                        continue;
+                    }
+                    if (entry.actor != ignore && query.checkCollision(entry.actor)
+                            && (query2 == null || query2.checkCollision(entry.actor))) {
+                        result.add(entry.actor);
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Find one actor, other than the given one, in buckets overlapping the given pixel area
+     * which matches the given query.
+     */
+    private Actor getOneIntersecting(Actor ignore, int x, int y, int width, int height, CollisionQuery query)
+    {
+        int qMinBx = Math.floorDiv(x, bucketSize);
+        int qMinBy = Math.floorDiv(y, bucketSize);
+        int qMaxBx = Math.floorDiv(Math.max(x, x + width - 1), bucketSize);
+        int qMaxBy = Math.floorDiv(Math.max(y, y + height - 1), bucketSize);
+
+        for (int bx = qMinBx; bx <= qMaxBx; bx++) {
+            for (int by = qMinBy; by <= qMaxBy; by++) {
+                Bucket bucket = buckets.get(bx, by);
+                if (bucket == null) {
+                    continue;
+                }
+                ActorEntry [] items = bucket.items;
+                for (int i = 0; i < bucket.size; i++) {
+                    Actor candidate = items[i].actor;
+                    if (candidate != ignore && query.checkCollision(candidate)) {
+                        return candidate;
+                    }
+                }
+            }
+        }
+        return null;
+    }
+
+    public <T extends Actor> List<T> getObjectsAt(int x, int y, Class<T> cls)
+    {
+        ActorBuffer buffer = ActorBuffer.acquire();
+        try {
+            collectObjectsAt(x, y, cls, buffer);
+            return buffer.toList();
+        }
+        finally {
+            ActorBuffer.release(buffer);
+        }
+    }
+
+    public <T extends Actor> void forEachObjectAt(int x, int y, Class<T> cls, Consumer<? super T> consumer)
+    {
+        ActorBuffer buffer = ActorBuffer.acquire();
+        try {
+            collectObjectsAt(x, y, cls, buffer);
+            buffer.forEach(consumer);
+        }
+        finally {
+            ActorBuffer.release(buffer);
+        }
+    }
+
+    private void collectObjectsAt(int x, int y, Class<?> cls, ActorBuffer result)
+    {
+        synchronized (pointQuery) {
+            int px = x * cellSize + cellSize / 2;
+            int py = y * cellSize + cellSize / 2;
+            pointQuery.init(px, py, cls);
+            collectIntersecting(px, py, 1, 1, pointQuery, null, null, result);
+        }
+    }
+
+    public <T extends Actor> List<T> getIntersectingObjects(Actor actor, Class<T> cls)
+    {
+        ActorBuffer buffer = ActorBuffer.acquire();
+        try {
+            collectIntersecting(actor, cls, null, buffer);
+            return buffer.toList();
+        }
+        finally {
+            ActorBuffer.release(buffer);
+        }
+    }
+
+    public <T extends Actor> void forEachIntersecting(Actor actor, Class<T> cls, Consumer<? super T> consumer)
+    {
+        ActorBuffer buffer = ActorBuffer.acquire();
+        try {
+            collectIntersecting(actor, cls, actor, buffer);
+            buffer.forEach(consumer);
+        }
+        finally {
+            ActorBuffer.release(buffer);
+        }
+    }
+
+    private void collectIntersecting(Actor actor, Class<?> cls, Actor ignore, ActorBuffer result)
+    {
+        Rect r = getActorBounds(actor);
+        synchronized (actorQuery) {
+            actorQuery.init(cls, actor);
+            collectIntersecting(r.getX(), r.getY(), r.getWidth(), r.getHeight(),
+                    actorQuery, null, ignore, result);
+        }
+    }
+
+    public <T extends Actor> List<T> getObjectsInRange(int x, int y, int r, Class<T> cls)
+    {
+        ActorBuffer buffer = ActorBuffer.acquire();
+        try {
+            collectInRange(x, y, r, cls, buffer);
+            return buffer.toList();
+        }
+        finally {
+            ActorBuffer.release(buffer);
+        }
+    }
+
+    public <T extends Actor> void forEachInRange(int x, int y, int r, Class<T> cls, Consumer<? super T> consumer)
+    {
+        ActorBuffer buffer = ActorBuffer.acquire();
+        try {
+            collectInRange(x, y, r, cls, buffer);
+            buffer.forEach(consumer);
+        }
+        finally {
+            ActorBuffer.release(buffer);
+        }
+    }
+
+    private void collectInRange(int x, int y, int r, Class<?> cls, ActorBuffer result)
+    {
+        // The search area covers every cell whose centre may be in range. Actor
+        // bounds always overlap the actor's own cell, so this finds all candidates.
+        int size = (2 * r + 1) * cellSize;
+        int halfCell = cellSize / 2;
+        synchronized (actorQuery) {
+            actorQuery.init(cls, null);
+            synchronized (inRangeQuery) {
+                inRangeQuery.init(x * cellSize + halfCell, y * cellSize + halfCell, r * cellSize);
+                collectIntersecting((x - r) * cellSize, (y - r) * cellSize,
+                        size, size, actorQuery, inRangeQuery, null, result);
+            }
+        }
+    }
+
+    public <T extends Actor> List<T> getNeighbours(Actor actor, int distance, boolean diag, Class<T> cls)
+    {
+        ActorBuffer buffer = ActorBuffer.acquire();
+        try {
+            collectNeighbours(actor, distance, diag, cls, buffer);
+            return buffer.toList();
+        }
+        finally {
+            ActorBuffer.release(buffer);
+        }
+    }
+
+    public <T extends Actor> void forEachNeighbour(Actor actor, int distance, boolean diag, Class<T> cls,
+            Consumer<? super T> consumer)
+    {
+        ActorBuffer buffer = ActorBuffer.acquire();
+        try {
+            collectNeighbours(actor, distance, diag, cls, buffer);
+            buffer.forEach(consumer);
+        }
+        finally {
+            ActorBuffer.release(buffer);
+        }
+    }
+
+    private void collectNeighbours(Actor actor, int distance, boolean diag, Class<?> cls, ActorBuffer result)
+    {
+        int x = ActorVisitor.getX(actor);
+        int y = ActorVisitor.getY(actor);
+        int size = (2 * distance + 1) * cellSize;
+
+        synchronized (neighbourQuery) {
+            neighbourQuery.init(x, y, distance, diag, cls);
+            collectIntersecting((x - distance) * cellSize, (y - distance) * cellSize,
+                    size, size, neighbourQuery, null, null, result);
+        }
+    }
+
+    public <T extends Actor> List<T> getObjectsInDirection(int x, int y, int angle, int length, Class<T> cls)
+    {
+        ActorBuffer buffer = ActorBuffer.acquire();
+        try {
+            collectInDirection(x, y, angle, length, cls, buffer);
+            return buffer.toList();
+        }
+        finally {
+            ActorBuffer.release(buffer);
+        }
+    }
+
+    public <T extends Actor> void forEachInDirection(int x, int y, int angle, int length, Class<T> cls,
+            Consumer<? super T> consumer)
+    {
+        ActorBuffer buffer = ActorBuffer.acquire();
+        try {
+            collectInDirection(x, y, angle, length, cls, buffer);
+            buffer.forEach(consumer);
+        }
+        finally {
+            ActorBuffer.release(buffer);
+        }
+    }
+
+    private void collectInDirection(int x, int y, int angle, int length, Class<?> cls, ActorBuffer result)
+    {
+        synchronized (directionQuery) {
+            int px = x * cellSize + cellSize / 2;
+            int py = y * cellSize + cellSize / 2;
+            directionQuery.init(px, py, angle, length * cellSize, cls);
+
+            int mark = ++queryMark;
+
+            // Walk the buckets crossed by the line (Amanatides & Woo), in bucket units:
+            double sx = directionQuery.getStartX() / bucketSize;
+            double sy = directionQuery.getStartY() / bucketSize;
+            double ex = directionQuery.getEndX() / bucketSize;
+            double ey = directionQuery.getEndY() / bucketSize;
+            double dx = ex - sx;
+            double dy = ey - sy;
+
+            int bx = (int) Math.floor(sx);
+            int by = (int) Math.floor(sy);
+            int endBx = (int) Math.floor(ex);
+            int endBy = (int) Math.floor(ey);
+            int stepX = dx > 0 ? 1 : -1;
+            int stepY = dy > 0 ? 1 : -1;
+            double tDeltaX = dx != 0 ? Math.abs(1 / dx) : Double.POSITIVE_INFINITY;
+            double tDeltaY = dy != 0 ? Math.abs(1 / dy) : Double.POSITIVE_INFINITY;
+            double tMaxX = dx != 0 ? ((stepX > 0 ? bx + 1 : bx) - sx) / dx : Double.POSITIVE_INFINITY;
+            double tMaxY = dy != 0 ? ((stepY > 0 ? by + 1 : by) - sy) / dy : Double.POSITIVE_INFINITY;
+
+            int remaining = Math.abs(endBx - bx) + Math.abs(endBy - by);
+            while (true) {
+                Bucket bucket = buckets.get(bx, by);
+                if (bucket != null) {
+                    ActorEntry [] items = bucket.items;
+                    for (int i = 0; i < bucket.size; i++) {
+                        ActorEntry entry = items[i];
+                        if (entry.mark != mark) {
+                            entry.mark = mark;
+                            if (directionQuery.checkCollision(entry.actor)) {
+                                result.add(entry.actor);
+                            }
+                        }
+                    }
+                }
+
+                if (remaining-- <= 0) {
+                    break;
+                }
+                if (tMaxX < tMaxY) {
+                    bx += stepX;
+                    tMaxX += tDeltaX;
+                }
+                else {
+                    by += stepY;
+                    tMaxY += tDeltaY;
+                }
+            }
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    public <T extends Actor> List<T> getObjects(Class<T> cls)
+    {
+        List<T> result = new ArrayList<T>();
+        for (int i = 0; i < numEntries; i++) {
+            Actor actor = entries[i].actor;
+            if (cls == null || cls.isInstance(actor)) {
+                result.add((T) actor);
+            }
+        }
+        return result;
+    }
+
+    public List<Actor> getObjectsList()
+    {
+        return getObjects(null);
+    }
+
+    public final void startSequence()
+    {
+        // Nothing necessary.
+    }
+
+    @SuppressWarnings("unchecked")
+    public <T extends Actor> T getOneObjectAt(Actor object, int dx, int dy, Class<T> cls)
+    {
+        synchronized (pointQuery) {
+            int px = dx * cellSize + cellSize / 2;
+            int py = dy * cellSize + cellSize / 2;
+            pointQuery.init(px, py, cls);
+            return (T) getOneIntersecting(object, px, py, 1, 1, pointQuery);
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    public <T extends Actor> T getOneIntersectingObject(Actor actor, Class<T> cls)
+    {
+        Rect r = getActorBounds(actor);
+        synchronized (actorQuery) {
+            actorQuery.init(cls, actor);
+            return (T) getOneIntersecting(actor, r.getX(), r.getY(), r.getWidth(), r.getHeight(), actorQuery);
+        }
+    }
+
+    public void paintDebug(Graphics g)
+    {
+        Color oldColor = g.getColor();
+        g.setColor(Color.RED);
+
+        for (int i = 0; i < buckets.keys.length; i++) {
+            if (buckets.values[i] != null) {
+                long key = buckets.keys[i];
+                int bx = (int) (key >> 32);
+                int by = (int) key;
+                g.drawRect(bx * bucketSize, by * bucketSize, bucketSize, bucketSize);
+            }
+        }
+
+        g.setColor(oldColor);
+    }
+
+    /**
+     * The per-actor data for this checker: the range of buckets (inclusive) that the
+     * actor occupies, and its position in the list of all actors.
+     */
+    static final class ActorEntry
+    {
+        final Actor actor;
+        int index;
+        int mark;
+        int minBx;
+        int minBy;
+        int maxBx;
+        int maxBy;
+
+        ActorEntry(Actor actor)
+        {
+            this.actor = actor;
+        }
+
+        boolean inRange(int bx, int by)
+        {
+            return bx >= minBx && bx <= maxBx && by >= minBy && by <= maxBy;
+        }
+    }
+
+    /**
+     * A single bucket: an unordered array of actor entries.
+     */
+    private static final class Bucket
+    {
+        ActorEntry [] items = new ActorEntry[4];
+        int size;
+
+        void add(ActorEntry entry)
+        {
+            if (size == items.length) {
+                ActorEntry [] newItems = new ActorEntry[size * 2];
+                System.arraycopy(items, 0, newItems, 0, size);
+                items = newItems;
+            }
+            items[size++] = entry;
+        }
+
+        void remove(ActorEntry entry)
+        {
+            for (int i = 0; i < size; i++) {
+                if (items[i] == entry) {
+                    items[i] = items[--size];
+                    items[size] = null;
+                    return;
+                }
+            }
+        }
+    }
+
+    /**
+     * An open-addressing (linear probing) hash table from bucket co-ordinates
+     * to buckets. Co-ordinates are packed into a long, so lookups do not
+     * allocate.
+     */
+    private static final class BucketTable
+    {
+        long [] keys = new long[64];
+        Bucket [] values = new Bucket[64];
+        int size;
+
+        private static long key(int bx, int by)
+        {
+            return ((long) bx << 32) | (by & 0xFFFFFFFFL);
+        }
+
+        private int slot(long key)
+        {
+            long h = key * 0x9E3779B97F4A7C15L;
+            return (int) (h ^ (h >>> 32)) & (keys.length - 1);
+        }
+
+        Bucket get(int bx, int by)
+        {
+            long key = key(bx, by);
+            int mask = keys.length - 1;
+            for (int i = slot(key); values[i] != null; i = (i + 1) & mask) {
+                if (keys[i] == key) {
+                    return values[i];
+                }
+            }
+            return null;
+        }
+
+        Bucket getOrCreate(int bx, int by)
+        {
+            long key = key(bx, by);
+            int mask = keys.length - 1;
+            int i = slot(key);
+            for ( ; values[i] != null; i = (i + 1) & mask) {
+                if (keys[i] == key) {
+                    return values[i];
+                }
+            }
+
+            Bucket bucket = new Bucket();
+            keys[i] = key;
+            values[i] = bucket;
+            if (++size * 2 > keys.length) {
+                grow();
+            }
+            return bucket;
+        }
+
+        void remove(int bx, int by)
+        {
+            long key = key(bx, by);
+            int mask = keys.length - 1;
+            int i = slot(key);
+            while (values[i] != null && keys[i] != key) {
+                i = (i + 1) & mask;
+            }
+            if (values[i] == null) {
+                return;
+            }
+
+            // Backward-shift deletion: move later entries of the probe
+            // sequence into the gap so that no tombstones are needed.
+            int gap = i;
+            values[gap] = null;
+            size--;
+            for (int j = (gap + 1) & mask; values[j] != null; j = (j + 1) & mask) {
+                int home = slot(keys[j]);
+                boolean canMove = (gap <= j) ? (home <= gap || home > j) : (home <= gap && home > j);
+                if (canMove) {
+                    keys[gap] = keys[j];
+                    values[gap] = values[j];
+                    values[j] = null;
+                    gap = j;
+                }
+            }
+        }
+
+        private void grow()
+        {
+            long [] oldKeys = keys;
+            Bucket [] oldValues = values;
+            keys = new long[oldKeys.length * 2];
+            values = new Bucket[oldValues.length * 2];
+            int mask = keys.length - 1;
+            for (int i = 0; i < oldKeys.length; i++) {
+                if (oldValues[i] != null) {
+                    int j = slot(oldKeys[i]);
+                    while (values[j] != null) {
+                        j = (j + 1) & mask;
+                    }
+                    keys[j] = oldKeys[i];
+                    values[j] = oldValues[i];
+                }
+            }
+        }
+    }
+}
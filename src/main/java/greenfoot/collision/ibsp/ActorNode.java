@@ -38,6 +38,15 @@ public final class ActorNode
     private ActorNode prev;
     private boolean mark;
     
+    /** The position of this node in its BSPNode's actor array. */
+    int index;
+    
+    /**
+     * The last query which visited the actor. Only meaningful for the first
+     * ActorNode of each actor; see {@link IBSPColChecker}.
+     */
+    int queryStamp;
+    
     public ActorNode(Actor actor, BSPNode node)
     {
         this.actor = actor;
@@ -112,7 +121,7 @@ public final class ActorNode
     public void remove()
     {
         removed();
-        node.actorRemoved(actor);
+        node.actorRemoved(this);
     }
     
     /**
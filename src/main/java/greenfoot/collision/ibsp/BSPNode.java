@@ -28,14 +28,15 @@ import java.util.*;
 /**
  * A node in a BSP tree. Each node covers a rectangular area, and is potentially split
  * down either axis to allow two child nodes. A BSP node area contains one or more
- * Actors (or parts of Actors); in implementation, this is represented as a map of
- * Actor to ActorNode.
+ * Actors (or parts of Actors); in implementation, this is represented as an array of
+ * ActorNodes, each of which knows its own position in the array.
  * 
  * @author Davin McCall
  */
 public final class BSPNode
 {
-    private Map<Actor, ActorNode> actors;
+    private ActorNode [] actors;
+    private int numActors;
     
     private BSPNode parent;
     private Rect area;
@@ -53,8 +54,7 @@ public final class BSPNode
         this.splitAxis = splitAxis;
         this.splitPos = splitPos;
         
-        // actorNodes = new LinkedList<ActorNode>();
-        actors = new HashMap<Actor, ActorNode>();
+        actors = new ActorNode[4];
     }
     
     /**
@@ -193,7 +193,14 @@ public final class BSPNode
     
     public void addActor(Actor actor)
     {
-        actors.put(actor, new ActorNode(actor, this));
+        if (numActors == actors.length) {
+            ActorNode [] newActors = new ActorNode[numActors * 2];
+            System.arraycopy(actors, 0, newActors, 0, numActors);
+            actors = newActors;
+        }
+        ActorNode anode = new ActorNode(actor, this);
+        anode.index = numActors;
+        actors[numActors++] = anode;
     }
     
     /**
@@ -202,51 +209,68 @@ public final class BSPNode
      */
     public boolean containsActor(Actor actor)
     {
-        ActorNode anode = actors.get(actor);
-        if (anode != null) {
-            anode.mark();
-            return true;
+        // An actor is only in a few nodes, so this is quicker than searching the node
+        ActorNode anode = IBSPColChecker.getNodeForActor(actor);
+        while (anode != null) {
+            if (anode.getBSPNode() == this) {
+                anode.mark();
+                return true;
+            }
+            anode = anode.getNext();
         }
         return false;
     }
     
-    public void actorRemoved(Actor actor)
+    /**
+     * Remove the given actor node from this node. The last actor node takes
+     * its place, so the order of actors is not preserved.
+     */
+    public void actorRemoved(ActorNode anode)
     {
-        actors.remove(actor);
+        int index = anode.index;
+        ActorNode last = actors[--numActors];
+        actors[index] = last;
+        last.index = index;
+        actors[numActors] = null;
     }
     
     public int numberActors()
     {
-        return actors.size();
+        return numActors;
     }
     
     /**
-     * Check whether any actors are registered in this node.
+     * Get the actor at the given position (0 to numberActors() - 1) in this node.
      */
-    public boolean isEmpty()
+    public Actor getActor(int index)
     {
-        return actors.isEmpty();
+        return actors[index].getActor();
     }
     
-    public Iterator<Map.Entry<Actor, ActorNode>> getEntriesIterator()
-    {
-        return actors.entrySet().iterator();
-    }
-    
-    public Iterator<Actor> getActorsIterator()
+    /**
+     * Check whether any actors are registered in this node.
+     */
+    public boolean isEmpty()
     {
-        return actors.keySet().iterator();
+        return numActors == 0;
     }
     
     public List<Actor> getActorsList()
     {
-        return new ArrayList<Actor>(actors.keySet());
+        List<Actor> list = new ArrayList<Actor>(numActors);
+        for (int i = 0; i < numActors; i++) {
+            list.add(actors[i].getActor());
+        }
+        return list;
     }
     
     // Blanks the node.  Used by BSPNodeCache 
     void blankNode()
     {
-        actors.clear();
+        for (int i = 0; i < numActors; i++) {
+            actors[i] = null;
+        }
+        numActors = 0;
     }
     
     public void areaChanged()
@@ -28,6 +28,7 @@ import greenfoot.collision.*;
 import java.awt.*;
 import java.util.List;
 import java.util.*;
+import java.util.function.Consumer;
 
 /**
  * A collision checker using a Binary Space Partition tree.
@@ -49,10 +50,21 @@ public class IBSPColChecker implements CollisionChecker
     
     public static final int REBALANCE_THRESHOLD = 20;
     
+    /** Maximum number of actors in a leaf node, when building the tree in bulk. */
+    public static final int BULK_LEAF_SIZE = 4;
+    
     private GOCollisionQuery actorQuery = new GOCollisionQuery();
     private NeighbourCollisionQuery neighbourQuery = new NeighbourCollisionQuery();
     private PointCollisionQuery pointQuery = new PointCollisionQuery();
     private InRangeQuery inRangeQuery = new InRangeQuery();
+    private InDirectionQuery directionQuery = new InDirectionQuery();
+    
+    /** Stack of nodes still to be searched by a query; also guards queryRect and queryStamp. */
+    private final NodeStack nodeStack = new NodeStack();
+    /** The area being searched by the current query. */
+    private final Rect queryRect = new Rect(0, 0, 0, 0);
+    /** Incremented by each query which needs to visit every actor only once. */
+    private int queryStamp;
     
     private int cellSize;
     
@@ -156,6 +168,148 @@ public class IBSPColChecker implements CollisionChecker
         // checkConsistency(true);
     }
     
+    /*
+     * @see greenfoot.collision.CollisionChecker#addObjects(java.util.Collection)
+     */
+    public void addObjects(Collection<? extends Actor> actors)
+    {
+        List<Actor> all = new ArrayList<Actor>(actors.size());
+        for (Actor actor : actors) {
+            if (getNodeForActor(actor) == null) {
+                all.add(actor);
+            }
+        }
+        if (all.isEmpty()) {
+            return;
+        }
+        
+        if (bspTree != null) {
+            List<Actor> existing = getObjects(null);
+            if (all.size() < existing.size()) {
+                // Rebuilding would cost more than inserting the new actors:
+                for (Actor actor : all) {
+                    addObject(actor);
+                }
+                return;
+            }
+            clearTree();
+            all.addAll(existing);
+        }
+        
+        int minX = Integer.MAX_VALUE;
+        int minY = Integer.MAX_VALUE;
+        int maxX = Integer.MIN_VALUE;
+        int maxY = Integer.MIN_VALUE;
+        for (Actor actor : all) {
+            Rect bounds = getActorBounds(actor);
+            minX = Math.min(minX, bounds.getX());
+            minY = Math.min(minY, bounds.getY());
+            maxX = Math.max(maxX, bounds.getRight());
+            maxY = Math.max(maxY, bounds.getTop());
+        }
+        
+        Rect area = new Rect(minX, minY, Math.max(1, maxX - minX), Math.max(1, maxY - minY));
+        bspTree = buildTree(all, area);
+        // checkConsistency(true);
+    }
+    
+    /**
+     * Build a balanced (sub)tree, top-down, containing the given actors. Each
+     * node is split at the median actor position along its longer axis;
+     * actors straddling the split position are kept in the node itself.
+     * 
+     * @param actors  The actors to place in the tree; their bounds must lie within the area
+     * @param area    The area to be covered by the returned node
+     * @return  The root node of the new tree
+     */
+    private BSPNode buildTree(List<Actor> actors, Rect area)
+    {
+        BSPNode node = createNewNode(area);
+        int axis = node.getSplitAxis();
+        int lo = (axis == X_AXIS) ? area.getX() : area.getY();
+        int hi = (axis == X_AXIS) ? area.getRight() : area.getTop();
+        int size = actors.size();
+        
+        if (size <= BULK_LEAF_SIZE || hi - lo < 2) {
+            for (Actor actor : actors) {
+                node.addActor(actor);
+            }
+            return node;
+        }
+        
+        int [] centres = new int[size];
+        for (int i = 0; i < size; i++) {
+            Rect bounds = getActorBounds(actors.get(i));
+            centres[i] = (axis == X_AXIS) ? bounds.getMiddleX() : bounds.getMiddleY();
+        }
+        Arrays.sort(centres);
+        int splitPos = centres[size / 2];
+        if (splitPos <= lo || splitPos >= hi) {
+            // A median on the edge of the area doesn't divide anything; use the middle
+            splitPos = (lo + hi) / 2;
+        }
+        node.setSplitPos(splitPos);
+        
+        List<Actor> leftActors = new ArrayList<Actor>();
+        List<Actor> rightActors = new ArrayList<Actor>();
+        for (Actor actor : actors) {
+            Rect bounds = getActorBounds(actor);
+            int start = (axis == X_AXIS) ? bounds.getX() : bounds.getY();
+            int end = (axis == X_AXIS) ? bounds.getRight() : bounds.getTop();
+            if (start >= splitPos) {
+                rightActors.add(actor);
+            }
+            else if (end <= splitPos) {
+                leftActors.add(actor);
+            }
+            else {
+                node.addActor(actor);
+            }
+        }
+        
+        if (! leftActors.isEmpty()) {
+            node.setChild(PARENT_LEFT, buildTree(leftActors, node.getLeftArea()));
+        }
+        if (! rightActors.isEmpty()) {
+            node.setChild(PARENT_RIGHT, buildTree(rightActors, node.getRightArea()));
+        }
+        return node;
+    }
+    
+    /**
+     * Remove all actors and nodes from the tree, returning the nodes to the cache.
+     */
+    private void clearTree()
+    {
+        List<BSPNode> nodes = new ArrayList<BSPNode>();
+        LinkedList<BSPNode> nodeStack = new LinkedList<BSPNode>();
+        if (bspTree != null) {
+            nodeStack.add(bspTree);
+        }
+        
+        while (! nodeStack.isEmpty()) {
+            BSPNode node = nodeStack.removeLast();
+            nodes.add(node);
+            int numActors = node.numberActors();
+            for (int i = 0; i < numActors; i++) {
+                setNodeForActor(node.getActor(i), null);
+            }
+            if (node.getLeft() != null) {
+                nodeStack.add(node.getLeft());
+            }
+            if (node.getRight() != null) {
+                nodeStack.add(node.getRight());
+            }
+        }
+        
+        for (BSPNode node : nodes) {
+            node.setChild(PARENT_LEFT, null);
+            node.setChild(PARENT_RIGHT, null);
+            BSPNodeCache.returnNode(node);
+        }
+        bspTree = null;
+    }
+    
     /**
      * Check the consistency of the tree, useful for debugging.
      */
@@ -537,42 +691,64 @@ public class IBSPColChecker implements CollisionChecker
         updateObject(object);
     }
 
-    private List<Actor> getIntersectingObjects(Rect r, CollisionQuery query)
+    /**
+     * Get a new stamp for a query. New actor nodes have a stamp of 0, so 0 is
+     * never used. Must be called with nodeStack locked.
+     */
+    private int nextQueryStamp()
     {
-        Set<Actor> set = new HashSet<Actor>();
-        getIntersectingObjects(r, query, set, bspTree);
-        List<Actor> l = new ArrayList<Actor>(set);
-        return l;
+        if (++queryStamp == 0) {
+            queryStamp = 1;
+        }
+        return queryStamp;
     }
     
-    private void getIntersectingObjects(Rect r, CollisionQuery query, Set<Actor> resultSet, BSPNode startNode)
+    /**
+     * Collect the actors which match the given queries, from all nodes intersecting
+     * the given area. Each actor is collected only once, even if it is stored in
+     * several nodes: the first ActorNode of each actor is stamped when the actor
+     * is visited.
+     * 
+     * @param x, y, width, height  The area to search (in pixels)
+     * @param query   The query which actors must match
+     * @param query2  A second query which actors must match (may be null)
+     * @param ignore  An actor which should not be collected (may be null)
+     * @param result  The buffer to add matching actors to
+     */
+    private void collectIntersecting(int x, int y, int width, int height, CollisionQuery query,
+            CollisionQuery query2, Actor ignore, ActorBuffer result)
     {
-        LinkedList<BSPNode> nodeStack = new LinkedList<BSPNode>();
-        
-        if (startNode != null) {
-            nodeStack.add(startNode);
-        }
-        
-        while (! nodeStack.isEmpty()) {
-            BSPNode node = nodeStack.removeLast();
-            if (node.getArea().intersects(r)) {
-                Iterator<Actor> i = node.getActorsIterator();
-                while (i.hasNext()) {
-                    Actor actor = i.next();
-                    if (query.checkCollision(actor)) {
-                        if (! resultSet.contains(actor)) {
-                            resultSet.add(actor);
+        synchronized (nodeStack) {
+            queryRect.set(x, y, width, height);
+            int stamp = nextQueryStamp();
+            if (bspTree != null) {
+                nodeStack.push(bspTree);
+            }
+            
+            while (! nodeStack.isEmpty()) {
+                BSPNode node = nodeStack.pop();
+                if (node.getArea().intersects(queryRect)) {
+                    int numActors = node.numberActors();
+                    for (int i = 0; i < numActors; i++) {
+                        Actor actor = node.getActor(i);
+                        ActorNode first = getNodeForActor(actor);
+                        if (first.queryStamp != stamp) {
+                            first.queryStamp = stamp;
+                            if (actor != ignore && query.checkCollision(actor)
+                                    && (query2 == null || query2.checkCollision(actor))) {
+                                result.add(actor);
+                            }
                         }
                     }
-                }
-                
-                BSPNode left = node.getLeft();
-                BSPNode right = node.getRight();
-                if (left != null) {
-                    nodeStack.add(left);
-                }
-                if (right != null) {
-                    nodeStack.add(right);
+                    
+                    BSPNode left = node.getLeft();
+                    BSPNode right = node.getRight();
+                    if (left != null) {
+                        nodeStack.push(left);
+                    }
+                    if (right != null) {
+                        nodeStack.push(right);
+                    }
                 }
             }
         }
@@ -584,10 +760,9 @@ public class IBSPColChecker implements CollisionChecker
      */
     private Actor checkForOneCollision(Actor ignore, BSPNode node, CollisionQuery query)
     {
-        Iterator<Actor> i = node.getActorsIterator();
-        
-        while (i.hasNext()) {
-            Actor candidate = i.next();
+        int numActors = node.numberActors();
+        for (int i = 0; i < numActors; i++) {
+            Actor candidate = node.getActor(i);
             if (ignore != candidate && query.checkCollision(candidate)) {
                 return candidate;
             }
@@ -613,24 +788,26 @@ public class IBSPColChecker implements CollisionChecker
             return null;
         }
         
-        LinkedList<BSPNode> nodeStack = new LinkedList<BSPNode>();
-        nodeStack.add(startNode);
-        
-        while (! nodeStack.isEmpty()) {
-            BSPNode node = nodeStack.removeLast();
-            if (node.getArea().intersects(r)) {
-                Actor res = checkForOneCollision(ignore, node, query);
-                if (res != null) {
-                    return res;
-                }
-                
-                BSPNode left = node.getLeft();
-                BSPNode right = node.getRight();
-                if (left != null) {
-                    nodeStack.add(left);
-                }
-                if (right != null) {
-                    nodeStack.add(right);
+        synchronized (nodeStack) {
+            nodeStack.push(startNode);
+            
+            while (! nodeStack.isEmpty()) {
+                BSPNode node = nodeStack.pop();
+                if (node.getArea().intersects(r)) {
+                    Actor res = checkForOneCollision(ignore, node, query);
+                    if (res != null) {
+                        nodeStack.clear();
+                        return res;
+                    }
+                    
+                    BSPNode left = node.getLeft();
+                    BSPNode right = node.getRight();
+                    if (left != null) {
+                        nodeStack.push(left);
+                    }
+                    if (right != null) {
+                        nodeStack.push(right);
+                    }
                 }
             }
         }
@@ -651,24 +828,26 @@ public class IBSPColChecker implements CollisionChecker
             return null;
         }
         
-        LinkedList<BSPNode> nodeStack = new LinkedList<BSPNode>();
-        nodeStack.add(bspTree);
-        
-        while (! nodeStack.isEmpty()) {
-            BSPNode node = nodeStack.removeLast();
-            if (node.getArea().contains(r)) {
-                Actor res = checkForOneCollision(actor, node, query);
-                if (res != null) {
-                    return res;
-                }
-                
-                BSPNode left = node.getLeft();
-                BSPNode right = node.getRight();
-                if (left != null) {
-                    nodeStack.add(left);
-                }
-                if (right != null) {
-                    nodeStack.add(right);
+        synchronized (nodeStack) {
+            nodeStack.push(bspTree);
+            
+            while (! nodeStack.isEmpty()) {
+                BSPNode node = nodeStack.pop();
+                if (node.getArea().contains(r)) {
+                    Actor res = checkForOneCollision(actor, node, query);
+                    if (res != null) {
+                        nodeStack.clear();
+                        return res;
+                    }
+                    
+                    BSPNode left = node.getLeft();
+                    BSPNode right = node.getRight();
+                    if (left != null) {
+                        nodeStack.push(left);
+                    }
+                    if (right != null) {
+                        nodeStack.push(right);
+                    }
                 }
             }
         }
@@ -695,63 +874,140 @@ public class IBSPColChecker implements CollisionChecker
         return null;
     }
     
-    @SuppressWarnings("unchecked")
     public <T extends Actor> List<T> getObjectsAt(int x, int y, Class<T> cls)
+    {
+        ActorBuffer buffer = ActorBuffer.acquire();
+        try {
+            collectObjectsAt(x, y, cls, buffer);
+            return buffer.toList();
+        }
+        finally {
+            ActorBuffer.release(buffer);
+        }
+    }
+    
+    public <T extends Actor> void forEachObjectAt(int x, int y, Class<T> cls, Consumer<? super T> consumer)
+    {
+        ActorBuffer buffer = ActorBuffer.acquire();
+        try {
+            collectObjectsAt(x, y, cls, buffer);
+            buffer.forEach(consumer);
+        }
+        finally {
+            ActorBuffer.release(buffer);
+        }
+    }
+    
+    private void collectObjectsAt(int x, int y, Class<?> cls, ActorBuffer result)
     {
         synchronized (pointQuery) {
             int px = x * cellSize + cellSize / 2;
             int py = y * cellSize + cellSize / 2;
             pointQuery.init(px, py, cls);
-            return (List<T>) getIntersectingObjects(new Rect(px, py, 1, 1), pointQuery);
+            collectIntersecting(px, py, 1, 1, pointQuery, null, null, result);
         }
     }
 
-    @SuppressWarnings("unchecked")
-    public <T extends Actor> List<T> getIntersectingObjects(Actor actor,
-            Class<T> cls)
+    public <T extends Actor> List<T> getIntersectingObjects(Actor actor, Class<T> cls)
+    {
+        ActorBuffer buffer = ActorBuffer.acquire();
+        try {
+            collectIntersecting(actor, cls, null, buffer);
+            return buffer.toList();
+        }
+        finally {
+            ActorBuffer.release(buffer);
+        }
+    }
+    
+    public <T extends Actor> void forEachIntersecting(Actor actor, Class<T> cls, Consumer<? super T> consumer)
+    {
+        ActorBuffer buffer = ActorBuffer.acquire();
+        try {
+            collectIntersecting(actor, cls, actor, buffer);
+            buffer.forEach(consumer);
+        }
+        finally {
+            ActorBuffer.release(buffer);
+        }
+    }
+    
+    private void collectIntersecting(Actor actor, Class<?> cls, Actor ignore, ActorBuffer result)
     {
         Rect r = getActorBounds(actor);
-        
         synchronized (actorQuery) {
             actorQuery.init(cls, actor);
-            return (List<T>) getIntersectingObjects(r, actorQuery);
+            collectIntersecting(r.getX(), r.getY(), r.getWidth(), r.getHeight(),
+                    actorQuery, null, ignore, result);
         }
     }
 
-    @SuppressWarnings("unchecked")
-    public <T extends Actor> List<T> getObjectsInRange(int x, int y, int r,
-            Class<T> cls)
+    public <T extends Actor> List<T> getObjectsInRange(int x, int y, int r, Class<T> cls)
+    {
+        ActorBuffer buffer = ActorBuffer.acquire();
+        try {
+            collectInRange(x, y, r, cls, buffer);
+            return buffer.toList();
+        }
+        finally {
+            ActorBuffer.release(buffer);
+        }
+    }
+    
+    public <T extends Actor> void forEachInRange(int x, int y, int r, Class<T> cls, Consumer<? super T> consumer)
+    {
+        ActorBuffer buffer = ActorBuffer.acquire();
+        try {
+            collectInRange(x, y, r, cls, buffer);
+            buffer.forEach(consumer);
+        }
+        finally {
+            ActorBuffer.release(buffer);
+        }
+    }
+    
+    private void collectInRange(int x, int y, int r, Class<?> cls, ActorBuffer result)
     {
         int halfCell = cellSize / 2;
         int size = 2 * r * cellSize;
         
-        Rect rect = new Rect((x - r) * cellSize + halfCell,
-                (y - r) * cellSize + halfCell,
-                size,
-                size);
-        
-        List<T> result;
         synchronized (actorQuery) {
             actorQuery.init(cls, null);
-            result = (List<T>) getIntersectingObjects(rect, actorQuery);
-        }
-        
-        Iterator<T> i = result.iterator();
-        synchronized (inRangeQuery) {
-            inRangeQuery.init(x * cellSize + halfCell , y * cellSize + halfCell, r * cellSize);
-            while (i.hasNext()) {
-                if (! inRangeQuery.checkCollision(i.next())) {
-                    i.remove();
-                }
+            synchronized (inRangeQuery) {
+                inRangeQuery.init(x * cellSize + halfCell , y * cellSize + halfCell, r * cellSize);
+                collectIntersecting((x - r) * cellSize + halfCell, (y - r) * cellSize + halfCell,
+                        size, size, actorQuery, inRangeQuery, null, result);
             }
         }
-        
-        return result;
     }
 
-    @SuppressWarnings("unchecked")
     public <T extends Actor> List<T> getNeighbours(Actor actor, int distance,
             boolean diag, Class<T> cls)
+    {
+        ActorBuffer buffer = ActorBuffer.acquire();
+        try {
+            collectNeighbours(actor, distance, diag, cls, buffer);
+            return buffer.toList();
+        }
+        finally {
+            ActorBuffer.release(buffer);
+        }
+    }
+    
+    public <T extends Actor> void forEachNeighbour(Actor actor, int distance, boolean diag, Class<T> cls,
+            Consumer<? super T> consumer)
+    {
+        ActorBuffer buffer = ActorBuffer.acquire();
+        try {
+            collectNeighbours(actor, distance, diag, cls, buffer);
+            buffer.forEach(consumer);
+        }
+        finally {
+            ActorBuffer.release(buffer);
+        }
+    }
+    
+    private void collectNeighbours(Actor actor, int distance, boolean diag, Class<?> cls, ActorBuffer result)
     {
         int x = ActorVisitor.getX(actor);
         int y = ActorVisitor.getY(actor);
@@ -759,53 +1015,120 @@ public class IBSPColChecker implements CollisionChecker
         int yPixel = y * cellSize;
         int dPixel = distance * cellSize;
         
-        Rect r = new Rect(xPixel - dPixel, yPixel - dPixel, dPixel * 2 + 1, dPixel * 2 + 1);
-        
         synchronized (neighbourQuery) {
             neighbourQuery.init(x, y, distance, diag, cls);
-            List<T> res = (List<T>) getIntersectingObjects(r, neighbourQuery);
-            return res;
+            collectIntersecting(xPixel - dPixel, yPixel - dPixel, dPixel * 2 + 1, dPixel * 2 + 1,
+                    neighbourQuery, null, null, result);
         }
     }
 
     public <T extends Actor> List<T> getObjectsInDirection(int x, int y,
             int angle, int length, Class<T> cls)
     {
-        // non-functional
-        return new ArrayList<T>();
+        ActorBuffer buffer = ActorBuffer.acquire();
+        try {
+            collectInDirection(x, y, angle, length, cls, buffer);
+            return buffer.toList();
+        }
+        finally {
+            ActorBuffer.release(buffer);
+        }
     }
-
-    @SuppressWarnings("unchecked")
-    public <T extends Actor> List<T> getObjects(Class<T> cls)
+    
+    public <T extends Actor> void forEachInDirection(int x, int y, int angle, int length, Class<T> cls,
+            Consumer<? super T> consumer)
     {
-        Set<T> set = new HashSet<T>();
-        LinkedList<BSPNode> nodeStack = new LinkedList<BSPNode>();
-        
-        if (bspTree != null) {
-            nodeStack.add(bspTree);
+        ActorBuffer buffer = ActorBuffer.acquire();
+        try {
+            collectInDirection(x, y, angle, length, cls, buffer);
+            buffer.forEach(consumer);
         }
-        
-        while (! nodeStack.isEmpty()) {
-            BSPNode node = nodeStack.removeLast();
-            Iterator<Actor> i = node.getActorsIterator();
-            while (i.hasNext()) {
-                Actor actor = i.next();
-                if (cls == null || cls.isInstance(actor)) {
-                    set.add((T) actor);
+        finally {
+            ActorBuffer.release(buffer);
+        }
+    }
+    
+    private void collectInDirection(int x, int y, int angle, int length, Class<?> cls, ActorBuffer result)
+    {
+        synchronized (directionQuery) {
+            int px = x * cellSize + cellSize / 2;
+            int py = y * cellSize + cellSize / 2;
+            directionQuery.init(px, py, angle, length * cellSize, cls);
+            
+            synchronized (nodeStack) {
+                int stamp = nextQueryStamp();
+                if (bspTree != null) {
+                    nodeStack.push(bspTree);
+                }
+                
+                // Only descend into nodes which the ray actually passes through
+                while (! nodeStack.isEmpty()) {
+                    BSPNode node = nodeStack.pop();
+                    if (directionQuery.intersects(node.getArea())) {
+                        int numActors = node.numberActors();
+                        for (int i = 0; i < numActors; i++) {
+                            Actor actor = node.getActor(i);
+                            ActorNode first = getNodeForActor(actor);
+                            if (first.queryStamp != stamp) {
+                                first.queryStamp = stamp;
+                                if (directionQuery.checkCollision(actor)) {
+                                    result.add(actor);
+                                }
+                            }
+                        }
+                        
+                        BSPNode left = node.getLeft();
+                        BSPNode right = node.getRight();
+                        if (left != null) {
+                            nodeStack.push(left);
+                        }
+                        if (right != null) {
+                            nodeStack.push(right);
+                        }
+                    }
                 }
             }
-            BSPNode left = node.getLeft();
-            BSPNode right = node.getRight();
-            if (left != null) {
-                nodeStack.add(left);
-            }
-            if (right != null) {
-                nodeStack.add(right);
+        }
+    }
+
+    public <T extends Actor> List<T> getObjects(Class<T> cls)
+    {
+        ActorBuffer buffer = ActorBuffer.acquire();
+        try {
+            synchronized (nodeStack) {
+                int stamp = nextQueryStamp();
+                if (bspTree != null) {
+                    nodeStack.push(bspTree);
+                }
+                
+                while (! nodeStack.isEmpty()) {
+                    BSPNode node = nodeStack.pop();
+                    int numActors = node.numberActors();
+                    for (int i = 0; i < numActors; i++) {
+                        Actor actor = node.getActor(i);
+                        ActorNode first = getNodeForActor(actor);
+                        if (first.queryStamp != stamp) {
+                            first.queryStamp = stamp;
+                            if (cls == null || cls.isInstance(actor)) {
+                                buffer.add(actor);
+                            }
+                        }
+                    }
+                    BSPNode left = node.getLeft();
+                    BSPNode right = node.getRight();
+                    if (left != null) {
+                        nodeStack.push(left);
+                    }
+                    if (right != null) {
+                        nodeStack.push(right);
+                    }
+                }
             }
+            return buffer.toList();
+        }
+        finally {
+            ActorBuffer.release(buffer);
         }
-        
-        List<T> list = new ArrayList<T>(set);
-        return list;
     }
 
     public List<Actor> getObjectsList()
@@ -825,14 +1148,14 @@ public class IBSPColChecker implements CollisionChecker
         synchronized (pointQuery) {
             int px = dx * cellSize + cellSize / 2;
             int py = dy * cellSize + cellSize / 2;
+            // The point query checks the class itself
             pointQuery.init(px, py, cls);
-            CollisionQuery query = pointQuery;
-            if (cls != null) {
-                query = new ClassQuery(cls, pointQuery);
+            synchronized (nodeStack) {
+                // Use of getOneIntersectingDown is ok, because the area is only 1x1 pixel
+                // in size - it will be contained by all nodes.
+                queryRect.set(px, py, 1, 1);
+                return (T) getOneIntersectingDown(queryRect, pointQuery, object);
             }
-            // Use of getOneIntersectingDown is ok, because the area is only 1x1 pixel
-            // in size - it will be contained by all nodes.
-            return (T) getOneIntersectingDown(new Rect(px, py, 1, 1), query, object);
         }
     }
 
@@ -883,5 +1206,38 @@ public class IBSPColChecker implements CollisionChecker
         
         g.setColor(oldColor);
     }
-
+    
+    /**
+     * A simple array stack of tree nodes, reused between queries.
+     */
+    private static final class NodeStack
+    {
+        private BSPNode [] nodes = new BSPNode[32];
+        private int size;
+        
+        void push(BSPNode node)
+        {
+            if (size == nodes.length) {
+                BSPNode [] newNodes = new BSPNode[size * 2];
+                System.arraycopy(nodes, 0, newNodes, 0, size);
+                nodes = newNodes;
+            }
+            nodes[size++] = node;
+        }
+        
+        BSPNode pop()
+        {
+            return nodes[--size];
+        }
+        
+        boolean isEmpty()
+        {
+            return size == 0;
+        }
+        
+        void clear()
+        {
+            size = 0;
+        }
+    }
 }
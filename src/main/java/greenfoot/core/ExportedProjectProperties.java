@@ -58,6 +58,11 @@ public class ExportedProjectProperties implements ReadOnlyProjectProperties
     private void load()
     {
         URL probsFile = this.getClass().getResource("/" + GREENFOOT_PKG_NAME);
+        if (probsFile == null) {
+            // No project file (for instance, when running classes straight from
+            // a build directory); behave as if it were empty.
+            return;
+        }
         InputStream is = null;
         try {
             is = probsFile.openStream();
@@ -165,8 +165,11 @@ public class GreenfootMain extends Thread
                         {
                         }
                     });
+                    sim.addSimulationStatsListener(vmComms);
 
                     sim.addSimulationListener(SoundFactory.getInstance().getSoundCollection());
+                    SoundFactory.getInstance().setProjectProperties(projectProperties);
+                    ImageCache.getInstance().setProjectProperties(projectProperties);
                     
                     Simulation.getInstance().setPaused(true);
                     // Important to initialise the simulation before attaching world handler
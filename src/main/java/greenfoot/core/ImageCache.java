@@ -21,37 +21,62 @@
  */
 package greenfoot.core;
 
+import bluej.utility.Debug;
 import greenfoot.GreenfootImage;
+import greenfoot.util.GreenfootUtil;
 
-import java.lang.ref.Reference;
-import java.lang.ref.ReferenceQueue;
-import java.lang.ref.SoftReference;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
- * An image cache, which uses soft references to avoid holding images when heap space becomes exhausted.
+ * An image cache, limited by the total number of pixels in the cached images.
+ * When the limit is exceeded, the least recently used images are removed.
+ * 
+ * <p>The images of a project can be prefetched: they are loaded in the
+ * background, in parallel, so that they are already in the cache when they
+ * are first used. An image which is requested while it is being prefetched
+ * is waited for, rather than loaded twice.
  * 
  * @author Davin McCall
  */
 public class ImageCache
 {
+    /** The default limit on the number of cached pixels (64MB of image data) */
+    public static final long DEFAULT_PIXEL_BUDGET = 16 * 1024 * 1024;
+    
+    /**
+     * Project property giving the limit on the total number of pixels in
+     * the cached images.
+     */
+    public static final String PIXEL_BUDGET_PROPERTY = "image.cache.pixels";
+    
+    /** The maximum number of threads used to prefetch images */
+    private static final int MAX_PREFETCH_THREADS = 4;
+    
     private static ImageCache instance = new ImageCache();
     
-    /** A soft reference to a cached image */
-    private class CachedImageRef extends SoftReference<GreenfootImage>
-    {
-        String imgName;
-        
-        public CachedImageRef(String imgName, GreenfootImage image, ReferenceQueue<GreenfootImage> queue)
-        {
-            super(image, queue);
-            this.imgName = imgName;
-        }
-    }
+    /** The cached images, least recently used first */
+    private LinkedHashMap<String,GreenfootImage> imageCache = new LinkedHashMap<String,GreenfootImage>(16, 0.75f, true);
+    /** Names of images which could not be loaded */
+    private Set<String> nullImages = new HashSet<String>();
+    /** Names of images which are being prefetched, with the thread loading each */
+    private Map<String,Thread> prefetchingImages = new HashMap<String,Thread>();
     
-    private Map<String,CachedImageRef> imageCache = new HashMap<String,CachedImageRef>();
-    private ReferenceQueue<GreenfootImage> imgCacheRefQueue = new ReferenceQueue<GreenfootImage>();
+    private long pixelBudget = DEFAULT_PIXEL_BUDGET;
+    /** The total number of pixels in the cached images */
+    private long cachedPixels;
+    
+    /** Incremented when the cache is cleared, so that a prefetch in progress can tell */
+    private int generation;
+    /** The number of prefetches in progress */
+    private final AtomicInteger runningPrefetches = new AtomicInteger();
     
     /**
      * Retrieve the image cache instance.
@@ -61,28 +86,73 @@ public class ImageCache
         return instance;
     }
 
+    /**
+     * Set the limit on the total number of pixels in the cached images.
+     * Thread-safe.
+     */
+    public void setPixelBudget(long pixelBudget)
+    {
+        synchronized (imageCache) {
+            this.pixelBudget = pixelBudget;
+            evict();
+        }
+    }
+    
+    /**
+     * Apply the cache settings from the project properties. Thread-safe.
+     */
+    public void setProjectProperties(ReadOnlyProjectProperties projectProperties)
+    {
+        String budget = projectProperties.getString(PIXEL_BUDGET_PROPERTY);
+        if (budget != null) {
+            try {
+                setPixelBudget(Long.parseLong(budget.trim()));
+            }
+            catch (NumberFormatException nfe) {
+                Debug.reportError("Invalid value for " + PIXEL_BUDGET_PROPERTY + ": " + budget);
+            }
+        }
+    }
+    
+    /**
+     * Get the total number of pixels in the cached images. Thread-safe.
+     */
+    public long getCachedPixels()
+    {
+        synchronized (imageCache) {
+            return cachedPixels;
+        }
+    }
+
     /**
      * Requests that an image with associated name be added into the cache. The image may be null,
      * in which case the null response will be cached. Thread-safe.
      * 
-     * @return  whether the image was cached.
+     * @return  whether the image was cached (an image larger than the whole cache is not cached).
      */
     public boolean addCachedImage(String fileName, GreenfootImage image) 
     {
         synchronized (imageCache) {
+            removeImage(fileName);
             if (image != null) {
-                CachedImageRef cr = new CachedImageRef(fileName, image, imgCacheRefQueue);
-                imageCache.put(fileName, cr);
+                long pixels = getPixels(image);
+                if (pixels > pixelBudget) {
+                    return false;
+                }
+                imageCache.put(fileName, image);
+                cachedPixels += pixels;
+                evict();
             }
             else {
-                imageCache.put(fileName, null);
+                nullImages.add(fileName);
             }
         }
         return true;
     }
 
     /**
-     * Gets the cached image of the requested fileName. Thread-safe.
+     * Gets the cached image of the requested fileName. If the image is being
+     * prefetched, waits for it to be loaded. Thread-safe.
      *
      * @param name   name of the image file
      * @return The cached image (should not be modified), or null if the image
@@ -91,12 +161,20 @@ public class ImageCache
     public GreenfootImage getCachedImage(String fileName)
     { 
         synchronized (imageCache) {
-            flushImgCacheRefQueue();
-            CachedImageRef sr = imageCache.get(fileName);
-            if (sr != null) {
-                return sr.get();
+            boolean interrupted = false;
+            Thread loader;
+            while ((loader = prefetchingImages.get(fileName)) != null && loader != Thread.currentThread()) {
+                try {
+                    imageCache.wait();
+                }
+                catch (InterruptedException ie) {
+                    interrupted = true;
+                }
             }
-            return null;
+            if (interrupted) {
+                Thread.currentThread().interrupt();
+            }
+            return imageCache.get(fileName);
         }
     }
 
@@ -107,10 +185,7 @@ public class ImageCache
     public void removeCachedImage(String fileName)
     {
         synchronized (imageCache) {
-            CachedImageRef cr = imageCache.remove(fileName);
-            if (cr != null) {
-                cr.clear();
-            }
+            removeImage(fileName);
         }
     }
 
@@ -121,7 +196,7 @@ public class ImageCache
     public boolean isNullCachedImage(String fileName)
     {
         synchronized (imageCache) {
-            return imageCache.containsKey(fileName) && imageCache.get(fileName) == null;
+            return nullImages.contains(fileName);
         }
     }
 
@@ -132,26 +207,130 @@ public class ImageCache
     {
         synchronized (imageCache) {
             imageCache.clear();
-            imgCacheRefQueue = new ReferenceQueue<GreenfootImage>();
+            nullImages.clear();
+            cachedPixels = 0;
+            generation++;
         }
     }
-
+    
     /**
-     * Flush the image cache reference queue.
-     * <p>
-     * Because the images are cached via soft references, the references may be cleared, but the
-     * key will still map to the (cleared) reference. Calling this method occasionally removes such
-     * dead keys.
+     * Prefetch the images in the project's "images" directory: load them in
+     * the background, in parallel, and add them to the cache. Images which
+     * are already cached are skipped, and prefetching stops once the cache is
+     * full. Does nothing if a prefetch is already in progress. Thread-safe.
      */
-    private void flushImgCacheRefQueue()
+    public void prefetchProjectImages()
     {
-        Reference<? extends GreenfootImage> ref = imgCacheRefQueue.poll();
-        while (ref != null) {
-            if (ref instanceof CachedImageRef) {
-                CachedImageRef cr = (CachedImageRef) ref;
-                imageCache.remove(cr.imgName);
+        if (! runningPrefetches.compareAndSet(0, 1)) {
+            return;
+        }
+        
+        int threadCount = Math.min(MAX_PREFETCH_THREADS, Runtime.getRuntime().availableProcessors());
+        ExecutorService prefetchPool = Executors.newFixedThreadPool(threadCount, r -> {
+            Thread thread = new Thread(r, "ImagePrefetcher");
+            thread.setDaemon(true);
+            thread.setPriority(Thread.MIN_PRIORITY);
+            return thread;
+        });
+        
+        prefetchPool.execute(() -> {
+            try {
+                // Listing the images may itself take a while, so it is done here too:
+                Iterable<String> files = GreenfootUtil.getImageFiles();
+                if (files != null) {
+                    int startGeneration;
+                    synchronized (imageCache) {
+                        startGeneration = generation;
+                    }
+                    for (String file : files) {
+                        runningPrefetches.incrementAndGet();
+                        prefetchPool.execute(() -> {
+                            try {
+                                prefetch(file, startGeneration);
+                            }
+                            finally {
+                                runningPrefetches.decrementAndGet();
+                            }
+                        });
+                    }
+                }
+            }
+            finally {
+                runningPrefetches.decrementAndGet();
+                prefetchPool.shutdown();
+            }
+        });
+    }
+    
+    /**
+     * Check whether a prefetch of the project's images is in progress. Thread-safe.
+     */
+    public boolean isPrefetching()
+    {
+        return runningPrefetches.get() != 0;
+    }
+    
+    /**
+     * Load a single image into the cache, unless it is already cached, the
+     * cache is full, or the cache has been cleared since prefetching started.
+     */
+    private void prefetch(String fileName, int startGeneration)
+    {
+        synchronized (imageCache) {
+            if (generation != startGeneration || cachedPixels >= pixelBudget
+                    || imageCache.containsKey(fileName) || nullImages.contains(fileName)
+                    || prefetchingImages.containsKey(fileName)) {
+                return;
+            }
+            prefetchingImages.put(fileName, Thread.currentThread());
+        }
+        
+        try {
+            // The constructor adds the image to the cache:
+            new GreenfootImage(fileName);
+        }
+        catch (RuntimeException e) {
+            // Any problem will be reported when the image is used.
+        }
+        finally {
+            synchronized (imageCache) {
+                prefetchingImages.remove(fileName);
+                if (generation != startGeneration) {
+                    // The cache was cleared while the image was loading; it may be stale:
+                    removeImage(fileName);
+                }
+                imageCache.notifyAll();
             }
-            ref = imgCacheRefQueue.poll();
         }
     }
+    
+    /**
+     * Remove an image from the cache. The cache lock must be held.
+     */
+    private void removeImage(String fileName)
+    {
+        nullImages.remove(fileName);
+        GreenfootImage image = imageCache.remove(fileName);
+        if (image != null) {
+            cachedPixels -= getPixels(image);
+        }
+    }
+    
+    /**
+     * Remove least recently used images until the cache fits within the
+     * budget. The cache lock must be held.
+     */
+    private void evict()
+    {
+        Iterator<GreenfootImage> it = imageCache.values().iterator();
+        while (cachedPixels > pixelBudget && it.hasNext()) {
+            cachedPixels -= getPixels(it.next());
+            it.remove();
+        }
+    }
+    
+    private static long getPixels(GreenfootImage image)
+    {
+        return (long) image.getWidth() * image.getHeight();
+    }
 }
@@ -0,0 +1,259 @@
+/*
+ This file is part of the Greenfoot program.
+ Copyright (C) 2019  Poul Henriksen and Michael Kolling
+
+ This program is free software; you can redistribute it and/or
+ modify it under the terms of the GNU General Public License
+ as published by the Free Software Foundation; either version 2
+ of the License, or (at your option) any later version.
+
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with this program; if not, write to the Free Software
+ Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+
+ This file is subject to the Classpath exception as provided in the
+ LICENSE.txt file that accompanied this code.
+ */
+package greenfoot.core;
+
+import greenfoot.Actor;
+import greenfoot.GreenfootVisitor;
+import threadchecker.OnThread;
+import threadchecker.Tag;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Runs act() for a batch of actors which implement ParallelActor, on the
+ * common fork-join pool. While an actor is acting, the changes it makes to the
+ * world are recorded rather than applied (see {@link #defer(Runnable)}); once
+ * the whole batch has acted, the recorded changes are applied on the calling
+ * thread, in act order. This keeps the outcome independent of how the actors
+ * were scheduled.
+ * 
+ * <p>For the same reason, each actor gets its own random number generator for
+ * Greenfoot.getRandomNumber() while it acts (see {@link #getRandom()}), seeded
+ * from the shared generator in act order before the batch starts.
+ */
+@OnThread(Tag.Simulation)
+public class ParallelActPhase
+{
+    /** Number of actors below which a batch is not split any further. */
+    private static final int SPLIT_THRESHOLD = 8;
+    
+    /** Whether any batch is currently acting. Checked before the thread-local. */
+    private static volatile boolean acting = false;
+    
+    /** The changes recorded by the actor acting on the current thread. */
+    private static final ThreadLocal<List<Runnable>> currentChanges = new ThreadLocal<List<Runnable>>();
+    
+    /** The random number generator of the actor acting on the current thread. */
+    private static final ThreadLocal<Random> currentRandom = new ThreadLocal<Random>();
+    
+    private Actor [] actors = new Actor[64];
+    private List<Runnable> [] changes = newChangeLists(64);
+    private Throwable [] failures = new Throwable[64];
+    private Random [] randoms = new Random[64];
+    private int size;
+    /** The profiler to record act times with, if any */
+    private SimulationProfiler profiler;
+    
+    @SuppressWarnings("unchecked")
+    private static List<Runnable> [] newChangeLists(int length)
+    {
+        return (List<Runnable>[]) new List[length];
+    }
+    
+    /**
+     * Check whether the current thread is running act() for a parallel actor.
+     * If so, changes to the world must be passed to {@link #defer(Runnable)}
+     * rather than applied.
+     */
+    @OnThread(Tag.Any)
+    public static boolean isDeferring()
+    {
+        return acting && currentChanges.get() != null;
+    }
+    
+    /**
+     * Record a change to the world, made by the actor acting on the current
+     * thread. Must only be called if {@link #isDeferring()} returns true.
+     */
+    @OnThread(Tag.Any)
+    public static void defer(Runnable change)
+    {
+        currentChanges.get().add(change);
+    }
+    
+    /**
+     * Get the random number generator to be used by Greenfoot.getRandomNumber()
+     * on the current thread.
+     * 
+     * @return  The generator of the parallel actor acting on the current thread,
+     *          or null if the current thread is not acting a parallel actor.
+     */
+    @OnThread(Tag.Any)
+    public static Random getRandom()
+    {
+        return acting ? currentRandom.get() : null;
+    }
+    
+    /**
+     * Add an actor to the end of the batch.
+     */
+    public void add(Actor actor)
+    {
+        if (size == actors.length) {
+            int newLength = size * 2;
+            Actor [] newActors = new Actor[newLength];
+            List<Runnable> [] newChanges = newChangeLists(newLength);
+            Random [] newRandoms = new Random[newLength];
+            System.arraycopy(actors, 0, newActors, 0, size);
+            System.arraycopy(changes, 0, newChanges, 0, size);
+            System.arraycopy(randoms, 0, newRandoms, 0, size);
+            actors = newActors;
+            changes = newChanges;
+            randoms = newRandoms;
+            failures = new Throwable[newLength];
+        }
+        actors[size] = actor;
+        if (changes[size] == null) {
+            changes[size] = new ArrayList<Runnable>();
+            randoms[size] = new Random();
+        }
+        size++;
+    }
+    
+    public boolean isEmpty()
+    {
+        return size == 0;
+    }
+    
+    /**
+     * Set the profiler to record the time taken by each actor's act() with.
+     * 
+     * @param profiler  The profiler, or null to not record act times
+     */
+    public void setProfiler(SimulationProfiler profiler)
+    {
+        this.profiler = profiler;
+    }
+    
+    /**
+     * Remove all actors from the batch, without acting them.
+     */
+    public void clear()
+    {
+        for (int i = 0; i < size; i++) {
+            actors[i] = null;
+            changes[i].clear();
+            failures[i] = null;
+        }
+        size = 0;
+    }
+    
+    /**
+     * Act all the actors in the batch, apply their changes, and clear the batch.
+     * 
+     * <p>If an actor's act() throws an exception, the changes recorded by the
+     * actors before it (in act order) and by the actor itself are applied, and
+     * the exception is then rethrown; this matches what happens when actors act
+     * one at a time. If several actors throw, the earliest in act order wins.
+     */
+    public void run()
+    {
+        try {
+            for (int i = 0; i < size; i++) {
+                randoms[i].setSeed(GreenfootVisitor.nextRandomSeed());
+            }
+            
+            acting = true;
+            try {
+                ForkJoinPool.commonPool().invoke(new ActTask(0, size));
+            }
+            finally {
+                acting = false;
+            }
+            
+            for (int i = 0; i < size; i++) {
+                for (Runnable change : changes[i]) {
+                    change.run();
+                }
+                Throwable failure = failures[i];
+                if (failure instanceof RuntimeException) {
+                    throw (RuntimeException) failure;
+                }
+                else if (failure instanceof Error) {
+                    throw (Error) failure;
+                }
+            }
+        }
+        finally {
+            clear();
+        }
+    }
+    
+    /**
+     * Act a single actor, recording its changes.
+     */
+    @OnThread(Tag.Any)
+    private void act(int index)
+    {
+        currentChanges.set(changes[index]);
+        currentRandom.set(randoms[index]);
+        SimulationProfiler profiler = this.profiler;
+        long actStart = (profiler == null) ? 0L : System.nanoTime();
+        try {
+            actors[index].act();
+            if (profiler != null) {
+                profiler.actPerformed(actors[index].getClass(), System.nanoTime() - actStart);
+            }
+        }
+        catch (Throwable t) {
+            failures[index] = t;
+        }
+        finally {
+            currentChanges.remove();
+            currentRandom.remove();
+        }
+    }
+    
+    /**
+     * A task acting a range of the batch, splitting it in half while it is large.
+     */
+    @OnThread(Tag.Any)
+    private class ActTask extends RecursiveAction
+    {
+        private final int from;
+        private final int to;
+        
+        ActTask(int from, int to)
+        {
+            this.from = from;
+            this.to = to;
+        }
+        
+        @Override
+        protected void compute()
+        {
+            if (to - from <= SPLIT_THRESHOLD) {
+                for (int i = from; i < to; i++) {
+                    act(i);
+                }
+            }
+            else {
+                int middle = (from + to) >>> 1;
+                invokeAll(new ActTask(from, middle), new ActTask(middle, to));
+            }
+        }
+    }
+}
@@ -23,11 +23,14 @@ package greenfoot.core;
 
 import greenfoot.Actor;
 import greenfoot.ActorVisitor;
+import greenfoot.ParallelActor;
+import greenfoot.TreeActorSet;
 import greenfoot.World;
 import greenfoot.WorldVisitor;
 import greenfoot.event.SimulationListener;
 import greenfoot.event.SimulationListener.AsyncEvent;
 import greenfoot.event.SimulationListener.SyncEvent;
+import greenfoot.event.SimulationStatsListener;
 import greenfoot.event.WorldEvent;
 import greenfoot.event.WorldListener;
 import greenfoot.util.HDTimer;
@@ -78,6 +81,9 @@ public class Simulation extends Thread
     @OnThread(value = Tag.Any, requireSynchronized = true)
     private boolean runOnce;
     
+    /** Parallel actors waiting to act in the current act round. Only accessed from the simulation thread. */
+    private final ParallelActPhase parallelActors = new ParallelActPhase();
+
     /** Tasks that are queued to run on the simulation thread */
     @OnThread(value = Tag.Any, requireSynchronized = true)
     private Queue<SimulationRunnable> queuedTasks = new LinkedList<>();
@@ -85,6 +91,17 @@ public class Simulation extends Thread
     @OnThread(Tag.Any)
     private final List<SimulationListener> listenerList = new ArrayList<>();
 
+    /** Listeners for the statistics produced while profiling */
+    private final List<SimulationStatsListener> statsListenerList = new ArrayList<>();
+
+    /** The profiler, or null if the simulation is not being profiled */
+    private volatile SimulationProfiler profiler;
+
+    /** The recorder of input events, or null if the simulation is not being recorded */
+    private volatile SimulationRecorder recorder;
+    /** The recording being replayed, or null if none */
+    private volatile SimulationReplay replay;
+
     @OnThread(value = Tag.Any, requireSynchronized = true)
     private static Simulation instance;
 
@@ -490,18 +507,35 @@ public class Simulation extends Thread
      */
     private void runOneLoop(World world)
     {
+        SimulationRecorder recorder = this.recorder;
+        if (recorder != null)
+        {
+            recorder.roundStarting();
+        }
+        SimulationReplay replay = this.replay;
+        if (replay != null)
+        {
+            replay.roundStarting();
+        }
         fireSimulationEventSync(SyncEvent.NEW_ACT_ROUND);
         
+        SimulationProfiler profiler = this.profiler;
+        WorldVisitor.setCollisionRecorder(world, profiler);
+        parallelActors.setProfiler(profiler);
+        
         // We don't want to be interrupted in the middle of an act-loop
         // so we remember the first interrupted exception and throw it
         // when all the actors have acted.
         ActInterruptedException interruptedException = null;
         
-        List<? extends Actor> objects = null;
-
         try
         {
+            long actStart = (profiler == null) ? 0L : System.nanoTime();
             actWorld(world);
+            if (profiler != null)
+            {
+                profiler.actPerformed(world.getClass(), System.nanoTime() - actStart);
+            }
             if (world != worldHandler.getWorld())
             {
                 paintRemote(false);
@@ -512,21 +546,32 @@ public class Simulation extends Thread
         {
             interruptedException = e;
         }
-        // We need to make a copy so that the original collection can be
-        // modified by the actors' act() methods.
-        objects = new ArrayList<Actor>(WorldVisitor.getObjectsListInActOrder(world));
-        for (Actor actor : objects)
+        // The stable iterator allows the actors' act() methods to add and remove
+        // actors while we iterate, without copying the collection.
+        parallelActors.clear();
+        try (TreeActorSet.StableIterator objects =
+                WorldVisitor.getObjectsListInActOrder(world).stableIterator())
         {
-            if (!enabled)
-            {
-                return;
-            }
-            if (ActorVisitor.getWorld(actor) != null)
+            while (objects.hasNext())
             {
+                Actor actor = objects.next();
+                if (!enabled)
+                {
+                    return;
+                }
+                if (actor instanceof ParallelActor)
+                {
+                    // Collect consecutive parallel actors, and act them together
+                    // before the next sequential actor:
+                    if (ActorVisitor.getWorld(actor) != null)
+                    {
+                        parallelActors.add(actor);
+                    }
+                    continue;
+                }
                 try
                 {
-                    actActor(actor);
-                    if (world != worldHandler.getWorld())
+                    if (!actParallelActors(world))
                     {
                         return; // New world was set
                     }
@@ -538,6 +583,43 @@ public class Simulation extends Thread
                         interruptedException = e;
                     }
                 }
+                if (ActorVisitor.getWorld(actor) != null)
+                {
+                    try
+                    {
+                        long actStart = (profiler == null) ? 0L : System.nanoTime();
+                        actActor(actor);
+                        if (profiler != null)
+                        {
+                            profiler.actPerformed(actor.getClass(), System.nanoTime() - actStart);
+                        }
+                        if (world != worldHandler.getWorld())
+                        {
+                            return; // New world was set
+                        }
+                    }
+                    catch (ActInterruptedException e)
+                    {
+                        if (interruptedException == null)
+                        {
+                            interruptedException = e;
+                        }
+                    }
+                }
+            }
+        }
+        try
+        {
+            if (!actParallelActors(world))
+            {
+                return; // New world was set
+            }
+        }
+        catch (ActInterruptedException e)
+        {
+            if (interruptedException == null)
+            {
+                interruptedException = e;
             }
         }
         
@@ -552,9 +634,35 @@ public class Simulation extends Thread
 
         repaintIfNeeded();
 
+        if (profiler != null)
+        {
+            SimulationStats stats = profiler.roundFinished();
+            if (stats != null)
+            {
+                fireSimulationStats(stats);
+            }
+        }
+
         fireSimulationEventSync(SyncEvent.END_ACT_ROUND);
     }
     
+    /**
+     * Act the parallel actors collected since the last sequential actor, if any.
+     * May propagate a runtime exception or error from user code.
+     * 
+     * @return  false if a new world was set while acting, true otherwise
+     * @throws ActInterruptedException  if an act() call was interrupted.
+     */
+    private boolean actParallelActors(World world)
+    {
+        if (parallelActors.isEmpty())
+        {
+            return true;
+        }
+        parallelActors.run();
+        return world == worldHandler.getWorld();
+    }
+    
     // The actActor, actWorld and newInstance methods exist as a tagging mechanism
     // that allows them to be found easily in the debugger when we
     // are attempting to reach the next call to user code
@@ -771,6 +879,97 @@ public class Simulation extends Thread
         }
     }
 
+    /**
+     * Add a listener for the statistics produced while profiling.
+     */
+    @OnThread(Tag.Any)
+    public void addSimulationStatsListener(SimulationStatsListener l)
+    {
+        synchronized (statsListenerList) {
+            statsListenerList.add(l);
+        }
+    }
+
+    /**
+     * Remove a listener for the statistics produced while profiling.
+     */
+    @OnThread(Tag.Any)
+    public void removeSimulationStatsListener(SimulationStatsListener l)
+    {
+        synchronized (statsListenerList) {
+            statsListenerList.remove(l);
+        }
+    }
+
+    @OnThread(Tag.Simulation)
+    private void fireSimulationStats(SimulationStats stats)
+    {
+        synchronized (statsListenerList) {
+            for (SimulationStatsListener listener : statsListenerList)
+            {
+                listener.simulationStats(stats);
+            }
+        }
+    }
+
+    /**
+     * Turn profiling of the simulation on or off. While profiling, the time
+     * spent in act() by each class of actor, in collision queries and in
+     * rendering is recorded, and statistics are sent to the stats listeners
+     * periodically. Profiling takes effect from the next act round.
+     */
+    @OnThread(Tag.Any)
+    public synchronized void setProfiling(boolean profiling)
+    {
+        if (profiling && profiler == null)
+        {
+            profiler = new SimulationProfiler();
+        }
+        else if (!profiling)
+        {
+            profiler = null;
+        }
+    }
+
+    /**
+     * Get the profiler, if the simulation is being profiled.
+     * 
+     * @return  The profiler, or null if not profiling
+     */
+    @OnThread(Tag.Any)
+    public SimulationProfiler getProfiler()
+    {
+        return profiler;
+    }
+
+    /**
+     * Record the keyboard and mouse input to the simulation, so that the run
+     * can be replayed. The world handler must have been attached.
+     * 
+     * @param recorder  The recorder, or null to stop recording
+     * @see SimulationReplay
+     */
+    @OnThread(Tag.Any)
+    public void setRecorder(SimulationRecorder recorder)
+    {
+        this.recorder = recorder;
+        worldHandler.getKeyboardManager().setRecorder(recorder);
+        worldHandler.getMouseManager().setRecorder(recorder);
+    }
+
+    /**
+     * Replay a recorded run: the recorded keyboard and mouse input is
+     * delivered to the simulation as it runs. The random number generator
+     * should be seeded from the recording before the world is created.
+     * 
+     * @param replay  The recording to replay, or null to stop replaying
+     */
+    @OnThread(Tag.Any)
+    public void setReplay(SimulationReplay replay)
+    {
+        this.replay = replay;
+    }
+
     /**
      * Set the speed of the simulation.
      * 
@@ -0,0 +1,187 @@
+/*
+ This file is part of the Greenfoot program.
+ Copyright (C) 2019  Poul Henriksen and Michael Kolling
+
+ This program is free software; you can redistribute it and/or
+ modify it under the terms of the GNU General Public License
+ as published by the Free Software Foundation; either version 2
+ of the License, or (at your option) any later version.
+
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with this program; if not, write to the Free Software
+ Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+
+ This file is subject to the Classpath exception as provided in the
+ LICENSE.txt file that accompanied this code.
+ */
+package greenfoot.core;
+
+import greenfoot.collision.CollisionProfiler;
+import threadchecker.OnThread;
+import threadchecker.Tag;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Records where the time goes while the simulation runs: the time spent in
+ * act() per class (of actor or world), collision queries, and rendering. The
+ * recorded values are gathered into {@link SimulationStats} at regular
+ * intervals, at the end of an act round.
+ * 
+ * <p>Parallel actors may act, and make collision queries, on several threads
+ * at once; the time they take is recorded per actor, so the total time for a
+ * class may exceed the length of the act round.
+ */
+@OnThread(Tag.Any)
+public class SimulationProfiler implements CollisionProfiler.QueryRecorder
+{
+    /** How often statistics are produced, in nanoseconds */
+    private static final long STATS_INTERVAL = 500_000_000L;
+    
+    private final Map<Class<?>, ClassTimes> classTimes = new ConcurrentHashMap<>();
+    private final LongAdder collisionQueries = new LongAdder();
+    private final LongAdder collisionTime = new LongAdder();
+    // Painting may be done on a separate render thread (see World.setAsyncRendering):
+    private final LongAdder renderTime = new LongAdder();
+    private final LongAdder paints = new LongAdder();
+    private final LongAdder paintSkips = new LongAdder();
+    
+    // The following are only accessed from the simulation thread:
+    @OnThread(Tag.Simulation)
+    private long intervalStart = System.nanoTime();
+    @OnThread(Tag.Simulation)
+    private int rounds;
+    @OnThread(Tag.Simulation)
+    private long roundStartQueries;
+    @OnThread(Tag.Simulation)
+    private long maxRoundQueries;
+
+    /**
+     * Record the time taken by a call to act().
+     * 
+     * @param cls  The class of the actor or world which acted
+     * @param nanos  The time taken, in nanoseconds
+     */
+    public void actPerformed(Class<?> cls, long nanos)
+    {
+        ClassTimes times = classTimes.get(cls);
+        if (times == null) {
+            times = classTimes.computeIfAbsent(cls, c -> new ClassTimes());
+        }
+        times.record(nanos);
+    }
+
+    @Override
+    public void collisionQueryPerformed(long nanos)
+    {
+        collisionQueries.increment();
+        collisionTime.add(nanos);
+    }
+
+    /**
+     * Record the time taken to render the world.
+     */
+    public void worldPainted(long nanos)
+    {
+        renderTime.add(nanos);
+        paints.increment();
+    }
+
+    /**
+     * Record that rendering the world was skipped, because the previous
+     * frame was too recent (or, when rendering on a separate thread, because
+     * the previous frame had not yet been rendered).
+     */
+    public void paintSkipped()
+    {
+        paintSkips.increment();
+    }
+
+    /**
+     * An act round has finished. If the current interval is over, gather the
+     * statistics for it and start a new interval.
+     * 
+     * @return  The statistics for the interval, or null if it is not yet over
+     */
+    @OnThread(Tag.Simulation)
+    public SimulationStats roundFinished()
+    {
+        rounds++;
+        long queries = collisionQueries.sum();
+        maxRoundQueries = Math.max(maxRoundQueries, queries - roundStartQueries);
+        roundStartQueries = queries;
+        
+        long now = System.nanoTime();
+        if (now - intervalStart < STATS_INTERVAL) {
+            return null;
+        }
+        
+        List<SimulationStats.ClassStats> classStats = new ArrayList<>();
+        for (Map.Entry<Class<?>, ClassTimes> entry : classTimes.entrySet()) {
+            SimulationStats.ClassStats stats = entry.getValue().takeStats(entry.getKey().getName());
+            if (stats != null) {
+                classStats.add(stats);
+            }
+        }
+        classStats.sort((a, b) -> Long.compare(b.getTotalTime(), a.getTotalTime()));
+        
+        SimulationStats stats = new SimulationStats(now - intervalStart, rounds, classStats,
+                collisionQueries.sumThenReset(), maxRoundQueries, collisionTime.sumThenReset(),
+                renderTime.sumThenReset(), (int) paints.sumThenReset(), (int) paintSkips.sumThenReset());
+        
+        intervalStart = now;
+        rounds = 0;
+        roundStartQueries = 0;
+        maxRoundQueries = 0;
+        return stats;
+    }
+
+    /**
+     * The act() times recorded for one class in the current interval.
+     */
+    @OnThread(Tag.Any)
+    private static class ClassTimes
+    {
+        private int acts;
+        private long totalTime;
+        private long maxTime;
+        private final int[] histogram = new int[SimulationStats.HISTOGRAM_BUCKETS];
+
+        public synchronized void record(long nanos)
+        {
+            acts++;
+            totalTime += nanos;
+            maxTime = Math.max(maxTime, nanos);
+            histogram[SimulationStats.getHistogramBucket(nanos)]++;
+        }
+
+        /**
+         * Get the statistics for the interval, and reset ready for the next.
+         * 
+         * @return  The statistics, or null if there were no acts
+         */
+        public synchronized SimulationStats.ClassStats takeStats(String className)
+        {
+            if (acts == 0) {
+                return null;
+            }
+            SimulationStats.ClassStats stats = new SimulationStats.ClassStats(className, acts, totalTime,
+                    maxTime, histogram);
+            acts = 0;
+            totalTime = 0;
+            maxTime = 0;
+            Arrays.fill(histogram, 0);
+            return stats;
+        }
+    }
+}
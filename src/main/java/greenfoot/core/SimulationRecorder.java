@@ -0,0 +1,264 @@
+/*
+ This file is part of the Greenfoot program.
+ Copyright (C) 2019  Poul Henriksen and Michael Kolling
+
+ This program is free software; you can redistribute it and/or
+ modify it under the terms of the GNU General Public License
+ as published by the Free Software Foundation; either version 2
+ of the License, or (at your option) any later version.
+
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with this program; if not, write to the Free Software
+ Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+
+ This file is subject to the Classpath exception as provided in the
+ LICENSE.txt file that accompanied this code.
+ */
+package greenfoot.core;
+
+import bluej.utility.Debug;
+import greenfoot.vmcomm.Command;
+import javafx.scene.input.KeyCode;
+import javafx.scene.input.MouseButton;
+import threadchecker.OnThread;
+import threadchecker.Tag;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Records a run of a scenario, so that it can be replayed exactly (see
+ * {@link SimulationReplay}). A recording holds the seed of the random number
+ * generator used by Greenfoot.getRandomNumber(), and the keyboard and mouse
+ * events, each tagged with the act round during which it was received.
+ * 
+ * <p>While a run is recorded, its keyboard and mouse events are not handled
+ * as they are received, part-way through an act round; the keyboard and mouse
+ * managers pass them to the recorder, which delivers them at the start of the
+ * next round, just as {@link SimulationReplay} does. The recorded run is
+ * therefore the same as its replays.
+ * 
+ * <p>The recording is written as it is made, in a compact binary format:
+ * a header (magic number, version, random seed and world class name), then
+ * one record per event: the event type (as in {@link Command}), the number of
+ * act rounds since the previous event, and the event data, all as variable
+ * length integers. An end record gives the total number of act rounds.
+ */
+@OnThread(Tag.Any)
+public class SimulationRecorder
+{
+    static final int MAGIC = 0x47465243; // "GFRC"
+    static final int VERSION = 1;
+    /** The type of the record which ends a recording */
+    static final int END_OF_RECORDING = 0;
+
+    private DataOutputStream out;
+    /** The number of act rounds started so far */
+    private int rounds;
+    /** The round of the last record written */
+    private int lastRecordRound;
+    /** The events recorded during the current round, to be delivered when the next starts */
+    private final List<int[]> pendingEvents = new ArrayList<>();
+    /** The thread delivering pending events, whose events are handled rather than recorded */
+    private volatile Thread deliveringThread;
+
+    /**
+     * Start a recording. The caller should seed the random number generator
+     * with the given seed before the world is created.
+     * 
+     * @param out  The stream to write the recording to; it is closed by {@link #close()}
+     * @param seed  The seed of the random number generator
+     * @param worldClassName  The name of the class of the world being run
+     * @throws IOException  if the header could not be written
+     */
+    public SimulationRecorder(OutputStream out, long seed, String worldClassName) throws IOException
+    {
+        this.out = new DataOutputStream(out);
+        this.out.writeInt(MAGIC);
+        this.out.writeShort(VERSION);
+        this.out.writeLong(seed);
+        this.out.writeUTF(worldClassName);
+    }
+
+    /**
+     * Record a keyboard event.
+     * 
+     * @param type  The event type: Command.KEY_DOWN, KEY_UP or KEY_TYPED
+     * @return  true if the event was recorded, and will be delivered to the keyboard
+     *          manager when the next act round starts (so must not be handled now)
+     */
+    public boolean recordKeyEvent(int type, KeyCode keyCode, String keyText)
+    {
+        int[] textCodePoints = keyText.codePoints().toArray();
+        int[] data = new int[textCodePoints.length + 1];
+        data[0] = keyCode.ordinal();
+        System.arraycopy(textCodePoints, 0, data, 1, textCodePoints.length);
+        return record(type, data);
+    }
+
+    /**
+     * Record a mouse event.
+     * 
+     * @param type  The event type: one of the Command.MOUSE_* constants
+     * @param x  The pixel location in the world
+     * @param y  The pixel location in the world
+     * @param button  The button reported by the event (may be null for moves and exits)
+     * @param clickCount  The click count reported by the event (0 if none)
+     * @return  true if the event was recorded, and will be delivered to the mouse
+     *          manager when the next act round starts (so must not be handled now)
+     */
+    public boolean recordMouseEvent(int type, int x, int y, MouseButton button, int clickCount)
+    {
+        int buttonIndex = (button == null ? MouseButton.NONE : button).ordinal();
+        return record(type, x, y, buttonIndex, clickCount);
+    }
+
+    /**
+     * Record that the world lost focus (and so all keys were released).
+     * 
+     * @return  true if the event was recorded, and will be delivered to the keyboard
+     *          manager when the next act round starts (so must not be handled now)
+     */
+    public boolean recordFocusLost()
+    {
+        return record(Command.COMMAND_WORLD_FOCUS_LOST);
+    }
+
+    /**
+     * Notify the recorder that a new act round is starting. The events recorded
+     * during the previous round are delivered to the keyboard and mouse managers;
+     * events recorded after this will be delivered (and replayed) just before the
+     * round after it starts.
+     */
+    @OnThread(Tag.Simulation)
+    public void roundStarting()
+    {
+        List<int[]> events;
+        synchronized (this) {
+            events = new ArrayList<>(pendingEvents);
+            pendingEvents.clear();
+            rounds++;
+        }
+        
+        // Deliver without holding our lock, as the managers call us while holding theirs:
+        if (! events.isEmpty()) {
+            WorldHandler worldHandler = WorldHandler.getInstance();
+            deliveringThread = Thread.currentThread();
+            try {
+                for (int[] event : events) {
+                    SimulationReplay.deliverEvent(worldHandler, event);
+                }
+            }
+            finally {
+                deliveringThread = null;
+            }
+        }
+    }
+
+    /**
+     * Write a record to the recording, and queue the event for delivery when
+     * the next round starts.
+     * 
+     * @return  true if the event was recorded; false if it should be handled
+     *          straight away (because the recording has been closed, or
+     *          because the event is being delivered by roundStarting()).
+     */
+    private synchronized boolean record(int type, int... data)
+    {
+        if (out == null || Thread.currentThread() == deliveringThread) {
+            return false;
+        }
+        try {
+            out.writeByte(type);
+            writeVarInt(out, rounds - lastRecordRound);
+            writeVarInt(out, data.length);
+            for (int value : data) {
+                // Zig-zag encoding, so that small negative values are short too:
+                writeVarInt(out, (value << 1) ^ (value >> 31));
+            }
+            lastRecordRound = rounds;
+        }
+        catch (IOException ioe) {
+            Debug.reportError("Could not write simulation recording", ioe);
+            closeQuietly();
+            return false;
+        }
+        
+        int[] event = new int[data.length + 1];
+        event[0] = type;
+        System.arraycopy(data, 0, event, 1, data.length);
+        pendingEvents.add(event);
+        return true;
+    }
+
+    /**
+     * Finish the recording and close the output stream. Further events are
+     * not recorded, and events recorded during the current round are not
+     * delivered (as they would not be when replayed).
+     */
+    public synchronized void close()
+    {
+        if (out == null) {
+            return;
+        }
+        try {
+            out.writeByte(END_OF_RECORDING);
+            writeVarInt(out, rounds - lastRecordRound);
+            out.close();
+        }
+        catch (IOException ioe) {
+            Debug.reportError("Could not write simulation recording", ioe);
+        }
+        out = null;
+    }
+
+    private void closeQuietly()
+    {
+        try {
+            out.close();
+        }
+        catch (IOException ioe) {
+            // Already reported the first error
+        }
+        out = null;
+    }
+
+    /**
+     * Write a non-negative integer using as few bytes as possible: seven bits
+     * per byte, with the top bit set in all but the last byte.
+     */
+    static void writeVarInt(DataOutput out, int value) throws IOException
+    {
+        while ((value & ~0x7F) != 0) {
+            out.writeByte((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        out.writeByte(value);
+    }
+
+    /**
+     * Read an integer written by {@link #writeVarInt(DataOutput, int)}.
+     */
+    static int readVarInt(DataInput in) throws IOException
+    {
+        int value = 0;
+        for (int shift = 0; shift < 35; shift += 7) {
+            int b = in.readUnsignedByte();
+            value |= (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                return value;
+            }
+        }
+        throw new IOException("Malformed simulation recording");
+    }
+}
@@ -0,0 +1,256 @@
+/*
+ This file is part of the Greenfoot program.
+ Copyright (C) 2019  Poul Henriksen and Michael Kolling
+
+ This program is free software; you can redistribute it and/or
+ modify it under the terms of the GNU General Public License
+ as published by the Free Software Foundation; either version 2
+ of the License, or (at your option) any later version.
+
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with this program; if not, write to the Free Software
+ Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+
+ This file is subject to the Classpath exception as provided in the
+ LICENSE.txt file that accompanied this code.
+ */
+package greenfoot.core;
+
+import greenfoot.gui.input.KeyboardManager;
+import greenfoot.gui.input.mouse.MousePollingManager;
+import greenfoot.vmcomm.Command;
+import javafx.scene.input.KeyCode;
+import javafx.scene.input.MouseButton;
+import threadchecker.OnThread;
+import threadchecker.Tag;
+
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * A recording of a run of a scenario, made by {@link SimulationRecorder}, which
+ * can be replayed. Before the world is created, the random number generator
+ * should be seeded with {@link #getSeed()}; while the simulation runs, the
+ * recorded keyboard and mouse events are delivered at the start of the act
+ * round following the one during which they were received.
+ * 
+ * <p>Events are delivered between act rounds, rather than at the exact point
+ * at which they were received during the recorded run, so a replay matches
+ * the recorded run closely but is exactly repeatable. Replays therefore give
+ * the same sequence of act rounds each time, whatever the speed at which they
+ * are run (as long as the scenario does not use other sources of randomness,
+ * the time, or Greenfoot.ask()).
+ */
+public class SimulationReplay
+{
+    private final long seed;
+    private final String worldClassName;
+    /** The number of act rounds in the recorded run */
+    private final int roundCount;
+    /** The recorded events: the type, followed by the event data */
+    private final List<int[]> events;
+    /** The round during which each event was received */
+    private final int[] eventRounds;
+
+    // The following are only accessed from the simulation thread:
+    private int rounds;
+    private int nextEvent;
+
+    private SimulationReplay(long seed, String worldClassName, int roundCount, List<int[]> events, int[] eventRounds)
+    {
+        this.seed = seed;
+        this.worldClassName = worldClassName;
+        this.roundCount = roundCount;
+        this.events = events;
+        this.eventRounds = eventRounds;
+    }
+
+    /**
+     * Read a recording. A recording which was not finished (for instance,
+     * because the recorded program was killed) is read up to the last
+     * complete event.
+     * 
+     * @param in  The stream to read from (not closed by this method)
+     * @throws IOException  if the stream could not be read, or does not hold a recording
+     */
+    @OnThread(Tag.Any)
+    public static SimulationReplay read(InputStream in) throws IOException
+    {
+        DataInputStream dataIn = new DataInputStream(in);
+        if (dataIn.readInt() != SimulationRecorder.MAGIC) {
+            throw new IOException("Not a simulation recording");
+        }
+        int version = dataIn.readUnsignedShort();
+        if (version != SimulationRecorder.VERSION) {
+            throw new IOException("Unsupported simulation recording version: " + version);
+        }
+        long seed = dataIn.readLong();
+        String worldClassName = dataIn.readUTF();
+
+        List<int[]> events = new ArrayList<>();
+        int[] eventRounds = new int[16];
+        int round = 0;
+        while (true) {
+            int type;
+            try {
+                type = dataIn.readUnsignedByte();
+            }
+            catch (EOFException eofe) {
+                break; // Unfinished recording
+            }
+            round += SimulationRecorder.readVarInt(dataIn);
+            if (type == SimulationRecorder.END_OF_RECORDING) {
+                break;
+            }
+            int[] event = new int[SimulationRecorder.readVarInt(dataIn) + 1];
+            event[0] = type;
+            for (int i = 1; i < event.length; i++) {
+                int value = SimulationRecorder.readVarInt(dataIn);
+                event[i] = (value >>> 1) ^ -(value & 1);
+            }
+            if (!isValidEvent(event)) {
+                throw new IOException("Malformed simulation recording");
+            }
+            if (events.size() == eventRounds.length) {
+                eventRounds = Arrays.copyOf(eventRounds, eventRounds.length * 2);
+            }
+            eventRounds[events.size()] = round;
+            events.add(event);
+        }
+        return new SimulationReplay(seed, worldClassName, round, events, eventRounds);
+    }
+
+    /**
+     * Check that an event can be delivered.
+     */
+    @OnThread(Tag.Any)
+    private static boolean isValidEvent(int[] event)
+    {
+        if (Command.isKeyEvent(event[0])) {
+            return event.length >= 2 && event[1] >= 0 && event[1] < KeyCode.values().length;
+        }
+        else if (Command.isMouseEvent(event[0])) {
+            return event.length == 5 && event[3] >= 0 && event[3] < MouseButton.values().length;
+        }
+        else {
+            return event[0] == Command.COMMAND_WORLD_FOCUS_LOST;
+        }
+    }
+
+    /**
+     * Get the seed for the random number generator.
+     */
+    @OnThread(Tag.Any)
+    public long getSeed()
+    {
+        return seed;
+    }
+
+    /**
+     * Get the name of the class of the world which was recorded.
+     */
+    @OnThread(Tag.Any)
+    public String getWorldClassName()
+    {
+        return worldClassName;
+    }
+
+    /**
+     * Get the number of act rounds in the recorded run.
+     */
+    @OnThread(Tag.Any)
+    public int getRoundCount()
+    {
+        return roundCount;
+    }
+
+    /**
+     * Get the number of recorded events.
+     */
+    @OnThread(Tag.Any)
+    public int getEventCount()
+    {
+        return events.size();
+    }
+
+    /**
+     * Notify the replay that a new act round is starting. The events which
+     * were received before this round started in the recorded run are delivered
+     * to the keyboard and mouse managers.
+     */
+    @OnThread(Tag.Simulation)
+    public void roundStarting()
+    {
+        WorldHandler worldHandler = WorldHandler.getInstance();
+        while (nextEvent < events.size() && eventRounds[nextEvent] <= rounds) {
+            deliverEvent(worldHandler, events.get(nextEvent++));
+        }
+        rounds++;
+    }
+
+    /**
+     * Deliver a recorded event to the keyboard or mouse manager.
+     * 
+     * @param event  The event type, followed by the event data
+     */
+    @OnThread(Tag.Simulation)
+    static void deliverEvent(WorldHandler worldHandler, int[] event)
+    {
+        if (Command.isKeyEvent(event[0])) {
+            KeyboardManager keyboardManager = worldHandler.getKeyboardManager();
+            KeyCode keyCode = KeyCode.values()[event[1]];
+            String keyText = new String(event, 2, event.length - 2);
+            switch (event[0]) {
+                case Command.KEY_DOWN:
+                    keyboardManager.keyPressed(keyCode, keyText);
+                    break;
+                case Command.KEY_UP:
+                    keyboardManager.keyReleased(keyCode, keyText);
+                    break;
+                case Command.KEY_TYPED:
+                    keyboardManager.keyTyped(keyCode, keyText);
+                    break;
+            }
+        }
+        else if (Command.isMouseEvent(event[0])) {
+            int x = event[1];
+            int y = event[2];
+            MouseButton button = MouseButton.values()[event[3]];
+            int clickCount = event[4];
+            MousePollingManager mouseManager = worldHandler.getMouseManager();
+            switch (event[0]) {
+                case Command.MOUSE_CLICKED:
+                    mouseManager.mouseClicked(x, y, button, clickCount);
+                    break;
+                case Command.MOUSE_PRESSED:
+                    mouseManager.mousePressed(x, y, button);
+                    break;
+                case Command.MOUSE_RELEASED:
+                    mouseManager.mouseReleased(x, y, button);
+                    break;
+                case Command.MOUSE_DRAGGED:
+                    mouseManager.mouseDragged(x, y, button);
+                    break;
+                case Command.MOUSE_MOVED:
+                    mouseManager.mouseMoved(x, y);
+                    break;
+                case Command.MOUSE_EXITED:
+                    mouseManager.mouseExited();
+                    break;
+            }
+        }
+        else if (event[0] == Command.COMMAND_WORLD_FOCUS_LOST) {
+            worldHandler.getKeyboardManager().focusLost();
+        }
+    }
+}
@@ -0,0 +1,326 @@
+/*
+ This file is part of the Greenfoot program.
+ Copyright (C) 2019  Poul Henriksen and Michael Kolling
+
+ This program is free software; you can redistribute it and/or
+ modify it under the terms of the GNU General Public License
+ as published by the Free Software Foundation; either version 2
+ of the License, or (at your option) any later version.
+
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with this program; if not, write to the Free Software
+ Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+
+ This file is subject to the Classpath exception as provided in the
+ LICENSE.txt file that accompanied this code.
+ */
+package greenfoot.core;
+
+import threadchecker.OnThread;
+import threadchecker.Tag;
+
+import java.nio.IntBuffer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Statistics about the simulation, gathered by a {@link SimulationProfiler} over
+ * an interval of (usually) several act rounds. Instances are immutable.
+ * 
+ * <p>The time spent in act() is recorded per actor class (and for the world),
+ * together with a histogram of the time taken by individual act() calls.
+ * Bucket 0 of the histogram counts calls taking less than one microsecond;
+ * bucket i, for i &gt; 0, counts calls taking at least 2<sup>i-1</sup> but less
+ * than 2<sup>i</sup> microseconds, except that the last bucket also counts all
+ * longer calls.
+ * 
+ * <p>Statistics can be encoded as an array of integers, so that they can be sent
+ * from the simulation VM to the server VM.
+ */
+@OnThread(Tag.Any)
+public class SimulationStats
+{
+    /** The number of buckets in each act time histogram */
+    public static final int HISTOGRAM_BUCKETS = 16;
+    
+    private final long interval;
+    private final int rounds;
+    private final List<ClassStats> classStats;
+    private final long collisionQueries;
+    private final long maxRoundCollisionQueries;
+    private final long collisionTime;
+    private final long renderTime;
+    private final int paints;
+    private final int paintSkips;
+
+    /**
+     * Create a set of statistics.
+     * 
+     * @param interval  The length of the interval covered, in nanoseconds
+     * @param rounds  The number of act rounds completed in the interval
+     * @param classStats  The act() statistics for each class, in descending order of total time
+     * @param collisionQueries  The number of collision queries made
+     * @param maxRoundCollisionQueries  The largest number of collision queries made in one round
+     * @param collisionTime  The total time spent in collision queries, in nanoseconds
+     * @param renderTime  The total time spent rendering the world, in nanoseconds
+     * @param paints  The number of times the world was rendered
+     * @param paintSkips  The number of times rendering was skipped (because the previous frame was too recent)
+     */
+    public SimulationStats(long interval, int rounds, List<ClassStats> classStats, long collisionQueries,
+            long maxRoundCollisionQueries, long collisionTime, long renderTime, int paints, int paintSkips)
+    {
+        this.interval = interval;
+        this.rounds = rounds;
+        this.classStats = Collections.unmodifiableList(new ArrayList<>(classStats));
+        this.collisionQueries = collisionQueries;
+        this.maxRoundCollisionQueries = maxRoundCollisionQueries;
+        this.collisionTime = collisionTime;
+        this.renderTime = renderTime;
+        this.paints = paints;
+        this.paintSkips = paintSkips;
+    }
+
+    /**
+     * Get the histogram bucket for an act() call of the given duration.
+     */
+    public static int getHistogramBucket(long nanos)
+    {
+        long micros = nanos / 1000;
+        return (int) Math.min(HISTOGRAM_BUCKETS - 1, 64 - Long.numberOfLeadingZeros(micros));
+    }
+
+    /**
+     * Get the length of the interval covered by these statistics, in nanoseconds.
+     */
+    public long getInterval()
+    {
+        return interval;
+    }
+
+    /**
+     * Get the number of act rounds completed in the interval.
+     */
+    public int getRounds()
+    {
+        return rounds;
+    }
+
+    /**
+     * Get the number of act rounds per second over the interval.
+     */
+    public double getRoundsPerSecond()
+    {
+        return interval == 0 ? 0 : rounds * 1e9 / interval;
+    }
+
+    /**
+     * Get the act() statistics for each class which acted in the interval, in
+     * descending order of the total time spent.
+     */
+    public List<ClassStats> getClassStats()
+    {
+        return classStats;
+    }
+
+    /**
+     * Get the number of collision queries made in the interval.
+     */
+    public long getCollisionQueries()
+    {
+        return collisionQueries;
+    }
+
+    /**
+     * Get the largest number of collision queries made in a single act round.
+     */
+    public long getMaxRoundCollisionQueries()
+    {
+        return maxRoundCollisionQueries;
+    }
+
+    /**
+     * Get the total time spent in collision queries, in nanoseconds.
+     */
+    public long getCollisionTime()
+    {
+        return collisionTime;
+    }
+
+    /**
+     * Get the total time spent rendering the world, in nanoseconds.
+     */
+    public long getRenderTime()
+    {
+        return renderTime;
+    }
+
+    /**
+     * Get the number of times the world was rendered.
+     */
+    public int getPaints()
+    {
+        return paints;
+    }
+
+    /**
+     * Get the number of times rendering the world was skipped, because the
+     * previous frame was too recent.
+     */
+    public int getPaintSkips()
+    {
+        return paintSkips;
+    }
+
+    /**
+     * Encode these statistics as an array of integers.
+     * 
+     * @see #decode(int[])
+     */
+    public int[] encode()
+    {
+        List<Integer> data = new ArrayList<>();
+        putLong(data, interval);
+        data.add(rounds);
+        putLong(data, collisionQueries);
+        putLong(data, maxRoundCollisionQueries);
+        putLong(data, collisionTime);
+        putLong(data, renderTime);
+        data.add(paints);
+        data.add(paintSkips);
+        data.add(classStats.size());
+        for (ClassStats stats : classStats) {
+            int[] name = stats.className.codePoints().toArray();
+            data.add(name.length);
+            for (int codepoint : name) {
+                data.add(codepoint);
+            }
+            data.add(stats.acts);
+            putLong(data, stats.totalTime);
+            putLong(data, stats.maxTime);
+            for (int count : stats.histogram) {
+                data.add(count);
+            }
+        }
+        return data.stream().mapToInt(Integer::intValue).toArray();
+    }
+
+    /**
+     * Decode statistics which were encoded by {@link #encode()}.
+     */
+    public static SimulationStats decode(int[] data)
+    {
+        IntBuffer buffer = IntBuffer.wrap(data);
+        long interval = getLong(buffer);
+        int rounds = buffer.get();
+        long collisionQueries = getLong(buffer);
+        long maxRoundCollisionQueries = getLong(buffer);
+        long collisionTime = getLong(buffer);
+        long renderTime = getLong(buffer);
+        int paints = buffer.get();
+        int paintSkips = buffer.get();
+        int classCount = buffer.get();
+        List<ClassStats> classStats = new ArrayList<>(classCount);
+        for (int i = 0; i < classCount; i++) {
+            int[] name = new int[buffer.get()];
+            buffer.get(name);
+            int acts = buffer.get();
+            long totalTime = getLong(buffer);
+            long maxTime = getLong(buffer);
+            int[] histogram = new int[HISTOGRAM_BUCKETS];
+            buffer.get(histogram);
+            classStats.add(new ClassStats(new String(name, 0, name.length), acts, totalTime, maxTime, histogram));
+        }
+        return new SimulationStats(interval, rounds, classStats, collisionQueries, maxRoundCollisionQueries,
+                collisionTime, renderTime, paints, paintSkips);
+    }
+
+    private static void putLong(List<Integer> data, long value)
+    {
+        data.add((int) (value >> 32));
+        data.add((int) value);
+    }
+
+    private static long getLong(IntBuffer buffer)
+    {
+        long high = buffer.get();
+        long low = buffer.get() & 0xFFFFFFFFL;
+        return (high << 32) | low;
+    }
+
+    /**
+     * The act() statistics for a single class.
+     */
+    @OnThread(Tag.Any)
+    public static class ClassStats
+    {
+        private final String className;
+        private final int acts;
+        private final long totalTime;
+        private final long maxTime;
+        private final int[] histogram;
+
+        /**
+         * Create the statistics for a class.
+         * 
+         * @param className  The name of the class
+         * @param acts  The number of act() calls
+         * @param totalTime  The total time spent in act(), in nanoseconds
+         * @param maxTime  The longest time spent in a single act() call, in nanoseconds
+         * @param histogram  The histogram of act() call durations (see {@link SimulationStats})
+         */
+        public ClassStats(String className, int acts, long totalTime, long maxTime, int[] histogram)
+        {
+            this.className = className;
+            this.acts = acts;
+            this.totalTime = totalTime;
+            this.maxTime = maxTime;
+            this.histogram = histogram.clone();
+        }
+
+        /**
+         * Get the name of the class.
+         */
+        public String getClassName()
+        {
+            return className;
+        }
+
+        /**
+         * Get the number of act() calls.
+         */
+        public int getActs()
+        {
+            return acts;
+        }
+
+        /**
+         * Get the total time spent in act(), in nanoseconds.
+         */
+        public long getTotalTime()
+        {
+            return totalTime;
+        }
+
+        /**
+         * Get the longest time spent in a single act() call, in nanoseconds.
+         */
+        public long getMaxTime()
+        {
+            return maxTime;
+        }
+
+        /**
+         * Get the number of act() calls which fell in the given histogram bucket.
+         */
+        public int getHistogramCount(int bucket)
+        {
+            return histogram[bucket];
+        }
+    }
+}
@@ -60,10 +60,8 @@ public class TextLabel
             dimensions = GraphicsUtilities.getMultiLineStringDimensions(lines, Font.BOLD, 25.0);
         }
         
-        // Position of base line:
-        int ydraw = ypos * cellsize - dimensions.getHeight() / 2 + cellsize / 2;
-        
-        int xdraw = xpos * cellsize - dimensions.getWidth() / 2 + cellsize / 2;
+        int xdraw = getDrawX(cellsize);
+        int ydraw = getDrawY(cellsize);
         
         g.translate(xdraw, ydraw);
         
@@ -72,6 +70,34 @@ public class TextLabel
         g.translate(-xdraw, -ydraw);
     }
     
+    /**
+     * Get the area (in pixels) which this label covers when drawn.
+     * @param cellsize   The world's cell size
+     */
+    public Rectangle getBounds(int cellsize)
+    {
+        if (dimensions == null) {
+            dimensions = GraphicsUtilities.getMultiLineStringDimensions(lines, Font.BOLD, 25.0);
+        }
+        
+        Rectangle bounds = dimensions.getDrawnBounds();
+        bounds.translate(getDrawX(cellsize), getDrawY(cellsize));
+        return bounds;
+    }
+    
+    private int getDrawX(int cellsize)
+    {
+        return xpos * cellsize - dimensions.getWidth() / 2 + cellsize / 2;
+    }
+    
+    /**
+     * Get the position of the base line.
+     */
+    private int getDrawY(int cellsize)
+    {
+        return ypos * cellsize - dimensions.getHeight() / 2 + cellsize / 2;
+    }
+    
     /**
      * Get the X position of this label.
      */
@@ -0,0 +1,42 @@
+/*
+ This file is part of the Greenfoot program.
+ Copyright (C) 2019  Poul Henriksen and Michael Kolling
+
+ This program is free software; you can redistribute it and/or
+ modify it under the terms of the GNU General Public License
+ as published by the Free Software Foundation; either version 2
+ of the License, or (at your option) any later version.
+
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with this program; if not, write to the Free Software
+ Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+
+ This file is subject to the Classpath exception as provided in the
+ LICENSE.txt file that accompanied this code.
+ */
+package greenfoot.event;
+
+import greenfoot.core.SimulationStats;
+import threadchecker.OnThread;
+import threadchecker.Tag;
+
+/**
+ * Listener for the statistics produced while the simulation is being profiled
+ * (see {@link greenfoot.core.Simulation#setProfiling(boolean)}).
+ * 
+ * <p>Statistics are dispatched from the simulation thread, at the end of an
+ * act round, and must be dealt with quickly.
+ */
+public interface SimulationStatsListener
+{
+    /**
+     * New statistics are available, covering the time since the previous ones.
+     */
+    @OnThread(Tag.Simulation)
+    public void simulationStats(SimulationStats stats);
+}
@@ -0,0 +1,568 @@
+/*
+ This file is part of the Greenfoot program.
+ Copyright (C) 2019  Poul Henriksen and Michael Kolling
+
+ This program is free software; you can redistribute it and/or
+ modify it under the terms of the GNU General Public License
+ as published by the Free Software Foundation; either version 2
+ of the License, or (at your option) any later version.
+
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with this program; if not, write to the Free Software
+ Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+
+ This file is subject to the Classpath exception as provided in the
+ LICENSE.txt file that accompanied this code.
+ */
+package greenfoot.export;
+
+import bluej.Config;
+import greenfoot.GreenfootVisitor;
+import greenfoot.World;
+import greenfoot.core.ExportedProjectProperties;
+import greenfoot.core.ImageCache;
+import greenfoot.core.Simulation;
+import greenfoot.core.SimulationReplay;
+import greenfoot.core.WorldHandler;
+import greenfoot.event.SimulationListener;
+import greenfoot.platforms.headless.WorldHandlerDelegateHeadless;
+import greenfoot.platforms.standalone.ActorDelegateStandAlone;
+import greenfoot.platforms.standalone.GreenfootUtilDelegateStandAlone;
+import greenfoot.sound.SoundFactory;
+import greenfoot.util.GreenfootUtil;
+import greenfoot.util.StandalonePropStringManager;
+import threadchecker.OnThread;
+import threadchecker.Tag;
+
+import java.io.BufferedInputStream;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.reflect.Constructor;
+import java.lang.reflect.InvocationTargetException;
+import java.util.Arrays;
+import java.util.Properties;
+import java.util.concurrent.CountDownLatch;
+
+/**
+ * Runs a Greenfoot scenario without any display, as fast as possible, for a
+ * fixed number of act rounds, and then reports how fast it ran. This is meant
+ * for measuring the performance of scenarios (and of Greenfoot itself), for
+ * example to catch performance regressions in automated builds.
+ * 
+ * <p>The scenario classes and resources (and the project.greenfoot file, if
+ * any) must be on the class path, as for an exported scenario. The simulation
+ * runs at maximum speed and nothing is painted, unless rendering is requested.
+ * After the given number of warm-up rounds, the time spent acting and painting
+ * in each act round is recorded, as well as the memory allocated and the
+ * garbage collection activity. Usage:
+ * 
+ * <pre>
+ * java greenfoot.export.GreenfootHeadlessRunner [-acts n] [-warmup n] [-render]
+ *         [-minrate r] [-seed n | -replay file] [worldClass]
+ * </pre>
+ * 
+ * <p>The world class defaults to the main class of the exported scenario. To
+ * make runs repeatable, the random number generator can be seeded, or a run
+ * recorded by the scenario viewer (with -Dgreenfoot.record=file) can be
+ * replayed: the recorded seed and keyboard and mouse input are used, the world
+ * class defaults to the recorded one, and the number of timed acts defaults to
+ * the number of recorded act rounds (less the warm-up rounds). The
+ * exit status is 0 if the run completed, 1 if the world could not be created,
+ * the simulation stopped with an error or no rounds were timed, and 2 if fewer
+ * than the given minimum number of acts per second were run.
+ */
+public class GreenfootHeadlessRunner implements SimulationListener
+{
+    private static final int DEFAULT_ACTS = 1000;
+    private static final int DEFAULT_WARMUP = 100;
+    
+    private final String worldClassName;
+    private final int warmupActs;
+    private final int timedActs;
+    private final boolean render;
+    /** The seed for the random number generator, or null to leave it unseeded */
+    private Long seed;
+    /** The recorded run to replay, or null */
+    private SimulationReplay replay;
+    
+    @OnThread(Tag.Any)
+    private Constructor<?> worldConstructor;
+    private WorldHandlerDelegateHeadless delegate;
+    
+    // The following are only accessed from the simulation thread until the
+    // run has finished (which is signalled via the "finished" latch).
+    
+    /** Act time (excluding painting) of each timed round, in nanoseconds */
+    private final long[] actTimes;
+    /** Paint time of each timed round, in nanoseconds */
+    private final long[] paintTimes;
+    /** Number of act rounds completed, including warm-up rounds */
+    private int rounds;
+    private long roundStart;
+    private long paintTimeAtRoundStart;
+    private long lastRoundEnd;
+    /** Time spent between timed rounds (events, delay loop, queued tasks) */
+    private long betweenRoundsTime;
+    private long runStart;
+    private long runEnd;
+    private long allocatedAtStart;
+    private long allocatedAtEnd;
+    private long gcCountAtStart;
+    private long gcCountAtEnd;
+    private long gcTimeAtStart;
+    private long gcTimeAtEnd;
+    
+    @OnThread(Tag.Any)
+    private volatile boolean started;
+    @OnThread(Tag.Any)
+    private volatile boolean stoppedWithError;
+    @OnThread(Tag.Any)
+    private final CountDownLatch finished = new CountDownLatch(1);
+
+    /**
+     * Create a runner for the given world class.
+     * 
+     * @param worldClassName  The fully qualified name of the world class
+     * @param timedActs  The number of act rounds to time
+     * @param warmupActs  The number of act rounds to run before timing starts
+     * @param render  Whether to render the world after each act round
+     */
+    public GreenfootHeadlessRunner(String worldClassName, int timedActs, int warmupActs, boolean render)
+    {
+        this.worldClassName = worldClassName;
+        this.timedActs = timedActs;
+        this.warmupActs = warmupActs;
+        this.render = render;
+        actTimes = new long[timedActs];
+        paintTimes = new long[timedActs];
+    }
+
+    /**
+     * Seed the random number generator before the world is created, so that
+     * runs are repeatable.
+     */
+    public void setRandomSeed(long seed)
+    {
+        this.seed = seed;
+    }
+
+    /**
+     * Replay a recorded run. The random number generator is seeded from the
+     * recording.
+     */
+    public void setReplay(SimulationReplay replay)
+    {
+        this.replay = replay;
+        this.seed = replay.getSeed();
+    }
+
+    /**
+     * Entry point. See the class description for the arguments.
+     */
+    public static void main(String[] args)
+    {
+        System.setProperty("java.awt.headless", "true");
+        
+        int acts = 0; // 0 until given
+        int warmup = DEFAULT_WARMUP;
+        boolean render = false;
+        double minRate = 0;
+        Long seed = null;
+        String replayFile = null;
+        String worldClassName = null;
+        try {
+            for (int i = 0; i < args.length; i++) {
+                switch (args[i]) {
+                    case "-acts":
+                        acts = Integer.parseInt(args[++i]);
+                        if (acts <= 0) {
+                            throw new IllegalArgumentException();
+                        }
+                        break;
+                    case "-warmup":
+                        warmup = Integer.parseInt(args[++i]);
+                        break;
+                    case "-render":
+                        render = true;
+                        break;
+                    case "-minrate":
+                        minRate = Double.parseDouble(args[++i]);
+                        break;
+                    case "-seed":
+                        seed = Long.parseLong(args[++i]);
+                        break;
+                    case "-replay":
+                        replayFile = args[++i];
+                        break;
+                    default:
+                        if (args[i].startsWith("-") || worldClassName != null) {
+                            throw new IllegalArgumentException(args[i]);
+                        }
+                        worldClassName = args[i];
+                }
+            }
+            if (warmup < 0 || (seed != null && replayFile != null)) {
+                throw new IllegalArgumentException();
+            }
+        }
+        catch (IllegalArgumentException | ArrayIndexOutOfBoundsException e) {
+            System.err.println("Usage: java " + GreenfootHeadlessRunner.class.getName()
+                    + " [-acts n] [-warmup n] [-render] [-minrate r] [-seed n | -replay file] [worldClass]");
+            System.exit(1);
+        }
+
+        SimulationReplay replay = null;
+        if (replayFile != null) {
+            try (InputStream is = new BufferedInputStream(new FileInputStream(replayFile))) {
+                replay = SimulationReplay.read(is);
+            }
+            catch (IOException e) {
+                System.err.println("Could not read recording " + replayFile + ": " + e.getMessage());
+                System.exit(1);
+            }
+            if (worldClassName == null) {
+                worldClassName = replay.getWorldClassName();
+            }
+            if (acts == 0) {
+                acts = Math.max(1, replay.getRoundCount() - warmup);
+            }
+        }
+        if (acts == 0) {
+            acts = DEFAULT_ACTS;
+        }
+
+        initProperties();
+        if (worldClassName == null) {
+            worldClassName = Config.getPropString("main.class", null);
+            if (worldClassName == null) {
+                System.err.println("No world class given, and no main class in standalone.properties");
+                System.exit(1);
+            }
+        }
+        
+        GreenfootHeadlessRunner runner = new GreenfootHeadlessRunner(worldClassName, acts, warmup, render);
+        if (replay != null) {
+            runner.setReplay(replay);
+        }
+        else if (seed != null) {
+            runner.setRandomSeed(seed);
+        }
+        System.exit(runner.run(minRate));
+    }
+
+    /**
+     * Initialize the Greenfoot configuration from the standalone properties
+     * (if present), as for an exported scenario.
+     */
+    private static void initProperties()
+    {
+        Properties p = new Properties();
+        try {
+            ClassLoader loader = GreenfootHeadlessRunner.class.getClassLoader();
+            InputStream is = loader.getResourceAsStream("standalone.properties");
+            if (is != null) {
+                p.load(is);
+                is.close();
+            }
+        }
+        catch (IOException e) {
+            e.printStackTrace();
+        }
+        Config.initializeStandalone(new StandalonePropStringManager(p));
+    }
+
+    /**
+     * Set up the simulation, run the world for the configured number of act
+     * rounds, and print a report to standard output.
+     * 
+     * @param minRate  The minimum acceptable number of acts per second
+     * @return  The exit status (see the class description)
+     */
+    @OnThread(Tag.Any)
+    public int run(double minRate)
+    {
+        GreenfootUtil.initialise(new GreenfootUtilDelegateStandAlone());
+        ExportedProjectProperties properties = new ExportedProjectProperties();
+        ActorDelegateStandAlone.setupAsActorDelegate();
+        ActorDelegateStandAlone.initProperties(properties);
+
+        // We must construct the simulation before the world, as a call to
+        // Greenfoot.setSpeed() requires a call to the simulation instance.
+        Simulation.initialize();
+        delegate = new WorldHandlerDelegateHeadless(this, render);
+        WorldHandler.initialise(delegate);
+        WorldHandler worldHandler = WorldHandler.getInstance();
+        Simulation sim = Simulation.getInstance();
+        sim.attachWorldHandler(worldHandler);
+        SoundFactory.getInstance().setProjectProperties(properties);
+        ImageCache.getInstance().setProjectProperties(properties);
+        sim.addSimulationListener(this);
+        if (seed != null) {
+            GreenfootVisitor.setRandomSeed(seed);
+        }
+        sim.setReplay(replay);
+
+        try {
+            worldConstructor = Class.forName(worldClassName).getConstructor();
+        }
+        catch (ClassNotFoundException | NoSuchMethodException | SecurityException e) {
+            e.printStackTrace();
+            return 1;
+        }
+        World world = instantiateNewWorld();
+        if (world == null) {
+            return 1;
+        }
+        if (!worldHandler.checkWorldSet()) {
+            worldHandler.setWorld(world, false);
+        }
+        
+        // The world may have set its own speed, but we want to run flat out:
+        sim.setSpeed(Simulation.MAX_SIMULATION_SPEED);
+        sim.setPaused(false);
+        
+        try {
+            finished.await();
+        }
+        catch (InterruptedException e) {
+            return 1;
+        }
+        
+        report();
+        sim.abort();
+        
+        if (stoppedWithError || getTimedRounds() == 0) {
+            return 1;
+        }
+        if (getActsPerSecond() < minRate) {
+            System.out.println("FAILED: fewer than " + minRate + " acts per second");
+            return 2;
+        }
+        return 0;
+    }
+
+    /**
+     * Creates a new instance of the world.
+     * 
+     * @return  The new world, or null if it could not be created
+     */
+    @OnThread(Tag.Any)
+    public World instantiateNewWorld()
+    {
+        try {
+            return (World) worldConstructor.newInstance(new Object[]{});
+        }
+        catch (IllegalArgumentException | InstantiationException | IllegalAccessException e) {
+            e.printStackTrace();
+        }
+        catch (InvocationTargetException e) {
+            e.getCause().printStackTrace();
+        }
+        return null;
+    }
+
+    /**
+     * The simulation stopped because of an exception from user code.
+     */
+    @OnThread(Tag.Simulation)
+    public void stoppedWithError()
+    {
+        stoppedWithError = true;
+    }
+
+    @Override
+    @OnThread(Tag.Simulation)
+    public void simulationChangedSync(SyncEvent e)
+    {
+        if (e == SyncEvent.STARTED) {
+            started = true;
+        }
+        else if (e == SyncEvent.NEW_ACT_ROUND) {
+            long now = System.nanoTime();
+            if (rounds == warmupActs) {
+                runStart = now;
+                allocatedAtStart = getAllocatedBytes();
+                gcCountAtStart = getGcCount();
+                gcTimeAtStart = getGcTime();
+            }
+            else if (rounds > warmupActs) {
+                betweenRoundsTime += now - lastRoundEnd;
+            }
+            roundStart = now;
+            paintTimeAtRoundStart = delegate.getPaintTime();
+        }
+        else if (e == SyncEvent.END_ACT_ROUND && finished.getCount() != 0) {
+            long now = System.nanoTime();
+            if (rounds >= warmupActs) {
+                long paintTime = delegate.getPaintTime() - paintTimeAtRoundStart;
+                paintTimes[rounds - warmupActs] = paintTime;
+                actTimes[rounds - warmupActs] = now - roundStart - paintTime;
+            }
+            lastRoundEnd = now;
+            rounds++;
+            if (rounds == warmupActs + timedActs) {
+                finishRun();
+                Simulation.getInstance().setPaused(true);
+            }
+        }
+    }
+
+    @Override
+    @OnThread(Tag.Any)
+    public void simulationChangedAsync(AsyncEvent e)
+    {
+        // If the simulation stops before we have run all the rounds (because
+        // the scenario stopped itself, or because of an error), report what we have:
+        if (e == AsyncEvent.STOPPED && started && finished.getCount() != 0) {
+            finishRun();
+        }
+    }
+
+    /**
+     * Record the final measurements, and signal that the run has finished.
+     */
+    @OnThread(Tag.Any)
+    private synchronized void finishRun()
+    {
+        if (finished.getCount() != 0) {
+            runEnd = lastRoundEnd;
+            allocatedAtEnd = getAllocatedBytes();
+            gcCountAtEnd = getGcCount();
+            gcTimeAtEnd = getGcTime();
+            finished.countDown();
+        }
+    }
+
+    /**
+     * Get the number of timed rounds which were completed.
+     */
+    private int getTimedRounds()
+    {
+        return Math.max(0, rounds - warmupActs);
+    }
+
+    /**
+     * Get the number of timed act rounds per second.
+     */
+    private double getActsPerSecond()
+    {
+        int timed = getTimedRounds();
+        if (timed == 0 || runEnd <= runStart) {
+            return 0;
+        }
+        return timed * 1e9 / (runEnd - runStart);
+    }
+
+    /**
+     * Print the results of the run to standard output.
+     */
+    private synchronized void report()
+    {
+        int timed = getTimedRounds();
+        System.out.println("World: " + worldClassName);
+        if (replay != null) {
+            System.out.println("Replayed: " + replay.getRoundCount() + " recorded rounds, "
+                    + replay.getEventCount() + " input events");
+        }
+        else if (seed != null) {
+            System.out.println("Random seed: " + seed);
+        }
+        System.out.println("Act rounds: " + timed + " (after " + Math.min(rounds, warmupActs) + " warm-up rounds)"
+                + (timed < timedActs ? ", stopped early" : ""));
+        if (timed == 0) {
+            return;
+        }
+        
+        double seconds = (runEnd - runStart) / 1e9;
+        System.out.printf("Acts/second: %.1f%n", getActsPerSecond());
+        printPhase("Act time", Arrays.copyOf(actTimes, timed));
+        if (render) {
+            printPhase("Paint time", Arrays.copyOf(paintTimes, timed));
+        }
+        if (timed > 1) {
+            System.out.printf("Between rounds: mean %.3f ms%n", betweenRoundsTime / 1e6 / (timed - 1));
+        }
+        if (allocatedAtStart >= 0 && allocatedAtEnd >= 0) {
+            long allocated = allocatedAtEnd - allocatedAtStart;
+            System.out.printf("Allocation rate: %.1f MB/s (%.1f KB per round)%n",
+                    allocated / 1e6 / seconds, allocated / 1e3 / timed);
+        }
+        System.out.println("Garbage collection: " + (gcCountAtEnd - gcCountAtStart) + " collections, "
+                + (gcTimeAtEnd - gcTimeAtStart) + " ms");
+    }
+
+    /**
+     * Print the statistics of a phase of the act rounds.
+     * 
+     * @param name  The name of the phase
+     * @param times  The time spent in the phase in each round, in nanoseconds
+     */
+    private static void printPhase(String name, long[] times)
+    {
+        long total = 0;
+        for (long time : times) {
+            total += time;
+        }
+        Arrays.sort(times);
+        System.out.printf("%s: mean %.3f ms, median %.3f ms, 95th percentile %.3f ms, max %.3f ms per round%n",
+                name, total / 1e6 / times.length, times[times.length / 2] / 1e6,
+                times[(int) Math.ceil(times.length * 0.95) - 1] / 1e6, times[times.length - 1] / 1e6);
+    }
+
+    /**
+     * Get the total number of bytes allocated so far by all live threads,
+     * or -1 if this cannot be measured.
+     */
+    @OnThread(Tag.Any)
+    private static long getAllocatedBytes()
+    {
+        java.lang.management.ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+        if (bean instanceof com.sun.management.ThreadMXBean) {
+            com.sun.management.ThreadMXBean sunBean = (com.sun.management.ThreadMXBean) bean;
+            if (sunBean.isThreadAllocatedMemorySupported() && sunBean.isThreadAllocatedMemoryEnabled()) {
+                long total = 0;
+                for (long allocated : sunBean.getThreadAllocatedBytes(sunBean.getAllThreadIds())) {
+                    if (allocated > 0) {
+                        total += allocated;
+                    }
+                }
+                return total;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Get the total number of garbage collections so far.
+     */
+    @OnThread(Tag.Any)
+    private static long getGcCount()
+    {
+        long count = 0;
+        for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans()) {
+            count += Math.max(0, gc.getCollectionCount());
+        }
+        return count;
+    }
+
+    /**
+     * Get the total time spent in garbage collection so far, in milliseconds.
+     */
+    @OnThread(Tag.Any)
+    private static long getGcTime()
+    {
+        long time = 0;
+        for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans()) {
+            time += Math.max(0, gc.getCollectionTime());
+        }
+        return time;
+    }
+}
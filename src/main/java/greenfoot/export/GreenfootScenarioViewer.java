@@ -24,9 +24,12 @@ package greenfoot.export;
 import bluej.Config;
 import bluej.utility.javafx.JavaFXUtil;
 import bluej.utility.javafx.UnfocusableScrollPane;
+import greenfoot.GreenfootVisitor;
 import greenfoot.World;
 import greenfoot.core.ExportedProjectProperties;
+import greenfoot.core.ImageCache;
 import greenfoot.core.Simulation;
+import greenfoot.core.SimulationRecorder;
 import greenfoot.core.WorldHandler;
 import greenfoot.event.SimulationListener;
 import greenfoot.guifx.ControlPanel;
@@ -42,7 +45,9 @@ import greenfoot.util.StandalonePropStringManager;
 import javafx.application.Platform;
 import javafx.scene.control.ScrollPane;
 import javafx.scene.image.Image;
+import javafx.scene.image.PixelFormat;
 import javafx.scene.image.WritableImage;
+import javafx.scene.image.WritablePixelFormat;
 import javafx.scene.input.KeyEvent;
 import javafx.scene.input.MouseButton;
 import javafx.scene.input.MouseEvent;
@@ -53,11 +58,15 @@ import threadchecker.Tag;
 
 import java.awt.image.BufferedImage;
 import java.awt.image.DataBufferInt;
+import java.io.BufferedOutputStream;
+import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.lang.reflect.Constructor;
 import java.lang.reflect.InvocationTargetException;
+import java.nio.IntBuffer;
 import java.util.Properties;
+import java.util.Random;
 import java.util.concurrent.CompletableFuture;
 
 /**
@@ -76,7 +85,13 @@ public class GreenfootScenarioViewer extends BorderPane implements ControlPanelL
     private Constructor<?> worldConstructor;
 
     private final WorldDisplay worldDisplay = new WorldDisplay();
+    /** The JavaFX world images (double-buffered), re-used while the world size is unchanged */
+    private final WritableImage[] fxWorldImages = new WritableImage[2];
+    /** Index in fxWorldImages of the image currently displayed */
+    private int shownFxWorldImage;
     private boolean updatingSliderFromSimulation = false;
+    /** The recorder of the run, if the greenfoot.record property gives a file to record to */
+    private SimulationRecorder recorder;
 
     /**
      * Initialize the project properties.
@@ -137,6 +152,11 @@ public class GreenfootScenarioViewer extends BorderPane implements ControlPanelL
 
             guiSetup(lockScenario, worldClassName);
 
+            String recordFile = System.getProperty("greenfoot.record");
+            if (recordFile != null) {
+                startRecording(recordFile, worldClassName);
+            }
+
             WorldHandler worldHandler = WorldHandler.getInstance();
             Class<?> worldClass = Class.forName(worldClassName);
             worldConstructor = worldClass.getConstructor();
@@ -188,6 +208,29 @@ public class GreenfootScenarioViewer extends BorderPane implements ControlPanelL
         }
     }
 
+    /**
+     * Record the run of the scenario to a file, so that it can be replayed by
+     * GreenfootHeadlessRunner. The random number generator is seeded with a
+     * new seed, which is recorded along with the keyboard and mouse input. The
+     * recording ends when the program exits or the world is reset.
+     *
+     * @param fileName       the file to record to
+     * @param worldClassName the name of the world class
+     */
+    private void startRecording(String fileName, String worldClassName) {
+        long seed = new Random().nextLong();
+        try {
+            recorder = new SimulationRecorder(new BufferedOutputStream(new FileOutputStream(fileName)),
+                    seed, worldClassName);
+        } catch (IOException e) {
+            e.printStackTrace();
+            return;
+        }
+        GreenfootVisitor.setRandomSeed(seed);
+        sim.setRecorder(recorder);
+        Runtime.getRuntime().addShutdownHook(new Thread(recorder::close));
+    }
+
     /**
      * Perform gui setup; this needs to be done on the Event Dispatch Thread.
      *
@@ -206,6 +249,8 @@ public class GreenfootScenarioViewer extends BorderPane implements ControlPanelL
 
         // Make sure the SoundCollection is initialized and listens for events
         sim.addSimulationListener(SoundFactory.getInstance().getSoundCollection());
+        SoundFactory.getInstance().setProjectProperties(properties);
+        ImageCache.getInstance().setProjectProperties(properties);
         sim.addSimulationListener(this);
 
         try {
@@ -256,6 +301,12 @@ public class GreenfootScenarioViewer extends BorderPane implements ControlPanelL
 
     @Override
     public void userReset() {
+        if (recorder != null) {
+            // A recording only covers the run of the initial world:
+            sim.setRecorder(null);
+            recorder.close();
+            recorder = null;
+        }
         Simulation.getInstance().setEnabled(false);
         WorldHandler.getInstance().discardWorld();
         WorldHandler.getInstance().instantiateNewWorld(null);
@@ -280,20 +331,29 @@ public class GreenfootScenarioViewer extends BorderPane implements ControlPanelL
     }
 
     /**
-     * Directly copies a BufferedImage, which is assumed to have ARGB format, into a JavaFX image.
+     * Directly copies a BufferedImage, which is assumed to have ARGB format (premultiplied
+     * or not), into a JavaFX image.  The JavaFX image is whichever of our two world images
+     * is not currently displayed, so it is only valid until the next call.
      *
      * @param worldImage The BufferedImage to copy from.  Must be in ARGB format.
      * @return The JavaFX image with a copy of the BufferedImage
      */
-    private static Image bufferedImageToFX(BufferedImage worldImage) {
-        WritableImage fxImage = new WritableImage(worldImage.getWidth(), worldImage.getHeight());
-        int[] raw = ((DataBufferInt) worldImage.getData().getDataBuffer()).getData();
-        int offset = 0;
-        for (int y = 0; y < worldImage.getHeight(); y++) {
-            for (int x = 0; x < worldImage.getWidth(); x++) {
-                fxImage.getPixelWriter().setArgb(x, y, raw[offset++]);
-            }
+    private Image bufferedImageToFX(BufferedImage worldImage) {
+        int width = worldImage.getWidth();
+        int height = worldImage.getHeight();
+        shownFxWorldImage = 1 - shownFxWorldImage;
+        WritableImage fxImage = fxWorldImages[shownFxWorldImage];
+        if (fxImage == null || (int) fxImage.getWidth() != width || (int) fxImage.getHeight() != height) {
+            fxImage = new WritableImage(width, height);
+            fxWorldImages[shownFxWorldImage] = fxImage;
         }
+        
+        // Copy straight from the image's own pixel array. Premultiplied pixels can be copied
+        // without any conversion, since that is how JavaFX stores them:
+        int[] raw = ((DataBufferInt) worldImage.getRaster().getDataBuffer()).getData();
+        WritablePixelFormat<IntBuffer> format = worldImage.isAlphaPremultiplied()
+                ? PixelFormat.getIntArgbPreInstance() : PixelFormat.getIntArgbInstance();
+        fxImage.getPixelWriter().setPixels(0, 0, width, height, format, raw, 0, width);
         return fxImage;
     }
 
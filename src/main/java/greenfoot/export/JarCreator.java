@@ -1,6 +1,6 @@
 /*
  This file is part of the Greenfoot program. 
- Copyright (C) 2005-2009,2010,2011,2013,2014,2015,2018  Poul Henriksen and Michael Kolling
+ Copyright (C) 2005-2009,2010,2011,2013,2014,2015,2018,2019  Poul Henriksen and Michael Kolling
  
  This program is free software; you can redistribute it and/or 
  modify it under the terms of the GNU General Public License 
@@ -23,7 +23,9 @@ package greenfoot.export;
 
 import bluej.Boot;
 import bluej.Config;
+import bluej.debugmgr.Invoker;
 import bluej.extensions.SourceType;
+import bluej.pkgmgr.PackageApiIndex;
 import bluej.pkgmgr.Project;
 import bluej.utility.BlueJFileReader;
 import bluej.utility.Debug;
@@ -181,6 +183,7 @@ public class JarCreator
         addSkipFile(".ctxt");
         addSkipFile("bluej.pkg");
         addSkipFile("bluej.pkh");   
+        addSkipFile(PackageApiIndex.INDEX_FILE_NAME);
         
         // Exlude +libs. These should be added with the addJar() method.
         addSkipDir(Project.projectLibDirName);
@@ -262,6 +265,7 @@ public class JarCreator
         // skip BlueJ files
         addSkipFile("bluej.pkg");
         addSkipFile("bluej.pkh");   
+        addSkipFile(PackageApiIndex.INDEX_FILE_NAME);
         
         includeSource(true);
     }
@@ -274,6 +278,7 @@ public class JarCreator
         File jarFile = new File(exportDir, jarName);
         File propertiesFile = null;
         File soundFile = null;
+        File imageFile = null;
         OutputStream oStream = null;
         ZipOutputStream jStream = null;
 
@@ -286,7 +291,9 @@ public class JarCreator
                 propertiesFile = new File(projectDir, "standalone.properties");
                 writePropertiesFile(propertiesFile);
                 soundFile = new File(projectDir, "soundindex.list");
-                writeSoundFilesList(soundFile);
+                writeFilesList(soundFile, "sounds");
+                imageFile = new File(projectDir, "imageindex.list");
+                writeFilesList(imageFile, "images");
                 jStream = new JarOutputStream(oStream, manifest);
             }
             else {
@@ -321,21 +328,28 @@ public class JarCreator
         }
     }
 
-    private void writeSoundFilesList(File file)
+    /**
+     * Writes a list of the files in a project directory (such as "sounds"),
+     * one per line, to the given file.
+     */
+    private void writeFilesList(File file, String dirName)
     {
         BufferedWriter os;
         try {
             file.createNewFile();
             os = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(file)));
-            for (String name : new File(projectDir, "sounds").list())
-            {
-                os.write(name + "\n");
+            String[] names = new File(projectDir, dirName).list();
+            if (names != null) {
+                for (String name : names)
+                {
+                    os.write(name + "\n");
+                }
             }
             os.close();
         }
         catch (IOException e)
         {
-            Debug.reportError("Error writing list of sounds: ", e);
+            Debug.reportError("Error writing list of " + dirName + ": ", e);
         }
         
     }
@@ -653,6 +667,10 @@ public class JarCreator
             if (fileName.endsWith(skipFile))
                 return true;            
         }
+
+        // shell classes kept for interactive calls
+        if (fileName.startsWith(Invoker.SHELLNAME))
+            return true;
         
         if (fileName.endsWith(SOURCE_SUFFIX))
             return !includeSource;
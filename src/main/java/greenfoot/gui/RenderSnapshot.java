@@ -0,0 +1,277 @@
+/*
+ This file is part of the Greenfoot program.
+ Copyright (C) 2019  Poul Henriksen and Michael Kolling
+
+ This program is free software; you can redistribute it and/or
+ modify it under the terms of the GNU General Public License
+ as published by the Free Software Foundation; either version 2
+ of the License, or (at your option) any later version.
+
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with this program; if not, write to the Free Software
+ Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+
+ This file is subject to the Classpath exception as provided in the
+ LICENSE.txt file that accompanied this code.
+ */
+package greenfoot.gui;
+
+import greenfoot.Actor;
+import greenfoot.ActorVisitor;
+import greenfoot.GreenfootImage;
+import greenfoot.ImageVisitor;
+import greenfoot.World;
+import greenfoot.WorldVisitor;
+import greenfoot.core.TextLabel;
+import threadchecker.OnThread;
+import threadchecker.Tag;
+
+import java.awt.Color;
+import java.awt.Font;
+import java.awt.Graphics2D;
+import java.awt.Rectangle;
+import java.awt.RenderingHints;
+import java.awt.image.BufferedImage;
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * An immutable record of how a world is to be drawn at one moment: the
+ * background, the image, position, rotation and transparency of each actor
+ * (in paint order), and the text labels. A snapshot is captured on the
+ * simulation thread at the end of an act round, and can then be painted on
+ * another thread while the simulation carries on (see {@link RenderThread}).
+ * 
+ * <p>Capturing a snapshot does not normally copy any pixels: images are
+ * captured with {@link ImageVisitor#getFrozenImage}, so that an image which
+ * is modified afterwards is copied at that point instead.
+ */
+@OnThread(Tag.Any)
+public class RenderSnapshot
+{
+    private static final Color BACKGROUND = Color.WHITE;
+    
+    /** The world the snapshot was taken of; only used for comparing snapshots. */
+    private final Object world;
+    private final int width;
+    private final int height;
+    private final BufferedImage background;
+    private final int backgroundTransparency;
+    /** The actors' images, in paint order */
+    private final Sprite[] sprites;
+    private final List<TextLabel> labels;
+    private final int cellSize;
+    
+    private RenderSnapshot(World world, BufferedImage background, int backgroundTransparency,
+            Sprite[] sprites, List<TextLabel> labels)
+    {
+        this.world = world;
+        this.width = WorldVisitor.getWidthInPixels(world);
+        this.height = WorldVisitor.getHeightInPixels(world);
+        this.background = background;
+        this.backgroundTransparency = backgroundTransparency;
+        this.sprites = sprites;
+        this.labels = labels;
+        this.cellSize = WorldVisitor.getCellSize(world);
+    }
+    
+    /**
+     * Capture a snapshot of the world as it is now.
+     */
+    @OnThread(Tag.Simulation)
+    public static RenderSnapshot capture(World world)
+    {
+        int cellSize = WorldVisitor.getCellSize(world);
+        Set<Actor> objects = WorldVisitor.getObjectsListInPaintOrder(world);
+        List<Sprite> sprites = new ArrayList<Sprite>(objects.size());
+        int paintSeq = 0;
+        for (Actor thing : objects) {
+            GreenfootImage image = ActorVisitor.getDisplayImage(thing);
+            if (image == null) {
+                continue;
+            }
+            
+            int ax;
+            int ay;
+            try {
+                ax = ActorVisitor.getX(thing);
+                ay = ActorVisitor.getY(thing);
+            }
+            catch (IllegalStateException e) {
+                // The object has been removed from the world
+                continue;
+            }
+            ActorVisitor.setLastPaintSeqNum(thing, paintSeq++);
+            sprites.add(new Sprite(thing, ImageVisitor.getFrozenImage(image), image.getTransparency(),
+                    ax * cellSize + cellSize / 2., ay * cellSize + cellSize / 2.,
+                    ActorVisitor.getRotation(thing)));
+        }
+        
+        GreenfootImage backgroundImage = WorldVisitor.getBackgroundImage(world);
+        BufferedImage background = null;
+        int backgroundTransparency = 255;
+        if (backgroundImage != null) {
+            background = ImageVisitor.getFrozenImage(backgroundImage);
+            backgroundTransparency = backgroundImage.getTransparency();
+        }
+        
+        return new RenderSnapshot(world, background, backgroundTransparency,
+                sprites.toArray(new Sprite[sprites.size()]),
+                new ArrayList<TextLabel>(WorldVisitor.getTextLabels(world)));
+    }
+    
+    /**
+     * Get the width of the world image, in pixels.
+     */
+    public int getWidth()
+    {
+        return width;
+    }
+    
+    /**
+     * Get the height of the world image, in pixels.
+     */
+    public int getHeight()
+    {
+        return height;
+    }
+    
+    /**
+     * Paint the whole world image.
+     */
+    public void paint(Graphics2D g)
+    {
+        Color oldColor = g.getColor();
+        g.setColor(BACKGROUND);
+        g.fillRect(0, 0, width, height);
+        g.setColor(oldColor);
+        if (background != null) {
+            ImageVisitor.drawFrozenImage(g, background, backgroundTransparency,
+                    background.getWidth() / 2., background.getHeight() / 2., 0);
+        }
+        
+        for (Sprite sprite : sprites) {
+            ImageVisitor.drawFrozenImage(g, sprite.image, sprite.transparency,
+                    sprite.xCenter, sprite.yCenter, sprite.rotation);
+        }
+        
+        if (! labels.isEmpty()) {
+            Font origFont = g.getFont();
+            Object origAntiAliasing = g.getRenderingHint(RenderingHints.KEY_ANTIALIASING);
+            for (TextLabel label : labels) {
+                label.draw(g, cellSize);
+            }
+            g.setFont(origFont);
+            g.setRenderingHint(RenderingHints.KEY_ANTIALIASING, origAntiAliasing);
+            g.setColor(oldColor);
+        }
+    }
+    
+    /**
+     * Get the regions of the world image (in pixels) which differ between
+     * this snapshot and an earlier one. The regions do not overlap. If the
+     * snapshots are of different worlds, or differ in much of the image,
+     * there is a single region covering the whole image.
+     * 
+     * @param previous  The earlier snapshot (if null, the whole image differs)
+     */
+    public List<Rectangle> getDamage(RenderSnapshot previous)
+    {
+        List<Rectangle> damage = new ArrayList<Rectangle>();
+        if (previous == null || previous.world != world || previous.width != width
+                || previous.height != height || previous.background != background
+                || previous.backgroundTransparency != backgroundTransparency) {
+            damage.add(new Rectangle(0, 0, width, height));
+            return damage;
+        }
+        
+        Map<Object, Integer> previousIndex = new IdentityHashMap<Object, Integer>();
+        for (int i = 0; i < previous.sprites.length; i++) {
+            previousIndex.put(previous.sprites[i].actor, i);
+        }
+        
+        int lastIndex = -1;
+        for (Sprite sprite : sprites) {
+            Integer index = previousIndex.remove(sprite.actor);
+            if (index == null) {
+                damage.add(new Rectangle(sprite.bounds));
+                continue;
+            }
+            if (index < lastIndex) {
+                // The paint order has changed; don't try to work out the effect:
+                damage.clear();
+                damage.add(new Rectangle(0, 0, width, height));
+                return damage;
+            }
+            lastIndex = index;
+            Sprite old = previous.sprites[index];
+            if (old.image != sprite.image || old.transparency != sprite.transparency
+                    || old.xCenter != sprite.xCenter || old.yCenter != sprite.yCenter
+                    || old.rotation != sprite.rotation) {
+                damage.add(new Rectangle(old.bounds));
+                damage.add(new Rectangle(sprite.bounds));
+            }
+        }
+        // Anything left has gone:
+        for (int index : previousIndex.values()) {
+            damage.add(new Rectangle(previous.sprites[index].bounds));
+        }
+        
+        // Labels are immutable, so compare by identity:
+        if (! labels.equals(previous.labels)) {
+            for (TextLabel label : previous.labels) {
+                if (! labels.contains(label)) {
+                    damage.add(label.getBounds(cellSize));
+                }
+            }
+            for (TextLabel label : labels) {
+                if (! previous.labels.contains(label)) {
+                    damage.add(label.getBounds(cellSize));
+                }
+            }
+        }
+        
+        if (! WorldRenderer.mergeRegions(damage, width, height)) {
+            damage.clear();
+            damage.add(new Rectangle(0, 0, width, height));
+        }
+        return damage;
+    }
+    
+    /**
+     * How one actor is to be drawn.
+     */
+    @OnThread(Tag.Any)
+    private static class Sprite
+    {
+        /** The actor; only used for comparing snapshots. */
+        final Object actor;
+        final BufferedImage image;
+        final int transparency;
+        final double xCenter;
+        final double yCenter;
+        final int rotation;
+        /** The area covered, in pixels */
+        final Rectangle bounds;
+        
+        Sprite(Actor actor, BufferedImage image, int transparency, double xCenter, double yCenter, int rotation)
+        {
+            this.actor = actor;
+            this.image = image;
+            this.transparency = transparency;
+            this.xCenter = xCenter;
+            this.yCenter = yCenter;
+            this.rotation = rotation;
+            this.bounds = WorldRenderer.getPaintBounds(image.getWidth(), image.getHeight(),
+                    xCenter, yCenter, rotation);
+        }
+    }
+}
@@ -0,0 +1,131 @@
+/*
+ This file is part of the Greenfoot program.
+ Copyright (C) 2019  Poul Henriksen and Michael Kolling
+
+ This program is free software; you can redistribute it and/or
+ modify it under the terms of the GNU General Public License
+ as published by the Free Software Foundation; either version 2
+ of the License, or (at your option) any later version.
+
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with this program; if not, write to the Free Software
+ Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+
+ This file is subject to the Classpath exception as provided in the
+ LICENSE.txt file that accompanied this code.
+ */
+package greenfoot.gui;
+
+import bluej.utility.Debug;
+import threadchecker.OnThread;
+import threadchecker.Tag;
+
+import java.awt.Rectangle;
+import java.util.List;
+
+/**
+ * A thread which paints world images from {@link RenderSnapshot}s, so that
+ * the world can be rendered while the simulation carries on. Snapshots are
+ * handed over one at a time: if a snapshot is submitted before the previous
+ * one has been painted, the previous one is dropped.
+ */
+@OnThread(Tag.Any)
+public class RenderThread extends Thread
+{
+    /**
+     * Something which paints a frame from a snapshot (and shows it).
+     */
+    public static interface FramePainter
+    {
+        /**
+         * Paint a frame.
+         * 
+         * @param snapshot  The snapshot to paint
+         * @param damage    The regions (in pixels) which have changed since
+         *                  the previous frame painted by this thread
+         */
+        @OnThread(Tag.Worker)
+        public void paintFrame(RenderSnapshot snapshot, List<Rectangle> damage);
+    }
+    
+    private final FramePainter painter;
+    /** The snapshot waiting to be painted, or null */
+    private RenderSnapshot pending;
+    /** Whether the next frame must be treated as changed everywhere */
+    private boolean discarded;
+    
+    /**
+     * Create a render thread (which must then be started).
+     */
+    public RenderThread(String name, FramePainter painter)
+    {
+        super(name);
+        this.painter = painter;
+        setDaemon(true);
+    }
+    
+    /**
+     * Submit a snapshot to be painted.
+     * 
+     * @return  true if the previously submitted snapshot had not yet been painted,
+     *          and has been dropped.
+     */
+    public synchronized boolean submit(RenderSnapshot snapshot)
+    {
+        boolean dropped = pending != null;
+        pending = snapshot;
+        notifyAll();
+        return dropped;
+    }
+    
+    /**
+     * Drop the submitted snapshot if it has not been painted yet. This is used
+     * when the world is painted by some other means; the next frame painted by
+     * this thread is then treated as changed everywhere.
+     */
+    public synchronized void discard()
+    {
+        pending = null;
+        discarded = true;
+    }
+    
+    @Override
+    @OnThread(value = Tag.Worker, ignoreParent = true)
+    public void run()
+    {
+        RenderSnapshot lastPainted = null;
+        while (true) {
+            RenderSnapshot snapshot;
+            synchronized (this) {
+                while (pending == null) {
+                    try {
+                        wait();
+                    }
+                    catch (InterruptedException e) {
+                        return;
+                    }
+                }
+                snapshot = pending;
+                pending = null;
+                if (discarded) {
+                    lastPainted = null;
+                    discarded = false;
+                }
+            }
+            
+            try {
+                painter.paintFrame(snapshot, snapshot.getDamage(lastPainted));
+                lastPainted = snapshot;
+            }
+            catch (RuntimeException e) {
+                Debug.reportError("Error while painting the world", e);
+                lastPainted = null;
+            }
+        }
+    }
+}
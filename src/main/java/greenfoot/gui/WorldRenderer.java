@@ -29,27 +29,65 @@ import threadchecker.Tag;
 import java.awt.Color;
 import java.awt.Font;
 import java.awt.*;
-import java.awt.geom.AffineTransform;
 import java.awt.image.BufferedImage;
+import java.awt.image.ColorModel;
+import java.awt.image.WritableRaster;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
 import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
 
 /**
  * A class which handles the rendering of a World into a BufferedImage, including
  * handling the currently-dragging actor (if any).
+ * 
+ * <p>If the world has incremental rendering enabled, the renderer remembers
+ * where each actor was painted, and on the next frame repaints only the
+ * regions which have changed (the "damage"). Several images may be rendered
+ * into in turn (for double buffering); the damage since each image was last
+ * rendered into is remembered separately. It is assumed that nothing else
+ * draws on the images; if something does, {@link #forgetPaintState()} must
+ * be called before the next render.
  */
 @OnThread(Tag.Simulation)
 public class WorldRenderer
 {
     private static final Color BACKGROUND = Color.WHITE;
     
+    /** If there are more damaged regions than this, they are merged into one */
+    private static final int MAX_DAMAGE_RECTS = 64;
+    
+    /** The maximum number of images for which pending damage is tracked */
+    private static final int MAX_BUFFERS = 4;
+    
     /** The actor being dragged. Null if no dragging. */
     private Actor dragActor;
     /** The current location where the object is dragged - in pixel coordinates relative to this canvas. */
     private Point dragLocation;
     /** Image used when dragging new actors on the world. Includes the drop shadow.*/
     private BufferedImage dragImage;
+    
+    /** The regions of the world which changed in the last render */
+    private final List<Rectangle> damage = new ArrayList<Rectangle>();
+    
+    // State of the last incremental render:
+    private World lastWorld;
+    private GreenfootImage lastBackground;
+    private int lastBackgroundModCount;
+    private int lastPaintOrderVersion;
+    private List<TextLabel> lastLabels = new ArrayList<TextLabel>();
+    /** Where (and how) each actor was last painted */
+    private final Map<Actor, PaintRecord> paintRecords = new IdentityHashMap<Actor, PaintRecord>();
+    /** The records of the painted actors, in paint order */
+    private final List<PaintRecord> paintedActors = new ArrayList<PaintRecord>();
+    private int frame;
+    /** The images rendered into, with their damage since they were last rendered into */
+    private final List<BufferState> buffers = new ArrayList<BufferState>();
+    /** Image into which damaged regions are painted before being copied */
+    private BufferedImage scratchImage;
 
     @OnThread(Tag.Any)
     public WorldRenderer()
@@ -68,19 +106,386 @@ public class WorldRenderer
     public void renderWorld(World drawWorld, BufferedImage worldImage)
     {
         Graphics2D g2 = (Graphics2D)worldImage.getGraphics();
+        damage.clear();
         
         if (drawWorld == null)
         {
+            forgetPaintState();
             g2.setColor(BACKGROUND);
             g2.fillRect(0, 0, worldImage.getWidth(), worldImage.getHeight());
+            damage.add(new Rectangle(0, 0, worldImage.getWidth(), worldImage.getHeight()));
         }
-        else
+        else if (! WorldVisitor.isIncrementalRendering(drawWorld))
         {
+            forgetPaintState();
             paintBackground(g2, drawWorld, worldImage.getWidth(), worldImage.getHeight());
             paintObjects(g2, drawWorld);
             paintDraggedObject(g2, drawWorld);
             WorldVisitor.paintDebug(drawWorld, g2);
             paintWorldText(g2, drawWorld);
+            damage.add(new Rectangle(0, 0, worldImage.getWidth(), worldImage.getHeight()));
+        }
+        else
+        {
+            renderIncrementally(g2, drawWorld, worldImage);
+        }
+        g2.dispose();
+    }
+    
+    /**
+     * Get the regions of the world (in pixels) which changed in the last call
+     * to renderWorld, relative to the frame rendered before it (regardless of
+     * which image that was rendered into). The regions do not overlap. After a
+     * full repaint, there is a single region covering the whole image; if
+     * nothing changed, there are none. The returned list is only valid until
+     * the next render.
+     */
+    public List<Rectangle> getDamage()
+    {
+        return Collections.unmodifiableList(damage);
+    }
+    
+    /**
+     * Forget the state of the last incremental render, so that the next
+     * incremental render repaints everything (and reports the whole image
+     * as damaged).
+     */
+    public void forgetPaintState()
+    {
+        lastWorld = null;
+        lastBackground = null;
+        buffers.clear();
+        scratchImage = null;
+        lastLabels.clear();
+        paintRecords.clear();
+        paintedActors.clear();
+    }
+    
+    /**
+     * Render the world, repainting only the regions which have changed since
+     * the image was last rendered into (if possible).
+     */
+    private void renderIncrementally(Graphics2D g, World drawWorld, BufferedImage worldImage)
+    {
+        int width = worldImage.getWidth();
+        int height = worldImage.getHeight();
+        GreenfootImage background = WorldVisitor.getBackgroundImage(drawWorld);
+        int backgroundModCount = (background == null) ? 0 : ImageVisitor.getModCount(background);
+        int paintOrderVersion = WorldVisitor.getPaintOrderVersion(drawWorld);
+        
+        boolean full = drawWorld != lastWorld || background != lastBackground
+                || backgroundModCount != lastBackgroundModCount
+                || paintOrderVersion != lastPaintOrderVersion || dragImage != null;
+        if (drawWorld != lastWorld) {
+            paintRecords.clear();
+            buffers.clear();
+        }
+        
+        lastWorld = drawWorld;
+        lastBackground = background;
+        lastBackgroundModCount = backgroundModCount;
+        lastPaintOrderVersion = paintOrderVersion;
+        
+        updatePaintRecords(drawWorld);
+        updateLabels(drawWorld);
+        
+        if (full || ! mergeRegions(damage, width, height)) {
+            full = true;
+            damage.clear();
+            damage.add(new Rectangle(0, 0, width, height));
+        }
+        
+        // Work out what needs repainting in this image, and add the damage to
+        // the other images:
+        BufferState target = getBufferState(worldImage);
+        for (BufferState buffer : buffers) {
+            if (buffer == target) {
+                continue;
+            }
+            if (full) {
+                buffer.setFull();
+            }
+            else {
+                for (Rectangle region : damage) {
+                    buffer.pending.add(new Rectangle(region));
+                }
+                if (buffer.pending.size() > MAX_DAMAGE_RECTS && ! mergeRegions(buffer.pending, width, height)) {
+                    buffer.setFull();
+                }
+            }
+        }
+        
+        if (! full && ! target.full) {
+            for (Rectangle region : damage) {
+                target.pending.add(new Rectangle(region));
+            }
+            if (mergeRegions(target.pending, width, height)) {
+                for (Rectangle region : target.pending) {
+                    repaintRegion(drawWorld, worldImage, region);
+                }
+                target.pending.clear();
+                return;
+            }
+        }
+        
+        paintBackground(g, drawWorld, width, height);
+        paintRecordedObjects(g, null);
+        paintDraggedObject(g, drawWorld);
+        WorldVisitor.paintDebug(drawWorld, g);
+        paintWorldText(g, drawWorld);
+        target.full = false;
+        target.pending.clear();
+    }
+    
+    /**
+     * Get the buffer state for an image, creating it (as needing a full repaint)
+     * if the image is new.
+     */
+    private BufferState getBufferState(BufferedImage image)
+    {
+        for (BufferState buffer : buffers) {
+            if (buffer.image == image) {
+                return buffer;
+            }
+        }
+        if (buffers.size() == MAX_BUFFERS) {
+            buffers.remove(0);
+        }
+        BufferState buffer = new BufferState(image);
+        buffers.add(buffer);
+        return buffer;
+    }
+    
+    /**
+     * Repaint a region of the world image. The region is painted into a
+     * scratch image of the same size, from which it is then copied.
+     * 
+     * <p>Which pixels of a rotated image Java2D samples depends on the clip, so
+     * to get exactly the same result as a full repaint, rotated actors are
+     * painted without a clip; the scratch image keeps that from affecting
+     * the world image outside the region.
+     */
+    private void repaintRegion(World drawWorld, BufferedImage worldImage, Rectangle region)
+    {
+        int width = worldImage.getWidth();
+        int height = worldImage.getHeight();
+        
+        if (scratchImage == null || scratchImage.getWidth() != width
+                || scratchImage.getHeight() != height
+                || ! scratchImage.getColorModel().equals(worldImage.getColorModel())) {
+            ColorModel colorModel = worldImage.getColorModel();
+            scratchImage = new BufferedImage(colorModel,
+                    colorModel.createCompatibleWritableRaster(width, height),
+                    colorModel.isAlphaPremultiplied(), null);
+        }
+        
+        // Start from the existing contents, as a full paint would:
+        WritableRaster scratchRaster = scratchImage.getRaster();
+        scratchRaster.setRect(worldImage.getRaster().createChild(region.x, region.y,
+                region.width, region.height, region.x, region.y, null));
+        
+        Graphics2D g = scratchImage.createGraphics();
+        g.setClip(region);
+        paintBackground(g, drawWorld, width, height);
+        paintRecordedObjects(g, region);
+        WorldVisitor.paintDebug(drawWorld, g);
+        paintWorldText(g, drawWorld);
+        g.dispose();
+        
+        worldImage.getRaster().setRect(scratchRaster.createChild(region.x, region.y,
+                region.width, region.height, region.x, region.y, null));
+    }
+    
+    /**
+     * Update the paint records for all actors in the world, in paint order,
+     * adding the regions where actors have changed to the damage list.
+     */
+    private void updatePaintRecords(World drawWorld)
+    {
+        frame++;
+        paintedActors.clear();
+        int cellSize = WorldVisitor.getCellSize(drawWorld);
+        
+        Set<Actor> objects = WorldVisitor.getObjectsListInPaintOrder(drawWorld);
+        int paintSeq = 0;
+        for (Actor thing : objects) {
+            GreenfootImage image = ActorVisitor.getDisplayImage(thing);
+            if (image == null) {
+                continue;
+            }
+            
+            int ax;
+            int ay;
+            try {
+                ax = ActorVisitor.getX(thing);
+                ay = ActorVisitor.getY(thing);
+            }
+            catch (IllegalStateException e) {
+                // The object has been removed from the world (see paintObjects)
+                continue;
+            }
+            int rotation = ActorVisitor.getRotation(thing);
+            int modCount = ImageVisitor.getModCount(image);
+            ActorVisitor.setLastPaintSeqNum(thing, paintSeq++);
+            
+            PaintRecord record = paintRecords.get(thing);
+            if (record == null) {
+                record = new PaintRecord(thing);
+                paintRecords.put(thing, record);
+                record.update(image, modCount, ax, ay, rotation, cellSize);
+                addDamage(record);
+            }
+            else if (record.image != image || record.modCount != modCount || record.x != ax
+                    || record.y != ay || record.rotation != rotation) {
+                addDamage(record);
+                record.update(image, modCount, ax, ay, rotation, cellSize);
+                addDamage(record);
+            }
+            record.frame = frame;
+            paintedActors.add(record);
+        }
+        
+        // Anything not painted this time must be erased:
+        for (Iterator<PaintRecord> i = paintRecords.values().iterator(); i.hasNext(); ) {
+            PaintRecord record = i.next();
+            if (record.frame != frame) {
+                addDamage(record);
+                i.remove();
+            }
+        }
+    }
+    
+    /**
+     * Add the regions covered by changed text labels to the damage list.
+     */
+    private void updateLabels(World drawWorld)
+    {
+        List<TextLabel> labels = WorldVisitor.getTextLabels(drawWorld);
+        if (labels.equals(lastLabels)) {
+            return;
+        }
+        
+        // Labels are immutable, so compare by identity:
+        int cellSize = WorldVisitor.getCellSize(drawWorld);
+        for (TextLabel label : lastLabels) {
+            if (! labels.contains(label)) {
+                damage.add(label.getBounds(cellSize));
+            }
+        }
+        for (TextLabel label : labels) {
+            if (! lastLabels.contains(label)) {
+                damage.add(label.getBounds(cellSize));
+            }
+        }
+        lastLabels = new ArrayList<TextLabel>(labels);
+    }
+    
+    private void addDamage(PaintRecord record)
+    {
+        damage.add(new Rectangle(record.left, record.top,
+                record.right - record.left, record.bottom - record.top));
+    }
+    
+    /**
+     * Get the area (in pixels) covered by an image of the given size, painted
+     * centred on the given point as an actor's image is painted.
+     */
+    static Rectangle getPaintBounds(int width, int height, double xCenter, double yCenter, int rotation)
+    {
+        double halfWidth = width / 2.;
+        double halfHeight = height / 2.;
+        if (rotation == 0) {
+            // Same as when painting:
+            return new Rectangle((int) Math.floor(xCenter - halfWidth),
+                    (int) Math.floor(yCenter - halfHeight), width, height);
+        }
+        else {
+            // Bounds of the rotated image, with a margin for rounding
+            double radians = Math.toRadians(rotation);
+            double cos = Math.abs(Math.cos(radians));
+            double sin = Math.abs(Math.sin(radians));
+            double xExtent = halfWidth * cos + halfHeight * sin;
+            double yExtent = halfWidth * sin + halfHeight * cos;
+            int left = (int) Math.floor(xCenter - xExtent) - 2;
+            int top = (int) Math.floor(yCenter - yExtent) - 2;
+            int right = (int) Math.ceil(xCenter + xExtent) + 2;
+            int bottom = (int) Math.ceil(yCenter + yExtent) + 2;
+            return new Rectangle(left, top, right - left, bottom - top);
+        }
+    }
+    
+    /**
+     * Clip a list of regions to the image, and merge overlapping regions.
+     * Returns false if the regions cover so much of the image that it should
+     * be repainted in full.
+     */
+    static boolean mergeRegions(List<Rectangle> regions, int width, int height)
+    {
+        Rectangle imageBounds = new Rectangle(0, 0, width, height);
+        for (Iterator<Rectangle> i = regions.iterator(); i.hasNext(); ) {
+            Rectangle region = i.next();
+            Rectangle.intersect(region, imageBounds, region);
+            if (region.isEmpty()) {
+                i.remove();
+            }
+        }
+        
+        boolean merged = true;
+        while (merged) {
+            merged = false;
+            for (int i = 0; i < regions.size(); i++) {
+                Rectangle region = regions.get(i);
+                for (int j = regions.size() - 1; j > i; j--) {
+                    if (region.intersects(regions.get(j))) {
+                        region.add(regions.remove(j));
+                        merged = true;
+                    }
+                }
+            }
+        }
+        
+        if (regions.size() > MAX_DAMAGE_RECTS) {
+            Rectangle union = regions.get(0);
+            for (int i = 1; i < regions.size(); i++) {
+                union.add(regions.get(i));
+            }
+            regions.clear();
+            regions.add(union);
+        }
+        
+        long area = 0;
+        for (Rectangle region : regions) {
+            area += (long) region.width * region.height;
+        }
+        return area * 2 < (long) width * height;
+    }
+    
+    /**
+     * Paint the actors recorded during the last update, in paint order.
+     * 
+     * @param region  The region to paint; only actors overlapping it are painted.
+     *                If null, all actors are painted.
+     */
+    private void paintRecordedObjects(Graphics2D g, Rectangle region)
+    {
+        int cellSize = WorldVisitor.getCellSize(lastWorld);
+        for (PaintRecord record : paintedActors) {
+            if (region == null) {
+                paintActor(g, record.actor, record.image, cellSize);
+            }
+            else if (record.right > region.x && record.left < region.x + region.width
+                    && record.bottom > region.y && record.top < region.y + region.height) {
+                if (record.rotation != 0) {
+                    // Paint unclipped (see repaintRegion)
+                    Shape clip = g.getClip();
+                    g.setClip(null);
+                    paintActor(g, record.actor, record.image, cellSize);
+                    g.setClip(clip);
+                }
+                else {
+                    paintActor(g, record.actor, record.image, cellSize);
+                }
+            }
         }
     }
 
@@ -104,41 +509,41 @@ public class WorldRenderer
             GreenfootImage image = ActorVisitor.getDisplayImage(thing);
             if (image != null) {
                 ActorVisitor.setLastPaintSeqNum(thing, paintSeq++);
+                paintActor(g, thing, image, cellSize);
+            }
+        }
+    }
+    
+    /**
+     * Paint a single actor, with the given image.
+     */
+    private void paintActor(Graphics2D g, Actor thing, GreenfootImage image, int cellSize)
+    {
+        double halfWidth = image.getWidth() / 2.;
+        double halfHeight = image.getHeight() / 2.;
 
-                double halfWidth = image.getWidth() / 2.;
-                double halfHeight = image.getHeight() / 2.;
-
-                AffineTransform oldTx = null;
-                try {
-                    int ax = ActorVisitor.getX(thing);
-                    int ay = ActorVisitor.getY(thing);
-                    double xCenter = ax * cellSize + cellSize / 2.;
-                    int paintX = (int) Math.floor(xCenter - halfWidth);
-                    double yCenter = ay * cellSize + cellSize / 2.;
-                    int paintY = (int) Math.floor(yCenter - halfHeight);
-
-                    int rotation = ActorVisitor.getRotation(thing);
-                    if (rotation != 0) {
-                        // don't bother transforming if it is not rotated at
-                        // all.
-                        oldTx = g.getTransform();
-                        g.rotate(Math.toRadians(rotation), xCenter, yCenter);
-                    }
-
-                    ImageVisitor.drawImage(image, g, paintX, paintY, null, true);
-                }
-                catch (IllegalStateException e) {
-                    // We get this if the object has been removed from the
-                    // world. That can happen when interactively invoking a
-                    // method that removes an object from the world, while the
-                    // scenario is executing.
-                }
+        try {
+            int ax = ActorVisitor.getX(thing);
+            int ay = ActorVisitor.getY(thing);
+            double xCenter = ax * cellSize + cellSize / 2.;
+            int paintX = (int) Math.floor(xCenter - halfWidth);
+            double yCenter = ay * cellSize + cellSize / 2.;
+            int paintY = (int) Math.floor(yCenter - halfHeight);
 
-                // Restore the old state of the graphics
-                if (oldTx != null) {
-                    g.setTransform(oldTx);
-                }
+            int rotation = ActorVisitor.getRotation(thing);
+            if (rotation != 0) {
+                // Uses a cached pre-rotated image where possible:
+                ImageVisitor.drawRotated(image, g, xCenter, yCenter, rotation, true);
             }
+            else {
+                ImageVisitor.drawImage(image, g, paintX, paintY, null, true);
+            }
+        }
+        catch (IllegalStateException e) {
+            // We get this if the object has been removed from the
+            // world. That can happen when interactively invoking a
+            // method that removes an object from the world, while the
+            // scenario is executing.
         }
     }
 
@@ -208,4 +613,72 @@ public class WorldRenderer
             g.drawImage(dragImage, x, y, null);
         }
     }
+    
+    /**
+     * An image which has been rendered into, and the regions which have
+     * changed since.
+     */
+    private static class BufferState
+    {
+        final BufferedImage image;
+        final List<Rectangle> pending = new ArrayList<Rectangle>();
+        /** Whether the whole image must be repainted */
+        boolean full = true;
+        
+        BufferState(BufferedImage image)
+        {
+            this.image = image;
+        }
+        
+        void setFull()
+        {
+            full = true;
+            pending.clear();
+        }
+    }
+    
+    /**
+     * A record of how, and where, an actor was last painted.
+     */
+    private static class PaintRecord
+    {
+        final Actor actor;
+        GreenfootImage image;
+        int modCount;
+        int x;
+        int y;
+        int rotation;
+        /** The last frame in which the actor was painted */
+        int frame;
+        
+        /** Bounds of the painted area, in pixels (right and bottom exclusive) */
+        int left;
+        int top;
+        int right;
+        int bottom;
+        
+        PaintRecord(Actor actor)
+        {
+            this.actor = actor;
+        }
+        
+        /**
+         * Record the actor's current state, and calculate the area it covers.
+         */
+        void update(GreenfootImage image, int modCount, int x, int y, int rotation, int cellSize)
+        {
+            this.image = image;
+            this.modCount = modCount;
+            this.x = x;
+            this.y = y;
+            this.rotation = rotation;
+            
+            Rectangle bounds = getPaintBounds(image.getWidth(), image.getHeight(),
+                    x * cellSize + cellSize / 2., y * cellSize + cellSize / 2., rotation);
+            left = bounds.x;
+            top = bounds.y;
+            right = bounds.x + bounds.width;
+            bottom = bounds.y + bounds.height;
+        }
+    }
 }
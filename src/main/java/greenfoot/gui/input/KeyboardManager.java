@@ -21,6 +21,8 @@
  */
 package greenfoot.gui.input;
 
+import greenfoot.core.SimulationRecorder;
+import greenfoot.vmcomm.Command;
 import javafx.scene.input.KeyCode;
 import threadchecker.OnThread;
 import threadchecker.Tag;
@@ -58,6 +60,9 @@ public class KeyboardManager
 
     /** Do we think that a numlock key is present? */
     private boolean hasNumLock = true;
+
+    /** The recorder of key events, or null if the simulation is not being recorded */
+    private volatile SimulationRecorder recorder;
     
     /**
      * Constructor for a KeyboardManager. Key events must be delivered
@@ -66,6 +71,16 @@ public class KeyboardManager
     public KeyboardManager()
     {        
     }
+
+    /**
+     * Set the recorder which key events are recorded to.
+     * 
+     * @param recorder  The recorder, or null to stop recording
+     */
+    public void setRecorder(SimulationRecorder recorder)
+    {
+        this.recorder = recorder;
+    }
     
     /**
      * Clear the latched state of keys which were down, but are no longer
@@ -123,6 +138,12 @@ public class KeyboardManager
      */
     public synchronized void keyPressed(KeyCode keyCode, String keyText)
     {
+        SimulationRecorder recorder = this.recorder;
+        if (recorder != null && recorder.recordKeyEvent(Command.KEY_DOWN, keyCode, keyText))
+        {
+            // Handled when the next act round starts, as it is when replayed:
+            return;
+        }
         String keyName = getKeyName(keyCode, keyText);
         keyLatched.add(keyName);
         keyDown.add(keyName);
@@ -135,6 +156,12 @@ public class KeyboardManager
      */
     public synchronized void keyReleased(KeyCode keyCode, String keyText)
     {
+        SimulationRecorder recorder = this.recorder;
+        if (recorder != null && recorder.recordKeyEvent(Command.KEY_UP, keyCode, keyText))
+        {
+            // Handled when the next act round starts, as it is when replayed:
+            return;
+        }
         String keyName = getKeyName(keyCode, keyText);
         keyDown.remove(keyName);
         lastKeyTyped = keyName;
@@ -262,6 +289,12 @@ public class KeyboardManager
      */
     public synchronized void keyTyped(KeyCode keyCode, String keyText)
     {
+        SimulationRecorder recorder = this.recorder;
+        if (recorder != null && recorder.recordKeyEvent(Command.KEY_TYPED, keyCode, keyText))
+        {
+            // Handled when the next act round starts, as it is when replayed:
+            return;
+        }
         String keyName = getKeyName(keyCode, keyText);
         if (!keyName.isEmpty() && !keyName.equals("undefined"))
         {
@@ -276,6 +309,12 @@ public class KeyboardManager
      */
     public void focusLost()
     {
+        SimulationRecorder recorder = this.recorder;
+        if (recorder != null && recorder.recordFocusLost())
+        {
+            // Handled when the next act round starts, as it is when replayed:
+            return;
+        }
         releaseAllKeys();
     }
 
@@ -22,6 +22,8 @@
 package greenfoot.gui.input.mouse;
 
 import greenfoot.MouseInfo;
+import greenfoot.core.SimulationRecorder;
+import greenfoot.vmcomm.Command;
 import javafx.scene.input.MouseButton;
 import threadchecker.OnThread;
 import threadchecker.Tag;
@@ -136,6 +138,11 @@ public class MousePollingManager
      */
     private boolean gotNewEvent;
     private boolean gotNewDragStartEvent;
+
+    /**
+     * The recorder of mouse events, or null if the simulation is not being recorded.
+     */
+    private volatile SimulationRecorder recorder;
     
 
     /**
@@ -153,6 +160,17 @@ public class MousePollingManager
         this.locator = locator;
     }
     
+    /**
+     * Set the recorder which mouse events are recorded to.
+     * 
+     * @param recorder  The recorder, or null to stop recording
+     */
+    @OnThread(Tag.Any)
+    public void setRecorder(SimulationRecorder recorder)
+    {
+        this.recorder = recorder;
+    }
+    
     /**
      * Set the locator to be used by this mouse polling manager.
      */
@@ -341,6 +359,13 @@ public class MousePollingManager
     @OnThread(Tag.Any)
     public void mouseClicked(int x, int y, MouseButton button, int clickCount)
     {
+        SimulationRecorder recorder = this.recorder;
+        if (recorder != null && recorder.recordMouseEvent(Command.MOUSE_CLICKED, x, y, button, clickCount))
+        {
+            // Handled when the next act round starts, as it is when replayed:
+            return;
+        }
+        
         if (locator == null)
         {
             return;
@@ -392,6 +417,13 @@ public class MousePollingManager
     @OnThread(Tag.Any)
     public synchronized void mouseExited()
     {
+        SimulationRecorder recorder = this.recorder;
+        if (recorder != null && recorder.recordMouseEvent(Command.MOUSE_EXITED, 0, 0, null, 0))
+        {
+            // Handled when the next act round starts, as it is when replayed:
+            return;
+        }
+        
         futureData.mouseExited();
         registerEventRecieved();
     }
@@ -405,6 +437,13 @@ public class MousePollingManager
     @OnThread(Tag.Any)
     public void mousePressed(int x, int y, MouseButton button)
     {
+        SimulationRecorder recorder = this.recorder;
+        if (recorder != null && recorder.recordMouseEvent(Command.MOUSE_PRESSED, x, y, button, 0))
+        {
+            // Handled when the next act round starts, as it is when replayed:
+            return;
+        }
+        
         if (locator == null)
         {
             return;
@@ -447,6 +486,13 @@ public class MousePollingManager
     @OnThread(Tag.Any)
     public void mouseReleased(int x, int y, MouseButton button)
     {
+        SimulationRecorder recorder = this.recorder;
+        if (recorder != null && recorder.recordMouseEvent(Command.MOUSE_RELEASED, x, y, button, 0))
+        {
+            // Handled when the next act round starts, as it is when replayed:
+            return;
+        }
+        
         if (locator == null)
         {
             return;
@@ -490,6 +536,13 @@ public class MousePollingManager
     @OnThread(Tag.Any)
     public void mouseDragged(int x, int y, MouseButton button)
     {
+        SimulationRecorder recorder = this.recorder;
+        if (recorder != null && recorder.recordMouseEvent(Command.MOUSE_DRAGGED, x, y, button, 0))
+        {
+            // Handled when the next act round starts, as it is when replayed:
+            return;
+        }
+        
         if (locator == null)
         {
             return;
@@ -520,6 +573,13 @@ public class MousePollingManager
     @OnThread(Tag.Any)
     public void mouseMoved(int x, int y)
     {
+        SimulationRecorder recorder = this.recorder;
+        if (recorder != null && recorder.recordMouseEvent(Command.MOUSE_MOVED, x, y, null, 0))
+        {
+            // Handled when the next act round starts, as it is when replayed:
+            return;
+        }
+        
         if (locator == null)
         {
             // Not fully initialised yet, so no need to handle event:
@@ -55,6 +55,7 @@ import bluej.views.CallableView;
 import bluej.views.ConstructorView;
 import bluej.views.MethodView;
 import greenfoot.core.ProjectManager;
+import greenfoot.core.SimulationStats;
 import greenfoot.export.ScenarioSaver;
 import greenfoot.export.mygame.ScenarioInfo;
 import greenfoot.guifx.ControlPanel.ControlPanelListener;
@@ -94,6 +95,7 @@ import javafx.scene.effect.DropShadow;
 import javafx.scene.image.Image;
 import javafx.scene.image.ImageView;
 import javafx.scene.image.PixelFormat;
+import javafx.scene.image.PixelWriter;
 import javafx.scene.image.WritableImage;
 import javafx.scene.input.*;
 import javafx.scene.layout.BorderPane;
@@ -199,6 +201,8 @@ public class GreenfootStage extends Stage implements FXCompileObserver,
     private GreenfootDebugHandler debugHandler;
     private final Menu recentProjectsMenu = new Menu(Config.getString("menu.openRecent"));
     private final SimpleBooleanProperty showingDebugger = new SimpleBooleanProperty(false);
+    private final SimpleBooleanProperty showingPerformance = new SimpleBooleanProperty(false);
+    private final PerformanceOverlay performanceOverlay = new PerformanceOverlay();
 
     // The current active world. This will be set either by properties when opening
     // a scenario, or by calling a world constructor through the context menu.
@@ -333,7 +337,7 @@ public class GreenfootStage extends Stage implements FXCompileObserver,
         worldViewScroll.getStyleClass().add("world-display-scroll");
         JavaFXUtil.expandScrollPaneContent(worldViewScroll);
         worldViewScroll.visibleProperty().bind(worldVisible);
-        StackPane worldPane = new StackPane(backgroundMessage, worldViewScroll, hungMessage);
+        StackPane worldPane = new StackPane(backgroundMessage, worldViewScroll, hungMessage, performanceOverlay);
         ImageView shareIcon = new ImageView(new Image(
                 Objects.requireNonNull(getClass().getClassLoader().getResourceAsStream("export-publish.png"))));
         shareIcon.setPreserveRatio(true);
@@ -406,6 +410,9 @@ public class GreenfootStage extends Stage implements FXCompileObserver,
         project.getUnnamedPackage().addCompileObserver(this);
         greenfootDebugHandler.setPickListener(this::pickResults);
         greenfootDebugHandler.setSimulationListener(this);
+        if (showingPerformance.get()) {
+            greenfootDebugHandler.getVmComms().setProfiling(true);
+        }
         showingDebugger.bindBidirectional(project.debuggerShowing());
 
         classDiagram.setProject(project);
@@ -940,6 +947,9 @@ public class GreenfootStage extends Stage implements FXCompileObserver,
             );
         }
 
+        CheckMenuItem performanceItem = JavaFXUtil.makeCheckMenuItem(Config.getString("menu.performanceOverlay"),
+                showingPerformance, null, this::togglePerformanceOverlay);
+        performanceItem.disableProperty().bind(hasNoProject);
         Menu toolsMenu = new Menu(Config.getString("menu.tools"), null);
         toolsMenu.getItems().addAll(
                 JavaFXUtil.makeMenuItem(Config.getString("save.world"), () -> {
@@ -964,6 +974,7 @@ public class GreenfootStage extends Stage implements FXCompileObserver,
                 JavaFXUtil.makeCheckMenuItem(Config.getString("menu.debugger"),
                         showingDebugger,
                         new KeyCodeCombination(KeyCode.B, KeyCombination.SHORTCUT_DOWN)),
+                performanceItem,
                 JavaFXUtil.makeMenuItem("set.player",
                         new KeyCodeCombination(KeyCode.P, KeyCombination.SHORTCUT_DOWN, KeyCombination.SHIFT_DOWN),
                         this::setPlayer, hasNoProject)
@@ -1031,6 +1042,16 @@ public class GreenfootStage extends Stage implements FXCompileObserver,
         }
     }
 
+    /**
+     * Show or hide the performance overlay, turning profiling in the debug VM on or off to match.
+     */
+    private void togglePerformanceOverlay(Boolean showing) {
+        performanceOverlay.setVisible(showing);
+        if (debugHandler != null) {
+            debugHandler.getVmComms().setProfiling(showing);
+        }
+    }
+
     /**
      * Generates the Documentation for the current scenario
      */
@@ -1391,6 +1412,46 @@ public class GreenfootStage extends Stage implements FXCompileObserver,
         }
     }
 
+    /**
+     * The changed tiles of a world image have been received from the remote VM. The tiles
+     * are drawn over the previously received image.
+     *
+     * @param width  The image width
+     * @param height The image height
+     * @param buffer The buffer containing the tile count, followed by the tiles
+     *               (see VMCommsSimulation for the format)
+     * @return true if the tiles were applied, or false if there is no image of the right
+     *         size to apply them to.
+     */
+    public boolean receivedWorldTiles(int width, int height, IntBuffer buffer) {
+        if (project == null || worldImg == null || worldImg.getWidth() != width
+                || worldImg.getHeight() != height) {
+            return false;
+        }
+
+        int tileSize = VMCommsMain.IMAGE_TILE_SIZE;
+        int columns = (width + tileSize - 1) / tileSize;
+        PixelWriter pixelWriter = worldImg.getPixelWriter();
+        try {
+            int tileCount = buffer.get();
+            for (int i = 0; i < tileCount; i++) {
+                int tile = buffer.get();
+                int x = (tile % columns) * tileSize;
+                int y = (tile / columns) * tileSize;
+                int tileWidth = Math.min(tileSize, width - x);
+                int tileHeight = Math.min(tileSize, height - y);
+                int pixelsStart = buffer.position();
+                pixelWriter.setPixels(x, y, tileWidth, tileHeight, PixelFormat.getIntArgbInstance(),
+                        buffer, tileWidth);
+                buffer.position(pixelsStart + tileWidth * tileHeight);
+            }
+        } catch (IndexOutOfBoundsException ex) {
+            Debug.reportError("Error receiving world (world image probably too large)");
+            return false;
+        }
+        return true;
+    }
+
     /**
      * When processing messages from the remote VM, we discovered the world has changed.
      *
@@ -2376,6 +2437,15 @@ public class GreenfootStage extends Stage implements FXCompileObserver,
         settingSpeedFromSimulation = false;
     }
 
+    /**
+     * Called with the latest statistics gathered while the simulation is being profiled.
+     *
+     * @param stats The statistics we received from the debug VM
+     */
+    public void receivedSimulationStats(SimulationStats stats) {
+        performanceOverlay.showStats(stats);
+    }
+
     /**
      * Show the readme file for this project in an editor window.
      */
@@ -0,0 +1,134 @@
+/*
+ This file is part of the Greenfoot program.
+ Copyright (C) 2019  Poul Henriksen and Michael Kolling
+
+ This program is free software; you can redistribute it and/or
+ modify it under the terms of the GNU General Public License
+ as published by the Free Software Foundation; either version 2
+ of the License, or (at your option) any later version.
+
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with this program; if not, write to the Free Software
+ Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+
+ This file is subject to the Classpath exception as provided in the
+ LICENSE.txt file that accompanied this code.
+ */
+package greenfoot.guifx;
+
+import bluej.Config;
+import greenfoot.core.SimulationStats;
+import greenfoot.core.SimulationStats.ClassStats;
+import javafx.geometry.Pos;
+import javafx.scene.control.Label;
+import javafx.scene.layout.StackPane;
+import threadchecker.OnThread;
+import threadchecker.Tag;
+
+import java.util.List;
+
+/**
+ * An overlay shown on top of the world while the simulation is being profiled. It shows the
+ * most recent statistics received from the debug VM: act rounds per second, time spent painting,
+ * collision queries, and the classes whose act() methods took the most time, each with a
+ * histogram of act() times.
+ */
+@OnThread(Tag.FXPlatform)
+public class PerformanceOverlay extends Label
+{
+    // The number of classes to show, in order of total act() time:
+    private static final int MAX_CLASSES = 8;
+    // Characters used to draw histogram bars, in increasing height:
+    private static final char[] BARS = {' ', '▁', '▂', '▃', '▄', '▅', '▆', '▇', '█'};
+
+    /**
+     * Create a (hidden) performance overlay.
+     */
+    public PerformanceOverlay()
+    {
+        getStyleClass().add("performance-overlay");
+        StackPane.setAlignment(this, Pos.TOP_LEFT);
+        setMouseTransparent(true);
+        setVisible(false);
+        // Don't take part in layout while hidden:
+        managedProperty().bind(visibleProperty());
+        setText(Config.getString("performanceOverlay.waiting"));
+    }
+
+    /**
+     * Show the given statistics.
+     */
+    public void showStats(SimulationStats stats)
+    {
+        StringBuilder text = new StringBuilder();
+        int rounds = Math.max(1, stats.getRounds());
+        text.append(Config.getString("performanceOverlay.actRounds")).append(' ')
+                .append(String.format("%.1f/s", stats.getRoundsPerSecond())).append('\n');
+
+        int paints = stats.getPaints();
+        text.append(Config.getString("performanceOverlay.paint")).append(' ')
+                .append(formatTime(paints == 0 ? 0 : stats.getRenderTime() / paints))
+                .append(String.format(" (%d/%d)", paints, paints + stats.getPaintSkips())).append('\n');
+
+        long queries = stats.getCollisionQueries();
+        text.append(Config.getString("performanceOverlay.collisions")).append(' ')
+                .append(String.format("%.1f (max %d)", (double) queries / rounds, stats.getMaxRoundCollisionQueries()))
+                .append(", ").append(formatTime(queries == 0 ? 0 : stats.getCollisionTime() / queries)).append('\n');
+
+        List<ClassStats> classStats = stats.getClassStats();
+        for (int i = 0; i < classStats.size() && i < MAX_CLASSES; i++)
+        {
+            ClassStats cs = classStats.get(i);
+            text.append('\n').append(histogram(cs)).append(' ')
+                    .append(formatTime(cs.getTotalTime() / rounds)).append(' ')
+                    .append(cs.getClassName());
+        }
+
+        setText(text.toString());
+    }
+
+    /**
+     * Make a histogram of a class's act() times, as a string with one bar character per bucket.
+     */
+    private static String histogram(ClassStats cs)
+    {
+        int max = 0;
+        for (int i = 0; i < SimulationStats.HISTOGRAM_BUCKETS; i++)
+        {
+            max = Math.max(max, cs.getHistogramCount(i));
+        }
+        char[] chars = new char[SimulationStats.HISTOGRAM_BUCKETS];
+        for (int i = 0; i < chars.length; i++)
+        {
+            int count = cs.getHistogramCount(i);
+            // Any non-zero count shows at least the lowest bar:
+            int height = count == 0 ? 0 : 1 + (int)((long) count * (BARS.length - 2) / max);
+            chars[i] = BARS[height];
+        }
+        return new String(chars);
+    }
+
+    /**
+     * Format a time given in nanoseconds, in whichever of ns, µs or ms is appropriate.
+     */
+    private static String formatTime(long nanos)
+    {
+        if (nanos < 1000)
+        {
+            return nanos + "ns";
+        }
+        else if (nanos < 1000000)
+        {
+            return String.format("%.1fµs", nanos / 1000.0);
+        }
+        else
+        {
+            return String.format("%.1fms", nanos / 1000000.0);
+        }
+    }
+}
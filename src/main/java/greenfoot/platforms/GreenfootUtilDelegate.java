@@ -57,6 +57,14 @@ public interface GreenfootUtilDelegate
      */
     @OnThread(Tag.Any)
     public Iterable<String> getSoundFiles();
+    
+    /**
+     * Gets a list of image files (as plain names, e.g. "foo.png") that
+     * accompany this scenario, in the same way as {@link #getSoundFiles()}.
+     * The same caveats apply: the list may be empty or inaccurate.
+     */
+    @OnThread(Tag.Any)
+    public Iterable<String> getImageFiles();
 
     /**
      * Get the project-relative path of the Greenfoot logo.
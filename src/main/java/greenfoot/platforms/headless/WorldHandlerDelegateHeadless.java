@@ -0,0 +1,200 @@
+/*
+ This file is part of the Greenfoot program.
+ Copyright (C) 2019  Poul Henriksen and Michael Kolling
+
+ This program is free software; you can redistribute it and/or
+ modify it under the terms of the GNU General Public License
+ as published by the Free Software Foundation; either version 2
+ of the License, or (at your option) any later version.
+
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with this program; if not, write to the Free Software
+ Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+
+ This file is subject to the Classpath exception as provided in the
+ LICENSE.txt file that accompanied this code.
+ */
+package greenfoot.platforms.headless;
+
+import greenfoot.Actor;
+import greenfoot.World;
+import greenfoot.WorldVisitor;
+import greenfoot.core.Simulation;
+import greenfoot.core.SimulationProfiler;
+import greenfoot.core.WorldHandler;
+import greenfoot.export.GreenfootHeadlessRunner;
+import greenfoot.gui.RenderSnapshot;
+import greenfoot.gui.RenderThread;
+import greenfoot.gui.WorldRenderer;
+import greenfoot.platforms.WorldHandlerDelegate;
+import threadchecker.OnThread;
+import threadchecker.Tag;
+
+import java.awt.Graphics2D;
+import java.awt.Rectangle;
+import java.awt.image.BufferedImage;
+import java.util.List;
+
+
+/**
+ * Implementation for running scenarios without any display, as used by the
+ * headless runner. Painting does nothing, unless rendering has been requested,
+ * in which case the world is rendered into an off-screen image which is never
+ * shown. The time spent painting (on the simulation thread) is recorded so that
+ * it can be reported separately from the time spent acting.
+ */
+@OnThread(Tag.Simulation)
+public class WorldHandlerDelegateHeadless implements WorldHandlerDelegate
+{
+    @OnThread(Tag.Any)
+    private final GreenfootHeadlessRunner runner;
+    private final WorldRenderer worldRenderer;
+    private BufferedImage worldImage;
+    // The thread rendering snapshots of worlds with asynchronous rendering, and the image it renders into:
+    private RenderThread renderThread;
+    @OnThread(Tag.Worker)
+    private BufferedImage asyncImage;
+    
+    // Total time spent painting, in nanoseconds, and number of paints
+    private long paintTime;
+    private int paintCount;
+
+    /**
+     * Create a headless delegate.
+     * 
+     * @param runner   The runner, used to instantiate new worlds and to report errors
+     * @param render   Whether to render the world on each paint (otherwise painting
+     *                 does nothing)
+     */
+    @OnThread(Tag.Any)
+    public WorldHandlerDelegateHeadless(GreenfootHeadlessRunner runner, boolean render)
+    {
+        this.runner = runner;
+        this.worldRenderer = render ? new WorldRenderer() : null;
+    }
+
+    @Override
+    @OnThread(Tag.Any)
+    public void setWorld(final World oldWorld, final World newWorld)
+    {
+    }
+    
+    @Override
+    @OnThread(Tag.Any)
+    public void instantiateNewWorld(String className, Runnable runIfError)
+    {
+        WorldHandler.getInstance().clearWorldSet();
+        World newWorld = runner.instantiateNewWorld();
+        if (newWorld == null) {
+            runIfError.run();
+        }
+        else if (! WorldHandler.getInstance().checkWorldSet()) {
+            WorldHandler.getInstance().setWorld(newWorld, false);
+        }
+    }
+
+    @Override
+    @OnThread(Tag.Any)
+    public void discardWorld(World world)
+    {
+        // Nothing to be done
+    }
+
+    @Override
+    public void objectAddedToWorld(Actor actor)
+    {
+    }
+
+    @Override
+    public String ask(String prompt)
+    {
+        // There is nobody to answer, and we must not block:
+        return "";
+    }
+
+    @Override
+    public void paint(World world, boolean forcePaint)
+    {
+        if (world == null || worldRenderer == null) {
+            return;
+        }
+        
+        long start = System.nanoTime();
+        SimulationProfiler profiler = Simulation.getInstance().getProfiler();
+        if (WorldVisitor.isAsyncRendering(world)) {
+            // Only the capture is done on this thread, so only that is counted as painting:
+            if (renderThread == null) {
+                renderThread = new RenderThread("Greenfoot render", this::paintFrame);
+                renderThread.start();
+            }
+            if (renderThread.submit(RenderSnapshot.capture(world)) && profiler != null) {
+                profiler.paintSkipped();
+            }
+            paintTime += System.nanoTime() - start;
+            paintCount++;
+            return;
+        }
+        
+        int imageWidth = WorldVisitor.getWidthInPixels(world);
+        int imageHeight = WorldVisitor.getHeightInPixels(world);
+        if (worldImage == null || worldImage.getHeight() != imageHeight
+                || worldImage.getWidth() != imageWidth) {
+            worldImage = new BufferedImage(imageWidth, imageHeight, BufferedImage.TYPE_INT_ARGB_PRE);
+        }
+        worldRenderer.renderWorld(world, worldImage);
+        long time = System.nanoTime() - start;
+        paintTime += time;
+        paintCount++;
+        if (profiler != null) {
+            profiler.worldPainted(time);
+        }
+    }
+    
+    /**
+     * Paint a frame from a snapshot of the world. Called on the render thread,
+     * when the world is rendered asynchronously.
+     */
+    @OnThread(Tag.Worker)
+    private void paintFrame(RenderSnapshot snapshot, List<Rectangle> damage)
+    {
+        long start = System.nanoTime();
+        if (asyncImage == null || asyncImage.getHeight() != snapshot.getHeight()
+                || asyncImage.getWidth() != snapshot.getWidth()) {
+            asyncImage = new BufferedImage(snapshot.getWidth(), snapshot.getHeight(), BufferedImage.TYPE_INT_ARGB_PRE);
+        }
+        Graphics2D g = asyncImage.createGraphics();
+        snapshot.paint(g);
+        g.dispose();
+        SimulationProfiler profiler = Simulation.getInstance().getProfiler();
+        if (profiler != null) {
+            profiler.worldPainted(System.nanoTime() - start);
+        }
+    }
+
+    @Override
+    public void notifyStoppedWithError()
+    {
+        runner.stoppedWithError();
+    }
+
+    /**
+     * Get the total time spent painting so far, in nanoseconds.
+     */
+    public long getPaintTime()
+    {
+        return paintTime;
+    }
+
+    /**
+     * Get the number of times the world has been painted so far.
+     */
+    public int getPaintCount()
+    {
+        return paintCount;
+    }
+}
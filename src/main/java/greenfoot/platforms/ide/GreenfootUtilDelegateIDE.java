@@ -77,11 +77,27 @@ public class GreenfootUtilDelegateIDE implements GreenfootUtilDelegate
     @Override
     @OnThread(Tag.Any)
     public Iterable<String> getSoundFiles()
+    {
+        return getFilesInDir("sounds");
+    }
+    
+    @Override
+    @OnThread(Tag.Any)
+    public Iterable<String> getImageFiles()
+    {
+        return getFilesInDir("images");
+    }
+    
+    /**
+     * List the files in a directory of the project.
+     */
+    @OnThread(Tag.Any)
+    private List<String> getFilesInDir(String dir)
     {
         ArrayList<String> files = new ArrayList<>();
         try
         {
-            URL url = getResource("sounds");
+            URL url = getResource(dir);
             if (url != null && "file".equals(url.getProtocol()))
             {
                 for (String file : new File(url.toURI()).list())
@@ -116,7 +116,23 @@ public class GreenfootUtilDelegateStandAlone implements GreenfootUtilDelegate
     @OnThread(Tag.Any)
     public Iterable<String> getSoundFiles()
     {
-        InputStream is = this.getClass().getClassLoader().getResourceAsStream("soundindex.list");
+        return readIndex("soundindex.list");
+    }
+    
+    @Override
+    @OnThread(Tag.Any)
+    public Iterable<String> getImageFiles()
+    {
+        return readIndex("imageindex.list");
+    }
+    
+    /**
+     * Read a list of files (one per line) from a resource written at export.
+     */
+    @OnThread(Tag.Any)
+    private List<String> readIndex(String indexName)
+    {
+        InputStream is = this.getClass().getClassLoader().getResourceAsStream(indexName);
         ArrayList<String> r = new ArrayList<String>();
         
         if (is != null)
@@ -24,16 +24,23 @@ package greenfoot.platforms.standalone;
 import greenfoot.Actor;
 import greenfoot.World;
 import greenfoot.WorldVisitor;
+import greenfoot.core.Simulation;
+import greenfoot.core.SimulationProfiler;
 import greenfoot.core.WorldHandler;
 import greenfoot.export.GreenfootScenarioViewer;
+import greenfoot.gui.RenderSnapshot;
+import greenfoot.gui.RenderThread;
 import greenfoot.gui.WorldRenderer;
 import greenfoot.platforms.WorldHandlerDelegate;
 import javafx.animation.AnimationTimer;
 import threadchecker.OnThread;
 import threadchecker.Tag;
 
+import java.awt.Graphics2D;
+import java.awt.Rectangle;
 import java.awt.event.MouseEvent;
 import java.awt.image.BufferedImage;
+import java.util.List;
 import java.util.concurrent.ConcurrentLinkedQueue;
 import java.util.concurrent.atomic.AtomicReference;
 
@@ -50,6 +57,12 @@ public class WorldHandlerDelegateStandAlone implements WorldHandlerDelegate
     private final GreenfootScenarioViewer viewer;
     private boolean lockScenario;
     private final WorldRenderer worldRenderer = new WorldRenderer();
+    // The thread rendering snapshots of worlds with asynchronous rendering; created when first needed
+    @OnThread(Tag.Any)
+    private volatile RenderThread renderThread;
+    // Whether the render thread has drawn into an image since worldRenderer last did
+    @OnThread(Tag.Any)
+    private volatile boolean asyncFramePainted;
     // Time last frame was painted, from System.nanoTime
     private long lastFramePaint;
     
@@ -121,6 +134,10 @@ public class WorldHandlerDelegateStandAlone implements WorldHandlerDelegate
     @OnThread(Tag.Any)
     public void discardWorld(World world)
     {
+        if (renderThread != null)
+        {
+            renderThread.discard();
+        }
         // Remove the current world image:
         BufferedImage image = pendingImage.getAndSet(null);
         if (image != null)
@@ -153,24 +170,99 @@ public class WorldHandlerDelegateStandAlone implements WorldHandlerDelegate
             return;
         
         long now = System.nanoTime();
+        SimulationProfiler profiler = Simulation.getInstance().getProfiler();
         // Don't try to go above 100 FPS:
         if (now - lastFramePaint < 10_000_000L)
+        {
+            if (profiler != null)
+            {
+                profiler.paintSkipped();
+            }
             return;
+        }
         lastFramePaint = now;
         
+        if (WorldVisitor.isAsyncRendering(world))
+        {
+            // Just capture what is to be drawn; the render thread will draw it:
+            if (renderThread == null)
+            {
+                renderThread = new RenderThread("Greenfoot render", this::paintFrame);
+                renderThread.start();
+            }
+            if (renderThread.submit(RenderSnapshot.capture(world)) && profiler != null)
+            {
+                profiler.paintSkipped();
+            }
+            return;
+        }
+        if (renderThread != null)
+        {
+            renderThread.discard();
+        }
+        if (asyncFramePainted)
+        {
+            // The pooled images no longer hold what worldRenderer last drew in them:
+            asyncFramePainted = false;
+            worldRenderer.forgetPaintState();
+        }
+        
         int imageWidth = WorldVisitor.getWidthInPixels(world);
         int imageHeight = WorldVisitor.getHeightInPixels(world);
-
+        BufferedImage worldImage = getImageToDraw(imageWidth, imageHeight);
+        worldRenderer.renderWorld(world, worldImage);
+        if (profiler != null)
+        {
+            profiler.worldPainted(System.nanoTime() - now);
+        }
+        imageDrawn(worldImage);
+    }
+    
+    /**
+     * Paint a frame from a snapshot of the world. Called on the render thread,
+     * when the world is rendered asynchronously.
+     */
+    @OnThread(Tag.Worker)
+    private void paintFrame(RenderSnapshot snapshot, List<Rectangle> damage)
+    {
+        long start = System.nanoTime();
+        BufferedImage worldImage = getImageToDraw(snapshot.getWidth(), snapshot.getHeight());
+        Graphics2D g = worldImage.createGraphics();
+        snapshot.paint(g);
+        g.dispose();
+        SimulationProfiler profiler = Simulation.getInstance().getProfiler();
+        if (profiler != null)
+        {
+            profiler.worldPainted(System.nanoTime() - start);
+        }
+        asyncFramePainted = true;
+        imageDrawn(worldImage);
+    }
+    
+    /**
+     * Get an image to draw the world into, re-using an old image if possible.
+     */
+    @OnThread(Tag.Any)
+    private BufferedImage getImageToDraw(int imageWidth, int imageHeight)
+    {
         BufferedImage worldImage = oldImages.poll();
         // Re-use the image if it's available and the right size,
-        // otherwise discard it and make a new one of right size:
+        // otherwise discard it and make a new one of right size.
+        // (Premultiplied pixels can be handed to JavaFX without conversion.)
         if (worldImage == null || worldImage.getHeight() != imageHeight
                 || worldImage.getWidth() != imageWidth)
         {
-            worldImage = new BufferedImage(imageWidth, imageHeight, BufferedImage.TYPE_INT_ARGB);
+            worldImage = new BufferedImage(imageWidth, imageHeight, BufferedImage.TYPE_INT_ARGB_PRE);
         }
-
-        worldRenderer.renderWorld(world, worldImage);
+        return worldImage;
+    }
+    
+    /**
+     * A world image has been drawn; make it the next one to be shown.
+     */
+    @OnThread(Tag.Any)
+    private void imageDrawn(BufferedImage worldImage)
+    {
         // Set the latest world image as pending, and get the old one to
         // keep for re-use:
         BufferedImage oldImage = pendingImage.getAndSet(worldImage);
@@ -25,72 +25,277 @@ import javax.sound.sampled.AudioFormat;
 import javax.sound.sampled.AudioInputStream;
 import javax.sound.sampled.AudioSystem;
 import javax.sound.sampled.UnsupportedAudioFileException;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
 import java.io.IOException;
+import java.io.RandomAccessFile;
 import java.net.URL;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.Iterator;
 import java.util.LinkedHashMap;
 import java.util.Map;
+import java.util.Set;
 
 /**
  * A cache for soundclip data.
  * 
+ * <p>Clips are loaded without holding the cache's lock, so that several clips
+ * can be loaded at once (and a clip which is needed now is not held up by one
+ * that is being preloaded). A clip is only loaded once even if requested by
+ * several threads at the same time.
+ * 
+ * <p>The cache is limited by the total size of the sample data it holds
+ * rather than by the number of clips. Clips which are in use are never
+ * evicted; when the budget is exceeded, the least recently used clips which
+ * are not in use are discarded until the cache fits again.
+ * 
  * @author Davin McCall
  */
 public class ClipCache
 {
-    /** Data for clips that aren't currently in use */
-    private LinkedHashMap<String,ClipData> freeClips = new LinkedHashMap<String,ClipData>();
-    private int numberFreeClips = 0;
+    /**
+     * Where decoded sample data is held.
+     */
+    public static enum Storage
+    {
+        /** In byte arrays on the Java heap. */
+        HEAP,
+        /** In direct (off-heap) buffers. */
+        DIRECT,
+        /** In temporary files mapped into memory. */
+        MAPPED
+    }
     
-    private static int MAX_CACHED_CLIPS = 20;
+    /** The default limit on the size of cached sample data, in bytes. */
+    public static final long DEFAULT_BUDGET = 32 * 1024 * 1024;
+    
+    /** Data for clips that aren't currently in use, least recently used first */
+    private LinkedHashMap<String,ClipData> freeClips = new LinkedHashMap<String,ClipData>();
     
     /** Data for clips that are in use */
     private Map<String,ClipData> cachedClips = new HashMap<String,ClipData>();
     
-    public synchronized ClipData getCachedClip(URL url)
+    /** URLs of clips which are currently being loaded */
+    private Set<String> loadingClips = new HashSet<String>();
+    
+    /** The limit on the total size of cached sample data, in bytes */
+    private long budget = DEFAULT_BUDGET;
+    /** The total size of cached sample data (in use or free), in bytes */
+    private long cachedBytes;
+    
+    private volatile Storage storage = Storage.HEAP;
+    
+    private long hits;
+    private long misses;
+    private long evictions;
+    
+    /**
+     * Set the limit on the total size of cached sample data. Clips which are
+     * in use are kept regardless, so the limit may be exceeded while they
+     * are playing.
+     * 
+     * @param budget  The limit, in bytes
+     */
+    public synchronized void setBudget(long budget)
+    {
+        this.budget = budget;
+        evict();
+    }
+    
+    public synchronized long getBudget()
+    {
+        return budget;
+    }
+    
+    /**
+     * Set where the sample data of clips loaded from now on is held.
+     */
+    public void setStorage(Storage storage)
+    {
+        this.storage = storage;
+    }
+    
+    public Storage getStorage()
+    {
+        return storage;
+    }
+    
+    /**
+     * Get the total size of cached sample data, in bytes.
+     */
+    public synchronized long getCachedBytes()
+    {
+        return cachedBytes;
+    }
+    
+    /**
+     * Get the number of requests for clip data which were satisfied from the cache.
+     */
+    public synchronized long getHits()
+    {
+        return hits;
+    }
+    
+    /**
+     * Get the number of requests for clip data which required the clip to be loaded.
+     */
+    public synchronized long getMisses()
+    {
+        return misses;
+    }
+    
+    /**
+     * Get the number of clips which have been discarded to keep within the budget.
+     */
+    public synchronized long getEvictions()
+    {
+        return evictions;
+    }
+    
+    public ClipData getCachedClip(URL url)
         throws IOException, UnsupportedAudioFileException
     {
         String urlStr = url.toString();
-        ClipData data = cachedClips.get(urlStr);
-        if (data == null) {
-            // Maybe we have a free clip
-            data = freeClips.remove(urlStr);
-            if (data != null) {
-                numberFreeClips --;
-                cachedClips.put(urlStr, data);
+        synchronized (this) {
+            while (true) {
+                ClipData data = cachedClips.get(urlStr);
+                if (data != null) {
+                    data.addUser();
+                    hits++;
+                    return data;
+                }
+                // Maybe we have a free clip
+                data = freeClips.remove(urlStr);
+                if (data != null) {
+                    data.addUser();
+                    cachedClips.put(urlStr, data);
+                    hits++;
+                    return data;
+                }
+                if (loadingClips.add(urlStr)) {
+                    misses++;
+                    break;
+                }
+                // Another thread is loading the clip; wait for it:
+                try {
+                    wait();
+                }
+                catch (InterruptedException ie) {
+                    throw new IOException("Interrupted while waiting for clip to load", ie);
+                }
+            }
+        }
+        
+        ClipData data = null;
+        try {
+            data = loadClip(url);
+        }
+        finally {
+            synchronized (this) {
+                loadingClips.remove(urlStr);
+                if (data != null) {
+                    cachedClips.put(urlStr, data);
+                    cachedBytes += data.getSize();
+                    evict();
+                }
+                notifyAll();
             }
         }
-        if (data == null) {
-            // We need to create a new clip
-            AudioInputStream ais = AudioSystem.getAudioInputStream(url);
+        return data;
+    }
+    
+    /**
+     * Load the data for a clip.
+     * 
+     * @return the clip data, with a single user.
+     */
+    private ClipData loadClip(URL url)
+        throws IOException, UnsupportedAudioFileException
+    {
+        AudioInputStream ais = AudioSystem.getAudioInputStream(url);
+        try {
             AudioFormat af = ais.getFormat();
             long frameLength = ais.getFrameLength();
-            
-            int total = (int)(af.getFrameSize() * frameLength);
-            byte[] allBytes = new byte[(int)(af.getFrameSize() * frameLength)];
-            int pos = 0;
-            
-            try {
-                while (pos < total) {
-                    int r = ais.read(allBytes, pos, total - pos);
-                    if (r == -1) {
-                        break;
-                    }
-                    pos += r;
+            ByteBuffer data;
+            if (frameLength == AudioSystem.NOT_SPECIFIED) {
+                ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+                byte[] chunk = new byte[64 * 1024];
+                int r;
+                while ((r = ais.read(chunk)) != -1) {
+                    bytes.write(chunk, 0, r);
                 }
+                byte[] allBytes = bytes.toByteArray();
+                data = allocate(allBytes.length);
+                data.put(allBytes);
+                frameLength = allBytes.length / af.getFrameSize();
             }
-            finally {
-                ais.close();
+            else {
+                data = allocate((int)(af.getFrameSize() * frameLength));
+                readFully(ais, data);
             }
-            
-            data = new ClipData(urlStr, allBytes, af, (int) frameLength);
+            data.flip();
+            return new ClipData(url.toString(), data, af, (int) frameLength);
+        }
+        finally {
+            ais.close();
+        }
+    }
+    
+    /**
+     * Allocate a buffer for sample data, according to the storage setting.
+     */
+    private ByteBuffer allocate(int size) throws IOException
+    {
+        switch (storage) {
+            case DIRECT:
+                return ByteBuffer.allocateDirect(size);
+            case MAPPED:
+                File file = File.createTempFile("greenfoot-clip", ".pcm");
+                try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+                    // The mapping remains valid after the file is closed:
+                    return raf.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, size);
+                }
+                finally {
+                    if (!file.delete()) {
+                        file.deleteOnExit();
+                    }
+                }
+            default:
+                return ByteBuffer.allocate(size);
+        }
+    }
+    
+    /**
+     * Read from the stream until the buffer is full or the stream ends.
+     */
+    private static void readFully(AudioInputStream ais, ByteBuffer data) throws IOException
+    {
+        if (data.hasArray()) {
+            byte[] array = data.array();
+            int pos = data.arrayOffset() + data.position();
+            int end = data.arrayOffset() + data.limit();
+            while (pos < end) {
+                int r = ais.read(array, pos, end - pos);
+                if (r == -1) {
+                    break;
+                }
+                pos += r;
+            }
+            data.position(pos - data.arrayOffset());
         }
         else {
-            data.addUser();
+            byte[] chunk = new byte[64 * 1024];
+            while (data.hasRemaining()) {
+                int r = ais.read(chunk, 0, Math.min(chunk.length, data.remaining()));
+                if (r == -1) {
+                    break;
+                }
+                data.put(chunk, 0, r);
+            }
         }
-        
-        return data;
     }
     
     public synchronized void releaseClipData(ClipData data)
@@ -98,14 +303,22 @@ public class ClipCache
         if (data.release()) {
             cachedClips.remove(data.getUrl());
             freeClips.put(data.getUrl(), data);
-            numberFreeClips++;
-            if (numberFreeClips > MAX_CACHED_CLIPS) {
-                // remove least recently used free clip
-                Iterator<ClipData> it = freeClips.values().iterator();
-                it.next();
-                it.remove();
-                numberFreeClips = MAX_CACHED_CLIPS;
-            }
+            evict();
+        }
+    }
+    
+    /**
+     * Remove least recently used free clips until the cached data fits
+     * within the budget.
+     */
+    private void evict()
+    {
+        Iterator<ClipData> it = freeClips.values().iterator();
+        while (cachedBytes > budget && it.hasNext()) {
+            ClipData data = it.next();
+            it.remove();
+            cachedBytes -= data.getSize();
+            evictions++;
         }
     }
 }
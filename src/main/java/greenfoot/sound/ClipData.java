@@ -22,16 +22,19 @@
 package greenfoot.sound;
 
 import javax.sound.sampled.AudioFormat;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
 
 /**
- * Data for a sound clip.
+ * Data for a sound clip. The sample data is held in a ByteBuffer, which may
+ * be on the heap, direct, or mapped from a file (see {@link ClipCache}).
  * 
  * @author Davin McCall
  */
 public class ClipData
 {
     private String url;
-    private byte[] buffer;
+    private ByteBuffer data;
     private AudioFormat format;
     private int activeUsers;
     private int length; // length in sample frames
@@ -39,10 +42,10 @@ public class ClipData
     /**
      * Construct a ClipData with a single active user.
      */
-    public ClipData(String url, byte[] buffer, AudioFormat format, int length)
+    public ClipData(String url, ByteBuffer data, AudioFormat format, int length)
     {
         this.url = url;
-        this.buffer = buffer;
+        this.data = data;
         this.format = format;
         this.length = length;
         this.activeUsers = 1;
@@ -63,9 +66,53 @@ public class ClipData
         return url;
     }
     
-    public byte[] getBuffer()
+    /**
+     * Get the sample data. The returned buffer is read-only, and its position
+     * and limit are independent of any other buffer returned by this method.
+     */
+    public ByteBuffer getData()
+    {
+        return data.asReadOnlyBuffer();
+    }
+    
+    /**
+     * Get an input stream which reads the sample data.
+     */
+    public InputStream getInputStream()
+    {
+        final ByteBuffer buffer = getData();
+        return new InputStream() {
+            @Override
+            public int read()
+            {
+                return buffer.hasRemaining() ? (buffer.get() & 0xFF) : -1;
+            }
+            
+            @Override
+            public int read(byte[] b, int off, int len)
+            {
+                if (!buffer.hasRemaining()) {
+                    return len == 0 ? 0 : -1;
+                }
+                len = Math.min(len, buffer.remaining());
+                buffer.get(b, off, len);
+                return len;
+            }
+            
+            @Override
+            public int available()
+            {
+                return buffer.remaining();
+            }
+        };
+    }
+    
+    /**
+     * Get the size of the sample data, in bytes.
+     */
+    public int getSize()
     {
-        return buffer;
+        return data.limit();
     }
     
     public AudioFormat getFormat()
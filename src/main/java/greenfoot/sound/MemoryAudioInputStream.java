@@ -24,6 +24,7 @@ package greenfoot.sound;
 import javax.sound.sampled.AudioFormat;
 import javax.sound.sampled.UnsupportedAudioFileException;
 import java.io.IOException;
+import java.nio.ByteBuffer;
 
 /**
  * An implementation of GreenfootAudioInputStream that reads from a memory buffer
@@ -32,7 +33,7 @@ import java.io.IOException;
  */
 public class MemoryAudioInputStream implements GreenfootAudioInputStream
 {
-    private byte[] sound;
+    private ByteBuffer sound;
     private int startOffset;
     private int endOffset;
     private AudioFormat format;
@@ -41,21 +42,30 @@ public class MemoryAudioInputStream implements GreenfootAudioInputStream
     
     public MemoryAudioInputStream(byte[] sound, AudioFormat format)
     {
-        curIndex = 0;
-        markIndex = 0;
-        startOffset = 0;
-        endOffset = sound.length;
-        this.sound = sound;
-        this.format = format;
+        this(ByteBuffer.wrap(sound), format);
     }
     
     public MemoryAudioInputStream(byte[] sound, int offset, int length, AudioFormat format)
+    {
+        this(ByteBuffer.wrap(sound), offset, length, format);
+    }
+    
+    /**
+     * Construct a stream which reads the remaining data in a buffer (from its
+     * current position to its limit). The buffer's position is not changed.
+     */
+    public MemoryAudioInputStream(ByteBuffer sound, AudioFormat format)
+    {
+        this(sound, sound.position(), sound.remaining(), format);
+    }
+    
+    public MemoryAudioInputStream(ByteBuffer sound, int offset, int length, AudioFormat format)
     {
         curIndex = offset;
         markIndex = curIndex;
         startOffset = offset;
         endOffset = offset + length;
-        this.sound = sound;
+        this.sound = sound.duplicate();
         this.format = format;
     }
     
@@ -105,7 +115,7 @@ public class MemoryAudioInputStream implements GreenfootAudioInputStream
             throw new IOException("Attempted to read single byte but frame size is not 1");
         
         if (curIndex < endOffset)
-            return sound[curIndex++];
+            return sound.get(curIndex++);
         else
             return -1;
     }
@@ -127,7 +137,8 @@ public class MemoryAudioInputStream implements GreenfootAudioInputStream
             maxRead = left - (left % getFrameSize());
         }
         
-        System.arraycopy(sound, curIndex, b, off, maxRead);
+        sound.position(curIndex);
+        sound.get(b, off, maxRead);
         curIndex += maxRead;
         
         return maxRead;
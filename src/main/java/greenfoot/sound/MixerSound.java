@@ -0,0 +1,260 @@
+/*
+ This file is part of the Greenfoot program.
+ Copyright (C) 2019  Poul Henriksen and Michael Kolling
+
+ This program is free software; you can redistribute it and/or
+ modify it under the terms of the GNU General Public License
+ as published by the Free Software Foundation; either version 2
+ of the License, or (at your option) any later version.
+
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with this program; if not, write to the Free Software
+ Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+
+ This file is subject to the Classpath exception as provided in the
+ LICENSE.txt file that accompanied this code.
+ */
+package greenfoot.sound;
+
+import javax.sound.sampled.UnsupportedAudioFileException;
+import java.io.IOException;
+import java.net.URL;
+
+/**
+ * Plays a sound through the software mixer (see {@link SoundMixer}). The
+ * sound is either a clip, held in memory, or a stream.
+ * 
+ * @see SoundFactory
+ */
+public class MixerSound implements Sound, SoundMixer.VoiceListener
+{
+    /** URL of the sound data, for clips. */
+    private final URL url;
+    /** Data for the clip, or null if this is a stream or the clip is closed. */
+    private ClipData clipData;
+    /** Stream where data is read from (by the mixer). */
+    private GreenfootAudioInputStream inputStream;
+    /** Listener for state changes. */
+    private final SoundPlaybackListener playbackListener;
+    
+    /** Handle of the mixer voice playing this sound, or -1 if stopped. */
+    private int voice = -1;
+    private boolean paused;
+    private int masterVolume = 100;
+    /** The balance between left and right, from -100 to 100. */
+    private int pan = 0;
+
+    /**
+     * Creates a sound which plays a clip.
+     * 
+     * @param url       The URL of the clip
+     * @param clipData  The data for the clip, which this sound becomes a user of
+     *                  (and will release when it is closed)
+     */
+    public MixerSound(URL url, ClipData clipData, SoundPlaybackListener playbackListener)
+    {
+        this.url = url;
+        this.clipData = clipData;
+        this.inputStream = new MemoryAudioInputStream(clipData.getData(), clipData.getFormat());
+        this.playbackListener = playbackListener;
+    }
+
+    /**
+     * Creates a sound which plays a stream.
+     */
+    public MixerSound(GreenfootAudioInputStream inputStream, SoundPlaybackListener playbackListener)
+    {
+        this.url = null;
+        this.inputStream = inputStream;
+        this.playbackListener = playbackListener;
+    }
+
+    @Override
+    public synchronized void play()
+    {
+        startPlayback(false);
+    }
+
+    @Override
+    public synchronized void loop()
+    {
+        startPlayback(true);
+    }
+
+    /**
+     * Starts (or resumes) playback, or changes whether the sound is looping
+     * if it is already playing.
+     */
+    private void startPlayback(boolean loop)
+    {
+        SoundMixer mixer = SoundMixer.getInstance();
+        if (voice != -1) {
+            mixer.setLooping(voice, loop);
+            if (!paused) {
+                return;
+            }
+            paused = false;
+            mixer.setPaused(voice, false);
+        }
+        else {
+            if (!openStream()) {
+                return;
+            }
+            voice = mixer.play(inputStream, this, loop, getGain(), pan / 100f);
+            if (voice == -1) {
+                return;
+            }
+        }
+        playbackListener.playbackStarted(this);
+    }
+
+    /**
+     * Make sure the stream is available, re-loading the clip data if the
+     * sound has been closed.
+     * 
+     * @return true if the stream is available, false if it could not be loaded.
+     */
+    private boolean openStream()
+    {
+        if (url == null || clipData != null) {
+            return true;
+        }
+        try {
+            clipData = SoundClip.getClipCache().getCachedClip(url);
+            inputStream = new MemoryAudioInputStream(clipData.getData(), clipData.getFormat());
+        }
+        catch (IOException e) {
+            SoundExceptionHandler.handleIOException(e, url.toString());
+            return false;
+        }
+        catch (UnsupportedAudioFileException e) {
+            SoundExceptionHandler.handleUnsupportedAudioFileException(e, url.toString());
+            return false;
+        }
+        return true;
+    }
+
+    @Override
+    public synchronized void stop()
+    {
+        if (voice != -1) {
+            SoundMixer.getInstance().stop(voice);
+            voice = -1;
+            paused = false;
+            playbackListener.playbackStopped(this);
+        }
+    }
+
+    @Override
+    public synchronized void pause()
+    {
+        if (voice != -1 && !paused) {
+            SoundMixer.getInstance().setPaused(voice, true);
+            paused = true;
+            playbackListener.playbackPaused(this);
+        }
+    }
+
+    @Override
+    public synchronized void close()
+    {
+        if (voice != -1) {
+            SoundMixer.getInstance().stop(voice);
+            voice = -1;
+            paused = false;
+        }
+        if (clipData != null) {
+            SoundClip.getClipCache().releaseClipData(clipData);
+            clipData = null;
+        }
+        else if (inputStream != null) {
+            try {
+                inputStream.close();
+            }
+            catch (IOException e) {
+                // Nothing to be done; it will be re-opened if played again.
+            }
+        }
+        playbackListener.soundClosed(this);
+    }
+
+    @Override
+    public synchronized boolean isPlaying()
+    {
+        return voice != -1 && !paused;
+    }
+
+    @Override
+    public synchronized boolean isPaused()
+    {
+        return paused;
+    }
+
+    @Override
+    public synchronized boolean isStopped()
+    {
+        return voice == -1;
+    }
+
+    @Override
+    public synchronized void setVolume(int level)
+    {
+        masterVolume = level;
+        SoundMixer.getInstance().setGain(voice, getGain(), pan / 100f);
+    }
+
+    @Override
+    public synchronized int getVolume()
+    {
+        return masterVolume;
+    }
+
+    /**
+     * Set the balance of the sound between the left and right speakers.
+     * 
+     * @param pan  The balance, from -100 (left only) to 100 (right only).
+     */
+    public synchronized void setPan(int pan)
+    {
+        this.pan = Math.max(-100, Math.min(100, pan));
+        SoundMixer.getInstance().setGain(voice, getGain(), this.pan / 100f);
+    }
+
+    /**
+     * Get the balance of the sound between the left and right speakers,
+     * from -100 (left only) to 100 (right only).
+     */
+    public synchronized int getPan()
+    {
+        return pan;
+    }
+
+    private float getGain()
+    {
+        return SoundUtils.levelToGain(masterVolume);
+    }
+
+    @Override
+    public void voiceEnded(int handle)
+    {
+        synchronized (this) {
+            if (handle != voice) {
+                return;
+            }
+            voice = -1;
+            paused = false;
+        }
+        playbackListener.playbackStopped(this);
+    }
+
+    @Override
+    public String toString()
+    {
+        return (url != null ? url : inputStream.getSource()) + " " + super.toString();
+    }
+}
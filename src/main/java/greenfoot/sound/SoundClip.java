@@ -22,7 +22,6 @@
 package greenfoot.sound;
 
 import javax.sound.sampled.*;
-import java.io.ByteArrayInputStream;
 import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.io.InputStream;
@@ -42,6 +41,14 @@ public class SoundClip implements Sound, LineListener
     private static ClipCache clipCache = new ClipCache();
     private static ClipProcessThread processThread = new ClipProcessThread();
     private static ClipCloserThread closerThread = new ClipCloserThread();
+    
+    /**
+     * Get the cache of clip data (shared with sounds played through the mixer).
+     */
+    static ClipCache getClipCache()
+    {
+        return clipCache;
+    }
 
     /** URL of the sound data. */
     private final URL url;
@@ -124,8 +131,12 @@ public class SoundClip implements Sound, LineListener
     private void load() throws UnsupportedAudioFileException, IOException,
             LineUnavailableException
     {
+        if (clipData != null) {
+            clipCache.releaseClipData(clipData);
+            clipData = null;
+        }
         clipData = clipCache.getCachedClip(url);
-        InputStream is = new ByteArrayInputStream(clipData.getBuffer());
+        InputStream is = clipData.getInputStream();
         AudioFormat format = clipData.getFormat();
         AudioInputStream stream = new AudioInputStream(is, format, clipData.getLength());
         DataLine.Info info = new DataLine.Info(Clip.class, format);
@@ -147,8 +158,7 @@ public class SoundClip implements Sound, LineListener
         //Ignore all exceptions when pre-loading
         try
         {
-            clipData = clipCache.getCachedClip(url);
-            clipCache.releaseClipData(clipData);
+            clipCache.releaseClipData(clipCache.getCachedClip(url));
         }
         catch (IOException e) {
             
@@ -390,10 +400,13 @@ public class SoundClip implements Sound, LineListener
         if (clipState != ClipState.CLOSED) {
             if (soundClip != null) {
                 setVolume(0);
-                clipCache.releaseClipData(clipData);
                 closerThread.addClip(soundClip);
                 soundClip = null;
             }
+            if (clipData != null) {
+                clipCache.releaseClipData(clipData);
+                clipData = null;
+            }
             setState(ClipState.CLOSED);
         }
     }
@@ -21,11 +21,18 @@
  */
 package greenfoot.sound;
 
+import bluej.utility.Debug;
+import greenfoot.core.ReadOnlyProjectProperties;
 import greenfoot.util.GreenfootUtil;
 
 import javax.sound.sampled.UnsupportedAudioFileException;
 import java.io.IOException;
 import java.net.URL;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
 /**
  * Class responsible for creating Sounds and loading them.
@@ -50,25 +57,157 @@ public class SoundFactory
      * clips don't work so well. What about applets?
      */
     private static final int maxClipSize = 500 * 1000;
+    
+    /**
+     * Project property which, if set to true, makes sampled sounds play
+     * through the software mixer (see {@link SoundMixer}) rather than each
+     * using a line of their own.
+     */
+    public static final String MIXER_PROPERTY = "sound.mixer";
+    
+    /**
+     * Project property giving the limit on the size of decoded clip data
+     * kept in the clip cache, in bytes.
+     */
+    public static final String CACHE_SIZE_PROPERTY = "sound.cache.size";
+    
+    /**
+     * Project property giving where decoded clip data is kept: "heap",
+     * "direct" (off-heap) or "mapped" (in memory-mapped temporary files).
+     */
+    public static final String CACHE_STORAGE_PROPERTY = "sound.cache.storage";
+    
+    /** The project properties, or null if not yet known. */
+    private volatile ReadOnlyProjectProperties projectProperties;
+    
+    /** The maximum number of threads used to preload sounds. */
+    private static final int MAX_PRELOAD_THREADS = 4;
+    
+    /**
+     * Sound files waiting to be preloaded, in the order they will be loaded.
+     * Null until the list of sound files is known.
+     */
+    private Deque<String> pendingPreloads;
+    
+    /** Number of preload threads which are still running. */
+    private int runningPreloaders;
+    
+    /** Completed when preloading has finished. */
+    private final CompletableFuture<Void> preloadFuture = new CompletableFuture<>();
 
     private SoundFactory()
     {
         soundCollection = new SoundCollection();
+        startPreloading();
+    }
+
+    /**
+     * Start preloading the project's sounds in the background. Each sound
+     * small enough to be played as a clip is loaded into the clip cache, so
+     * that it can be played without delay. The sounds are loaded in parallel
+     * on a small number of threads; sounds which are requested while waiting
+     * to be loaded are moved to the front of the queue.
+     */
+    private void startPreloading()
+    {
+        int threadCount = Math.min(MAX_PRELOAD_THREADS, Runtime.getRuntime().availableProcessors());
+        ExecutorService preloadPool = Executors.newFixedThreadPool(threadCount, r -> {
+            Thread thread = new Thread(r, "SoundPreloader");
+            thread.setDaemon(true);
+            thread.setPriority(Thread.MIN_PRIORITY);
+            return thread;
+        });
         
-        for (String soundFile : GreenfootUtil.getSoundFiles())
-        {
-            // This loads the file, and if it's a SoundClip, puts it in
-            // the sound cache.  It also happens to make objects for
-            // non-SoundClip items, but since they are all streams,
-            // that shouldn't cause a big slowdown or waste of resources.
-            Sound s = createSound(soundFile, true);
-            
-            if (s instanceof SoundClip)
-                ((SoundClip)s).preLoad();
-            
-            // if (!soundCache.hasFreeSpace())
-            //    return; // No point continuing
+        runningPreloaders = threadCount;
+        preloadPool.execute(() -> {
+            // Finding the sound files may itself take a while, so it is done here too:
+            Deque<String> files = new ArrayDeque<>();
+            try {
+                for (String soundFile : GreenfootUtil.getSoundFiles()) {
+                    files.add(soundFile);
+                }
+            }
+            finally {
+                synchronized (this) {
+                    pendingPreloads = files;
+                    notifyAll();
+                }
+                preloadPending();
+            }
+        });
+        for (int i = 1; i < threadCount; i++) {
+            preloadPool.execute(this::preloadPending);
         }
+        preloadPool.shutdown();
+    }
+
+    /**
+     * Preload sounds from the queue of pending preloads until it is empty.
+     */
+    private void preloadPending()
+    {
+        while (true) {
+            String soundFile;
+            synchronized (this) {
+                while (pendingPreloads == null) {
+                    try {
+                        wait();
+                    }
+                    catch (InterruptedException ie) {
+                        // Nothing to be done; keep waiting.
+                    }
+                }
+                soundFile = pendingPreloads.pollFirst();
+                if (soundFile == null) {
+                    if (--runningPreloaders == 0) {
+                        preloadFuture.complete(null);
+                    }
+                    return;
+                }
+            }
+            preload(soundFile);
+        }
+    }
+
+    /**
+     * Preload a single sound, if it is a clip. Failures are ignored; they will
+     * be reported if the sound is played.
+     */
+    private void preload(String file)
+    {
+        try {
+            URL url = GreenfootUtil.getURL(file, "sounds");
+            int size = url.openConnection().getContentLength();
+            if (!isMidi(url) && !isMp3(url) && !isJavaAudioStream(size)) {
+                SoundClip.getClipCache().releaseClipData(SoundClip.getClipCache().getCachedClip(url));
+            }
+        }
+        catch (IOException e) {
+        }
+        catch (UnsupportedAudioFileException e) {
+        }
+        catch (RuntimeException e) {
+            // Any problem will be reported if the sound is played.
+        }
+    }
+
+    /**
+     * If a sound is waiting to be preloaded, move it to the front of the queue.
+     */
+    private synchronized void prioritisePreload(String file)
+    {
+        if (pendingPreloads != null && pendingPreloads.remove(file)) {
+            pendingPreloads.addFirst(file);
+        }
+    }
+
+    /**
+     * Get a future which is completed when all the project's sounds have been
+     * preloaded.
+     */
+    public CompletableFuture<Void> getPreloadFuture()
+    {
+        return preloadFuture;
     }
 
     public synchronized static SoundFactory getInstance()
@@ -83,6 +222,44 @@ public class SoundFactory
     {
         return soundCollection;
     }
+    
+    /**
+     * Get the cache of decoded clip data, which can be queried for its
+     * hit, miss and eviction counts.
+     */
+    public ClipCache getClipCache()
+    {
+        return SoundClip.getClipCache();
+    }
+    
+    /**
+     * Set the project properties, which determine (for sounds created from
+     * now on) whether the software mixer is used, and how clip data is cached.
+     */
+    public void setProjectProperties(ReadOnlyProjectProperties projectProperties)
+    {
+        this.projectProperties = projectProperties;
+        
+        ClipCache clipCache = SoundClip.getClipCache();
+        String budget = projectProperties.getString(CACHE_SIZE_PROPERTY);
+        if (budget != null) {
+            try {
+                clipCache.setBudget(Long.parseLong(budget.trim()));
+            }
+            catch (NumberFormatException nfe) {
+                Debug.reportError("Invalid value for " + CACHE_SIZE_PROPERTY + ": " + budget);
+            }
+        }
+        String storage = projectProperties.getString(CACHE_STORAGE_PROPERTY);
+        if (storage != null) {
+            try {
+                clipCache.setStorage(ClipCache.Storage.valueOf(storage.trim().toUpperCase()));
+            }
+            catch (IllegalArgumentException iae) {
+                Debug.reportError("Invalid value for " + CACHE_STORAGE_PROPERTY + ": " + storage);
+            }
+        }
+    }
    
     /**
      * Creates the sound from file.
@@ -94,6 +271,7 @@ public class SoundFactory
      */
     public Sound createSound(final String file, boolean quiet)
     {      
+        prioritisePreload(file);
         try {
             URL url = GreenfootUtil.getURL(file, "sounds");
             int size = url.openConnection().getContentLength();
@@ -105,14 +283,14 @@ public class SoundFactory
                 SoundExceptionHandler.handleMp3LibNotAvailable();
             }   
             else if(isMp3(url)) {
-                return new SoundStream(new Mp3AudioInputStream(url), soundCollection);
+                return createStream(new Mp3AudioInputStream(url));
             }            
             else if (isJavaAudioStream(size)) {
-                return new SoundStream(new JavaAudioInputStream(url), soundCollection);
+                return createStream(new JavaAudioInputStream(url));
             } 
             else {
                 // The sound is small enough to be loaded into memory as a clip.
-                return new SoundClip(file, url, soundCollection);
+                return createClip(file, url);
             }
         } catch (IOException e) {
             if (! quiet) {
@@ -126,6 +304,44 @@ public class SoundFactory
         return null;
     }
     
+    /**
+     * Create a sound which streams from the given input stream, played
+     * through the mixer if it is in use and supports the stream's format.
+     */
+    private Sound createStream(GreenfootAudioInputStream inputStream)
+    {
+        if (useMixer() && SoundMixer.isSupported(inputStream.getFormat())) {
+            return new MixerSound(inputStream, soundCollection);
+        }
+        return new SoundStream(inputStream, soundCollection);
+    }
+    
+    /**
+     * Create a sound which is loaded into memory, played through the mixer if
+     * it is in use and supports the sound's format.
+     */
+    private Sound createClip(String file, URL url) throws IOException, UnsupportedAudioFileException
+    {
+        if (useMixer()) {
+            ClipData clipData = SoundClip.getClipCache().getCachedClip(url);
+            if (SoundMixer.isSupported(clipData.getFormat())) {
+                return new MixerSound(url, clipData, soundCollection);
+            }
+            SoundClip.getClipCache().releaseClipData(clipData);
+        }
+        return new SoundClip(file, url, soundCollection);
+    }
+    
+    /**
+     * Check whether sounds should be played through the software mixer.
+     */
+    private boolean useMixer()
+    {
+        ReadOnlyProjectProperties properties = projectProperties;
+        return properties != null && properties.getBoolean(MIXER_PROPERTY, false)
+                && SoundMixer.getInstance().isAvailable();
+    }
+    
     private boolean isJavaAudioStream(int size)
     {
         // If we can not get the size, or if it is a big file we stream
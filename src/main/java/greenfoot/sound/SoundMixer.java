@@ -0,0 +1,736 @@
+/*
+ This file is part of the Greenfoot program.
+ Copyright (C) 2019  Poul Henriksen and Michael Kolling
+
+ This program is free software; you can redistribute it and/or
+ modify it under the terms of the GNU General Public License
+ as published by the Free Software Foundation; either version 2
+ of the License, or (at your option) any later version.
+
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with this program; if not, write to the Free Software
+ Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+
+ This file is subject to the Classpath exception as provided in the
+ LICENSE.txt file that accompanied this code.
+ */
+package greenfoot.sound;
+
+import javax.sound.sampled.AudioFormat;
+import javax.sound.sampled.AudioSystem;
+import javax.sound.sampled.LineUnavailableException;
+import javax.sound.sampled.SourceDataLine;
+import javax.sound.sampled.UnsupportedAudioFileException;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * A software mixer which plays any number of sounds through a single output
+ * line. Sounds are played on a fixed pool of voices, which are mixed together
+ * by one mixing thread; each voice has its own volume, pan and loop setting.
+ * 
+ * <p>Compared with opening a line (and, for streams, a thread) per sound, the
+ * cost of playing a sound does not grow with the number of sounds playing,
+ * and sounds cannot fail to play because the system has run out of lines. If
+ * more sounds are played at once than there are voices, the voice which has
+ * been playing the longest is taken over (preferring non-looping voices).
+ * 
+ * <p>Voices are referred to by a handle, returned by {@link #play}. A handle
+ * becomes invalid once its voice has stopped (or been taken over); calls with
+ * an invalid handle are ignored.
+ * 
+ * <p>Sounds may be in any linear PCM format with 8 or 16 bit samples and one
+ * or two channels (see {@link #isSupported}); they are converted to the
+ * output sample rate as they are mixed. Sound data is read on a pool of
+ * reading threads, a window ahead of where it is played and without holding
+ * the mixer's lock, so that a slow stream holds up neither the other voices
+ * nor the threads controlling playback.
+ */
+public class SoundMixer
+{
+    /** The format of the mixed output: 44.1kHz, 16-bit signed, stereo, little-endian. */
+    public static final AudioFormat FORMAT = new AudioFormat(44100f, 16, 2, true, false);
+    
+    /** Number of voices, i.e. the number of sounds which can play at once. */
+    private static final int VOICE_COUNT = 32;
+    /** Number of frames mixed at a time (10ms of sound). */
+    private static final int BLOCK_FRAMES = 441;
+    /** Size of the output line buffer, in blocks. This determines the latency. */
+    private static final int LINE_BUFFER_BLOCKS = 4;
+    /** Number of frames of a sound which are read and decoded at a time. */
+    private static final int WINDOW_FRAMES = 2048;
+    
+    /** singleton */
+    private static SoundMixer instance;
+    
+    private final Voice[] voices = new Voice[VOICE_COUNT];
+    /** The readers of the voices' streams (see VoiceReader). */
+    private final VoiceReader[] readers = new VoiceReader[VOICE_COUNT];
+    /** Number of voices which are currently playing (or paused). */
+    private int activeVoices;
+    /** Incremented each time a voice is allocated, to order and identify voices. */
+    private int allocationCount;
+    
+    private SourceDataLine line;
+    /** Whether we have tried to open the line. */
+    private boolean lineOpened;
+    private Thread mixThread;
+    /** The threads which read the voices' streams; created with the mixing thread. */
+    private ExecutorService readerPool;
+    /** Notifications of voices which have ended, to be delivered by the mixing thread. */
+    private final List<Runnable> endedNotifications = new ArrayList<Runnable>();
+    
+    /**
+     * A listener for the end of playback on a voice.
+     */
+    public static interface VoiceListener
+    {
+        /**
+         * Playback on a voice has finished, either because the end of the
+         * sound was reached or because the voice was taken over to play
+         * another sound. Not called when a voice is stopped explicitly.
+         * Called on the mixing thread, without the mixer's lock held.
+         * 
+         * @param handle  The handle of the voice (no longer valid)
+         */
+        public void voiceEnded(int handle);
+    }
+
+    private SoundMixer()
+    {
+        for (int i = 0; i < VOICE_COUNT; i++) {
+            voices[i] = new Voice();
+            readers[i] = new VoiceReader();
+        }
+    }
+
+    public synchronized static SoundMixer getInstance()
+    {
+        if (instance == null) {
+            instance = new SoundMixer();
+        }
+        return instance;
+    }
+
+    /**
+     * Check whether sound in the given format can be played by the mixer.
+     */
+    public static boolean isSupported(AudioFormat format)
+    {
+        int bits = format.getSampleSizeInBits();
+        int channels = format.getChannels();
+        boolean encodingSupported = format.getEncoding().equals(AudioFormat.Encoding.PCM_SIGNED)
+                ? (bits == 8 || bits == 16)
+                : format.getEncoding().equals(AudioFormat.Encoding.PCM_UNSIGNED) && bits == 8;
+        return encodingSupported && (channels == 1 || channels == 2)
+                && format.getFrameSize() == channels * bits / 8
+                && format.getSampleRate() > 0;
+    }
+
+    /**
+     * Check whether the mixer can play sound, opening the output line if it
+     * hasn't been opened already.
+     */
+    public synchronized boolean isAvailable()
+    {
+        if (!lineOpened) {
+            lineOpened = true;
+            try {
+                SourceDataLine l = AudioSystem.getSourceDataLine(FORMAT);
+                l.open(FORMAT, BLOCK_FRAMES * LINE_BUFFER_BLOCKS * FORMAT.getFrameSize());
+                l.start();
+                line = l;
+            }
+            catch (IllegalArgumentException e) {
+                SoundExceptionHandler.handleLineUnavailableException(e);
+            }
+            catch (LineUnavailableException e) {
+                SoundExceptionHandler.handleLineUnavailableException(e);
+            }
+        }
+        return line != null;
+    }
+
+    /**
+     * Start playing a sound on a free voice. The sound is played from its
+     * beginning (the stream is restarted before it is read).
+     * 
+     * @param stream   The sound to play, in a supported format. It must not be
+     *                 read by anything else while the voice is playing.
+     * @param listener Listener to be notified when playback ends (may be null)
+     * @param loop     Whether to loop the sound
+     * @param gain     The volume, as a linear gain (0 to 1)
+     * @param pan      The balance between left (-1) and right (1)
+     * @return  The handle of the voice, or -1 if the mixer is not available.
+     */
+    public synchronized int play(GreenfootAudioInputStream stream, VoiceListener listener,
+            boolean loop, float gain, float pan)
+    {
+        if (!isAvailable()) {
+            return -1;
+        }
+
+        int slot = findFreeVoice();
+        Voice voice = voices[slot];
+        if (voice.active) {
+            // Taking over a playing voice. The caller may hold the lock of the
+            // listener of that voice's sound, and another thread may hold that
+            // lock while waiting for the caller's, so leave the notification
+            // to the mixing thread:
+            voiceEnded(voice);
+        }
+        else {
+            activeVoices++;
+        }
+
+        allocationCount++;
+        int handle = ((allocationCount & 0x7FFFFF) << 8) | slot;
+        voice.start(stream, listener, handle, allocationCount);
+        voice.loop = loop;
+        voice.setGain(gain, pan);
+
+        if (mixThread == null) {
+            mixThread = new Thread("SoundMixer") {
+                @Override
+                public void run()
+                {
+                    mix();
+                }
+            };
+            mixThread.setDaemon(true);
+            mixThread.setPriority(Thread.MAX_PRIORITY);
+            mixThread.start();
+            
+            readerPool = Executors.newCachedThreadPool(r -> {
+                Thread thread = new Thread(r, "SoundMixer reader");
+                thread.setDaemon(true);
+                return thread;
+            });
+        }
+        scheduleReads();
+        notifyAll();
+        return handle;
+    }
+
+    /**
+     * Queue the notification that playback on a voice has ended, for the
+     * mixing thread to deliver.
+     */
+    private void voiceEnded(Voice voice)
+    {
+        final VoiceListener listener = voice.listener;
+        final int handle = voice.handle;
+        if (listener != null) {
+            endedNotifications.add(() -> listener.voiceEnded(handle));
+        }
+    }
+
+    /**
+     * Find the voice to play a new sound on: a free voice if there is one,
+     * otherwise the one playing the longest (preferring those not looping).
+     */
+    private int findFreeVoice()
+    {
+        int oldest = -1;
+        for (int i = 0; i < VOICE_COUNT; i++) {
+            Voice voice = voices[i];
+            if (!voice.active) {
+                return i;
+            }
+            if (oldest == -1 || (voice.loop ? 1 : 0) < (voices[oldest].loop ? 1 : 0)
+                    || (voice.loop == voices[oldest].loop && voice.startOrder - voices[oldest].startOrder < 0)) {
+                oldest = i;
+            }
+        }
+        return oldest;
+    }
+
+    /**
+     * Get the voice with the given handle, or null if the handle is not valid.
+     */
+    private Voice getVoice(int handle)
+    {
+        if (handle < 0) {
+            return null;
+        }
+        Voice voice = voices[handle & 0xFF];
+        return (voice.active && voice.handle == handle) ? voice : null;
+    }
+
+    /**
+     * Check whether a voice is still playing (or paused).
+     */
+    public synchronized boolean isActive(int handle)
+    {
+        return getVoice(handle) != null;
+    }
+
+    /**
+     * Stop playback on a voice. The handle becomes invalid.
+     */
+    public synchronized void stop(int handle)
+    {
+        Voice voice = getVoice(handle);
+        if (voice != null) {
+            voice.release();
+            activeVoices--;
+        }
+    }
+
+    /**
+     * Pause or resume playback on a voice.
+     */
+    public synchronized void setPaused(int handle, boolean paused)
+    {
+        Voice voice = getVoice(handle);
+        if (voice != null) {
+            voice.paused = paused;
+            scheduleReads();
+            notifyAll();
+        }
+    }
+
+    /**
+     * Set whether a voice loops. If looping is turned off, playback stops at
+     * the end of the sound.
+     */
+    public synchronized void setLooping(int handle, boolean loop)
+    {
+        Voice voice = getVoice(handle);
+        if (voice != null) {
+            voice.loop = loop;
+        }
+    }
+
+    /**
+     * Set the volume and pan of a voice.
+     * 
+     * @param gain  The volume, as a linear gain (0 to 1)
+     * @param pan   The balance between left (-1) and right (1)
+     */
+    public synchronized void setGain(int handle, float gain, float pan)
+    {
+        Voice voice = getVoice(handle);
+        if (voice != null) {
+            voice.setGain(gain, pan);
+        }
+    }
+
+    /**
+     * The mixing loop, run by the mixing thread. Mixes a block at a time, and
+     * writes it to the line (which blocks until there is space in the line's
+     * buffer, and so paces the loop). Waits while no voices are playing.
+     * 
+     * <p>Each voice plays from its window, moving on to the next window read
+     * by its reader when it reaches the end. If the next window
+     * hasn't been read yet, the voice is silent until it has, rather than
+     * holding up the other voices. Notifications of ended voices are
+     * delivered after each block, without the lock held.
+     */
+    private void mix()
+    {
+        int[] mixBuffer = new int[BLOCK_FRAMES * 2];
+        byte[] output = new byte[BLOCK_FRAMES * FORMAT.getFrameSize()];
+        List<Runnable> notifications = new ArrayList<Runnable>();
+        
+        while (true) {
+            synchronized (this) {
+                while (!hasPlayingVoice() && endedNotifications.isEmpty()) {
+                    try {
+                        wait();
+                    }
+                    catch (InterruptedException e) {
+                    }
+                }
+                
+                Arrays.fill(mixBuffer, 0);
+                boolean windowTaken = false;
+                for (int i = 0; i < VOICE_COUNT; i++) {
+                    Voice voice = voices[i];
+                    VoiceReader reader = readers[i];
+                    // The reader may not have caught up with a newly started voice yet:
+                    if (!voice.active || voice.paused || reader.handle != voice.handle) {
+                        continue;
+                    }
+                    if (reader.ready && reader.error != null) {
+                        Exception error = reader.error;
+                        String source = reader.source;
+                        reader.error = null;
+                        notifications.add(() -> reportError(error, source));
+                    }
+                    boolean wasReady = reader.ready;
+                    if (!voice.mixInto(mixBuffer, BLOCK_FRAMES, reader)) {
+                        voiceEnded(voice);
+                        voice.release();
+                        activeVoices--;
+                    }
+                    windowTaken |= wasReady && !reader.ready;
+                }
+                notifications.addAll(endedNotifications);
+                endedNotifications.clear();
+                if (windowTaken) {
+                    scheduleReads();
+                }
+            }
+            
+            for (Runnable notification : notifications) {
+                notification.run();
+            }
+            notifications.clear();
+            
+            for (int i = 0; i < mixBuffer.length; i++) {
+                int sample = Math.max(Short.MIN_VALUE, Math.min(Short.MAX_VALUE, mixBuffer[i]));
+                output[i * 2] = (byte) sample;
+                output[i * 2 + 1] = (byte) (sample >> 8);
+            }
+            line.write(output, 0, output.length);
+        }
+    }
+
+    /**
+     * Start reading the next window of each playing voice whose reader is
+     * idle and has no window ready (because the voice has just been started,
+     * or has taken the previous window). Each voice is read in a separate
+     * task, so that one slow stream doesn't hold up the others.
+     */
+    private void scheduleReads()
+    {
+        for (int i = 0; i < VOICE_COUNT; i++) {
+            VoiceReader reader = readers[i];
+            if (!reader.reading && reader.prepare(voices[i])) {
+                reader.reading = true;
+                readerPool.execute(() -> {
+                    reader.fill();
+                    synchronized (SoundMixer.this) {
+                        // If the voice has been stopped meanwhile, the reader is
+                        // reset by its next prepare():
+                        reader.reading = false;
+                        reader.ready = true;
+                        scheduleReads();
+                    }
+                });
+            }
+        }
+    }
+
+    /**
+     * Report an error reading a sound, in the same way as for sounds which
+     * are not played through the mixer, but without stopping the mixing thread.
+     */
+    private static void reportError(Exception error, String source)
+    {
+        try {
+            if (error instanceof UnsupportedAudioFileException) {
+                SoundExceptionHandler.handleUnsupportedAudioFileException((UnsupportedAudioFileException) error, source);
+            }
+            else {
+                SoundExceptionHandler.handleIOException((IOException) error, source);
+            }
+        }
+        catch (RuntimeException e) {
+            Thread thread = Thread.currentThread();
+            thread.getUncaughtExceptionHandler().uncaughtException(thread, e);
+        }
+    }
+
+    /**
+     * Check whether any voice is playing (and not paused).
+     */
+    private boolean hasPlayingVoice()
+    {
+        if (activeVoices == 0) {
+            return false;
+        }
+        for (Voice voice : voices) {
+            if (voice.active && !voice.paused) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * A voice: the playback state of one sound. All fields are guarded by the
+     * mixer's lock.
+     */
+    private static class Voice
+    {
+        boolean active;
+        int handle;
+        /** The allocation count when the voice was started, for finding the oldest voice */
+        int startOrder;
+        GreenfootAudioInputStream stream;
+        VoiceListener listener;
+        boolean loop;
+        boolean paused;
+        float gainLeft;
+        float gainRight;
+        
+        int channels;
+        /** Number of source frames to advance per output frame */
+        double step;
+        
+        /** Decoded samples (interleaved if stereo), a window on the stream */
+        int[] window;
+        /** Number of frames in the window */
+        int windowFrames;
+        /** Playback position, in frames relative to the start of the window */
+        double position;
+        /** Whether the end of the stream has been reached (and we are not looping) */
+        boolean endOfStream;
+        
+        void start(GreenfootAudioInputStream stream, VoiceListener listener, int handle, int startOrder)
+        {
+            AudioFormat format = stream.getFormat();
+            this.active = true;
+            this.paused = false;
+            this.handle = handle;
+            this.startOrder = startOrder;
+            this.stream = stream;
+            this.listener = listener;
+            channels = format.getChannels();
+            step = format.getSampleRate() / FORMAT.getSampleRate();
+            if (window == null || window.length != (WINDOW_FRAMES + 1) * channels) {
+                window = new int[(WINDOW_FRAMES + 1) * channels];
+            }
+            windowFrames = 0;
+            position = 0;
+            endOfStream = false;
+        }
+        
+        void release()
+        {
+            active = false;
+            stream = null;
+            listener = null;
+        }
+        
+        void setGain(float gain, float pan)
+        {
+            gainLeft = gain * Math.min(1f, 1f - pan);
+            gainRight = gain * Math.min(1f, 1f + pan);
+        }
+        
+        /**
+         * Mix frames from this voice into the mix buffer (stereo, interleaved).
+         * 
+         * @param reader  The reader for this voice, from which the next window
+         *                is taken when the current one runs out
+         * @return false if the end of the sound was reached, true otherwise.
+         */
+        boolean mixInto(int[] mixBuffer, int frames, VoiceReader reader)
+        {
+            for (int i = 0; i < frames; i++) {
+                int index = (int) position;
+                if (index + 1 >= windowFrames && !endOfStream) {
+                    if (!reader.ready) {
+                        // Not read yet; keep our place until it is:
+                        return true;
+                    }
+                    takeWindow(reader);
+                    index = (int) position;
+                }
+                if (index >= windowFrames) {
+                    return false;
+                }
+                
+                // Linear interpolation between this frame and the next:
+                float fraction = (float) (position - index);
+                int a = index * channels;
+                int b = (index + 1 < windowFrames) ? a + channels : a;
+                float left = window[a] + (window[b] - window[a]) * fraction;
+                float right = left;
+                if (channels == 2) {
+                    right = window[a + 1] + (window[b + 1] - window[a + 1]) * fraction;
+                }
+                mixBuffer[i * 2] += (int) (left * gainLeft);
+                mixBuffer[i * 2 + 1] += (int) (right * gainRight);
+                position += step;
+            }
+            return true;
+        }
+        
+        /**
+         * Move the window on to the samples read by the reader, keeping the
+         * frames from the current position onwards (at most one, as the window
+         * is only moved on when it has been played to its end).
+         */
+        private void takeWindow(VoiceReader reader)
+        {
+            int keepFrom = Math.min((int) position, windowFrames);
+            System.arraycopy(window, keepFrom * channels, window, 0, (windowFrames - keepFrom) * channels);
+            windowFrames -= keepFrom;
+            position -= keepFrom;
+            
+            System.arraycopy(reader.samples, 0, window, windowFrames * channels, reader.frames * channels);
+            windowFrames += reader.frames;
+            endOfStream = reader.endOfStream;
+            reader.ready = false;
+        }
+    }
+    
+    /**
+     * Reads and decodes the next window of a voice's stream. The fields
+     * describing the voice are copied from it (with the mixer's lock held) by
+     * {@link #prepare}, after which {@link #fill} is called on a reading
+     * thread without the lock. The window is then handed to the mixing thread
+     * by setting {@link #ready} (with the lock held), and the reader is not
+     * prepared or filled again until the mixing thread has taken the window
+     * and cleared the flag.
+     */
+    private static class VoiceReader
+    {
+        /** The handle of the voice being read for, or -1 if none */
+        int handle = -1;
+        GreenfootAudioInputStream stream;
+        String source;
+        boolean loop;
+        
+        /** Format of the stream: */
+        int channels;
+        int bytesPerSample;
+        boolean signed;
+        boolean bigEndian;
+        
+        /** Raw data read from the stream */
+        byte[] bytes;
+        /** Decoded samples (interleaved if stereo) for the next window of the voice */
+        int[] samples;
+        /** Number of frames in samples */
+        int frames;
+        /** Whether samples holds a window which the voice has not yet taken (guarded by the mixer's lock) */
+        boolean ready;
+        /** Whether fill() has been scheduled and not yet finished (guarded by the mixer's lock) */
+        boolean reading;
+        /** Whether the end of the stream has been reached (and we are not looping) */
+        boolean endOfStream;
+        /** An error which occurred reading the stream, yet to be reported */
+        Exception error;
+        /** Whether the stream needs restarting before it is read */
+        boolean restart;
+        /** Whether anything has been read since the stream was last restarted */
+        boolean readSinceRestart;
+        /**
+         * Bring the reader up to date with its voice, and determine whether
+         * the voice's next window needs to be read. Must be called with the
+         * mixer's lock held, and not while reading.
+         * 
+         * @return  true if fill() should be called.
+         */
+        boolean prepare(Voice voice)
+        {
+            if (!voice.active) {
+                handle = -1;
+                stream = null;
+                ready = false;
+                error = null;
+                return false;
+            }
+            if (handle != voice.handle) {
+                handle = voice.handle;
+                stream = voice.stream;
+                source = stream.getSource();
+                AudioFormat format = stream.getFormat();
+                channels = format.getChannels();
+                bytesPerSample = format.getSampleSizeInBits() / 8;
+                signed = format.getEncoding().equals(AudioFormat.Encoding.PCM_SIGNED);
+                bigEndian = format.isBigEndian();
+                int frameSize = format.getFrameSize();
+                if (bytes == null || bytes.length != WINDOW_FRAMES * frameSize) {
+                    bytes = new byte[WINDOW_FRAMES * frameSize];
+                }
+                if (samples == null || samples.length != WINDOW_FRAMES * channels) {
+                    samples = new int[WINDOW_FRAMES * channels];
+                }
+                frames = 0;
+                ready = false;
+                endOfStream = false;
+                error = null;
+                restart = true;
+            }
+            loop = voice.loop;
+            return !voice.paused && !ready && !endOfStream;
+        }
+        
+        /**
+         * Read the next window of the stream. Sets endOfStream if the end is
+         * reached (and not looping), or if the stream cannot be read.
+         */
+        void fill()
+        {
+            frames = 0;
+            int frameSize = bytesPerSample * channels;
+            // A stopped sound may already be playing again on another voice, whose
+            // reader mustn't read the stream at the same time:
+            synchronized (stream) {
+                readWindow(frameSize);
+            }
+        }
+        
+        /**
+         * Read frames into the window until it is full (or the stream ends).
+         */
+        private void readWindow(int frameSize)
+        {
+            try {
+                while (frames < WINDOW_FRAMES) {
+                    if (restart) {
+                        stream.restart();
+                        restart = false;
+                        readSinceRestart = false;
+                    }
+                    int len = stream.read(bytes, 0, (WINDOW_FRAMES - frames) * frameSize);
+                    if (len <= 0) {
+                        // End of stream; only loop if the sound isn't empty:
+                        if (loop && readSinceRestart) {
+                            restart = true;
+                            continue;
+                        }
+                        endOfStream = true;
+                        break;
+                    }
+                    readSinceRestart = true;
+                    decode(len / frameSize);
+                }
+            }
+            catch (IOException e) {
+                error = e;
+                endOfStream = true;
+            }
+            catch (UnsupportedAudioFileException e) {
+                error = e;
+                endOfStream = true;
+            }
+        }
+        
+        /**
+         * Decode frames from the byte buffer into 16-bit samples at the end of the window.
+         */
+        private void decode(int count)
+        {
+            int sampleCount = count * channels;
+            int out = frames * channels;
+            if (bytesPerSample == 1) {
+                for (int i = 0; i < sampleCount; i++) {
+                    samples[out++] = signed ? bytes[i] << 8 : ((bytes[i] & 0xFF) - 128) << 8;
+                }
+            }
+            else {
+                int high = bigEndian ? 0 : 1;
+                for (int i = 0; i < sampleCount; i++) {
+                    samples[out++] = (bytes[i * 2 + high] << 8) | (bytes[i * 2 + 1 - high] & 0xFF);
+                }
+            }
+            frames += count;
+        }
+    }
+}
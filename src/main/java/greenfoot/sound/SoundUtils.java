@@ -42,6 +42,22 @@ public class SoundUtils
         return newVal + min;
     }
 
+    /**
+     * Convert a volume level between 0-100 to a linear gain between 0 and 1,
+     * for sound which is mixed in software. The level is scaled in decibels
+     * (as for a line's gain control) between -80dB and 0dB.
+     * @param level the volume level.
+     * @return the gain.
+     */
+    public static float levelToGain(int level)
+    {
+        if (level <= 0) {
+            return 0f;
+        }
+        float decibels = convertMinMax(Math.min(level, 100), -80f, 0f);
+        return (float) Math.pow(10, decibels / 20);
+    }
+
     /**
      * Convert a value on a logarithmic scale between 0-100 to a linear scale
      * in the same range.
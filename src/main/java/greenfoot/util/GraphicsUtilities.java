@@ -73,8 +73,21 @@ public class GraphicsUtilities {
     private GraphicsUtilities() {
     }
 
-    // Returns the graphics configuration for the primary screen
+    // Graphics configuration for in-memory images, used when there is no screen
+    private static GraphicsConfiguration headlessConfiguration;
+
+    // Returns the graphics configuration for the primary screen, or (if running
+    // headless) one for plain in-memory images
     private static GraphicsConfiguration getGraphicsConfiguration() {
+        if (GraphicsEnvironment.isHeadless()) {
+            if (headlessConfiguration == null) {
+                BufferedImage image = new BufferedImage(1, 1, BufferedImage.TYPE_INT_ARGB);
+                Graphics2D g = image.createGraphics();
+                headlessConfiguration = g.getDeviceConfiguration();
+                g.dispose();
+            }
+            return headlessConfiguration;
+        }
         return GraphicsEnvironment.getLocalGraphicsEnvironment().
                     getDefaultScreenDevice().getDefaultConfiguration();
     }
@@ -432,5 +445,26 @@ public class GraphicsUtilities {
         {
             return overallBounds.height;
         }
+        
+        /**
+         * Get the bounds of the area covered by the lines when drawn (with an
+         * outline) at the origin.
+         */
+        public Rectangle getDrawnBounds()
+        {
+            Rectangle bounds = null;
+            for (Shape shape : lineShapes) {
+                if (shape != null) {
+                    Rectangle shapeBounds = shape.getBounds();
+                    bounds = (bounds == null) ? shapeBounds : bounds.union(shapeBounds);
+                }
+            }
+            if (bounds == null) {
+                return new Rectangle();
+            }
+            // Allow for the outline stroke and anti-aliasing
+            bounds.grow(2, 2);
+            return bounds;
+        }
     }
 }
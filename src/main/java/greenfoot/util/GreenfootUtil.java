@@ -114,6 +114,28 @@ public class GreenfootUtil
     {
         return delegate.getSoundFiles();
     }
+    
+    /**
+     * Gets a list of the image files in this scenario
+     * @return A list of files in the images subdirectory, without the path prefix (e.g. "foo.png")
+     */
+    @OnThread(Tag.Any)
+    public static Iterable<String> getImageFiles()
+    {
+        return delegate.getImageFiles();
+    }
+    
+    /**
+     * Start loading the scenario's images into the image cache in the
+     * background, so that they are ready when first used.
+     */
+    @OnThread(Tag.Any)
+    public static void prefetchImages()
+    {
+        if (delegate != null) {
+            imageCache.prefetchProjectImages();
+        }
+    }
 
     /**
      * Tries to find the specified file using the classloader. It first searches in
@@ -72,6 +72,10 @@ public class Command
     // Discard the world, but don't make a new one
     public static final int COMMAND_DISCARD_WORLD = 29;
     public static final int COMMAND_SET_SPEED = 30;
+    // Send the next world image as a keyframe (the last delta frame could not be applied)
+    public static final int COMMAND_REQUEST_KEYFRAME = 31;
+    // Followed by one integer: 1 to turn simulation profiling on, 0 to turn it off
+    public static final int COMMAND_SET_PROFILING = 32;
 
     public static final int COMMAND_WORLD_FOCUS_GAINED = 40;
     public static final int COMMAND_WORLD_FOCUS_LOST = 41;
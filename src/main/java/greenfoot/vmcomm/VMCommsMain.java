@@ -23,6 +23,7 @@ package greenfoot.vmcomm;
 
 import bluej.pkgmgr.Project;
 import bluej.utility.Debug;
+import greenfoot.core.SimulationStats;
 import greenfoot.guifx.GreenfootStage;
 import javafx.scene.input.KeyCode;
 import threadchecker.OnThread;
@@ -89,6 +90,9 @@ public class VMCommsMain implements Closeable
     public static final int SYNC_AREA_OFFSET_BYTES = 0;
     public static final int SYNC_AREA_SIZE_BYTES = 4;
     
+    // Size (in pixels, in each dimension) of the tiles in delta-encoded world images:
+    public static final int IMAGE_TILE_SIZE = 32;
+    
     private final int fileSize;
     private File shmFile;
     private FileChannel fc;
@@ -102,6 +106,9 @@ public class VMCommsMain implements Closeable
     private int setSpeedCommandCount = 0;
     private int lastPaintSeq = -1;
     private int lastConsumedImg = -1;
+    // The paint sequence of the last image applied to the stage, or -1 if none:
+    private int lastAppliedImg = -1;
+    private boolean keyframeRequested = false;
     
     private boolean checkingIO = false;
     
@@ -133,6 +140,13 @@ public class VMCommsMain implements Closeable
     private boolean delayLoop;
     private int askId = -1;
 
+    // Whether simulation profiling is turned on (so that we can turn it back on after a restart):
+    private boolean profiling = false;
+    // The sequence index of the last simulation statistics received:
+    private int lastStatsSeq = 0;
+    // Simulation statistics not yet passed to the stage, or null:
+    private SimulationStats updatedStats = null;
+
     /**
      * Constructor for VMCommsMain. Creates a temporary file and maps it into memory.
      * 
@@ -298,7 +312,28 @@ public class VMCommsMain implements Closeable
             copy.position(USER_AREA_OFFSET + 2);
             int width = copy.get();
             int height = copy.get();
-            stage.receivedWorldImage(width, height, copy);
+            copy.get(); // skip image data size
+            int baseSeq = copy.get();
+            if (baseSeq == -1)
+            {
+                stage.receivedWorldImage(width, height, copy);
+                lastAppliedImg = lastPaintSeq;
+                keyframeRequested = false;
+            }
+            else if (baseSeq == lastAppliedImg && stage.receivedWorldTiles(width, height, copy))
+            {
+                lastAppliedImg = lastPaintSeq;
+            }
+            else
+            {
+                // We don't have the image the delta applies to; ask for a whole one:
+                lastAppliedImg = -1;
+                if (! keyframeRequested)
+                {
+                    pendingCommands.add(new Command(COMMAND_REQUEST_KEYFRAME));
+                    keyframeRequested = true;
+                }
+            }
             haveUpdatedImage = false;
             lastConsumedImg = lastPaintSeq;
         }
@@ -321,6 +356,12 @@ public class VMCommsMain implements Closeable
             promptCodepoints = null;
         }
 
+        if (updatedStats != null)
+        {
+            stage.receivedSimulationStats(updatedStats);
+            updatedStats = null;
+        }
+
         stage.setLastUserExecutionStartTime(lastExecStartTime, delayLoop);
             
         checkingIO = false;
@@ -363,12 +404,13 @@ public class VMCommsMain implements Closeable
                     int paintSeq = sharedMemory.get();
                     int width = sharedMemory.get();
                     int height = sharedMemory.get();
+                    int imageSize = sharedMemory.get();
                     if (width != 0 && height != 0 && paintSeq != lastPaintSeq)
                     {
                         lastPaintSeq = paintSeq;
                         haveUpdatedImage = true;
                     }
-                    sharedMemory.position(sharedMemory.position() + width * height);
+                    sharedMemory.position(sharedMemory.position() + imageSize);
     
                     // Get rid of all commands that the client has confirmed it has seen:
                     int lastAckCommand = sharedMemory.get();
@@ -421,13 +463,21 @@ public class VMCommsMain implements Closeable
                     worldCellSize = sharedMemory.get();
                     
                     int askId = sharedMemory.get();
-                    if (askId > 0 && askId > lastAnswer)
+                    if (askId != -1)
                     {
-                        this.askId = askId;
                         // Length followed by codepoints for the prompt string:
                         int askLength = sharedMemory.get();
-                        promptCodepoints = new int[askLength];
-                        sharedMemory.get(promptCodepoints);
+                        if (askId > 0 && askId > lastAnswer)
+                        {
+                            this.askId = askId;
+                            promptCodepoints = new int[askLength];
+                            sharedMemory.get(promptCodepoints);
+                        }
+                        else
+                        {
+                            // Already answered; skip the prompt:
+                            sharedMemory.position(sharedMemory.position() + askLength);
+                        }
                     }
 
                     int delayLoopStatus = sharedMemory.get();
@@ -439,6 +489,16 @@ public class VMCommsMain implements Closeable
                     {
                         delayLoop = false;
                     }
+
+                    int statsSeq = sharedMemory.get();
+                    int statsLength = sharedMemory.get();
+                    if (statsSeq != lastStatsSeq && statsLength > 0)
+                    {
+                        int[] statsData = new int[statsLength];
+                        sharedMemory.get(statsData);
+                        updatedStats = SimulationStats.decode(statsData);
+                        lastStatsSeq = statsSeq;
+                    }
                 }
             }
         }
@@ -619,6 +679,16 @@ public class VMCommsMain implements Closeable
         setSpeedCommandCount = setSpeedCommandCount + 1;
     }
 
+    /**
+     * Turn gathering of simulation statistics (act times, collision queries, painting)
+     * on or off in the debug VM.
+     */
+    public synchronized void setProfiling(boolean profiling)
+    {
+        this.profiling = profiling;
+        pendingCommands.add(new Command(COMMAND_SET_PROFILING, profiling ? 1 : 0));
+    }
+
     /**
      * The debug VM has terminated.  We re-use the same shared memory file,
      * so we must reset our state ready for a new debug VM.
@@ -631,6 +701,15 @@ public class VMCommsMain implements Closeable
         lastAnswer = -1;
         previousStoppedWithErrorCount = 0;
         prevWorldCounter = 0;
+        lastAppliedImg = -1;
+        keyframeRequested = false;
+        lastStatsSeq = 0;
+        updatedStats = null;
+        if (profiling)
+        {
+            // Profiling stays on for the new debug VM:
+            pendingCommands.add(new Command(COMMAND_SET_PROFILING, 1));
+        }
         // Zero the buffer:
         sharedMemoryByte.position(0);
         sharedMemoryByte.put(new byte[fileSize], 0, fileSize);
@@ -26,7 +26,12 @@ import greenfoot.World;
 import greenfoot.WorldVisitor;
 import greenfoot.core.ShadowProjectProperties;
 import greenfoot.core.Simulation;
+import greenfoot.core.SimulationProfiler;
+import greenfoot.core.SimulationStats;
 import greenfoot.core.WorldHandler;
+import greenfoot.event.SimulationStatsListener;
+import greenfoot.gui.RenderSnapshot;
+import greenfoot.gui.RenderThread;
 import greenfoot.gui.WorldRenderer;
 import greenfoot.gui.input.KeyboardManager;
 import greenfoot.gui.input.mouse.MousePollingManager;
@@ -35,6 +40,8 @@ import javafx.scene.input.MouseButton;
 import threadchecker.OnThread;
 import threadchecker.Tag;
 
+import java.awt.Graphics2D;
+import java.awt.Rectangle;
 import java.awt.image.BufferedImage;
 import java.awt.image.DataBufferInt;
 import java.io.IOException;
@@ -44,14 +51,22 @@ import java.nio.IntBuffer;
 import java.nio.MappedByteBuffer;
 import java.nio.channels.FileChannel;
 import java.nio.channels.FileLock;
+import java.util.BitSet;
+import java.util.List;
 
 /**
  * Lives on the Simulation VM (aka debug VM), and handles communications with the server
  * (see {@link VMCommsMain})
  */
-public class VMCommsSimulation
+public class VMCommsSimulation implements SimulationStatsListener
 {
     private final WorldRenderer worldRenderer;    
+    /** The thread rendering snapshots of worlds with asynchronous rendering; created when first needed */
+    private volatile RenderThread renderThread;
+    /** Held while drawing into a world image, which may be done on the simulation or render thread */
+    private final Object renderLock = new Object();
+    /** Whether the render thread has drawn into the world images since worldRenderer last did (guarded by renderLock) */
+    private boolean asyncFramePainted;
         
     // These variables are shared with the remote communications thread and need synchronised access:
     /** Whether the image has been updated */
@@ -60,8 +75,10 @@ public class VMCommsSimulation
     private BufferedImage[] worldImages = new BufferedImage[2];
     /** Index in worldImages of the most recently drawn world */
     private int drawnWorld;
-    /** Whether the last drawn image is currently being transferred */
-    private boolean transferringImage;
+    /** Index in worldImages of the world image being drawn into, or -1 if none */
+    private int drawingWorld = -1;
+    /** Index in worldImages of the world image being transferred, or -1 if none */
+    private int transferringWorld = -1;
     /** The prompt for Greenfoot.ask() */
     private String pAskPrompt;
     /** The ask request identifier */
@@ -71,6 +88,14 @@ public class VMCommsSimulation
 
     /** The status of entering delay loop */
     private boolean delayLoopEntered;
+    /** Tiles of the world image which have changed since the last transferred image */
+    private final BitSet changedTiles = new BitSet();
+    /** Whether the next transferred image must be sent as a keyframe */
+    private boolean keyframeNeeded = true;
+    /** The most recent simulation statistics, encoded (empty if there are none) */
+    private int[] pStats = new int[0];
+    /** Sequence index of the most recent simulation statistics */
+    private int pStatsSeq = 0;
 
     private final ShadowProjectProperties projectProperties;
     
@@ -105,25 +130,44 @@ public class VMCommsSimulation
      *
      * Debug VM area (10M - 16kb): [Positions relative to beginning]
      * 
-     * Pos 0: Sequence index when the current (included) image was painted (the image is included
+     * Pos 0: Sequence index of this frame.
+     * Pos 1: Sequence index when the current (included) image was painted (the image is included
      *        unchanged in subsequent frames).
-     * Pos 1: Width of world image in pixels (W)
-     * Pos 2: Height of world image in pixels (H)
-     * Pos 3 incl to 3+(W*H) excl, if W and H are both greater than zero:
-     *        W * H pixels one row at a time with no gaps, each pixel is one
-     *        integer, in BGRA form, i.e. blue is highest 8 bits, alpha is lowest.
-     * Pos 3+(W*H): Sequence ID of most recently processed command, or -1 if N/A.
-     * Pos 4+(W*H): Stopped-with-error count.  (If this goes up, server VM will bring terminal to front)
-     * Pos 5+(W*H) and 6+(W*H): Two ints (highest bits first) with value of System.currentTimeMillis()
-     *                          at the point when some execution that may contain user code last started on
-     *                          the simulation thread, or 0L if user code is not currently running.
-     * Pos 7+(W*H): The current simulation speed (1 to 100)
-     * Pos 8+(W*H): world counter if a world is currently installed, or 0 if there is no world.
-     * Pos 9+(W*H): The world cell size in pixels
-     * Pos 10+(W*H): -1 if not currently awaiting a Greenfoot.ask() answer.
-     *              If awaiting, it is count (P) of following codepoints which make up prompt.
-     * Pos 11+(W*H) to 11+(W*H)+P excl: codepoints making up ask prompt.
-     * Pos 11+(W*H)+P: 1 if the the delay loop is currently running, or 0 otherwise.
+     * Pos 2: Width of world image in pixels (W)
+     * Pos 3: Height of world image in pixels (H)
+     * Pos 4: Size of the image data in integers (S)
+     * Pos 5 incl to 5+S excl, if W and H are both greater than zero: the image data. Each pixel
+     *        is one integer, in BGRA form, i.e. blue is highest 8 bits, alpha is lowest. The image
+     *        data is either a keyframe or a delta frame:
+     *        Pos 5: -1 for a keyframe. For a delta frame, the paint sequence index of the image
+     *               which the delta applies to.
+     *        For a keyframe:
+     *          W * H pixels one row at a time with no gaps.
+     *        For a delta frame, only the tiles of the image which have changed are included.
+     *        The image is divided into square tiles of VMCommsMain.IMAGE_TILE_SIZE pixels,
+     *        numbered in rows from the top-left; tiles at the right and bottom edges are cut
+     *        short by the image edge.
+     *          Pos 6: Count of tiles (T)
+     *          Pos 7 onwards: T tiles, each given as the tile number followed by the pixels of
+     *                         the tile one row at a time with no gaps.
+     *        The server VM requests a keyframe (with COMMAND_REQUEST_KEYFRAME) if it does not
+     *        have the image that a delta frame applies to.
+     * Pos 5+S: Sequence ID of most recently processed command, or -1 if N/A.
+     * Pos 6+S: Stopped-with-error count.  (If this goes up, server VM will bring terminal to front)
+     * Pos 7+S and 8+S: Two ints (highest bits first) with value of System.currentTimeMillis()
+     *                  at the point when some execution that may contain user code last started on
+     *                  the simulation thread, or 0L if user code is not currently running.
+     * Pos 9+S: The current simulation speed (1 to 100)
+     * Pos 10+S: world counter if a world is currently installed, or 0 if there is no world.
+     * Pos 11+S: The world cell size in pixels
+     * Pos 12+S: -1 if not currently awaiting a Greenfoot.ask() answer.
+     *           If awaiting, it is count (P) of following codepoints which make up prompt.
+     * Pos 13+S to 13+S+P excl: codepoints making up ask prompt.
+     * Pos 13+S+P: 1 if the the delay loop is currently running, or 0 otherwise.
+     * Pos 14+S+P: Sequence index of the most recent simulation statistics, or 0 if none have
+     *             been gathered (statistics are only gathered while profiling is turned on).
+     * Pos 15+S+P: Count (N) of integers making up the statistics.
+     * Pos 16+S+P to 16+S+P+N excl: the statistics, as given by SimulationStats.encode().
      */
     private final IntBuffer sharedMemory;
     private int seq = 1;
@@ -133,6 +177,9 @@ public class VMCommsSimulation
     private int lastAckCommand = -1;
     private int lastPaintSeq = -1; // last paint sequence
     private int lastPaintSize; // number of ints last transmitted as image
+    private int lastPaintWidth; // width of image last transmitted
+    private int lastPaintHeight; // height of image last transmitted
+    private final BitSet sendTiles = new BitSet(); // tiles being transmitted
     private boolean paintScheduled = false; // a paint is scheduled
     
     // How many times have we stopped with an error?  We continuously send the count to the
@@ -195,6 +242,11 @@ public class VMCommsSimulation
         {
             this.worldCounter += 1;
             this.world = world;
+            if (renderThread != null)
+            {
+                // Don't show a frame of the old world:
+                renderThread.discard();
+            }
         }
     }
 
@@ -213,9 +265,14 @@ public class VMCommsSimulation
     public String paintRemote(PaintWhen paintWhen)
     {
         long now = System.nanoTime();
+        SimulationProfiler profiler = Simulation.getInstance().getProfiler();
         if (paintWhen == PaintWhen.IF_DUE && now - lastPaintNanos <= 8_333_333L)
         {
             paintScheduled = (world != null);
+            if (profiler != null && paintScheduled)
+            {
+                profiler.paintSkipped();
+            }
             return null; // No need to draw frame if less than 1/120th of sec between them,
                          // but we must schedule a paint for the next sequence we send.
         }
@@ -227,39 +284,141 @@ public class VMCommsSimulation
         if (sendImage)
         {
             lastPaintNanos = now;
-            int imageWidth = WorldVisitor.getWidthInPixels(world);
-            int imageHeight = WorldVisitor.getHeightInPixels(world);
-            BufferedImage worldImage;
-            
-            synchronized (this)
+            if (WorldVisitor.isAsyncRendering(world))
             {
-                int toDrawWorld = 1 - drawnWorld; // invert 0/1
-                worldImage = worldImages[toDrawWorld];
-                if (worldImage == null || worldImage.getHeight() != imageHeight
-                        || worldImage.getWidth() != imageWidth)
+                // Just capture what is to be drawn; the render thread will draw it:
+                if (renderThread == null)
                 {
-                    worldImage = new BufferedImage(imageWidth, imageHeight, BufferedImage.TYPE_INT_ARGB);
-                    worldImages[toDrawWorld] = worldImage;
+                    renderThread = new RenderThread("Greenfoot render", this::paintFrame);
+                    renderThread.start();
+                }
+                boolean dropped = renderThread.submit(RenderSnapshot.capture(world));
+                if (profiler != null && dropped)
+                {
+                    profiler.paintSkipped();
                 }
             }
-            
-            worldRenderer.renderWorld(world, worldImage);
-            
-            synchronized (this)
+            else
             {
-                // If a world image is currently being transferred, we mustn't overwrite it.
-                // Therefore, alter drawnWorld only if that's not the case:
-                if (! transferringImage)
+                if (renderThread != null)
                 {
-                    drawnWorld = 1 - drawnWorld;
+                    renderThread.discard();
+                }
+                int imageWidth = WorldVisitor.getWidthInPixels(world);
+                int imageHeight = WorldVisitor.getHeightInPixels(world);
+                synchronized (renderLock)
+                {
+                    if (asyncFramePainted)
+                    {
+                        // The images no longer hold what worldRenderer last drew in them, and its
+                        // damage would be relative to its own last frame rather than the last one sent:
+                        worldRenderer.forgetPaintState();
+                        asyncFramePainted = false;
+                        synchronized (this)
+                        {
+                            keyframeNeeded = true;
+                        }
+                    }
+                    int toDraw = getImageToDraw(imageWidth, imageHeight);
+                    worldRenderer.renderWorld(world, worldImages[toDraw]);
+                    if (profiler != null)
+                    {
+                        profiler.worldPainted(System.nanoTime() - now);
+                    }
+                    imageDrawn(toDraw, imageWidth, worldRenderer.getDamage());
                 }
-                updateImage = true;
             }
         }
         
         return answer[0];
     }
 
+    /**
+     * Paint a frame from a snapshot of the world. Called on the render thread,
+     * when the world is rendered asynchronously.
+     */
+    @OnThread(Tag.Worker)
+    private void paintFrame(RenderSnapshot snapshot, List<Rectangle> damage)
+    {
+        long start = System.nanoTime();
+        synchronized (renderLock)
+        {
+            int toDraw = getImageToDraw(snapshot.getWidth(), snapshot.getHeight());
+            Graphics2D g = worldImages[toDraw].createGraphics();
+            snapshot.paint(g);
+            g.dispose();
+            SimulationProfiler profiler = Simulation.getInstance().getProfiler();
+            if (profiler != null)
+            {
+                profiler.worldPainted(System.nanoTime() - start);
+            }
+            imageDrawn(toDraw, snapshot.getWidth(), damage);
+            asyncFramePainted = true;
+        }
+    }
+
+    /**
+     * Get the index in worldImages of the world image which is not currently being
+     * transferred, for drawing into. Preferably this is not the most recently drawn
+     * image either, so that that can still be transferred meanwhile. Must only be
+     * called while holding renderLock, and followed by a call to imageDrawn.
+     */
+    @OnThread(Tag.Any)
+    private synchronized int getImageToDraw(int imageWidth, int imageHeight)
+    {
+        // While an image is being transferred, the other one must be drawn into, even
+        // if it is the most recently drawn image:
+        int toDrawWorld = 1 - (transferringWorld != -1 ? transferringWorld : drawnWorld); // invert 0/1
+        BufferedImage worldImage = worldImages[toDrawWorld];
+        if (worldImage == null || worldImage.getHeight() != imageHeight
+                || worldImage.getWidth() != imageWidth)
+        {
+            worldImages[toDrawWorld] = new BufferedImage(imageWidth, imageHeight, BufferedImage.TYPE_INT_ARGB);
+        }
+        drawingWorld = toDrawWorld;
+        return toDrawWorld;
+    }
+
+    /**
+     * A new world image has been drawn (into the image returned by getImageToDraw);
+     * make it available to be transferred to the server VM.
+     * 
+     * @param index       The index in worldImages of the image which was drawn
+     * @param imageWidth  The width of the image
+     * @param damage      The regions changed since the previous image was drawn
+     */
+    @OnThread(Tag.Any)
+    private synchronized void imageDrawn(int index, int imageWidth, List<Rectangle> damage)
+    {
+        drawnWorld = index;
+        drawingWorld = -1;
+        updateImage = true;
+        recordChangedTiles(imageWidth, damage);
+    }
+
+    /**
+     * Mark the tiles covering the regions changed by the last render as needing to be
+     * transferred.
+     * 
+     * @param imageWidth  The width of the rendered image
+     * @param damage      The regions changed by the last render
+     */
+    private void recordChangedTiles(int imageWidth, List<Rectangle> damage)
+    {
+        int tileSize = VMCommsMain.IMAGE_TILE_SIZE;
+        int columns = (imageWidth + tileSize - 1) / tileSize;
+        for (Rectangle region : damage)
+        {
+            int lastRow = (region.y + region.height - 1) / tileSize;
+            int firstColumn = region.x / tileSize;
+            int lastColumn = (region.x + region.width - 1) / tileSize;
+            for (int row = region.y / tileSize; row <= lastRow; row++)
+            {
+                changedTiles.set(row * columns + firstColumn, row * columns + lastColumn + 1);
+            }
+        }
+    }
+
     @OnThread(Tag.Simulation)
     public synchronized String doAsk(int askId, String askPrompt)
     {
@@ -327,28 +486,27 @@ public class VMCommsSimulation
             }
             
             BufferedImage img;
+            boolean keyframe = false;
             synchronized (this)
             {
-                img = doUpdateImage ? worldImages[drawnWorld] : null;
-                transferringImage = (img != null);
+                // If the most recently drawn image is being drawn over again (because the
+                // other was being transferred), wait until it has been drawn:
+                img = (doUpdateImage && drawingWorld != drawnWorld) ? worldImages[drawnWorld] : null;
                 if (img != null)
                 {
+                    transferringWorld = drawnWorld;
                     // We want to clear the updateImage flag nice and early, so that any new image
                     // generated in the meantime can correctly set it back to true:
                     updateImage = false;
+                    // Likewise take the changed tiles now; any new image will mark its own:
+                    keyframe = keyframeNeeded;
+                    keyframeNeeded = false;
+                    sendTiles.clear();
+                    sendTiles.or(changedTiles);
+                    changedTiles.clear();
                 }
             }
             
-            int [] raw = (img == null) ? null : ((DataBufferInt) img.getData().getDataBuffer()).getData();
-
-            int imageWidth = 0;
-            int imageHeight = 0;
-            if (img != null)
-            {
-                imageWidth = img.getWidth();
-                imageHeight = img.getHeight();
-            }
-            
             sharedMemory.position(VMCommsMain.USER_AREA_OFFSET);
             sharedMemory.put(this.seq++);
             if (img == null)
@@ -356,30 +514,29 @@ public class VMCommsSimulation
                 sharedMemory.put(lastPaintSeq);
                 sharedMemory.get(); // skip width
                 sharedMemory.get(); // skip height
+                sharedMemory.get(); // skip image data size
                 sharedMemory.position(sharedMemory.position() + lastPaintSize);
             }
             else
             {
+                int baseSeq = lastPaintSeq;
                 lastPaintSeq = (seq - 1);
                 sharedMemory.put(lastPaintSeq);
-                sharedMemory.put(imageWidth);
-                sharedMemory.put(imageHeight);
-                for (int i = 0; i < raw.length; i++)
-                {
-                    sharedMemory.put(raw[i]);
-                }
-                lastPaintSize = raw.length;
+                sharedMemory.put(img.getWidth());
+                sharedMemory.put(img.getHeight());
+                int sizePos = sharedMemory.position();
+                sharedMemory.put(0); // image data size, filled in below
+                keyframe |= img.getWidth() != lastPaintWidth || img.getHeight() != lastPaintHeight;
+                putImage(img, keyframe ? -1 : baseSeq);
+                lastPaintSize = sharedMemory.position() - sizePos - 1;
+                sharedMemory.put(sizePos, lastPaintSize);
+                lastPaintWidth = img.getWidth();
+                lastPaintHeight = img.getHeight();
                 paintScheduled = false;
                 synchronized (this)
                 {
-                    transferringImage = false;
-                    // If another world image has been painted in the meantime, make sure that
-                    // drawnWorld indexes the correct image in the array (updateImage will have
-                    // been set true in paintRemote()):
-                    if (updateImage)
-                    {
-                        drawnWorld = 1 - drawnWorld;
-                    }
+                    // Any world image painted in the meantime has been published by imageDrawn():
+                    transferringWorld = -1;
                 }
             }
             sharedMemory.put(lastAckCommand);
@@ -424,6 +581,14 @@ public class VMCommsSimulation
                 sharedMemory.put(0);
             }
 
+            // Write the most recent statistics; the server VM ignores them if it has seen them already:
+            synchronized (this)
+            {
+                sharedMemory.put(pStatsSeq);
+                sharedMemory.put(pStats.length);
+                sharedMemory.put(pStats);
+            }
+
             putLock.release();
 
             // Lock the synchronisation area (C) to make sure that the server has acquired our put area:
@@ -437,6 +602,10 @@ public class VMCommsSimulation
         }
         catch (IOException ex)
         {
+            synchronized (this)
+            {
+                transferringWorld = -1;
+            }
             try
             {
                 putLock.release();
@@ -446,6 +615,11 @@ public class VMCommsSimulation
         }
         catch (BufferOverflowException ex)
         {
+            synchronized (this)
+            {
+                transferringWorld = -1;
+                keyframeNeeded = true;
+            }
             try
             {
                 putLock.release();
@@ -472,6 +646,50 @@ public class VMCommsSimulation
         }
     }
     
+    /**
+     * Write the image data for a world image into the shared memory, as either a keyframe or a
+     * delta frame containing only the changed tiles (see the shared memory documentation).
+     * The pixels are copied directly from the image's raster.
+     * 
+     * @param img      The world image
+     * @param baseSeq  The paint sequence index of the image previously transferred, or -1 if
+     *                 a keyframe must be sent
+     */
+    @OnThread(Tag.Worker)
+    private void putImage(BufferedImage img, int baseSeq)
+    {
+        int width = img.getWidth();
+        int height = img.getHeight();
+        int[] raw = ((DataBufferInt) img.getRaster().getDataBuffer()).getData();
+        
+        int tileSize = VMCommsMain.IMAGE_TILE_SIZE;
+        int columns = (width + tileSize - 1) / tileSize;
+        int rows = (height + tileSize - 1) / tileSize;
+        int tileCount = sendTiles.cardinality();
+        // If most of the image has changed, a keyframe is cheaper to send and to apply:
+        if (baseSeq == -1 || tileCount * 4 > columns * rows * 3)
+        {
+            sharedMemory.put(-1);
+            sharedMemory.put(raw, 0, width * height);
+            return;
+        }
+        
+        sharedMemory.put(baseSeq);
+        sharedMemory.put(tileCount);
+        for (int tile = sendTiles.nextSetBit(0); tile >= 0; tile = sendTiles.nextSetBit(tile + 1))
+        {
+            int x = (tile % columns) * tileSize;
+            int y = (tile / columns) * tileSize;
+            int tileWidth = Math.min(tileSize, width - x);
+            int tileHeight = Math.min(tileSize, height - y);
+            sharedMemory.put(tile);
+            for (int row = y; row < y + tileHeight; row++)
+            {
+                sharedMemory.put(raw, row * width + x, tileWidth);
+            }
+        }
+    }
+    
     /**
      * An "ask" answer has been received from the other VM; record it and signal the simulation
      * thread.
@@ -589,6 +807,17 @@ public class VMCommsSimulation
                     case Command.COMMAND_SET_SPEED:
                         Simulation.getInstance().setSpeed(data[1]);
                         break;
+                    case Command.COMMAND_SET_PROFILING:
+                        Simulation.getInstance().setProfiling(data[1] != 0);
+                        break;
+                    case Command.COMMAND_REQUEST_KEYFRAME:
+                        synchronized (this)
+                        {
+                            // Re-send the most recent image, if any, as a keyframe:
+                            keyframeNeeded = true;
+                            updateImage |= world != null && worldImages[drawnWorld] != null;
+                        }
+                        break;
                     case Command.COMMAND_WORLD_FOCUS_GAINED:
                         WorldHandler.getInstance().worldFocusChanged(true);
                         break;
@@ -601,6 +830,18 @@ public class VMCommsSimulation
         return lastSeqID;
     }
 
+    /**
+     * New statistics have been gathered by the simulation profiler; they will be sent
+     * to the server VM with the next frame.
+     */
+    @Override
+    @OnThread(Tag.Simulation)
+    public synchronized void simulationStats(SimulationStats stats)
+    {
+        pStats = stats.encode();
+        pStatsSeq += 1;
+    }
+
     /**
      * Gets a suitable ask ID.  This needs to be a sequence number which will be
      * newer than the last answer, so we just use the last command we received.
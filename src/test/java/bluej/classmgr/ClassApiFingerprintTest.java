@@ -0,0 +1,111 @@
+/*
+ This file is part of the BlueJ program.
+ Copyright (C) 2019  Michael Kolling and John Rosenberg
+
+ This program is free software; you can redistribute it and/or
+ modify it under the terms of the GNU General Public License
+ as published by the Free Software Foundation; either version 2
+ of the License, or (at your option) any later version.
+
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with this program; if not, write to the Free Software
+ Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+
+ This file is subject to the Classpath exception as provided in the
+ LICENSE.txt file that accompanied this code.
+ */
+package bluej.classmgr;
+
+import junit.framework.TestCase;
+
+import javax.tools.JavaCompiler;
+import javax.tools.ToolProvider;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+
+/**
+ * Tests for reading class API fingerprints.
+ */
+public class ClassApiFingerprintTest extends TestCase
+{
+    private File dir;
+
+    @Override
+    protected void setUp() throws Exception
+    {
+        dir = Files.createTempDirectory("apitest").toFile();
+    }
+
+    @Override
+    protected void tearDown()
+    {
+        for (File f : dir.listFiles()) {
+            f.delete();
+        }
+        dir.delete();
+    }
+
+    /**
+     * Compile the given source for class A (in package p) and return its fingerprint.
+     */
+    private ClassApiFingerprint compile(String source) throws IOException
+    {
+        File sourceFile = new File(dir, "A.java");
+        Files.write(sourceFile.toPath(), ("package p; " + source).getBytes(StandardCharsets.UTF_8));
+        JavaCompiler compiler = ToolProvider.getSystemJavaCompiler();
+        // Without a destination directory, the class files are written alongside the source:
+        assertEquals(0, compiler.run(null, null, null, sourceFile.getPath()));
+        return ClassApiFingerprint.read(new File(dir, "A.class"));
+    }
+
+    private String fingerprint(String source) throws IOException
+    {
+        return compile(source).getFingerprint();
+    }
+
+    public void testImplementationChanges() throws IOException
+    {
+        String base = fingerprint("public class A { public int f() { return 1; } private int x; }");
+        assertEquals(base, fingerprint("public class A { public int f() { return 2 + x; } private int x; }"));
+        assertEquals(base, fingerprint("public class A { private int x; public synchronized int f() { return 1; } }"));
+        assertEquals(base, fingerprint("public class A { public int f() { return g(); } private int g() { return 1; } }"));
+        assertEquals(base, fingerprint("public class A { public int f() { Runnable r = () -> {}; r.run(); return 1; } }"));
+        assertEquals(base, fingerprint("public class A { public int f() { return new Object() { }.hashCode(); } }"));
+    }
+
+    public void testApiChanges() throws IOException
+    {
+        String base = fingerprint("public class A { public int f() { return 1; } }");
+        assertFalse(base.equals(fingerprint("public class A { public long f() { return 1; } }")));
+        assertFalse(base.equals(fingerprint("public class A { protected int f() { return 1; } }")));
+        assertFalse(base.equals(fingerprint("public class A { int f() { return 1; } }")));
+        assertFalse(base.equals(fingerprint("public class A { public int f() { return 1; } int y; }")));
+        assertFalse(base.equals(fingerprint("public class A implements Runnable { public int f() { return 1; } public void run() { } }")));
+        assertFalse(base.equals(fingerprint("public class A { public int f() throws Exception { return 1; } }")));
+        assertFalse(base.equals(fingerprint("public class A<T> { public int f() { return 1; } }")));
+    }
+
+    public void testConstantsAndMemberClasses() throws IOException
+    {
+        String base = fingerprint("public class A { public static final int C = 1; public static class B { public int g; } }");
+        assertFalse(base.equals(fingerprint("public class A { public static final int C = 2; public static class B { public int g; } }")));
+        assertFalse(base.equals(fingerprint("public class A { public static final int C = 1; public static class B { public long g; } }")));
+        assertEquals(base, fingerprint("public class A { public static final int C = 1; public static class B { public int g; private int h; } }"));
+    }
+
+    public void testReferencedClasses() throws IOException
+    {
+        ClassApiFingerprint fp = compile("public class A { java.util.List<String> f(java.io.File file) { return new java.util.ArrayList<>(); } }");
+        assertTrue(fp.getReferencedClasses().contains("p/A"));
+        assertTrue(fp.getReferencedClasses().contains("java/util/List"));
+        assertTrue(fp.getReferencedClasses().contains("java/util/ArrayList"));
+        assertTrue(fp.getReferencedClasses().contains("java/io/File"));
+    }
+}
@@ -0,0 +1,81 @@
+/*
+ This file is part of the BlueJ program.
+ Copyright (C) 2019  Michael Kolling and John Rosenberg
+
+ This program is free software; you can redistribute it and/or
+ modify it under the terms of the GNU General Public License
+ as published by the Free Software Foundation; either version 2
+ of the License, or (at your option) any later version.
+
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with this program; if not, write to the Free Software
+ Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+
+ This file is subject to the Classpath exception as provided in the
+ LICENSE.txt file that accompanied this code.
+ */
+package bluej.compiler;
+
+import junit.framework.TestCase;
+
+import javax.tools.JavaCompiler;
+import javax.tools.StandardJavaFileManager;
+import javax.tools.StandardLocation;
+import javax.tools.ToolProvider;
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Arrays;
+
+/**
+ * Tests for discarding the output of error-checking compilations.
+ */
+public class DiscardingFileManagerTest extends TestCase
+{
+    private File dir;
+
+    @Override
+    protected void setUp() throws Exception
+    {
+        dir = Files.createTempDirectory("discard").toFile();
+    }
+
+    @Override
+    protected void tearDown()
+    {
+        for (File f : dir.listFiles()) {
+            f.delete();
+        }
+        dir.delete();
+    }
+
+    private boolean compile(String source) throws Exception
+    {
+        File sourceFile = new File(dir, "A.java");
+        Files.write(sourceFile.toPath(), source.getBytes(StandardCharsets.UTF_8));
+        
+        JavaCompiler compiler = ToolProvider.getSystemJavaCompiler();
+        try (StandardJavaFileManager sjfm = compiler.getStandardFileManager(null, null, StandardCharsets.UTF_8)) {
+            sjfm.setLocation(StandardLocation.CLASS_OUTPUT, Arrays.asList(dir));
+            return compiler.getTask(null, new DiscardingFileManager(sjfm), d -> { }, null, null,
+                    sjfm.getJavaFileObjects(sourceFile)).call();
+        }
+    }
+
+    public void testNothingWritten() throws Exception
+    {
+        assertTrue(compile("public class A { class B { } Runnable r = new Runnable() { public void run() { } }; }"));
+        assertEquals(1, dir.list().length);
+    }
+
+    public void testErrorsReported() throws Exception
+    {
+        assertFalse(compile("public class A { int x = \"s\"; }"));
+        assertEquals(1, dir.list().length);
+    }
+}
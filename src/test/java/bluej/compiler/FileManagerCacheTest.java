@@ -0,0 +1,102 @@
+/*
+ This file is part of the BlueJ program.
+ Copyright (C) 2019  Michael Kolling and John Rosenberg
+
+ This program is free software; you can redistribute it and/or
+ modify it under the terms of the GNU General Public License
+ as published by the Free Software Foundation; either version 2
+ of the License, or (at your option) any later version.
+
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with this program; if not, write to the Free Software
+ Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+
+ This file is subject to the Classpath exception as provided in the
+ LICENSE.txt file that accompanied this code.
+ */
+package bluej.compiler;
+
+import junit.framework.TestCase;
+
+import javax.tools.JavaCompiler;
+import javax.tools.ToolProvider;
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Collections;
+
+/**
+ * Tests for the reuse of javac file managers between compilations.
+ */
+public class FileManagerCacheTest extends TestCase
+{
+    private final JavaCompiler compiler = ToolProvider.getSystemJavaCompiler();
+    private File destDir;
+    private File jar;
+
+    @Override
+    protected void setUp() throws Exception
+    {
+        destDir = Files.createTempDirectory("fmcache").toFile();
+        jar = new File(destDir, "lib.jar");
+        Files.write(jar.toPath(), new byte[] {1, 2, 3});
+    }
+
+    @Override
+    protected void tearDown()
+    {
+        FileManagerCache.closeFileManagers(destDir);
+        jar.delete();
+        destDir.delete();
+    }
+
+    private FileManagerCache.CachedFileManager take(File... classPath) throws Exception
+    {
+        return FileManagerCache.take(compiler, null, StandardCharsets.UTF_8, destDir, classPath, null,
+                Collections.emptyList());
+    }
+
+    public void testReuse() throws Exception
+    {
+        FileManagerCache.CachedFileManager first = take(jar);
+        // A file manager is only used by one compilation at a time:
+        FileManagerCache.CachedFileManager second = take(jar);
+        assertNotSame(first, second);
+        FileManagerCache.release(second);
+        assertSame(second, take(jar));
+        FileManagerCache.release(first);
+    }
+
+    public void testJarModified() throws Exception
+    {
+        FileManagerCache.CachedFileManager first = take(jar);
+        FileManagerCache.release(first);
+        Files.write(jar.toPath(), new byte[] {1, 2, 3, 4});
+        FileManagerCache.CachedFileManager second = take(jar);
+        assertNotSame(first, second);
+        FileManagerCache.release(second);
+    }
+
+    public void testClassPathChanged() throws Exception
+    {
+        FileManagerCache.CachedFileManager first = take(jar);
+        FileManagerCache.release(first);
+        FileManagerCache.release(take());
+        // Using another class path for the same destination discards the old file manager:
+        assertNotSame(first, take(jar));
+    }
+
+    public void testReleaseAfterClose() throws Exception
+    {
+        FileManagerCache.CachedFileManager first = take(jar);
+        // The project is closed while the file manager is in use:
+        FileManagerCache.closeFileManagers(destDir);
+        FileManagerCache.release(first);
+        assertNotSame(first, take(jar));
+    }
+}
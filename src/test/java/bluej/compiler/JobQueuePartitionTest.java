@@ -0,0 +1,91 @@
+/*
+ This file is part of the BlueJ program.
+ Copyright (C) 2019  Michael Kolling and John Rosenberg
+
+ This program is free software; you can redistribute it and/or
+ modify it under the terms of the GNU General Public License
+ as published by the Free Software Foundation; either version 2
+ of the License, or (at your option) any later version.
+
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with this program; if not, write to the Free Software
+ Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+
+ This file is subject to the Classpath exception as provided in the
+ LICENSE.txt file that accompanied this code.
+ */
+package bluej.compiler;
+
+import junit.framework.TestCase;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Tests for splitting compilations into independent parts.
+ */
+public class JobQueuePartitionTest extends TestCase
+{
+    private final Map<String, List<String>> related = new HashMap<>();
+
+    private void relate(String a, String b)
+    {
+        related.computeIfAbsent(a, k -> new ArrayList<>()).add(b);
+        related.computeIfAbsent(b, k -> new ArrayList<>()).add(a);
+    }
+
+    private Collection<String> getRelated(String item)
+    {
+        return related.getOrDefault(item, Collections.emptyList());
+    }
+
+    public void testComponents()
+    {
+        relate("A", "B");
+        relate("B", "C");
+        relate("D", "E");
+        // Relations to items which are not being partitioned are ignored:
+        relate("F", "X");
+        relate("G", "X");
+        
+        List<List<String>> parts = JobQueue.partition(Arrays.asList("A", "B", "C", "D", "E", "F", "G"),
+                this::getRelated, 10);
+        assertEquals(4, parts.size());
+        assertEquals(Arrays.asList("A", "B", "C"), parts.get(0));
+        assertEquals(Arrays.asList("D", "E"), parts.get(1));
+        assertEquals(Arrays.asList("F"), parts.get(2));
+        assertEquals(Arrays.asList("G"), parts.get(3));
+    }
+
+    public void testCombineParts()
+    {
+        relate("A", "B");
+        relate("B", "C");
+        relate("D", "E");
+        
+        List<List<String>> parts = JobQueue.partition(Arrays.asList("A", "B", "C", "D", "E", "F", "G"),
+                this::getRelated, 2);
+        assertEquals(2, parts.size());
+        assertEquals(Arrays.asList("A", "B", "C", "G"), parts.get(0));
+        assertEquals(Arrays.asList("D", "E", "F"), parts.get(1));
+        
+        parts = JobQueue.partition(Arrays.asList("A", "B", "C", "D", "E", "F", "G"), this::getRelated, 1);
+        assertEquals(1, parts.size());
+        assertEquals(7, parts.get(0).size());
+    }
+
+    public void testEmpty()
+    {
+        assertTrue(JobQueue.partition(Collections.<String>emptyList(), this::getRelated, 4).isEmpty());
+    }
+}
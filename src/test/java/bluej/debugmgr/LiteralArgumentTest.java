@@ -0,0 +1,103 @@
+/*
+ This file is part of the BlueJ program.
+ Copyright (C) 2019  Michael Kolling and John Rosenberg
+
+ This program is free software; you can redistribute it and/or
+ modify it under the terms of the GNU General Public License
+ as published by the Free Software Foundation; either version 2
+ of the License, or (at your option) any later version.
+
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with this program; if not, write to the Free Software
+ Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+
+ This file is subject to the Classpath exception as provided in the
+ LICENSE.txt file that accompanied this code.
+ */
+package bluej.debugmgr;
+
+import junit.framework.TestCase;
+
+/**
+ * Tests for the literal interpretation used to make interactive calls without
+ * a shell class.
+ */
+public class LiteralArgumentTest extends TestCase
+{
+    public void testIntegers()
+    {
+        assertEquals("42", LiteralArgument.valueFor("42", int.class));
+        assertEquals("-42", LiteralArgument.valueFor(" -42 ", int.class));
+        assertEquals("-2147483648", LiteralArgument.valueFor("-2147483648", int.class));
+        assertNull(LiteralArgument.valueFor("2147483648", int.class));
+        assertEquals("2147483648", LiteralArgument.valueFor("2147483648L", long.class));
+        assertEquals("-1", LiteralArgument.valueFor("0xFFFFFFFF", int.class));
+        assertEquals("255", LiteralArgument.valueFor("0xff", long.class));
+        assertNull(LiteralArgument.valueFor("0x100000000", int.class));
+
+        // left to the compiler:
+        assertNull(LiteralArgument.valueFor("017", int.class));
+        assertNull(LiteralArgument.valueFor("1_000", int.class));
+        assertNull(LiteralArgument.valueFor("1 + 2", int.class));
+        assertNull(LiteralArgument.valueFor("x", int.class));
+    }
+
+    public void testAssignmentConversions()
+    {
+        // constant narrowing
+        assertEquals("100", LiteralArgument.valueFor("100", byte.class));
+        assertNull(LiteralArgument.valueFor("200", byte.class));
+        assertEquals("A", LiteralArgument.valueFor("65", char.class));
+        assertNull(LiteralArgument.valueFor("5L", int.class));
+
+        // widening
+        assertEquals("97", LiteralArgument.valueFor("'a'", int.class));
+        assertEquals("3.0", LiteralArgument.valueFor("3", double.class));
+        assertEquals("3.0", LiteralArgument.valueFor("3L", float.class));
+        assertNull(LiteralArgument.valueFor("1.5", float.class));
+        assertNull(LiteralArgument.valueFor("1.5", long.class));
+
+        // no boxing
+        assertNull(LiteralArgument.valueFor("3", Integer.class));
+        assertNull(LiteralArgument.valueFor("true", Object.class));
+    }
+
+    public void testFloatingPoint()
+    {
+        assertEquals("1.5", LiteralArgument.valueFor("1.5f", float.class));
+        assertEquals("1.5", LiteralArgument.valueFor("1.5", double.class));
+        assertEquals("-0.25", LiteralArgument.valueFor("-.25", double.class));
+        assertEquals("1000.0", LiteralArgument.valueFor("1e3", double.class));
+        assertEquals("2.0", LiteralArgument.valueFor("2d", double.class));
+        assertNull(LiteralArgument.valueFor("1e400", double.class));
+        assertNull(LiteralArgument.valueFor("1e-50f", float.class));
+    }
+
+    public void testCharsAndStrings()
+    {
+        assertEquals("x", LiteralArgument.valueFor("'x'", char.class));
+        assertEquals("\n", LiteralArgument.valueFor("'\\n'", char.class));
+        assertEquals("\u00ff", LiteralArgument.valueFor("'\\377'", char.class));
+        assertNull(LiteralArgument.valueFor("'xy'", char.class));
+        assertNull(LiteralArgument.valueFor("'\\u0041'", char.class));
+
+        assertEquals("a \"b\"\t", LiteralArgument.valueFor("\"a \\\"b\\\"\\t\"", String.class));
+        assertEquals("", LiteralArgument.valueFor("\"\"", CharSequence.class));
+        assertEquals("s", LiteralArgument.valueFor("\"s\"", Object.class));
+        assertNull(LiteralArgument.valueFor("\"a\" + \"b\"", String.class));
+        assertNull(LiteralArgument.valueFor("\"s\"", Integer.class));
+    }
+
+    public void testBooleans()
+    {
+        assertEquals("true", LiteralArgument.valueFor("true", boolean.class));
+        assertEquals("false", LiteralArgument.valueFor("false", boolean.class));
+        assertNull(LiteralArgument.valueFor("1", boolean.class));
+        assertNull(LiteralArgument.valueFor("true", int.class));
+    }
+}
@@ -0,0 +1,349 @@
+/*
+ This file is part of the Greenfoot program.
+ Copyright (C) 2019  Poul Henriksen and Michael Kolling
+
+ This program is free software; you can redistribute it and/or
+ modify it under the terms of the GNU General Public License
+ as published by the Free Software Foundation; either version 2
+ of the License, or (at your option) any later version.
+
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with this program; if not, write to the Free Software
+ Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+
+ This file is subject to the Classpath exception as provided in the
+ LICENSE.txt file that accompanied this code.
+ */
+package greenfoot;
+
+import greenfoot.core.Simulation;
+import greenfoot.util.GreenfootUtil;
+
+import java.util.AbstractSet;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Microbenchmark comparing ActorSet against the previous linked-list and
+ * chained-hash implementation (reproduced below as LegacyActorSet), for add,
+ * remove and iteration at various set sizes. Also times TreeActorSet, which
+ * resolves the subset for each actor by class.
+ * 
+ * <p>This is not run as part of the test suite; run main() directly. The
+ * implementations share the benchmark code, so the JIT compiler's profile
+ * for each run is affected by the others; for fairer numbers, name a single
+ * implementation ("legacy", "array" or "tree") as an argument and run each in
+ * a separate JVM.
+ */
+public class ActorSetBenchmark
+{
+    private static final int [] SIZES = {1000, 10000, 100000};
+    private static final int RUNS = 15;
+    
+    private static final String [] IMPLEMENTATIONS = {"legacy", "array", "tree"};
+    
+    private static volatile int sink;
+    
+    private static class SubObject extends TestObject
+    {
+        SubObject()
+        {
+            super(1, 1);
+        }
+    }
+    
+    /**
+     * A set operation to be timed. Each run is given a fresh (empty) set.
+     */
+    private interface Op
+    {
+        void run(AbstractSet<Actor> set, List<Actor> actors, List<Actor> shuffled);
+    }
+    
+    public static void main(String [] args)
+    {
+        GreenfootUtil.initialise(new TestUtilDelegate());
+        Simulation.initialize();
+        
+        String [] implementations = (args.length == 0) ? IMPLEMENTATIONS : args;
+        StringBuilder header = new StringBuilder(String.format("%-8s %-10s", "size", "op"));
+        for (String implementation : implementations) {
+            header.append(String.format(" %12s", implementation + "(ns)"));
+        }
+        System.out.println(header);
+        for (int size : SIZES) {
+            List<Actor> actors = new ArrayList<Actor>(size);
+            for (int i = 0; i < size; i++) {
+                actors.add((i % 3 == 0) ? new SubObject() : new TestObject(1, 1));
+            }
+            List<Actor> shuffled = new ArrayList<Actor>(actors);
+            Collections.shuffle(shuffled, new Random(size));
+            
+            report(implementations, size, "add", actors, shuffled, (set, a, s) -> {
+                for (Actor actor : a) {
+                    set.add(actor);
+                }
+            });
+            report(implementations, size, "remove", actors, shuffled, (set, a, s) -> {
+                set.addAll(a);
+                for (Actor actor : s) {
+                    remove(set, actor);
+                }
+            });
+            report(implementations, size, "iterate", actors, shuffled, (set, a, s) -> {
+                set.addAll(a);
+                int sum = 0;
+                for (int i = 0; i < 10; i++) {
+                    for (Actor actor : set) {
+                        if (actor != null) {
+                            sum++;
+                        }
+                    }
+                }
+                sink += sum;
+            });
+            report(implementations, size, "churn", actors, shuffled, (set, a, s) -> {
+                // Remove and re-add half of the actors, as during a simulation
+                set.addAll(a);
+                for (int i = 0; i < s.size() / 2; i++) {
+                    remove(set, s.get(i));
+                }
+                for (int i = 0; i < s.size() / 2; i++) {
+                    set.add(s.get(i));
+                }
+                sink += set.size();
+            });
+        }
+    }
+    
+    private static void report(String [] implementations, int size, String name,
+            List<Actor> actors, List<Actor> shuffled, Op op)
+    {
+        StringBuilder line = new StringBuilder(String.format("%-8d %-10s", size, name));
+        for (String implementation : implementations) {
+            line.append(String.format(" %12d", time(implementation, actors, shuffled, op)));
+        }
+        System.out.println(line);
+    }
+    
+    /**
+     * Time an operation, returning the best time (in nanoseconds) after warm-up.
+     */
+    private static long time(String implementation, List<Actor> actors, List<Actor> shuffled, Op op)
+    {
+        long best = Long.MAX_VALUE;
+        for (int i = 0; i < RUNS * 2; i++) {
+            AbstractSet<Actor> set = newSet(implementation);
+            long start = System.nanoTime();
+            op.run(set, actors, shuffled);
+            long elapsed = System.nanoTime() - start;
+            if (i >= RUNS) {
+                // the first half of the runs are warm-up
+                best = Math.min(best, elapsed);
+            }
+        }
+        return best;
+    }
+    
+    /**
+     * Remove an actor from a set. The actor sets overload remove() rather than
+     * overriding remove(Object), so call the specific method.
+     */
+    private static void remove(AbstractSet<Actor> set, Actor actor)
+    {
+        if (set instanceof ActorSet) {
+            ((ActorSet) set).remove(actor);
+        }
+        else if (set instanceof TreeActorSet) {
+            ((TreeActorSet) set).remove(actor);
+        }
+        else {
+            set.remove(actor);
+        }
+    }
+    
+    private static AbstractSet<Actor> newSet(String implementation)
+    {
+        switch (implementation) {
+            case "legacy":
+                return new LegacyActorSet();
+            case "array":
+                return new ActorSet();
+            case "tree":
+                TreeActorSet set = new TreeActorSet();
+                set.setClassOrder(true, SubObject.class);
+                return set;
+            default:
+                throw new IllegalArgumentException("Unknown set implementation: " + implementation);
+        }
+    }
+    
+    /**
+     * The previous ActorSet implementation: a doubly-linked list of nodes,
+     * which are also chained into hash buckets.
+     */
+    private static class LegacyActorSet extends AbstractSet<Actor>
+    {
+        private ListNode listHeadTail = new ListNode();
+        private ListNode [] hashMap = new ListNode[0];
+        private int numActors = 0;
+        
+        @Override
+        public boolean add(Actor actor)
+        {
+            if (contains(actor)) {
+                return false;
+            }
+            numActors++;
+            ListNode newNode = new ListNode(actor, listHeadTail.prev);
+            if (numActors >= 2 * hashMap.length) {
+                resizeHashmap();
+            }
+            else {
+                int hash = ActorVisitor.getSequenceNumber(actor) % hashMap.length;
+                ListNode hashHead = hashMap[hash];
+                hashMap[hash] = newNode;
+                newNode.setHashListHead(hashHead);
+            }
+            return true;
+        }
+        
+        private void resizeHashmap()
+        {
+            hashMap = new ListNode[numActors];
+            for (ListNode node = listHeadTail.next; node != listHeadTail; node = node.next) {
+                int hash = ActorVisitor.getSequenceNumber(node.actor) % numActors;
+                ListNode hashHead = hashMap[hash];
+                hashMap[hash] = node;
+                node.setHashListHead(hashHead);
+            }
+        }
+        
+        private ListNode getActorNode(Object o)
+        {
+            if (hashMap.length == 0 || ! (o instanceof Actor)) {
+                return null;
+            }
+            Actor actor = (Actor) o;
+            ListNode hashHead = hashMap[ActorVisitor.getSequenceNumber(actor) % hashMap.length];
+            if (hashHead == null) {
+                return null;
+            }
+            ListNode curNode = hashHead;
+            do {
+                if (curNode.actor == actor) {
+                    return curNode;
+                }
+                curNode = curNode.nextHash;
+            } while (curNode != hashHead);
+            return null;
+        }
+        
+        @Override
+        public boolean contains(Object o)
+        {
+            return getActorNode(o) != null;
+        }
+        
+        @Override
+        public boolean remove(Object o)
+        {
+            ListNode actorNode = getActorNode(o);
+            if (actorNode == null) {
+                return false;
+            }
+            int hash = ActorVisitor.getSequenceNumber(actorNode.actor) % hashMap.length;
+            if (hashMap[hash] == actorNode) {
+                hashMap[hash] = actorNode.nextHash;
+                if (hashMap[hash] == actorNode) {
+                    hashMap[hash] = null;
+                }
+            }
+            actorNode.remove();
+            numActors--;
+            if (numActors <= hashMap.length / 2) {
+                resizeHashmap();
+            }
+            return true;
+        }
+        
+        @Override
+        public int size()
+        {
+            return numActors;
+        }
+        
+        @Override
+        public Iterator<Actor> iterator()
+        {
+            return new Iterator<Actor>() {
+                ListNode currentNode = listHeadTail;
+                
+                public boolean hasNext()
+                {
+                    return currentNode.next != listHeadTail;
+                }
+                
+                public Actor next()
+                {
+                    currentNode = currentNode.next;
+                    return currentNode.actor;
+                }
+            };
+        }
+        
+        private static class ListNode
+        {
+            Actor actor;
+            ListNode next;
+            ListNode prev;
+            ListNode nextHash;
+            ListNode prevHash;
+            
+            ListNode()
+            {
+                next = this;
+                prev = this;
+            }
+            
+            ListNode(Actor actor, ListNode listTail)
+            {
+                this.actor = actor;
+                next = listTail.next;
+                prev = listTail;
+                listTail.next = this;
+                next.prev = this;
+            }
+            
+            void setHashListHead(ListNode oldHead)
+            {
+                if (oldHead == null) {
+                    nextHash = this;
+                    prevHash = this;
+                }
+                else {
+                    nextHash = oldHead;
+                    prevHash = oldHead.prevHash;
+                    oldHead.prevHash = this;
+                    prevHash.nextHash = this;
+                }
+            }
+            
+            void remove()
+            {
+                next.prev = prev;
+                prev.next = next;
+                nextHash.prevHash = prevHash;
+                prevHash.nextHash = nextHash;
+            }
+        }
+    }
+}
@@ -0,0 +1,85 @@
+/*
+ This file is part of the Greenfoot program.
+ Copyright (C) 2019  Poul Henriksen and Michael Kolling
+
+ This program is free software; you can redistribute it and/or
+ modify it under the terms of the GNU General Public License
+ as published by the Free Software Foundation; either version 2
+ of the License, or (at your option) any later version.
+
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with this program; if not, write to the Free Software
+ Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+
+ This file is subject to the Classpath exception as provided in the
+ LICENSE.txt file that accompanied this code.
+ */
+package greenfoot;
+
+import greenfoot.core.ImageCache;
+import greenfoot.util.GreenfootUtil;
+import junit.framework.TestCase;
+
+/**
+ * Tests for the size limit of the image cache.
+ */
+public class ImageCacheTest extends TestCase
+{
+    @Override
+    protected void setUp()
+        throws Exception
+    {
+        GreenfootUtil.initialise(new TestUtilDelegate());
+    }
+    
+    public void testLeastRecentlyUsedEviction()
+    {
+        ImageCache cache = new ImageCache();
+        cache.setPixelBudget(250);
+        cache.addCachedImage("a", new GreenfootImage(10, 10));
+        cache.addCachedImage("b", new GreenfootImage(10, 10));
+        assertEquals(200, cache.getCachedPixels());
+        
+        // Use a, so that b is the least recently used:
+        assertNotNull(cache.getCachedImage("a"));
+        cache.addCachedImage("c", new GreenfootImage(10, 5));
+        assertEquals(250, cache.getCachedPixels());
+        cache.addCachedImage("d", new GreenfootImage(10, 5));
+        
+        assertNotNull(cache.getCachedImage("a"));
+        assertNull(cache.getCachedImage("b"));
+        assertNotNull(cache.getCachedImage("c"));
+        assertNotNull(cache.getCachedImage("d"));
+        assertEquals(200, cache.getCachedPixels());
+    }
+    
+    public void testOversizedImageNotCached()
+    {
+        ImageCache cache = new ImageCache();
+        cache.setPixelBudget(100);
+        cache.addCachedImage("a", new GreenfootImage(10, 10));
+        assertFalse(cache.addCachedImage("b", new GreenfootImage(20, 20)));
+        assertNull(cache.getCachedImage("b"));
+        assertNotNull(cache.getCachedImage("a"));
+    }
+    
+    public void testReplaceAndRemove()
+    {
+        ImageCache cache = new ImageCache();
+        cache.addCachedImage("a", new GreenfootImage(10, 10));
+        cache.addCachedImage("a", new GreenfootImage(5, 5));
+        assertEquals(25, cache.getCachedPixels());
+        
+        cache.addCachedImage("a", null);
+        assertTrue(cache.isNullCachedImage("a"));
+        assertEquals(0, cache.getCachedPixels());
+        
+        cache.removeCachedImage("a");
+        assertFalse(cache.isNullCachedImage("a"));
+    }
+}
@@ -0,0 +1,118 @@
+/*
+ This file is part of the Greenfoot program.
+ Copyright (C) 2019  Poul Henriksen and Michael Kolling
+
+ This program is free software; you can redistribute it and/or
+ modify it under the terms of the GNU General Public License
+ as published by the Free Software Foundation; either version 2
+ of the License, or (at your option) any later version.
+
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with this program; if not, write to the Free Software
+ Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+
+ This file is subject to the Classpath exception as provided in the
+ LICENSE.txt file that accompanied this code.
+ */
+package greenfoot;
+
+import greenfoot.util.GreenfootUtil;
+import junit.framework.TestCase;
+
+/**
+ * Tests for bulk access to the pixels of an image.
+ */
+public class ImagePixelsTest extends TestCase
+{
+    @Override
+    protected void setUp()
+        throws Exception
+    {
+        GreenfootUtil.initialise(new TestUtilDelegate());
+    }
+    
+    public void testGetAndSetPixels()
+    {
+        GreenfootImage image = new GreenfootImage(10, 8);
+        int[] pixels = new int[4 * 3];
+        for (int i = 0; i < pixels.length; i++) {
+            pixels[i] = 0xFF000000 | (i * 0x102030);
+        }
+        image.setPixels(2, 3, 4, 3, pixels);
+        
+        for (int y = 0; y < 3; y++) {
+            for (int x = 0; x < 4; x++) {
+                assertEquals(pixels[y * 4 + x], image.getColorAt(2 + x, 3 + y).getColorObject().getRGB());
+            }
+        }
+        
+        int[] read = image.getPixels(2, 3, 4, 3, null);
+        for (int i = 0; i < pixels.length; i++) {
+            assertEquals(pixels[i], read[i]);
+        }
+        
+        // Pixels outside the rectangle are unchanged:
+        assertEquals(0, image.getPixels(1, 3, 1, 1, null)[0] >>> 24);
+    }
+    
+    public void testOutOfBounds()
+    {
+        GreenfootImage image = new GreenfootImage(10, 8);
+        try {
+            image.getPixels(5, 0, 6, 1, null);
+            fail();
+        }
+        catch (IndexOutOfBoundsException e) {
+        }
+        try {
+            image.setPixels(0, -1, 1, 1, new int[1]);
+            fail();
+        }
+        catch (IndexOutOfBoundsException e) {
+        }
+    }
+    
+    public void testPixelBufferCopyOnWrite()
+    {
+        GreenfootImage original = new GreenfootImage(10, 8);
+        original.setColorAt(4, 5, Color.RED);
+        GreenfootImage copy = new GreenfootImage(original.getCopyOnWriteClone());
+        
+        try (PixelBuffer buffer = copy.openPixelBuffer()) {
+            int[] data = buffer.getData();
+            assertEquals(Color.RED.getColorObject().getRGB(), data[buffer.getIndex(4, 5)]);
+            data[buffer.getIndex(4, 5)] = 0xFF0000FF;
+        }
+        
+        assertEquals(Color.BLUE, copy.getColorAt(4, 5));
+        assertEquals(Color.RED, original.getColorAt(4, 5));
+    }
+    
+    public void testPixelBufferExposesImageUntilClosed()
+    {
+        GreenfootImage image = new GreenfootImage(10, 8);
+        PixelBuffer buffer = image.openPixelBuffer();
+        // The pixels may change while the buffer is open, so the image is copied:
+        assertNotSame(image.getFrozenImage(), image.getFrozenImage());
+        buffer.close();
+        assertSame(image.getFrozenImage(), image.getFrozenImage());
+    }
+    
+    public void testClosedPixelBuffer()
+    {
+        GreenfootImage image = new GreenfootImage(10, 8);
+        PixelBuffer buffer = image.openPixelBuffer();
+        buffer.close();
+        try {
+            buffer.getData();
+            fail();
+        }
+        catch (IllegalStateException e) {
+        }
+    }
+}
@@ -0,0 +1,169 @@
+/*
+ This file is part of the Greenfoot program.
+ Copyright (C) 2019  Poul Henriksen and Michael Kolling
+
+ This program is free software; you can redistribute it and/or
+ modify it under the terms of the GNU General Public License
+ as published by the Free Software Foundation; either version 2
+ of the License, or (at your option) any later version.
+
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with this program; if not, write to the Free Software
+ Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+
+ This file is subject to the Classpath exception as provided in the
+ LICENSE.txt file that accompanied this code.
+ */
+package greenfoot;
+
+import greenfoot.core.ParallelActPhase;
+import greenfoot.core.Simulation;
+import greenfoot.util.GreenfootUtil;
+import junit.framework.TestCase;
+
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Tests for actors acting in parallel.
+ */
+public class ParallelActorTest extends TestCase
+{
+    private World world;
+    
+    /**
+     * An actor which moves, spawns another actor, and removes its target.
+     */
+    private static class Mover extends TestObject implements ParallelActor
+    {
+        int seenX = -1;
+        Actor target;
+        boolean fail;
+        
+        @Override
+        public void act()
+        {
+            move(1);
+            move(1);
+            seenX = getX();
+            getWorld().addObject(new TestObject(), getX(), 5);
+            if (target != null) {
+                getWorld().removeObject(target);
+            }
+            if (fail) {
+                throw new IllegalStateException("failed");
+            }
+        }
+    }
+
+    /**
+     * An actor which gets random numbers.
+     */
+    private static class Roller extends TestObject implements ParallelActor
+    {
+        int [] numbers = new int[10];
+        
+        @Override
+        public void act()
+        {
+            for (int i = 0; i < numbers.length; i++) {
+                numbers[i] = Greenfoot.getRandomNumber(1000000);
+            }
+        }
+    }
+
+    @Override
+    protected void setUp()
+        throws Exception
+    {
+        GreenfootUtil.initialise(new TestUtilDelegate());
+        Simulation.initialize();
+        world = WorldCreator.createWorld(100, 100, 1);
+    }
+    
+    public void testChangesDeferred()
+    {
+        ParallelActPhase phase = new ParallelActPhase();
+        Mover [] movers = new Mover[100];
+        for (int i = 0; i < movers.length; i++) {
+            movers[i] = new Mover();
+            world.addObject(movers[i], i / 2, i % 2);
+            phase.add(movers[i]);
+        }
+        // Each mover removes the previous one, which should still act
+        movers[0].target = movers[movers.length - 1];
+        for (int i = 1; i < movers.length; i++) {
+            movers[i].target = movers[i - 1];
+        }
+        
+        phase.run();
+        assertTrue(phase.isEmpty());
+        
+        for (int i = 0; i < movers.length; i++) {
+            // Moves are applied only after act(), so the actor saw its old location
+            assertEquals(i / 2, movers[i].seenX);
+            assertNull(movers[i].getWorld());
+        }
+        
+        // Spawned objects are added in act order
+        List<TestObject> spawned = world.getObjects(TestObject.class);
+        assertEquals(movers.length, spawned.size());
+        for (int i = 0; i < spawned.size(); i++) {
+            assertEquals(i / 2, spawned.get(i).getX());
+            assertEquals(5, spawned.get(i).getY());
+        }
+    }
+    
+    public void testFailure()
+    {
+        ParallelActPhase phase = new ParallelActPhase();
+        Mover [] movers = new Mover[20];
+        for (int i = 0; i < movers.length; i++) {
+            movers[i] = new Mover();
+            world.addObject(movers[i], 10, 10);
+            phase.add(movers[i]);
+        }
+        movers[5].fail = true;
+        movers[15].fail = true;
+        
+        try {
+            phase.run();
+            fail();
+        }
+        catch (IllegalStateException e) {
+            // expected
+        }
+        assertTrue(phase.isEmpty());
+        
+        // Changes are applied up to and including the earliest failing actor:
+        for (int i = 0; i < movers.length; i++) {
+            assertEquals(i <= 5 ? 11 : 10, movers[i].getX());
+        }
+        assertEquals(movers.length + 6, world.numberOfObjects());
+    }
+    
+    public void testRandomNumbersRepeatable()
+    {
+        Roller [][] runs = new Roller[2][100];
+        for (Roller [] rollers : runs) {
+            GreenfootVisitor.setRandomSeed(42L);
+            ParallelActPhase phase = new ParallelActPhase();
+            for (int i = 0; i < rollers.length; i++) {
+                rollers[i] = new Roller();
+                world.addObject(rollers[i], 10, 10);
+                phase.add(rollers[i]);
+            }
+            phase.run();
+        }
+        
+        for (int i = 0; i < runs[0].length; i++) {
+            assertTrue(Arrays.equals(runs[0][i].numbers, runs[1][i].numbers));
+        }
+        assertFalse(Arrays.equals(runs[0][0].numbers, runs[0][1].numbers));
+    }
+}
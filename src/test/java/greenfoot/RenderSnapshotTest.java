@@ -0,0 +1,145 @@
+/*
+ This file is part of the Greenfoot program.
+ Copyright (C) 2019  Poul Henriksen and Michael Kolling
+
+ This program is free software; you can redistribute it and/or
+ modify it under the terms of the GNU General Public License
+ as published by the Free Software Foundation; either version 2
+ of the License, or (at your option) any later version.
+
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with this program; if not, write to the Free Software
+ Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+
+ This file is subject to the Classpath exception as provided in the
+ LICENSE.txt file that accompanied this code.
+ */
+package greenfoot;
+
+import greenfoot.gui.RenderSnapshot;
+import greenfoot.gui.WorldRenderer;
+import greenfoot.util.GreenfootUtil;
+import junit.framework.TestCase;
+
+import java.awt.Graphics2D;
+import java.awt.Rectangle;
+import java.awt.image.BufferedImage;
+import java.util.List;
+
+/**
+ * Tests for render snapshots, used to render a world on a separate thread.
+ */
+public class RenderSnapshotTest extends TestCase
+{
+    private World world;
+    
+    @Override
+    protected void setUp()
+        throws Exception
+    {
+        GreenfootUtil.initialise(new TestUtilDelegate());
+        world = WorldCreator.createWorld(40, 30, 3);
+    }
+    
+    private static TestObject filledObject(int width, int height, Color color)
+    {
+        TestObject o = new TestObject(width, height);
+        o.getImage().setColor(color);
+        o.getImage().fill();
+        return o;
+    }
+    
+    private BufferedImage paint(RenderSnapshot snapshot)
+    {
+        BufferedImage image = new BufferedImage(snapshot.getWidth(), snapshot.getHeight(), BufferedImage.TYPE_INT_ARGB);
+        Graphics2D g = image.createGraphics();
+        snapshot.paint(g);
+        g.dispose();
+        return image;
+    }
+    
+    private static void assertSameImage(BufferedImage expected, BufferedImage actual)
+    {
+        assertEquals(expected.getWidth(), actual.getWidth());
+        assertEquals(expected.getHeight(), actual.getHeight());
+        for (int y = 0; y < expected.getHeight(); y++) {
+            for (int x = 0; x < expected.getWidth(); x++) {
+                assertEquals("Pixel at " + x + "," + y, expected.getRGB(x, y), actual.getRGB(x, y));
+            }
+        }
+    }
+    
+    public void testPaintMatchesRenderer()
+    {
+        world.getBackground().setColor(Color.BLUE);
+        world.getBackground().fillOval(10, 10, 50, 30);
+        world.addObject(filledObject(9, 5, Color.RED), 5, 5);
+        TestObject rotated = filledObject(12, 7, Color.GREEN);
+        rotated.setRotation(30);
+        world.addObject(rotated, 20, 10);
+        TestObject translucent = filledObject(15, 15, Color.BLACK);
+        translucent.getImage().setTransparency(100);
+        world.addObject(translucent, 21, 11);
+        world.showText("Score", 20, 25);
+        
+        BufferedImage expected = new BufferedImage(120, 90, BufferedImage.TYPE_INT_ARGB);
+        new WorldRenderer().renderWorld(world, expected);
+        assertSameImage(expected, paint(RenderSnapshot.capture(world)));
+    }
+    
+    public void testSnapshotUnaffectedByLaterChanges()
+    {
+        TestObject o = filledObject(9, 9, Color.RED);
+        world.addObject(o, 10, 10);
+        TestObject exposed = filledObject(9, 9, Color.RED);
+        world.addObject(exposed, 20, 10);
+        // The backing image of this one may be changed directly:
+        BufferedImage awtImage = exposed.getImage().getAwtImage();
+        
+        RenderSnapshot snapshot = RenderSnapshot.capture(world);
+        BufferedImage before = paint(snapshot);
+        
+        o.getImage().setColor(Color.BLUE);
+        o.getImage().fill();
+        awtImage.setRGB(4, 4, 0xFF0000FF);
+        o.setLocation(30, 20);
+        world.getBackground().fill();
+        assertSameImage(before, paint(snapshot));
+        assertFalse(before.getRGB(30 * 3 + 1, 20 * 3 + 1) == paint(RenderSnapshot.capture(world)).getRGB(30 * 3 + 1, 20 * 3 + 1));
+    }
+    
+    public void testDamage()
+    {
+        TestObject still = filledObject(6, 6, Color.RED);
+        TestObject moving = filledObject(6, 6, Color.BLUE);
+        world.addObject(still, 5, 5);
+        world.addObject(moving, 20, 20);
+        
+        RenderSnapshot first = RenderSnapshot.capture(world);
+        List<Rectangle> damage = first.getDamage(null);
+        assertEquals(1, damage.size());
+        assertEquals(new Rectangle(0, 0, 120, 90), damage.get(0));
+        
+        assertTrue(RenderSnapshot.capture(world).getDamage(first).isEmpty());
+        
+        moving.setLocation(22, 20);
+        RenderSnapshot second = RenderSnapshot.capture(world);
+        BufferedImage expected = paint(second);
+        
+        // Repainting just the damaged regions of the first frame gives the second:
+        BufferedImage image = paint(first);
+        damage = second.getDamage(first);
+        assertFalse(damage.isEmpty());
+        for (Rectangle region : damage) {
+            assertFalse(region.intersects(new Rectangle(15, 15, 6, 6)));
+            image.getRaster().setRect(expected.getRaster().createChild(region.x, region.y,
+                    region.width, region.height, region.x, region.y, null));
+        }
+        assertSameImage(expected, image);
+    }
+}
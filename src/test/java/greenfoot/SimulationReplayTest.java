@@ -0,0 +1,154 @@
+/*
+ This file is part of the Greenfoot program.
+ Copyright (C) 2019  Poul Henriksen and Michael Kolling
+
+ This program is free software; you can redistribute it and/or
+ modify it under the terms of the GNU General Public License
+ as published by the Free Software Foundation; either version 2
+ of the License, or (at your option) any later version.
+
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with this program; if not, write to the Free Software
+ Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+
+ This file is subject to the Classpath exception as provided in the
+ LICENSE.txt file that accompanied this code.
+ */
+package greenfoot;
+
+import greenfoot.core.SimulationRecorder;
+import greenfoot.core.SimulationReplay;
+import greenfoot.core.WorldHandler;
+import greenfoot.gui.input.KeyboardManager;
+import greenfoot.vmcomm.Command;
+import javafx.scene.input.KeyCode;
+import javafx.scene.input.MouseButton;
+import junit.framework.TestCase;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * Tests for recording and replaying simulation runs.
+ */
+public class SimulationReplayTest extends TestCase
+{
+    @Override
+    protected void setUp() throws Exception
+    {
+        WorldHandler.initialise();
+    }
+
+    public void testRecordAndRead() throws IOException
+    {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        SimulationRecorder recorder = new SimulationRecorder(out, -42L, "MyWörld");
+        recorder.roundStarting();
+        recorder.recordKeyEvent(Command.KEY_DOWN, KeyCode.A, "a");
+        recorder.roundStarting();
+        recorder.roundStarting();
+        recorder.recordMouseEvent(Command.MOUSE_CLICKED, -5, 70000, MouseButton.PRIMARY, 2);
+        recorder.recordMouseEvent(Command.MOUSE_MOVED, 3, 4, null, 0);
+        recorder.roundStarting();
+        recorder.close();
+        // Events after closing are not recorded:
+        recorder.recordFocusLost();
+        
+        SimulationReplay replay = SimulationReplay.read(new ByteArrayInputStream(out.toByteArray()));
+        assertEquals(-42L, replay.getSeed());
+        assertEquals("MyWörld", replay.getWorldClassName());
+        assertEquals(4, replay.getRoundCount());
+        assertEquals(3, replay.getEventCount());
+    }
+
+    public void testUnfinishedRecording() throws IOException
+    {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        SimulationRecorder recorder = new SimulationRecorder(out, 1L, "MyWorld");
+        recorder.roundStarting();
+        recorder.recordFocusLost();
+        recorder.roundStarting();
+        recorder.recordFocusLost();
+        
+        SimulationReplay replay = SimulationReplay.read(new ByteArrayInputStream(out.toByteArray()));
+        assertEquals(2, replay.getRoundCount());
+        assertEquals(2, replay.getEventCount());
+        
+        try {
+            SimulationReplay.read(new ByteArrayInputStream(Arrays.copyOf(out.toByteArray(), 10)));
+            fail();
+        }
+        catch (IOException e) {
+            // Expected: not even the header is complete
+        }
+    }
+
+    public void testReplayDeliversEventsBetweenRounds() throws IOException
+    {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        SimulationRecorder recorder = new SimulationRecorder(out, 1L, "MyWorld");
+        recorder.roundStarting();
+        recorder.recordKeyEvent(Command.KEY_DOWN, KeyCode.A, "a");
+        recorder.roundStarting();
+        recorder.roundStarting();
+        recorder.recordKeyEvent(Command.KEY_UP, KeyCode.A, "a");
+        recorder.close();
+        
+        SimulationReplay replay = SimulationReplay.read(new ByteArrayInputStream(out.toByteArray()));
+        KeyboardManager keyboardManager = WorldHandler.getInstance().getKeyboardManager();
+        replay.roundStarting();
+        assertFalse(keyboardManager.isKeyDown("a"));
+        // The key was pressed during the first round, so is down from the second:
+        replay.roundStarting();
+        assertTrue(keyboardManager.isKeyDown("a"));
+        replay.roundStarting();
+        assertTrue(keyboardManager.isKeyDown("a"));
+        assertNull(keyboardManager.getKey());
+        replay.roundStarting();
+        assertFalse(keyboardManager.isKeyDown("a"));
+        assertEquals("a", keyboardManager.getKey());
+    }
+
+    public void testRecordingDeliversEventsBetweenRounds() throws IOException
+    {
+        SimulationRecorder recorder = new SimulationRecorder(new ByteArrayOutputStream(), 1L, "MyWorld");
+        KeyboardManager keyboardManager = WorldHandler.getInstance().getKeyboardManager();
+        keyboardManager.setRecorder(recorder);
+        try {
+            recorder.roundStarting();
+            keyboardManager.keyPressed(KeyCode.B, "b");
+            // As when replayed, the key is not down until the next round:
+            assertFalse(keyboardManager.isKeyDown("b"));
+            recorder.roundStarting();
+            assertTrue(keyboardManager.isKeyDown("b"));
+            keyboardManager.keyReleased(KeyCode.B, "b");
+            assertTrue(keyboardManager.isKeyDown("b"));
+            recorder.roundStarting();
+            assertFalse(keyboardManager.isKeyDown("b"));
+        }
+        finally {
+            keyboardManager.setRecorder(null);
+            recorder.close();
+        }
+    }
+
+    public void testSeededRandomNumbers()
+    {
+        int[] numbers = new int[20];
+        GreenfootVisitor.setRandomSeed(1234L);
+        for (int i = 0; i < numbers.length; i++) {
+            numbers[i] = Greenfoot.getRandomNumber(1000);
+        }
+        GreenfootVisitor.setRandomSeed(1234L);
+        for (int i = 0; i < numbers.length; i++) {
+            assertEquals(numbers[i], Greenfoot.getRandomNumber(1000));
+        }
+    }
+}
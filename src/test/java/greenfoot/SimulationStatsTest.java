@@ -0,0 +1,79 @@
+/*
+ This file is part of the Greenfoot program.
+ Copyright (C) 2019  Poul Henriksen and Michael Kolling
+
+ This program is free software; you can redistribute it and/or
+ modify it under the terms of the GNU General Public License
+ as published by the Free Software Foundation; either version 2
+ of the License, or (at your option) any later version.
+
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with this program; if not, write to the Free Software
+ Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+
+ This file is subject to the Classpath exception as provided in the
+ LICENSE.txt file that accompanied this code.
+ */
+package greenfoot;
+
+import greenfoot.core.SimulationStats;
+import greenfoot.core.SimulationStats.ClassStats;
+import junit.framework.TestCase;
+
+import java.util.Arrays;
+
+/**
+ * Tests for the simulation statistics gathered while profiling.
+ */
+public class SimulationStatsTest extends TestCase
+{
+    public void testHistogramBuckets()
+    {
+        assertEquals(0, SimulationStats.getHistogramBucket(0));
+        assertEquals(0, SimulationStats.getHistogramBucket(999));
+        assertEquals(1, SimulationStats.getHistogramBucket(1000));
+        assertEquals(1, SimulationStats.getHistogramBucket(1999));
+        assertEquals(2, SimulationStats.getHistogramBucket(2000));
+        assertEquals(10, SimulationStats.getHistogramBucket(1000000));
+        assertEquals(SimulationStats.HISTOGRAM_BUCKETS - 1, SimulationStats.getHistogramBucket(Long.MAX_VALUE));
+    }
+    
+    public void testEncodeDecode()
+    {
+        int[] histogram = new int[SimulationStats.HISTOGRAM_BUCKETS];
+        histogram[3] = 7;
+        histogram[SimulationStats.HISTOGRAM_BUCKETS - 1] = 2;
+        ClassStats actor = new ClassStats("Crème😀", 9, 6000000000L, 3000000000L, histogram);
+        ClassStats world = new ClassStats("MyWorld", 3, 12345, 5000, new int[SimulationStats.HISTOGRAM_BUCKETS]);
+        SimulationStats stats = new SimulationStats(500000000L, 3, Arrays.asList(actor, world),
+                5000000000L, 40, 7000000000L, 300, 2, 1);
+        
+        SimulationStats decoded = SimulationStats.decode(stats.encode());
+        assertEquals(500000000L, decoded.getInterval());
+        assertEquals(3, decoded.getRounds());
+        assertEquals(6.0, decoded.getRoundsPerSecond(), 0.0001);
+        assertEquals(5000000000L, decoded.getCollisionQueries());
+        assertEquals(40, decoded.getMaxRoundCollisionQueries());
+        assertEquals(7000000000L, decoded.getCollisionTime());
+        assertEquals(300, decoded.getRenderTime());
+        assertEquals(2, decoded.getPaints());
+        assertEquals(1, decoded.getPaintSkips());
+        
+        assertEquals(2, decoded.getClassStats().size());
+        ClassStats decodedActor = decoded.getClassStats().get(0);
+        assertEquals("Crème😀", decodedActor.getClassName());
+        assertEquals(9, decodedActor.getActs());
+        assertEquals(6000000000L, decodedActor.getTotalTime());
+        assertEquals(3000000000L, decodedActor.getMaxTime());
+        for (int i = 0; i < SimulationStats.HISTOGRAM_BUCKETS; i++) {
+            assertEquals(histogram[i], decodedActor.getHistogramCount(i));
+        }
+        assertEquals("MyWorld", decoded.getClassStats().get(1).getClassName());
+        assertEquals(12345, decoded.getClassStats().get(1).getTotalTime());
+    }
+}
@@ -0,0 +1,106 @@
+/*
+ This file is part of the Greenfoot program.
+ Copyright (C) 2019  Poul Henriksen and Michael Kolling
+
+ This program is free software; you can redistribute it and/or
+ modify it under the terms of the GNU General Public License
+ as published by the Free Software Foundation; either version 2
+ of the License, or (at your option) any later version.
+
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with this program; if not, write to the Free Software
+ Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+
+ This file is subject to the Classpath exception as provided in the
+ LICENSE.txt file that accompanied this code.
+ */
+package greenfoot;
+
+import greenfoot.util.GreenfootUtil;
+import junit.framework.TestCase;
+
+import java.awt.image.BufferedImage;
+
+/**
+ * Tests for the cache of transformed images.
+ */
+public class SpriteCacheTest extends TestCase
+{
+    @Override
+    protected void setUp()
+        throws Exception
+    {
+        GreenfootUtil.initialise(new TestUtilDelegate());
+    }
+    
+    private static SpriteCache.Sprite sprite(int width, int height)
+    {
+        return new SpriteCache.Sprite(new BufferedImage(width, height, BufferedImage.TYPE_INT_ARGB), 0, 0);
+    }
+    
+    public void testKeyedByIdentity()
+    {
+        SpriteCache cache = new SpriteCache();
+        BufferedImage source1 = new BufferedImage(10, 10, BufferedImage.TYPE_INT_ARGB);
+        BufferedImage source2 = new BufferedImage(10, 10, BufferedImage.TYPE_INT_ARGB);
+        SpriteCache.Sprite sprite = sprite(10, 10);
+        cache.put(source1, SpriteCache.ROTATE, 90, 0, sprite);
+        
+        assertSame(sprite, cache.get(source1, SpriteCache.ROTATE, 90, 0));
+        assertNull(cache.get(source2, SpriteCache.ROTATE, 90, 0));
+        assertNull(cache.get(source1, SpriteCache.ROTATE, 45, 0));
+        assertNull(cache.get(source1, SpriteCache.SCALE, 90, 0));
+    }
+    
+    public void testLeastRecentlyUsedEviction()
+    {
+        SpriteCache cache = new SpriteCache();
+        // Room for two 10x10 sprites:
+        cache.setBudget(2 * 4 * 10 * 10);
+        BufferedImage source = new BufferedImage(10, 10, BufferedImage.TYPE_INT_ARGB);
+        SpriteCache.Sprite a = sprite(10, 10);
+        SpriteCache.Sprite b = sprite(10, 10);
+        SpriteCache.Sprite c = sprite(10, 10);
+        cache.put(source, SpriteCache.ROTATE, 1, 0, a);
+        cache.put(source, SpriteCache.ROTATE, 2, 0, b);
+        // Use a, so that b is the least recently used:
+        assertSame(a, cache.get(source, SpriteCache.ROTATE, 1, 0));
+        cache.put(source, SpriteCache.ROTATE, 3, 0, c);
+        
+        assertSame(a, cache.get(source, SpriteCache.ROTATE, 1, 0));
+        assertNull(cache.get(source, SpriteCache.ROTATE, 2, 0));
+        assertSame(c, cache.get(source, SpriteCache.ROTATE, 3, 0));
+        
+        // A sprite bigger than the budget is not cached, and doesn't evict anything:
+        cache.put(source, SpriteCache.ROTATE, 4, 0, sprite(20, 20));
+        assertNull(cache.get(source, SpriteCache.ROTATE, 4, 0));
+        assertSame(a, cache.get(source, SpriteCache.ROTATE, 1, 0));
+    }
+    
+    public void testRotatedImagesAreIndependent()
+    {
+        GreenfootImage original = new GreenfootImage(20, 10);
+        original.setColor(Color.RED);
+        original.fillRect(0, 0, 10, 10);
+        GreenfootImage shared = original.getCopyOnWriteClone();
+        
+        GreenfootImage image1 = new GreenfootImage(shared);
+        image1.rotate(180);
+        GreenfootImage image2 = new GreenfootImage(shared);
+        image2.rotate(180);
+        assertEquals(Color.RED, image1.getColorAt(15, 5));
+        assertEquals(Color.RED, image2.getColorAt(15, 5));
+        
+        // Modifying one rotated image must not affect the other, or the cached copy:
+        image1.setColorAt(15, 5, Color.BLUE);
+        assertEquals(Color.RED, image2.getColorAt(15, 5));
+        GreenfootImage image3 = new GreenfootImage(shared);
+        image3.rotate(180);
+        assertEquals(Color.RED, image3.getColorAt(15, 5));
+    }
+}
@@ -22,6 +22,7 @@
 package greenfoot;
 
 import java.util.List;
+import java.util.function.Consumer;
 
 /**
  * Test object that can easily be configured to having different sizes.
@@ -75,6 +76,18 @@ public class TestObject extends Actor
         return getObjectsAtOffset(dx, dy, cls);
     }
 
+    @SuppressWarnings("unchecked")
+    public List getObjectsInDirectionP(int angle, int length, Class cls)
+    {
+        return getWorld().getObjectsInDirection(getX(), getY(), angle, length, cls);
+    }
+
+    @SuppressWarnings("unchecked")
+    public void forEachIntersectingP(Class cls, Consumer consumer)
+    {
+        getWorld().forEachIntersecting(this, cls, consumer);
+    }
+
     public Actor getOneIntersectingObjectP(Class<? extends Actor> cls)
     {
        return getOneIntersectingObject(cls);
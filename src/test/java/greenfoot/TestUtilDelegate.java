@@ -69,6 +69,12 @@ public class TestUtilDelegate implements GreenfootUtilDelegate
         return null;
     }
 
+    @Override
+    public Iterable<String> getImageFiles()
+    {
+        return null;
+    }
+
     @Override
     public boolean isStorageSupported()
     {
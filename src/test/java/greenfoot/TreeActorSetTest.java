@@ -0,0 +1,143 @@
+/*
+ This file is part of the Greenfoot program.
+ Copyright (C) 2019  Poul Henriksen and Michael Kolling
+
+ This program is free software; you can redistribute it and/or
+ modify it under the terms of the GNU General Public License
+ as published by the Free Software Foundation; either version 2
+ of the License, or (at your option) any later version.
+
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with this program; if not, write to the Free Software
+ Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+
+ This file is subject to the Classpath exception as provided in the
+ LICENSE.txt file that accompanied this code.
+ */
+package greenfoot;
+
+import greenfoot.core.Simulation;
+import greenfoot.util.GreenfootUtil;
+import junit.framework.TestCase;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+
+/**
+ * Tests for the actor sets, in particular iteration while the set changes.
+ */
+public class TreeActorSetTest extends TestCase
+{
+    private static class SubObject extends TestObject
+    {
+    }
+    
+    @Override
+    protected void setUp()
+        throws Exception
+    {
+        GreenfootUtil.initialise(new TestUtilDelegate());
+        Simulation.initialize();
+    }
+    
+    private static List<Actor> drain(Iterator<Actor> i)
+    {
+        List<Actor> result = new ArrayList<Actor>();
+        while (i.hasNext()) {
+            result.add(i.next());
+        }
+        return result;
+    }
+    
+    public void testStableIteration()
+    {
+        TreeActorSet set = new TreeActorSet();
+        TestObject [] actors = new TestObject[50];
+        for (int i = 0; i < actors.length; i++) {
+            actors[i] = new TestObject();
+            set.add(actors[i]);
+        }
+        
+        List<Actor> seen = new ArrayList<Actor>();
+        List<Actor> added = new ArrayList<Actor>();
+        try (TreeActorSet.StableIterator i = set.stableIterator()) {
+            while (i.hasNext()) {
+                Actor actor = i.next();
+                seen.add(actor);
+                // Remove the next actor, and add a new one
+                int index = Arrays.asList(actors).indexOf(actor) + 1;
+                if (index < actors.length) {
+                    set.remove(actors[index]);
+                }
+                TestObject newActor = new TestObject();
+                set.add(newActor);
+                added.add(newActor);
+            }
+        }
+        
+        // Only the even-numbered original actors, in order:
+        assertEquals(actors.length / 2, seen.size());
+        for (int i = 0; i < seen.size(); i++) {
+            assertSame(actors[i * 2], seen.get(i));
+        }
+        
+        // The set has been compacted, and iterates normally:
+        List<Actor> all = drain(set.iterator());
+        assertEquals(seen.size() + added.size(), all.size());
+        assertEquals(seen, all.subList(0, seen.size()));
+        assertEquals(added, all.subList(seen.size(), all.size()));
+    }
+    
+    public void testClassOrderChangedDuringIteration()
+    {
+        TreeActorSet set = new TreeActorSet();
+        List<Actor> actors = new ArrayList<Actor>();
+        for (int i = 0; i < 20; i++) {
+            Actor actor = (i % 2 == 0) ? new TestObject() : new SubObject();
+            set.add(actor);
+            actors.add(actor);
+        }
+        
+        List<Actor> seen = new ArrayList<Actor>();
+        try (TreeActorSet.StableIterator i = set.stableIterator()) {
+            for (int n = 0; n < 5; n++) {
+                seen.add(i.next());
+            }
+            set.setClassOrder(false, SubObject.class);
+            seen.addAll(drain(i));
+        }
+        
+        // Every actor returned exactly once; the remainder in the new order
+        assertEquals(actors.size(), seen.size());
+        assertTrue(seen.containsAll(actors));
+        assertEquals(actors.subList(0, 5), seen.subList(0, 5));
+        for (int n = 5; n < seen.size(); n++) {
+            boolean sub = seen.get(n) instanceof SubObject;
+            assertEquals(n < 5 + 8, sub);
+        }
+    }
+    
+    public void testClassOrderWithSubclassSets()
+    {
+        TreeActorSet set = new TreeActorSet();
+        Actor a = new TestObject();
+        Actor b = new SubObject();
+        set.add(a);
+        set.add(b);
+        
+        set.setClassOrder(false, SubObject.class);
+        set.setClassOrder(false, TestObject.class);
+        set.setClassOrder(false, SubObject.class);
+        assertTrue(set.contains(a));
+        assertTrue(set.contains(b));
+        assertTrue(set.remove(b));
+        assertEquals(1, set.size());
+    }
+}
@@ -25,8 +25,19 @@ import greenfoot.core.WorldHandler;
 
 public class WorldCreator
 {
+    private static boolean spatialHash = false;
+    
+    /**
+     * Set whether worlds created subsequently use the spatial hash collision
+     * checker rather than the default one.
+     */
+    public static void setSpatialHash(boolean useSpatialHash)
+    {
+        spatialHash = useSpatialHash;
+    }
+    
     public static World createWorld(int width, int height, int cellSize) {
-        World world = new World(width, height, cellSize) {};
+        World world = new World(width, height, cellSize, true, spatialHash) {};
         WorldHandler.initialise();
         WorldHandler.getInstance().setWorld(world, false);
         return world;
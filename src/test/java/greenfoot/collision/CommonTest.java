@@ -112,4 +112,59 @@ public class CommonTest extends TestCase
         assertNotSame(obj1, o);
     }
     
+    /**
+     * Test that objects added in bulk (many objects added between queries) are
+     * all found by the collision checker, both before and after their class
+     * takes part in collision checking.
+     */
+    @SuppressWarnings("unchecked")
+    public void testManyObjects()
+    {
+        world = WorldCreator.createWorld(100, 100, 1);
+        TestObject [][] grid = new TestObject[10][10];
+        for (int x = 0; x < 10; x++) {
+            for (int y = 0; y < 10; y++) {
+                grid[x][y] = new TestObject(5, 5);
+                world.addObject(grid[x][y], x * 10, y * 10);
+            }
+        }
+        
+        for (int x = 0; x < 10; x++) {
+            for (int y = 0; y < 10; y++) {
+                List l = world.getObjectsAt(x * 10, y * 10, TestObject.class);
+                assertEquals(1, l.size());
+                assertSame(grid[x][y], l.get(0));
+            }
+        }
+        
+        // Add a second batch now that the class is part of the collision checking,
+        // overlapping the first batch:
+        TestObject [][] grid2 = new TestObject[10][10];
+        for (int x = 0; x < 10; x++) {
+            for (int y = 0; y < 10; y++) {
+                grid2[x][y] = new TestObject(5, 5);
+                world.addObject(grid2[x][y], x * 10 + 1, y * 10 + 1);
+            }
+        }
+        
+        // Move and remove some before any query:
+        grid2[0][0].setLocation(50, 55);
+        world.removeObject(grid2[1][1]);
+        
+        for (int x = 0; x < 10; x++) {
+            for (int y = 0; y < 10; y++) {
+                List l = grid[x][y].getIntersectingObjectsP(TestObject.class);
+                if ((x == 0 && y == 0) || (x == 1 && y == 1)) {
+                    assertTrue(l.isEmpty());
+                }
+                else {
+                    assertEquals(1, l.size());
+                    assertSame(grid2[x][y], l.get(0));
+                }
+            }
+        }
+        
+        assertTrue(world.getObjectsAt(50, 55, TestObject.class).contains(grid2[0][0]));
+        assertEquals(199, world.getObjects(TestObject.class).size());
+    }
 }
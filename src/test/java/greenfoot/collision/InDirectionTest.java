@@ -0,0 +1,110 @@
+/*
+ This file is part of the Greenfoot program. 
+ Copyright (C) 2019  Poul Henriksen and Michael Kolling 
+ 
+ This program is free software; you can redistribute it and/or 
+ modify it under the terms of the GNU General Public License 
+ as published by the Free Software Foundation; either version 2 
+ of the License, or (at your option) any later version. 
+ 
+ This program is distributed in the hope that it will be useful, 
+ but WITHOUT ANY WARRANTY; without even the implied warranty of 
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the 
+ GNU General Public License for more details. 
+ 
+ You should have received a copy of the GNU General Public License 
+ along with this program; if not, write to the Free Software 
+ Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA. 
+ 
+ This file is subject to the Classpath exception as provided in the  
+ LICENSE.txt file that accompanied this code.
+ */
+package greenfoot.collision;
+
+import greenfoot.TestObject;
+import greenfoot.TestUtilDelegate;
+import greenfoot.World;
+import greenfoot.WorldCreator;
+import greenfoot.core.Simulation;
+import greenfoot.util.GreenfootUtil;
+import junit.framework.TestCase;
+
+import java.util.Collection;
+
+/**
+ * Tests the World's getObjectsInDirection method.
+ */
+public class InDirectionTest extends TestCase
+{
+    private World world;
+    
+    @Override
+    protected void setUp()
+        throws Exception
+    {
+        GreenfootUtil.initialise(new TestUtilDelegate());
+        Simulation.initialize();
+    }
+
+    @SuppressWarnings("unchecked")
+    public void testAxisAligned()
+    {
+        world = WorldCreator.createWorld(10, 10, 10);
+        
+        TestObject me = new TestObject();
+        world.addObject(me, 0, 0);
+        TestObject east1 = new TestObject();
+        world.addObject(east1, 3, 0);
+        TestObject east2 = new TestObject();
+        world.addObject(east2, 5, 0);
+        TestObject south = new TestObject();
+        world.addObject(south, 0, 3);
+        
+        Collection c = me.getObjectsInDirectionP(0, 5, TestObject.class);
+        assertTrue(c.contains(me));
+        assertTrue(c.contains(east1));
+        assertTrue(c.contains(east2));
+        assertFalse(c.contains(south));
+        assertEquals(3, c.size());
+        
+        // Too short to reach anything but ourselves:
+        c = me.getObjectsInDirectionP(0, 2, TestObject.class);
+        assertEquals(1, c.size());
+        
+        // Angles are clockwise, so 90 degrees is down:
+        c = me.getObjectsInDirectionP(90, 9, TestObject.class);
+        assertTrue(c.contains(south));
+        assertFalse(c.contains(east1));
+        assertEquals(2, c.size());
+        
+        // Nothing to the west:
+        c = me.getObjectsInDirectionP(180, 9, null);
+        assertEquals(1, c.size());
+    }
+    
+    @SuppressWarnings("unchecked")
+    public void testDiagonal()
+    {
+        world = WorldCreator.createWorld(10, 10, 10);
+        
+        TestObject me = new TestObject();
+        world.addObject(me, 2, 2);
+        TestObject diag = new TestObject();
+        world.addObject(diag, 5, 5);
+        TestObject offLine = new TestObject();
+        world.addObject(offLine, 5, 4);
+        
+        Collection c = me.getObjectsInDirectionP(45, 5, TestObject.class);
+        assertTrue(c.contains(diag));
+        assertFalse(c.contains(offLine));
+        
+        // A moving actor is found at its new location:
+        offLine.setLocation(4, 4);
+        c = me.getObjectsInDirectionP(45, 5, TestObject.class);
+        assertTrue(c.contains(offLine));
+        
+        c = me.getObjectsInDirectionP(225, 5, TestObject.class);
+        assertFalse(c.contains(diag));
+        assertFalse(c.contains(offLine));
+    }
+}
@@ -21,6 +21,7 @@
  */
 package greenfoot.collision;
 
+import greenfoot.Actor;
 import greenfoot.TestObject;
 import greenfoot.TestUtilDelegate;
 import greenfoot.World;
@@ -30,7 +31,9 @@ import greenfoot.core.WorldHandler;
 import greenfoot.util.GreenfootUtil;
 import junit.framework.TestCase;
 
+import java.util.ArrayList;
 import java.util.Collection;
+import java.util.List;
 
 /**
  * Test for collisions between Actors
@@ -71,6 +74,31 @@ public class IntersectionTest extends TestCase
         assertFalse(o2.intersectsP(o1));
     }
     
+    public void testForEachIntersecting()
+    {
+        world = WorldCreator.createWorld(10, 10, 10);
+        TestObject o1 = new TestObject(30, 30);
+        world.addObject(o1, 2, 2);
+        TestObject o2 = new TestObject(10, 10);
+        world.addObject(o2, 1, 1);
+        TestObject o3 = new TestObject(10, 10);
+        world.addObject(o3, 3, 3);
+        TestObject o4 = new TestObject(10, 10);
+        world.addObject(o4, 6, 6);
+        
+        List<Actor> found = new ArrayList<Actor>();
+        o1.forEachIntersectingP(TestObject.class, a -> found.add((Actor) a));
+        assertEquals(2, found.size());
+        assertTrue(found.contains(o2));
+        assertTrue(found.contains(o3));
+        
+        // The consumer may modify the world while the results are delivered:
+        o1.forEachIntersectingP(null, a -> world.removeObject((Actor) a));
+        assertEquals(2, world.getObjects(null).size());
+        assertTrue(o1.getIntersectingObjectsP(null).isEmpty());
+        assertFalse(o1.isTouchingP(TestObject.class));
+    }
+    
     @SuppressWarnings("unchecked")
     public void testIntersectingPixelLevelOdd()
     {
@@ -0,0 +1,47 @@
+/*
+ This file is part of the Greenfoot program. 
+ Copyright (C) 2019  Poul Henriksen and Michael Kolling 
+ 
+ This program is free software; you can redistribute it and/or 
+ modify it under the terms of the GNU General Public License 
+ as published by the Free Software Foundation; either version 2 
+ of the License, or (at your option) any later version. 
+ 
+ This program is distributed in the hope that it will be useful, 
+ but WITHOUT ANY WARRANTY; without even the implied warranty of 
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the 
+ GNU General Public License for more details. 
+ 
+ You should have received a copy of the GNU General Public License 
+ along with this program; if not, write to the Free Software 
+ Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA. 
+ 
+ This file is subject to the Classpath exception as provided in the  
+ LICENSE.txt file that accompanied this code.
+ */
+package greenfoot.collision;
+
+import greenfoot.WorldCreator;
+
+/**
+ * Runs the {@link GetAtTest} tests against worlds using the spatial hash
+ * collision checker.
+ */
+public class SpatialHashGetAtTest extends GetAtTest
+{
+    @Override
+    protected void setUp()
+        throws Exception
+    {
+        WorldCreator.setSpatialHash(true);
+        super.setUp();
+    }
+
+    @Override
+    protected void tearDown()
+        throws Exception
+    {
+        WorldCreator.setSpatialHash(false);
+        super.tearDown();
+    }
+}
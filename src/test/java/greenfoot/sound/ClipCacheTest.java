@@ -0,0 +1,141 @@
+/*
+ This file is part of the Greenfoot program.
+ Copyright (C) 2019  Poul Henriksen and Michael Kolling
+
+ This program is free software; you can redistribute it and/or
+ modify it under the terms of the GNU General Public License
+ as published by the Free Software Foundation; either version 2
+ of the License, or (at your option) any later version.
+
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with this program; if not, write to the Free Software
+ Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+
+ This file is subject to the Classpath exception as provided in the
+ LICENSE.txt file that accompanied this code.
+ */
+package greenfoot.sound;
+
+import junit.framework.TestCase;
+
+import javax.sound.sampled.AudioFileFormat;
+import javax.sound.sampled.AudioFormat;
+import javax.sound.sampled.AudioInputStream;
+import javax.sound.sampled.AudioSystem;
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.net.URL;
+import java.nio.file.Files;
+
+/**
+ * Tests for the cache of sound clip data.
+ */
+public class ClipCacheTest extends TestCase
+{
+    /** The size of the sample data of each test clip, in bytes */
+    private static final int CLIP_BYTES = 1000;
+
+    private File dir;
+    private URL clip1;
+    private URL clip2;
+
+    @Override
+    protected void setUp() throws Exception
+    {
+        dir = Files.createTempDirectory("clipcache").toFile();
+        clip1 = writeClip("clip1.wav");
+        clip2 = writeClip("clip2.wav");
+    }
+
+    @Override
+    protected void tearDown()
+    {
+        for (File file : dir.listFiles()) {
+            file.delete();
+        }
+        dir.delete();
+    }
+
+    /**
+     * Write a wav file of CLIP_BYTES bytes of silence (8-bit mono).
+     */
+    private URL writeClip(String name) throws Exception
+    {
+        AudioFormat format = new AudioFormat(8000, 8, 1, true, false);
+        AudioInputStream ais = new AudioInputStream(new ByteArrayInputStream(new byte[CLIP_BYTES]),
+                format, CLIP_BYTES);
+        File file = new File(dir, name);
+        AudioSystem.write(ais, AudioFileFormat.Type.WAVE, file);
+        return file.toURI().toURL();
+    }
+
+    public void testReuse() throws Exception
+    {
+        ClipCache cache = new ClipCache();
+        ClipData data = cache.getCachedClip(clip1);
+        assertEquals(CLIP_BYTES, data.getSize());
+        cache.releaseClipData(data);
+
+        // A free clip is taken back rather than loaded again:
+        assertSame(data, cache.getCachedClip(clip1));
+        cache.releaseClipData(data);
+        assertSame(data, cache.getCachedClip(clip1));
+        cache.releaseClipData(data);
+        assertEquals(1, cache.getMisses());
+        assertEquals(2, cache.getHits());
+        assertEquals(CLIP_BYTES, cache.getCachedBytes());
+
+        // Once released, a reused clip can be evicted:
+        cache.setBudget(0);
+        assertEquals(0, cache.getCachedBytes());
+        assertEquals(1, cache.getEvictions());
+    }
+
+    public void testBudgetEviction() throws Exception
+    {
+        ClipCache cache = new ClipCache();
+        cache.setBudget(CLIP_BYTES);
+        ClipData data1 = cache.getCachedClip(clip1);
+        ClipData data2 = cache.getCachedClip(clip2);
+        // Clips in use are kept, even over the budget:
+        assertEquals(2 * CLIP_BYTES, cache.getCachedBytes());
+        assertEquals(0, cache.getEvictions());
+
+        cache.releaseClipData(data1);
+        assertEquals(CLIP_BYTES, cache.getCachedBytes());
+        assertEquals(1, cache.getEvictions());
+        assertNotSame(data1, cache.getCachedClip(clip1));
+
+        // The loaded clip is in use, so clip2 is not evicted until released:
+        assertSame(data2, cache.getCachedClip(clip2));
+        cache.releaseClipData(data2);
+        cache.releaseClipData(data2);
+        assertEquals(CLIP_BYTES, cache.getCachedBytes());
+        assertEquals(2, cache.getEvictions());
+    }
+
+    public void testTwoUsers() throws Exception
+    {
+        ClipCache cache = new ClipCache();
+        ClipData data = cache.getCachedClip(clip1);
+        cache.releaseClipData(data);
+        ClipData first = cache.getCachedClip(clip1);
+        ClipData second = cache.getCachedClip(clip1);
+        assertSame(first, second);
+
+        // Still in use by the second user, so cannot be evicted:
+        cache.releaseClipData(first);
+        cache.setBudget(0);
+        assertEquals(CLIP_BYTES, cache.getCachedBytes());
+        assertSame(data, cache.getCachedClip(clip1));
+        cache.releaseClipData(data);
+
+        cache.releaseClipData(second);
+        assertEquals(0, cache.getCachedBytes());
+    }
+}